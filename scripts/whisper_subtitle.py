@@ -3,6 +3,7 @@ import whisper
 import json
 import os
 import io
+import re
 
 class StdoutToStderr(io.StringIO):
     def write(self, text):
@@ -11,7 +12,97 @@ class StdoutToStderr(io.StringIO):
     def flush(self):
         sys.stderr.flush()
 
-def generate_subtitles(audio_path):
+# Whisper's verbose output: "[00:12.340 --> 00:15.020]  Some text" (hours only past one hour)
+SEGMENT_LINE = re.compile(r"^\[((?:\d+:)?\d+:\d+\.\d+) --> ((?:\d+:)?\d+:\d+\.\d+)\]\s*(.*)$")
+
+def parse_timestamp(value):
+    seconds = 0.0
+    for part in value.split(":"):
+        seconds = seconds * 60 + float(part)
+    return seconds
+
+class SegmentTap(io.StringIO):
+    """Stdout replacement for verbose transcription: reports each segment as Whisper decodes it,
+    passes every other line through to stderr."""
+    def __init__(self, on_segment):
+        super().__init__()
+        self.on_segment = on_segment
+        self.pending = ""
+
+    def write(self, text):
+        self.pending += text
+        while "\n" in self.pending:
+            line, self.pending = self.pending.split("\n", 1)
+            match = SEGMENT_LINE.match(line.strip())
+            if match:
+                self.on_segment({
+                    "start": parse_timestamp(match.group(1)),
+                    "end": parse_timestamp(match.group(2)),
+                    "text": match.group(3).strip()
+                })
+            else:
+                sys.stderr.write(line + "\n")
+        return len(text)
+
+    def flush(self):
+        sys.stderr.flush()
+
+def segments_to_subtitles(segments):
+    """Split Whisper segments into subtitles of 2–3 words with interpolated timings."""
+    subtitles = []
+    for segment in segments:
+        text = segment["text"].strip()
+        if not text or segment["end"] <= segment["start"]:
+            continue
+
+        # Split text into words
+        words = text.split()
+        if not words:
+            continue
+
+        # Calculate total duration of the segment
+        start_time = max(0.0, segment["start"])
+        end_time = segment["end"]
+        duration = end_time - start_time
+
+        # Create chunks of 2–3 words
+        chunk_size = 3  # Prefer 3 words, fallback to 2 if necessary
+        i = 0
+        while i < len(words):
+            # Determine number of words for this chunk (2 or 3)
+            remaining_words = len(words) - i
+            current_chunk_size = min(chunk_size, remaining_words)
+            if current_chunk_size == 1 and i > 0:
+                # If only one word remains, append it to the previous chunk if possible
+                if subtitles and subtitles[-1]["end"] == start_time + (duration * i / len(words)):
+                    subtitles[-1]["text"] += " " + words[i]
+                    i += 1
+                    continue
+            elif current_chunk_size == 2 and remaining_words == 2:
+                current_chunk_size = 2  # Allow 2 words for the last chunk
+
+            # Create chunk
+            chunk_text = " ".join(words[i:i + current_chunk_size])
+            if not chunk_text.strip():
+                i += current_chunk_size
+                continue
+
+            # Calculate timing for this chunk
+            chunk_start = start_time + (duration * i / len(words))
+            chunk_end = start_time + (duration * (i + current_chunk_size) / len(words))
+            if chunk_end <= chunk_start:
+                i += current_chunk_size
+                continue
+
+            subtitles.append({
+                "start": chunk_start,
+                "end": chunk_end,
+                "text": chunk_text
+            })
+            i += current_chunk_size
+    return subtitles
+
+def generate_subtitles(audio_path, on_subtitles=None):
     try:
         print(f"Loading Whisper model, audio path: {audio_path}", file=sys.stderr)
         if not os.path.exists(audio_path):
@@ -22,66 +113,18 @@ def generate_subtitles(audio_path):
 
         # Redirect stdout to stderr during transcription
         original_stdout = sys.stdout
-        sys.stdout = StdoutToStderr()
+        if on_subtitles:
+            sys.stdout = SegmentTap(lambda segment: on_subtitles(segments_to_subtitles([segment])))
+        else:
+            sys.stdout = StdoutToStderr()
         try:
-            result = model.transcribe(audio_path, word_timestamps=False, verbose=False)
+            result = model.transcribe(audio_path, word_timestamps=False, verbose=bool(on_subtitles))
         finally:
             sys.stdout = original_stdout  # Restore stdout
 
         print("Transcription complete", file=sys.stderr)
 
-        # Process segments to create subtitles with 2–3 words per chunk
-        subtitles = []
-        for segment in result["segments"]:
-            text = segment["text"].strip()
-            if not text or segment["end"] <= segment["start"]:
-                continue
-
-            # Split text into words
-            words = text.split()
-            if not words:
-                continue
-
-            # Calculate total duration of the segment
-            start_time = max(0.0, segment["start"])
-            end_time = segment["end"]
-            duration = end_time - start_time
-
-            # Create chunks of 2–3 words
-            chunk_size = 3  # Prefer 3 words, fallback to 2 if necessary
-            i = 0
-            while i < len(words):
-                # Determine number of words for this chunk (2 or 3)
-                remaining_words = len(words) - i
-                current_chunk_size = min(chunk_size, remaining_words)
-                if current_chunk_size == 1 and i > 0:
-                    # If only one word remains, append it to the previous chunk if possible
-                    if subtitles and subtitles[-1]["end"] == start_time + (duration * i / len(words)):
-                        subtitles[-1]["text"] += " " + words[i]
-                        i += 1
-                        continue
-                elif current_chunk_size == 2 and remaining_words == 2:
-                    current_chunk_size = 2  # Allow 2 words for the last chunk
-
-                # Create chunk
-                chunk_text = " ".join(words[i:i + current_chunk_size])
-                if not chunk_text.strip():
-                    i += current_chunk_size
-                    continue
-
-                # Calculate timing for this chunk
-                chunk_start = start_time + (duration * i / len(words))
-                chunk_end = start_time + (duration * (i + current_chunk_size) / len(words))
-                if chunk_end <= chunk_start:
-                    i += current_chunk_size
-                    continue
-
-                subtitles.append({
-                    "start": chunk_start,
-                    "end": chunk_end,
-                    "text": chunk_text
-                })
-                i += current_chunk_size
+        subtitles = segments_to_subtitles(result["segments"])
 
         print(f"Generated {len(subtitles)} subtitles", file=sys.stderr)
         for i, subtitle in enumerate(subtitles):
@@ -91,11 +134,22 @@ def generate_subtitles(audio_path):
         print(f"Error during transcription: {str(e)}", file=sys.stderr)
         sys.exit(1)
 
+def print_ndjson(subtitles):
+    # Called while sys.stdout is the segment tap; write to the real stdout
+    for subtitle in subtitles:
+        print(json.dumps(subtitle), file=sys.__stdout__, flush=True)
+
 if __name__ == "__main__":
-    if len(sys.argv) != 2:
-        print("Usage: python whisper_subtitle.py <audio_path>", file=sys.stderr)
+    # --ndjson: print each subtitle as its own JSON line as soon as it is transcribed
+    args = [arg for arg in sys.argv[1:] if arg != "--ndjson"]
+    ndjson = len(args) != len(sys.argv) - 1
+    if len(args) != 1:
+        print("Usage: python whisper_subtitle.py <audio_path> [--ndjson]", file=sys.stderr)
         sys.exit(1)
 
-    audio_path = sys.argv[1]
-    subtitles = generate_subtitles(audio_path)
-    print(json.dumps(subtitles))
\ No newline at end of file
+    audio_path = args[0]
+    if ndjson:
+        generate_subtitles(audio_path, print_ndjson)
+    else:
+        subtitles = generate_subtitles(audio_path)
+        print(json.dumps(subtitles))
\ No newline at end of file
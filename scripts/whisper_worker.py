@@ -0,0 +1,101 @@
+"""
+Long-lived Whisper transcription worker.
+
+Loads the model once and serves requests as JSON lines on stdin/stdout:
+
+  request:  {"id": "7", "op": "transcribe", "audio": "/path/audio.wav", "mode": "subtitles" | "segments",
+             "stream": true}
+            {"id": "8", "op": "ping"}
+  events:   {"id": "7", "event": "started"}                     (when the request is taken up)
+            {"id": "7", "event": "segments", "result": [...]}   (stream only, as segments are decoded)
+  response: {"id": "7", "ok": true, "result": [...]}
+            {"id": "7", "ok": false, "error": "..."}
+
+"subtitles" returns 2-3 word chunks (as whisper_subtitle.py), "segments" returns raw Whisper
+segments (as whisper_transcribe.py). Requests are handled one at a time in arrival order.
+A {"event": "ready"} line is written once the model is loaded. All logging goes to stderr.
+Streamed segments carry timestamps rounded to the millisecond; the final result is authoritative.
+"""
+import argparse
+import json
+import os
+import sys
+import warnings
+
+import whisper
+
+from whisper_subtitle import SegmentTap, segments_to_subtitles
+
+warnings.filterwarnings("ignore")
+
+# Whisper prints progress to stdout; keep the protocol channel clean
+protocol_out = sys.stdout
+sys.stdout = sys.stderr
+
+
+def respond(message):
+    protocol_out.write(json.dumps(message) + "\n")
+    protocol_out.flush()
+
+
+def transcribe(model, request):
+    audio_path = request.get("audio")
+    if not audio_path or not os.path.exists(audio_path):
+        raise ValueError(f"Audio file does not exist: {audio_path}")
+
+    mode = request.get("mode", "subtitles")
+    if request.get("stream"):
+        def emit(segment):
+            partial = [segment] if mode == "segments" else segments_to_subtitles([segment])
+            if partial:
+                respond({"id": request.get("id"), "event": "segments", "result": partial})
+
+        stderr_out = sys.stdout
+        sys.stdout = SegmentTap(emit)
+        try:
+            result = model.transcribe(audio_path, word_timestamps=False, verbose=True)
+        finally:
+            sys.stdout = stderr_out
+    else:
+        result = model.transcribe(audio_path, word_timestamps=False, verbose=False)
+    segments = [
+        {"start": segment["start"], "end": segment["end"], "text": segment["text"].strip()}
+        for segment in result["segments"]
+    ]
+    if mode == "segments":
+        return segments
+    return segments_to_subtitles(segments)
+
+
+def main():
+    parser = argparse.ArgumentParser()
+    parser.add_argument("--model", default="base", help="Whisper model name")
+    args = parser.parse_args()
+
+    print(f"Loading Whisper model '{args.model}'", file=sys.stderr)
+    model = whisper.load_model(args.model)
+    respond({"id": None, "event": "ready", "model": args.model, "pid": os.getpid()})
+
+    for line in sys.stdin:
+        line = line.strip()
+        if not line:
+            continue
+        request_id = None
+        try:
+            request = json.loads(line)
+            request_id = request.get("id")
+            op = request.get("op", "transcribe")
+            if op == "ping":
+                respond({"id": request_id, "ok": True, "result": "pong"})
+            elif op == "transcribe":
+                respond({"id": request_id, "event": "started"})
+                respond({"id": request_id, "ok": True, "result": transcribe(model, request)})
+            else:
+                respond({"id": request_id, "ok": False, "error": f"Unknown op: {op}"})
+        except Exception as e:
+            print(f"Request {request_id} failed: {e}", file=sys.stderr)
+            respond({"id": request_id, "ok": False, "error": str(e)})
+
+
+if __name__ == "__main__":
+    main()
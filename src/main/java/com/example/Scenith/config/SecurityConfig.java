@@ -43,7 +43,7 @@ public class SecurityConfig implements WebMvcConfigurer {
         config.setAllowedMethods(List.of("GET", "POST", "PUT", "DELETE", "OPTIONS", "PATCH"));
         config.setAllowedHeaders(List.of("*"));
         config.setAllowedHeaders(List.of("Authorization", "Content-Type"));
-        config.setExposedHeaders(List.of("Authorization"));
+        config.setExposedHeaders(List.of("Authorization", "X-Waveform-Sample-Rate", "X-Waveform-Start"));
         config.setAllowCredentials(true);
         source.registerCorsConfiguration("/**", config);
         return source;
@@ -58,7 +58,7 @@ public class SecurityConfig implements WebMvcConfigurer {
                     config.setAllowedOrigins(List.of("http://localhost:3000", "https://scenith.in"));
                     config.setAllowedMethods(List.of("GET", "POST", "PUT", "DELETE", "OPTIONS", "PATCH"));
                     config.setAllowedHeaders(List.of("Authorization", "Content-Type"));
-                    config.setExposedHeaders(List.of("Authorization"));
+                    config.setExposedHeaders(List.of("Authorization", "X-Waveform-Sample-Rate", "X-Waveform-Start"));
                     config.setAllowCredentials(true);
                     return config;
                 }))
@@ -1,10 +1,16 @@
 package com.example.Scenith.controller;
 
+import com.example.Scenith.dto.AspectRatioTransformRequest;
 import com.example.Scenith.entity.AspectRatioMedia;
 import com.example.Scenith.entity.User;
+import com.example.Scenith.exception.PreviewBusyException;
+import com.example.Scenith.exception.PreviewNotReadyException;
+import com.example.Scenith.exception.TransformVersionConflictException;
 import com.example.Scenith.service.AspectRatioService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
@@ -103,6 +109,25 @@ public class AspectRatioController {
         }
     }
 
+    /**
+     * Combined position/scale/output size edit; send baseVersion (the last version received)
+     * to get a 409 with the current transform when another edit got in first.
+     */
+    @PatchMapping("/transform/{mediaId}")
+    public ResponseEntity<?> updateTransform(
+            @RequestHeader("Authorization") String token,
+            @PathVariable Long mediaId,
+            @RequestBody AspectRatioTransformRequest request) {
+        try {
+            User user = aspectRatioService.getUserFromToken(token);
+            return ResponseEntity.ok(aspectRatioService.updateTransform(user, mediaId, request));
+        } catch (TransformVersionConflictException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("message", e.getMessage(), "current", e.getCurrent()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Map.of("message", e.getMessage()));
+        }
+    }
+
     @PutMapping("/update-output-width/{mediaId}")
     public ResponseEntity<?> updateOutputWidth(
             @RequestHeader("Authorization") String token,
@@ -172,6 +197,38 @@ public class AspectRatioController {
         }
     }
 
+    @GetMapping("/preview/{mediaId}")
+    public ResponseEntity<?> previewFrame(
+            @RequestHeader("Authorization") String token,
+            @PathVariable Long mediaId,
+            @RequestParam(required = false) Integer positionX,
+            @RequestParam(required = false) Integer positionY,
+            @RequestParam(required = false) Double scale,
+            @RequestParam(required = false) Double time,
+            @RequestParam(defaultValue = "false") boolean clip) {
+        try {
+            User user = aspectRatioService.getUserFromToken(token);
+            byte[] preview = aspectRatioService.renderPreview(user, mediaId, positionX, positionY, scale, time, clip);
+            return ResponseEntity.ok()
+                    .contentType(clip ? MediaType.parseMediaType("video/mp4") : MediaType.IMAGE_JPEG)
+                    .cacheControl(CacheControl.noStore())
+                    .body(preview);
+        } catch (PreviewNotReadyException e) {
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(Map.of("message", e.getMessage()));
+        } catch (PreviewBusyException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).body(Map.of("message", e.getMessage()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Map.of("message", e.getMessage()));
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of("message", "Preview failed: " + e.getMessage()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of("message", "Preview interrupted"));
+        } catch (RuntimeException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("message", e.getMessage()));
+        }
+    }
+
     @GetMapping("/user-media")
     public ResponseEntity<?> getUserAspectRatioMedia(@RequestHeader("Authorization") String token) {
         try {
@@ -0,0 +1,94 @@
+package com.example.Scenith.controller;
+
+import com.example.Scenith.entity.User;
+import com.example.Scenith.repository.UserRepository;
+import com.example.Scenith.security.JwtUtil;
+import com.example.Scenith.service.JobProgressService;
+import com.example.Scenith.sqs.TaskCancellationService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Push-based job progress and cancellation for all async job types:
+ *
+ * GET  /api/jobs/{jobType}/{jobId}/progress  (text/event-stream)
+ * POST /api/jobs/{jobType}/{jobId}/cancel
+ *
+ * jobType is one of export, subtitle, speed, aspect-ratio, podcast-clip, video-filter.
+ * The progress stream emits "progress" events {jobType, jobId, status, progress} and completes
+ * at a terminal status (including CANCELLED), on whichever node the client is connected to.
+ */
+@RestController
+@RequestMapping("/api/jobs")
+@RequiredArgsConstructor
+public class JobProgressController {
+
+    private final JobProgressService jobProgressService;
+    private final JwtUtil jwtUtil;
+    private final UserRepository userRepository;
+    private final TaskCancellationService taskCancellationService;
+
+    // Statuses in which a job is queued or running and can still be cancelled
+    private static final Set<String> CANCELLABLE_STATUSES = Set.of("PENDING", "QUEUED", "PROCESSING");
+
+    private User getUserFromToken(String token) {
+        String email = jwtUtil.extractEmail(token.substring(7));
+        return userRepository.findByEmail(email)
+                .orElseThrow(() -> new RuntimeException("User not found"));
+    }
+
+    @GetMapping(value = "/{jobType}/{jobId}/progress", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter subscribe(
+            @RequestHeader("Authorization") String token,
+            @PathVariable String jobType,
+            @PathVariable Long jobId) {
+        User user = getUserFromToken(token);
+        JobProgressService.JobState state = loadJob(jobType, jobId)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Job not found: " + jobType + "/" + jobId));
+        if (!state.ownerId().equals(user.getId())) {
+            throw new ResponseStatusException(HttpStatus.FORBIDDEN, "Unauthorized to access this job");
+        }
+        return jobProgressService.subscribe(jobType, jobId, state.status(), state.progress());
+    }
+
+    @PostMapping("/{jobType}/{jobId}/cancel")
+    public ResponseEntity<?> cancel(
+            @RequestHeader("Authorization") String token,
+            @PathVariable String jobType,
+            @PathVariable Long jobId) {
+        User user = getUserFromToken(token);
+        JobProgressService.JobState state = loadJob(jobType, jobId)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Job not found: " + jobType + "/" + jobId));
+        if (!state.ownerId().equals(user.getId())) {
+            throw new ResponseStatusException(HttpStatus.FORBIDDEN, "Unauthorized to cancel this job");
+        }
+        if (state.status() == null || !CANCELLABLE_STATUSES.contains(state.status())) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(Map.of("message", "Job is not running (status: " + state.status() + ")"));
+        }
+
+        boolean stoppedHere = taskCancellationService.cancel(jobType, jobId, user.getId());
+        return ResponseEntity.ok(Map.of(
+                "jobType", jobType,
+                "jobId", jobId,
+                "status", TaskCancellationService.STATUS_CANCELLED,
+                "stoppedImmediately", stoppedHere));
+    }
+
+    private Optional<JobProgressService.JobState> loadJob(String jobType, Long jobId) {
+        try {
+            return jobProgressService.load(jobType, jobId);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+}
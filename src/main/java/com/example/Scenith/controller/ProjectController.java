@@ -4,13 +4,20 @@ package com.example.Scenith.controller;
 import com.example.Scenith.dto.*;
 import com.example.Scenith.entity.Project;
 import com.example.Scenith.entity.User;
+import com.example.Scenith.exception.FilmstripNotReadyException;
 import com.example.Scenith.exception.SessionNotFoundException;
 import com.example.Scenith.repository.ExportLinkRepository;
 import com.example.Scenith.repository.ProjectRepository;
 import com.example.Scenith.repository.UserRepository;
 import com.example.Scenith.security.JwtUtil;
+import com.example.Scenith.service.CdnWarmupService;
 import com.example.Scenith.service.CloudflareR2Service;
+import com.example.Scenith.service.FilmstripService;
+import com.example.Scenith.service.JobProgressService;
+import com.example.Scenith.service.ProxyMediaService;
 import com.example.Scenith.service.VideoEditingService;
+import com.example.Scenith.service.WaveformService;
+import com.example.Scenith.sqs.TaskCancellationService;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.servlet.http.HttpServletRequest;
@@ -29,6 +36,7 @@ import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.io.File;
 import java.io.IOException;
@@ -48,6 +56,12 @@ public class ProjectController {
     private final CloudflareR2Service cloudflareR2Service; // Updated field
     private final ExportLinkRepository exportLinkRepository;
     private final ObjectMapper objectMapper;
+    private final CdnWarmupService cdnWarmupService;
+    private final JobProgressService jobProgressService;
+    private final TaskCancellationService taskCancellationService;
+    private final ProxyMediaService proxyMediaService;
+    private final FilmstripService filmstripService;
+    private final WaveformService waveformService;
     private static final Logger logger = LoggerFactory.getLogger(ProjectController.class);
 
     @Value("${app.base-dir:/tmp}")
@@ -58,7 +72,10 @@ public class ProjectController {
             ProjectRepository projectRepository,
             JwtUtil jwtUtil,
             UserRepository userRepository,
-            CloudflareR2Service cloudflareR2Service,  ExportLinkRepository exportLinkRepository, ObjectMapper objectMapper) { // Updated constructor
+            CloudflareR2Service cloudflareR2Service,  ExportLinkRepository exportLinkRepository, ObjectMapper objectMapper,
+            CdnWarmupService cdnWarmupService, JobProgressService jobProgressService,
+            TaskCancellationService taskCancellationService, ProxyMediaService proxyMediaService,
+            FilmstripService filmstripService, WaveformService waveformService) { // Updated constructor
         this.videoEditingService = videoEditingService;
         this.projectRepository = projectRepository;
         this.jwtUtil = jwtUtil;
@@ -66,6 +83,12 @@ public class ProjectController {
         this.cloudflareR2Service = cloudflareR2Service;
         this.exportLinkRepository = exportLinkRepository;
         this.objectMapper = objectMapper;
+        this.cdnWarmupService = cdnWarmupService;
+        this.jobProgressService = jobProgressService;
+        this.taskCancellationService = taskCancellationService;
+        this.proxyMediaService = proxyMediaService;
+        this.filmstripService = filmstripService;
+        this.waveformService = waveformService;
     }
     private User getUserFromToken(String token) {
         String email = jwtUtil.extractEmail(token.substring(7));
@@ -220,7 +243,9 @@ public class ProjectController {
 
         Map<String, Object> response = new HashMap<>();
         response.put("status", project.getStatus());
-        response.put("progress", project.getProgress() != null ? project.getProgress() : 0.0);
+        // Live progress comes from the progress bus; the row only holds state transitions
+        Double progress = jobProgressService.progressOr(JobProgressService.JOB_EXPORT, projectId, project.getStatus(), project.getProgress());
+        response.put("progress", progress != null ? progress : 0.0);
         return ResponseEntity.ok(response);
     }
 
@@ -410,6 +435,7 @@ public class ProjectController {
                         videoData.put("presignedUrl", video.get("presignedUrl")); // Presigned URL
                         videoData.put("audioPath", video.getOrDefault("audioPath", null));
                         videoData.put("originalFileName", video.getOrDefault("originalFileName", null));
+                        videoData.put("cdnStatus", cdnWarmupService.getStatus(video.get("videoPath")));
                         return videoData;
                     })
                     .collect(Collectors.toList());
@@ -692,11 +718,16 @@ public class ProjectController {
         }
     }
 
+    /**
+     * Redirects to the video, or with {@code variant} to its editing proxy (the original until the
+     * proxy is ready), sprite sheet or poster.
+     */
     @GetMapping("/{projectId}/videos/{filename:.+}")
     public ResponseEntity<Void> serveVideo(
             @RequestHeader(value = "Authorization", required = false) String token,
             @PathVariable Long projectId,
-            @PathVariable String filename) {
+            @PathVariable String filename,
+            @RequestParam(defaultValue = "original") String variant) {
         try {
             User user = null;
             if (token != null && !token.isEmpty()) {
@@ -724,8 +755,26 @@ public class ProjectController {
                 return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
             }
 
+            String servedPath = r2Path;
+            if (!"original".equals(variant)) {
+                ProxyMediaService.Variants variants = ProxyMediaService.variants(r2Path);
+                boolean ready = proxyMediaService.isReady(r2Path);
+                switch (variant) {
+                    case "proxy" -> servedPath = ready ? variants.proxyPath() : r2Path;
+                    case "sprite", "poster" -> {
+                        if (!ready) {
+                            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+                        }
+                        servedPath = "sprite".equals(variant) ? variants.spritePath() : variants.posterPath();
+                    }
+                    default -> {
+                        return ResponseEntity.badRequest().build();
+                    }
+                }
+            }
+
             // Generate pre-signed URL for the video
-            String preSignedUrl = cloudflareR2Service.generateDownloadUrl(r2Path, 3600); // 1-hour expiration
+            String preSignedUrl = cloudflareR2Service.generateDownloadUrl(servedPath, 3600); // 1-hour expiration
 
             // Redirect to the pre-signed URL
             return ResponseEntity.status(HttpStatus.FOUND)
@@ -740,6 +789,44 @@ public class ProjectController {
         }
     }
 
+    /**
+     * Filmstrip sprite and tile index of a project video; from/to (seconds into the video) narrow
+     * the tiles to one segment. Videos uploaded without one get it rendered in the background on
+     * first request; until then the answer is 202.
+     */
+    @GetMapping("/{projectId}/videos/{filename}/filmstrip")
+    public ResponseEntity<?> getFilmstrip(
+            @RequestHeader("Authorization") String token,
+            @PathVariable Long projectId,
+            @PathVariable String filename,
+            @RequestParam(required = false) Double from,
+            @RequestParam(required = false) Double to) {
+        try {
+            User user = getUserFromToken(token);
+            Project project = projectRepository.findById(projectId)
+                    .orElseThrow(() -> new RuntimeException("Project not found with ID: " + projectId));
+            if (!project.getUser().getId().equals(user.getId())) {
+                return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+            }
+
+            String r2Path = "videos/projects/" + projectId + "/" + filename;
+            boolean videoExists = videoEditingService.getVideos(project).stream()
+                    .anyMatch(video -> r2Path.equals(video.get("videoPath")));
+            if (!videoExists) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("message", "Video not found in project"));
+            }
+            return ResponseEntity.ok(filmstripService.get(r2Path).between(from, to));
+        } catch (IOException e) {
+            logger.error("Error getting filmstrip for projectId={}, filename={}: {}", projectId, filename, e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of("message", e.getMessage()));
+        } catch (FilmstripNotReadyException e) {
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(Map.of("message", e.getMessage()));
+        } catch (RuntimeException e) {
+            logger.warn("Error getting filmstrip: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+    }
+
     @GetMapping("/{projectId}/video-duration/{filename:.+}")
     public ResponseEntity<Double> getVideoDuration(
             @RequestHeader("Authorization") String token,
@@ -1426,6 +1513,78 @@ public class ProjectController {
         }
     }
 
+    /**
+     * Waveform peaks from the stored pyramid. Without {@code level}: the level index (sample rate and
+     * peak count per level). With it: the level's peaks between from and to seconds as raw unsigned
+     * bytes, read from R2 with a byte range so only what is on screen is transferred.
+     */
+    @GetMapping("/{projectId}/waveform-peaks/{filename:.+}")
+    public ResponseEntity<?> serveWaveformPeaks(
+            @RequestHeader(value = "Authorization", required = false) String token,
+            @PathVariable Long projectId,
+            @PathVariable String filename,
+            @RequestParam(required = false) Integer level,
+            @RequestParam(required = false) Double from,
+            @RequestParam(required = false) Double to) {
+        try {
+            User user = null;
+            if (token != null && !token.isEmpty()) {
+                user = getUserFromToken(token);
+            }
+
+            Project project = projectRepository.findById(projectId)
+                    .orElseThrow(() -> new RuntimeException("Project not found with ID: " + projectId));
+
+            if (user != null && !project.getUser().getId().equals(user.getId())) {
+                return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+            }
+
+            String r2Path = "audio/projects/" + projectId + "/waveforms/" + filename;
+            boolean waveformExists = Stream.concat(videoEditingService.getAudio(project).stream(),
+                            videoEditingService.getExtractedAudio(project).stream())
+                    .anyMatch(audio -> audio.get("waveformJsonPath") != null && audio.get("waveformJsonPath").endsWith(filename));
+            if (!waveformExists) {
+                logger.warn("Waveform not found in project metadata: {}", r2Path);
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+            }
+
+            if (level == null) {
+                WaveformService.Index index = waveformService.index(r2Path);
+                if (index == null) {
+                    return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+                }
+                List<Map<String, Object>> levels = index.levels().stream()
+                        .map(l -> Map.<String, Object>of(
+                                "level", l.index(),
+                                "sampleRate", l.sampleRate(),
+                                "count", l.count(),
+                                "duration", l.duration()))
+                        .toList();
+                return ResponseEntity.ok(Map.of("encoding", "u8", "levels", levels));
+            }
+
+            WaveformService.Slice slice = waveformService.read(r2Path, level, from, to);
+            if (slice == null) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+            }
+            // Waveform files are never rewritten (new name per generation), so slices can be cached
+            return ResponseEntity.ok()
+                    .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                    .header(HttpHeaders.CACHE_CONTROL, "private, max-age=86400")
+                    .header("X-Waveform-Sample-Rate", String.valueOf(slice.level().sampleRate()))
+                    .header("X-Waveform-Start", String.valueOf(slice.start()))
+                    .body(slice.peaks());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("message", e.getMessage()));
+        } catch (IOException e) {
+            logger.error("Error reading waveform peaks for projectId={}, filename={}: {}", projectId, filename, e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        } catch (RuntimeException e) {
+            logger.warn("Error serving waveform peaks: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+    }
+
     @DeleteMapping("/{projectId}/remove-audio")
     public ResponseEntity<?> removeAudioSegment(
             @RequestHeader("Authorization") String token,
@@ -2186,6 +2345,11 @@ public class ProjectController {
                         .body("Unauthorized to delete this project");
             }
 
+            // Stop a running export first, so its ffmpeg does not keep rendering a deleted project
+            if ("PENDING".equals(project.getStatus())) {
+                taskCancellationService.cancel(JobProgressService.JOB_EXPORT, projectId, user.getId());
+            }
+
             // Delete associated files
             videoEditingService.deleteProjectFiles(projectId);
             // Delete project from database
@@ -2322,6 +2486,23 @@ public class ProjectController {
         }
     }
 
+    /**
+     * Server-sent events stream for a project's uploaded assets.
+     * Emits an "asset-status" event (EDGE_READY / EDGE_TIMEOUT) once background CDN warm-up finishes.
+     */
+    @GetMapping(value = "/{projectId}/asset-events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter subscribeToAssetEvents(
+            @RequestHeader("Authorization") String token,
+            @PathVariable Long projectId) {
+        User user = getUserFromToken(token);
+        Project project = projectRepository.findById(projectId)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Project not found with ID: " + projectId));
+        if (!project.getUser().getId().equals(user.getId())) {
+            throw new ResponseStatusException(HttpStatus.FORBIDDEN, "Unauthorized to access this project");
+        }
+        return cdnWarmupService.subscribe(projectId);
+    }
+
     @DeleteMapping("/{projectId}/remove-segments")
     public ResponseEntity<?> removeMultipleSegments(
             @RequestHeader("Authorization") String token,
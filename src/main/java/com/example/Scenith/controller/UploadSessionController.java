@@ -0,0 +1,122 @@
+package com.example.Scenith.controller;
+
+import com.example.Scenith.entity.User;
+import com.example.Scenith.repository.UserRepository;
+import com.example.Scenith.security.JwtUtil;
+import com.example.Scenith.service.UploadSessionService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Presigned multipart uploads straight from the browser to R2.
+ *
+ * 1. POST /api/upload-sessions                 -> sessionId + presigned part URLs
+ * 2. PUT each part to its URL (browser -> R2), keep each response's ETag header
+ * 3. POST /api/upload-sessions/{id}/complete   -> object is registered in the target entity
+ */
+@RestController
+@RequestMapping("/api/upload-sessions")
+public class UploadSessionController {
+    private static final Logger logger = LoggerFactory.getLogger(UploadSessionController.class);
+
+    private final UploadSessionService uploadSessionService;
+    private final JwtUtil jwtUtil;
+    private final UserRepository userRepository;
+
+    public UploadSessionController(UploadSessionService uploadSessionService, JwtUtil jwtUtil, UserRepository userRepository) {
+        this.uploadSessionService = uploadSessionService;
+        this.jwtUtil = jwtUtil;
+        this.userRepository = userRepository;
+    }
+
+    private User getUserFromToken(String token) {
+        String email = jwtUtil.extractEmail(token.substring(7));
+        return userRepository.findByEmail(email)
+                .orElseThrow(() -> new RuntimeException("User not found"));
+    }
+
+    @PostMapping
+    public ResponseEntity<?> initiate(
+            @RequestHeader("Authorization") String token,
+            @RequestBody Map<String, Object> request) {
+        try {
+            User user = getUserFromToken(token);
+
+            String target = (String) request.get("target");
+            Long targetId = request.get("targetId") != null ? ((Number) request.get("targetId")).longValue() : null;
+            String fileName = (String) request.get("fileName");
+            String contentType = (String) request.get("contentType");
+            long fileSize = request.get("fileSize") != null ? ((Number) request.get("fileSize")).longValue() : 0L;
+
+            Map<String, String> options = new HashMap<>();
+            if (request.get("options") instanceof Map<?, ?> rawOptions) {
+                rawOptions.forEach((k, v) -> options.put(String.valueOf(k), v != null ? String.valueOf(v) : null));
+            }
+
+            Map<String, Object> session = uploadSessionService.initiate(user, target, targetId, fileName, contentType, fileSize, options);
+            return ResponseEntity.ok(session);
+        } catch (IllegalArgumentException | ClassCastException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Map.of("message", e.getMessage()));
+        } catch (SecurityException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(Map.of("message", e.getMessage()));
+        } catch (Exception e) {
+            logger.error("Failed to open upload session: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of("message", "Failed to open upload session: " + e.getMessage()));
+        }
+    }
+
+    @PostMapping("/{sessionId}/complete")
+    public ResponseEntity<?> complete(
+            @RequestHeader("Authorization") String token,
+            @PathVariable Long sessionId,
+            @RequestBody Map<String, Object> request) {
+        try {
+            User user = getUserFromToken(token);
+
+            @SuppressWarnings("unchecked")
+            List<Map<String, Object>> parts = (List<Map<String, Object>>) request.get("parts");
+            if (parts == null || parts.isEmpty()) {
+                return ResponseEntity.badRequest().body(Map.of("message", "Missing required parameter: parts"));
+            }
+            Map<Integer, String> partETags = new HashMap<>();
+            for (Map<String, Object> part : parts) {
+                partETags.put(((Number) part.get("partNumber")).intValue(), (String) part.get("eTag"));
+            }
+
+            Object registered = uploadSessionService.complete(user, sessionId, partETags);
+            return ResponseEntity.ok(registered);
+        } catch (IllegalArgumentException | IllegalStateException | ClassCastException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Map.of("message", e.getMessage()));
+        } catch (SecurityException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(Map.of("message", e.getMessage()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of("message", "Upload completion interrupted"));
+        } catch (Exception e) {
+            logger.error("Failed to complete upload session {}: {}", sessionId, e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of("message", "Failed to complete upload: " + e.getMessage()));
+        }
+    }
+
+    @DeleteMapping("/{sessionId}")
+    public ResponseEntity<?> abort(
+            @RequestHeader("Authorization") String token,
+            @PathVariable Long sessionId) {
+        try {
+            User user = getUserFromToken(token);
+            uploadSessionService.abort(user, sessionId);
+            return ResponseEntity.ok(Map.of("message", "Upload session aborted"));
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Map.of("message", e.getMessage()));
+        } catch (SecurityException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(Map.of("message", e.getMessage()));
+        }
+    }
+}
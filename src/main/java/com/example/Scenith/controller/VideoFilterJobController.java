@@ -4,16 +4,21 @@ package com.example.Scenith.controller;
 import com.example.Scenith.dto.VideoFilterJobRequest;
 import com.example.Scenith.dto.VideoFilterJobResponse;
 import com.example.Scenith.entity.User;
+import com.example.Scenith.exception.PreviewBusyException;
+import com.example.Scenith.exception.PreviewNotReadyException;
 import com.example.Scenith.repository.UserRepository;
 import com.example.Scenith.security.JwtUtil;
 import com.example.Scenith.service.VideoFilterJobService;
 import lombok.RequiredArgsConstructor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
 import java.util.List;
 
 
@@ -129,6 +134,45 @@ public class VideoFilterJobController {
     }
 
 
+    // ===================== PREVIEW FRAME =====================
+    @PostMapping("/preview/{uploadId}")
+    public ResponseEntity<?> previewFrame(
+        @RequestHeader("Authorization") String token,
+        @PathVariable Long uploadId,
+        @RequestParam(required = false) Double time,
+        @RequestParam(defaultValue = "false") boolean clip,
+        @RequestBody VideoFilterJobRequest request
+    ) {
+        try {
+            User user = getUserFromToken(token);
+            byte[] preview = clip
+                ? jobService.renderPreviewClip(uploadId, request, time, user)
+                : jobService.renderPreview(uploadId, request, time, user);
+            return ResponseEntity.ok()
+                .contentType(clip ? MediaType.parseMediaType("video/mp4") : MediaType.IMAGE_JPEG)
+                .cacheControl(CacheControl.noStore())
+                .body(preview);
+        } catch (PreviewNotReadyException e) {
+            return ResponseEntity.status(HttpStatus.ACCEPTED)
+                .body(e.getMessage());
+        } catch (PreviewBusyException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .body(e.getMessage());
+        } catch (IOException e) {
+            logger.error("Failed to preview upload {}: {}", uploadId, e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body("Preview failed: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body("Preview interrupted");
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                .body("Preview failed: " + e.getMessage());
+        }
+    }
+
+
     // ===================== HELPER =====================
     private User getUserFromToken(String token) {
         String email = jwtUtil.extractEmail(token.substring(7)); // strip "Bearer "
@@ -5,9 +5,12 @@ import com.example.Scenith.dto.VideoSpeedResponse;
 import com.example.Scenith.entity.User;
 import com.example.Scenith.entity.UserProcessingUsage;
 import com.example.Scenith.entity.VideoSpeed;
+import com.example.Scenith.exception.PreviewBusyException;
+import com.example.Scenith.exception.PreviewNotReadyException;
 import com.example.Scenith.repository.UserProcessingUsageRepository;
 import com.example.Scenith.security.JwtUtil;
 import com.example.Scenith.repository.UserRepository;
+import com.example.Scenith.service.JobProgressService;
 import com.example.Scenith.service.PlanLimitsService;
 import com.example.Scenith.service.VideoSpeedService;
 import lombok.RequiredArgsConstructor;
@@ -37,6 +40,7 @@ public class VideoSpeedController {
     private final UserRepository userRepository;
     private final PlanLimitsService planLimitsService;
     private final UserProcessingUsageRepository userProcessingUsageRepository;
+    private final JobProgressService jobProgressService;
 
     private User getUserFromToken(String token) {
         String email = jwtUtil.extractEmail(token.substring(7));
@@ -120,6 +124,40 @@ public class VideoSpeedController {
         }
     }
 
+    @PostMapping("/{id}/preview")
+    public ResponseEntity<?> renderPreview(
+            @RequestHeader("Authorization") String token,
+            @PathVariable Long id,
+            @RequestParam(required = false) Double seconds) {
+        try {
+            User user = getUserFromToken(token);
+            Map<String, Object> preview = videoSpeedService.renderPreview(id, user, seconds);
+            logger.info("Preview rendered: id={}, seconds={}, cached={}", id, preview.get("seconds"), preview.get("cached"));
+            return ResponseEntity.ok(preview);
+        } catch (IOException e) {
+            logger.error("Error rendering preview: id={}, error={}", id, e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", "Failed to render preview: " + e.getMessage()));
+        } catch (PreviewNotReadyException e) {
+            return ResponseEntity.status(HttpStatus.ACCEPTED)
+                    .body(Map.of("message", e.getMessage()));
+        } catch (PreviewBusyException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .body(Map.of("error", e.getMessage()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(Map.of("error", e.getMessage()));
+        } catch (RuntimeException e) {
+            logger.warn("Unauthorized or video not found for id={}: {}", id, e.getMessage());
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body(Map.of("error", e.getMessage()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", "Preview interrupted"));
+        }
+    }
+
     @GetMapping("/status/{id}")
     public ResponseEntity<VideoSpeedResponse> getVideoStatus(
             @RequestHeader("Authorization") String token,
@@ -159,7 +197,7 @@ public class VideoSpeedController {
         VideoSpeedResponse response = new VideoSpeedResponse();
         response.setId(video.getId());
         response.setStatus(video.getStatus());
-        response.setProgress(video.getProgress());
+        response.setProgress(jobProgressService.progressOr(JobProgressService.JOB_SPEED, video.getId(), video.getStatus(), video.getProgress()));
         response.setSpeed(video.getSpeed());
         response.setCdnUrl(video.getCdnUrl());
         response.setOriginalFilePath(video.getOriginalFilePath());
@@ -0,0 +1,19 @@
+package com.example.Scenith.dto;
+
+import lombok.Data;
+
+/**
+ * Combined position/scale/output size edit; null fields are left unchanged.
+ */
+@Data
+public class AspectRatioTransformRequest {
+    private Integer positionX;
+    private Integer positionY;
+    private Double scale;
+    private Integer outputWidth;
+    private Integer outputHeight;
+    // Go back to the aspect ratio's canvas size
+    private Boolean clearOutputResolution;
+    // Version the client last saw; omit to apply unconditionally
+    private Long baseVersion;
+}
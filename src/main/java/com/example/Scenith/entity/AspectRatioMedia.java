@@ -2,9 +2,12 @@ package com.example.Scenith.entity;
 
 import jakarta.persistence.*;
 import lombok.Data;
+import org.hibernate.annotations.DynamicUpdate;
 
 @Entity
 @Data
+// Status saves must not write back transform fields flushed meanwhile by AspectRatioTransformBuffer
+@DynamicUpdate
 @Table(name = "aspect_ratio_media")
 public class AspectRatioMedia {
     @Id
@@ -51,6 +54,10 @@ public class AspectRatioMedia {
     @Column(name = "scale")
     private Double scale;
 
+    // Bumped by every position/scale/output size edit; see AspectRatioTransformBuffer
+    @Column(name = "transform_version")
+    private Long transformVersion;
+
     @Column(name = "status", nullable = false)
     private String status;
 
@@ -0,0 +1,30 @@
+package com.example.Scenith.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * Cancellation request for an async job (export, subtitle render, speed change, ...).
+ * Stored so that the node running the job, or the node that later receives its queued
+ * message, stops it. Applies to task messages sent before requestedAt only, so re-running
+ * the same project or media afterwards is not affected.
+ */
+@Data
+@Entity
+@Table(name = "job_cancellations", uniqueConstraints = @UniqueConstraint(columnNames = "job_key"))
+public class JobCancellation {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "job_key", nullable = false, length = 128)
+    private String jobKey; // e.g. export:42
+
+    @Column(name = "user_id")
+    private Long userId;
+
+    @Column(name = "requested_at", nullable = false)
+    private LocalDateTime requestedAt;
+}
@@ -0,0 +1,43 @@
+package com.example.Scenith.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * Proxy generation state of an uploaded project video, one row per original. Kept in the database
+ * so a generation that was queued or running when its node stopped is picked up again.
+ */
+@Data
+@Entity
+@Table(name = "proxy_generations", uniqueConstraints = @UniqueConstraint(columnNames = "r2_path"))
+public class ProxyGeneration {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "project_id")
+    private Long projectId;
+
+    @Column(name = "r2_path", nullable = false, length = 500)
+    private String r2Path;
+
+    @Column(name = "status", nullable = false, length = 20)
+    private String status; // PENDING, RUNNING, READY, FAILED
+
+    @Column(name = "node_id", length = 255)
+    private String nodeId;
+
+    @Column(name = "attempts", nullable = false)
+    private Integer attempts = 0;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    @Column(name = "heartbeat_at")
+    private LocalDateTime heartbeatAt;
+
+    @Column(name = "finished_at")
+    private LocalDateTime finishedAt;
+}
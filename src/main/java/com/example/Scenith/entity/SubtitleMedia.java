@@ -36,6 +36,10 @@ public class SubtitleMedia {
     @Column(name = "subtitles_json", columnDefinition = "LONGTEXT")
     private String subtitlesJson; // Stores subtitles as JSON array of TextSegment-like objects
 
+    // Bumped by every subtitlesJson write; streamed partial writes are conditional on it
+    @Column(name = "subtitles_version")
+    private Long subtitlesVersion;
+
     @Column(name = "status", nullable = false)
     private String status;
 
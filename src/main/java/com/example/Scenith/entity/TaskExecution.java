@@ -0,0 +1,46 @@
+package com.example.Scenith.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * Idempotency record for an SQS task. One row per idempotency key, claimed by the node
+ * that runs the task, so redelivered or duplicated messages do not start the same render twice.
+ */
+@Data
+@Entity
+@Table(name = "task_executions", uniqueConstraints = @UniqueConstraint(columnNames = "idempotency_key"))
+public class TaskExecution {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "idempotency_key", nullable = false, length = 128)
+    private String idempotencyKey;
+
+    @Column(name = "task_type", nullable = false, length = 50)
+    private String taskType;
+
+    @Column(name = "user_id")
+    private Long userId;
+
+    @Column(name = "status", nullable = false, length = 20)
+    private String status; // RUNNING, COMPLETED, FAILED
+
+    @Column(name = "node_id", length = 255)
+    private String nodeId;
+
+    @Column(name = "attempts", nullable = false)
+    private Integer attempts = 0;
+
+    @Column(name = "started_at")
+    private LocalDateTime startedAt;
+
+    @Column(name = "heartbeat_at")
+    private LocalDateTime heartbeatAt;
+
+    @Column(name = "finished_at")
+    private LocalDateTime finishedAt;
+}
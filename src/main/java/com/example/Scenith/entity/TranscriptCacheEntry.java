@@ -0,0 +1,40 @@
+package com.example.Scenith.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * Index row for a cached Whisper transcript. The segments themselves are stored as JSON in R2
+ * at r2Path; several keys (content hash, source object ETag) can point at the same payload.
+ */
+@Data
+@Entity
+@Table(name = "transcript_cache", uniqueConstraints = @UniqueConstraint(columnNames = "cache_key"))
+public class TranscriptCacheEntry {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "cache_key", nullable = false, length = 200)
+    private String cacheKey; // e.g. subtitles:base:sha256:9f86d0...
+
+    @Column(name = "r2_path", nullable = false, length = 255)
+    private String r2Path;
+
+    @Column(name = "duration_seconds")
+    private Double durationSeconds;
+
+    @Column(name = "segment_count")
+    private Integer segmentCount;
+
+    @Column(name = "hit_count", nullable = false)
+    private long hitCount;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    @Column(name = "last_hit_at", nullable = false)
+    private LocalDateTime lastHitAt;
+}
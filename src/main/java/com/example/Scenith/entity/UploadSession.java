@@ -0,0 +1,75 @@
+package com.example.Scenith.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+import org.hibernate.annotations.CreationTimestamp;
+
+import java.time.LocalDateTime;
+
+/**
+ * A browser-to-R2 multipart upload issued through presigned part URLs.
+ * Once the client reports the part ETags, the object is registered in the entity named by {@code target}.
+ */
+@Entity
+@Table(name = "upload_sessions")
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class UploadSession {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @ManyToOne(fetch = FetchType.EAGER)
+    @JoinColumn(name = "user_id", nullable = false)
+    private User user;
+
+    @Column(name = "target", nullable = false, length = 50)
+    private String target; // PROJECT_VIDEO, PROJECT_AUDIO, PROJECT_IMAGE, SUBTITLE_MEDIA, COMPRESSION_MEDIA, DOCUMENT
+
+    @Column(name = "target_id")
+    private Long targetId; // projectId for PROJECT_* targets
+
+    @Column(name = "upload_id", nullable = false, length = 1024)
+    private String uploadId;
+
+    @Column(name = "r2_path", nullable = false, length = 500)
+    private String r2Path;
+
+    @Column(name = "original_file_name", nullable = false, length = 500)
+    private String originalFileName;
+
+    @Column(name = "stored_file_name", nullable = false, length = 500)
+    private String storedFileName;
+
+    @Column(name = "content_type", length = 255)
+    private String contentType;
+
+    @Column(name = "file_size_bytes", nullable = false)
+    private Long fileSizeBytes;
+
+    @Column(name = "part_size_bytes", nullable = false)
+    private Long partSizeBytes;
+
+    @Column(name = "part_count", nullable = false)
+    private Integer partCount;
+
+    @Column(name = "options_json", columnDefinition = "TEXT")
+    private String optionsJson; // target-specific extras, e.g. targetSize for compression
+
+    @Column(name = "status", nullable = false, length = 20)
+    private String status; // INITIATED, COMPLETING, COMPLETED, ABORTED, FAILED
+
+    @Column(name = "registered_entity_id")
+    private Long registeredEntityId;
+
+    @CreationTimestamp
+    @Column(name = "created_at", nullable = false, updatable = false)
+    private LocalDateTime createdAt;
+
+    @Column(name = "completed_at")
+    private LocalDateTime completedAt;
+}
@@ -93,6 +93,7 @@ public class VideoFilterJob {
         PENDING,
         PROCESSING,
         COMPLETED,
-        FAILED
+        FAILED,
+        CANCELLED
     }
 }
\ No newline at end of file
@@ -0,0 +1,11 @@
+package com.example.Scenith.exception;
+
+/**
+ * The video's filmstrip is still being rendered; the client should retry shortly.
+ */
+public class FilmstripNotReadyException extends RuntimeException {
+
+    public FilmstripNotReadyException(String message) {
+        super(message);
+    }
+}
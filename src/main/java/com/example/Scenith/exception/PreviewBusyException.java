@@ -0,0 +1,11 @@
+package com.example.Scenith.exception;
+
+/**
+ * Every preview process slot stayed taken for the whole acquire timeout.
+ */
+public class PreviewBusyException extends RuntimeException {
+
+    public PreviewBusyException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,11 @@
+package com.example.Scenith.exception;
+
+/**
+ * The upload's preview proxy is still being built; the client should retry shortly.
+ */
+public class PreviewNotReadyException extends RuntimeException {
+
+    public PreviewNotReadyException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,17 @@
+package com.example.Scenith.exception;
+
+public class TransformVersionConflictException extends RuntimeException {
+    private final Object current;
+
+    public TransformVersionConflictException(String message, Object current) {
+        super(message);
+        this.current = current;
+    }
+
+    /**
+     * The transform state the edit lost against, so the client can resync.
+     */
+    public Object getCurrent() {
+        return current;
+    }
+}
@@ -4,9 +4,41 @@ package com.example.Scenith.repository;
 import com.example.Scenith.entity.AspectRatioMedia;
 import com.example.Scenith.entity.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
+import java.util.Optional;
 
 public interface AspectRatioMediaRepository extends JpaRepository<AspectRatioMedia, Long> {
     List<AspectRatioMedia> findByUser(User user);
-}
\ No newline at end of file
+
+    @Query("SELECT COALESCE(m.transformVersion, 0) FROM AspectRatioMedia m WHERE m.id = :id")
+    Optional<Long> findTransformVersion(@Param("id") Long id);
+
+    /**
+     * Write the transform fields if nobody else has since the given version.
+     * Media being processed keeps its status.
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE AspectRatioMedia m SET m.positionX = :positionX, m.positionY = :positionY, m.scale = :scale, " +
+           "m.outputWidth = :outputWidth, m.outputHeight = :outputHeight, m.transformVersion = :version, " +
+           "m.status = CASE WHEN m.status IN ('PENDING', 'PROCESSING') THEN m.status ELSE 'CONFIGURED' END " +
+           "WHERE m.id = :id AND COALESCE(m.transformVersion, 0) = :expectedVersion")
+    int updateTransform(@Param("id") Long id, @Param("positionX") Integer positionX, @Param("positionY") Integer positionY,
+                        @Param("scale") Double scale, @Param("outputWidth") Integer outputWidth,
+                        @Param("outputHeight") Integer outputHeight, @Param("version") long version,
+                        @Param("expectedVersion") long expectedVersion);
+
+    /**
+     * Store in-flight progress while the job is still in the given status, so a job that was
+     * cancelled or finished meanwhile keeps its final state.
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE AspectRatioMedia m SET m.progress = :progress WHERE m.id = :id AND m.status = :status")
+    int updateProgress(@Param("id") Long id, @Param("status") String status, @Param("progress") Double progress);
+}
@@ -0,0 +1,24 @@
+package com.example.Scenith.repository;
+
+import com.example.Scenith.entity.JobCancellation;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+public interface JobCancellationRepository extends JpaRepository<JobCancellation, Long> {
+    Optional<JobCancellation> findByJobKey(String jobKey);
+
+    List<JobCancellation> findByJobKeyIn(Collection<String> jobKeys);
+
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM JobCancellation c WHERE c.requestedAt < :threshold")
+    int deleteRequestedBefore(@Param("threshold") LocalDateTime threshold);
+}
@@ -3,9 +3,22 @@ package com.example.Scenith.repository;
 import com.example.Scenith.entity.PodcastClipMedia;
 import com.example.Scenith.entity.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 
 public interface PodcastClipMediaRepository extends JpaRepository<PodcastClipMedia, Long> {
     List<PodcastClipMedia> findByUser(User user);
-}
\ No newline at end of file
+
+    /**
+     * Store in-flight progress while the job is still in the given status, so a job that was
+     * cancelled or finished meanwhile keeps its final state.
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE PodcastClipMedia m SET m.progress = :progress WHERE m.id = :id AND m.status = :status")
+    int updateProgress(@Param("id") Long id, @Param("status") String status, @Param("progress") Double progress);
+}
@@ -2,6 +2,10 @@ package com.example.Scenith.repository;
 import com.example.Scenith.entity.Project;
 import com.example.Scenith.entity.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 import java.util.Optional;
@@ -13,4 +17,13 @@ public interface ProjectRepository extends JpaRepository<Project, Long> {
     // Add this if you prefer using findByUserId
     List<Project> findByUserId(Long userId);
     List<Project> findByUser(User user);
-}
\ No newline at end of file
+
+    /**
+     * Store in-flight progress while the job is still in the given status, so a job that was
+     * cancelled or finished meanwhile keeps its final state.
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE Project p SET p.progress = :progress WHERE p.id = :id AND p.status = :status")
+    int updateProgress(@Param("id") Long id, @Param("status") String status, @Param("progress") Double progress);
+}
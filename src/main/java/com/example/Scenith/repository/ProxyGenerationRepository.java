@@ -0,0 +1,64 @@
+package com.example.Scenith.repository;
+
+import com.example.Scenith.entity.ProxyGeneration;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+public interface ProxyGenerationRepository extends JpaRepository<ProxyGeneration, Long> {
+    Optional<ProxyGeneration> findByR2Path(String r2Path);
+
+    /**
+     * Generations waiting to run: queued ones, and running ones whose node stopped heartbeating.
+     */
+    @Query("SELECT g FROM ProxyGeneration g WHERE g.attempts < :maxAttempts " +
+           "AND (g.status = 'PENDING' OR (g.status = 'RUNNING' AND g.heartbeatAt < :staleBefore)) " +
+           "ORDER BY g.createdAt")
+    List<ProxyGeneration> findRunnable(@Param("staleBefore") LocalDateTime staleBefore,
+                                       @Param("maxAttempts") int maxAttempts, Pageable pageable);
+
+    /**
+     * Claim a generation for this node. Conditional, so only one node wins when several see it.
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE ProxyGeneration g SET g.status = 'RUNNING', g.nodeId = :nodeId, g.attempts = g.attempts + 1, " +
+           "g.heartbeatAt = :now, g.finishedAt = null " +
+           "WHERE g.id = :id AND g.attempts < :maxAttempts " +
+           "AND (g.status = 'PENDING' OR (g.status = 'RUNNING' AND g.heartbeatAt < :staleBefore))")
+    int claim(@Param("id") Long id, @Param("nodeId") String nodeId, @Param("now") LocalDateTime now,
+              @Param("staleBefore") LocalDateTime staleBefore, @Param("maxAttempts") int maxAttempts);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE ProxyGeneration g SET g.heartbeatAt = :now " +
+           "WHERE g.id IN :ids AND g.status = 'RUNNING' AND g.nodeId = :nodeId")
+    int touchHeartbeat(@Param("ids") List<Long> ids, @Param("nodeId") String nodeId, @Param("now") LocalDateTime now);
+
+    /**
+     * Give up on generations that used all their attempts without finishing.
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE ProxyGeneration g SET g.status = 'FAILED', g.finishedAt = :now WHERE g.attempts >= :maxAttempts " +
+           "AND (g.status = 'PENDING' OR (g.status = 'RUNNING' AND g.heartbeatAt < :staleBefore))")
+    int failExhausted(@Param("now") LocalDateTime now, @Param("staleBefore") LocalDateTime staleBefore,
+                      @Param("maxAttempts") int maxAttempts);
+
+    /**
+     * Record the outcome of this node's run; 0 when another node took the generation over meanwhile.
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE ProxyGeneration g SET g.status = :status, g.finishedAt = :now " +
+           "WHERE g.id = :id AND g.status = 'RUNNING' AND g.nodeId = :nodeId")
+    int finish(@Param("id") Long id, @Param("nodeId") String nodeId, @Param("status") String status,
+               @Param("now") LocalDateTime now);
+}
@@ -4,9 +4,34 @@ package com.example.Scenith.repository;
 import com.example.Scenith.entity.SubtitleMedia;
 import com.example.Scenith.entity.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 
 public interface SubtitleMediaRepository extends JpaRepository<SubtitleMedia, Long> {
     List<SubtitleMedia> findByUser(User user);
-}
\ No newline at end of file
+
+    /**
+     * Store in-flight progress while the job is still in the given status, so a job that was
+     * cancelled or finished meanwhile keeps its final state.
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE SubtitleMedia m SET m.progress = :progress WHERE m.id = :id AND m.status = :status")
+    int updateProgress(@Param("id") Long id, @Param("status") String status, @Param("progress") Double progress);
+
+    /**
+     * Store subtitles streamed by a running generation if nobody else has written them since the
+     * given version. A cancelled or failed job stores nothing.
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE SubtitleMedia m SET m.subtitlesJson = :subtitlesJson, m.subtitlesVersion = :version " +
+           "WHERE m.id = :id AND COALESCE(m.subtitlesVersion, 0) = :expectedVersion " +
+           "AND m.status NOT IN ('FAILED', 'CANCELLED')")
+    int updateStreamedSubtitles(@Param("id") Long id, @Param("subtitlesJson") String subtitlesJson,
+                                @Param("version") long version, @Param("expectedVersion") long expectedVersion);
+}
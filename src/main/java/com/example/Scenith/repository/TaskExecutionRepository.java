@@ -0,0 +1,64 @@
+package com.example.Scenith.repository;
+
+import com.example.Scenith.entity.TaskExecution;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+public interface TaskExecutionRepository extends JpaRepository<TaskExecution, Long> {
+    Optional<TaskExecution> findByIdempotencyKey(String idempotencyKey);
+
+    @Query("SELECT COUNT(t) FROM TaskExecution t WHERE t.userId = :userId AND t.status = 'RUNNING' AND t.heartbeatAt >= :staleBefore")
+    long countRunningByUser(@Param("userId") Long userId, @Param("staleBefore") LocalDateTime staleBefore);
+
+    @Query("SELECT COUNT(t) FROM TaskExecution t WHERE t.userId = :userId AND t.status = 'RUNNING' " +
+           "AND t.heartbeatAt >= :staleBefore AND t.idempotencyKey <> :key")
+    long countRunningByUserExcluding(@Param("userId") Long userId, @Param("staleBefore") LocalDateTime staleBefore,
+                                     @Param("key") String idempotencyKey);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE TaskExecution t SET t.heartbeatAt = :now WHERE t.idempotencyKey = :key AND t.status = 'RUNNING'")
+    int touchHeartbeat(@Param("key") String idempotencyKey, @Param("now") LocalDateTime now);
+
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM TaskExecution t WHERE t.status <> 'RUNNING' AND t.finishedAt < :threshold")
+    int deleteFinishedBefore(@Param("threshold") LocalDateTime threshold);
+
+    /**
+     * Take over a task whose previous run failed or whose owner stopped heartbeating.
+     * Conditional, so only one node wins when several see the same stale claim.
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE TaskExecution t SET t.status = 'RUNNING', t.nodeId = :nodeId, t.attempts = t.attempts + 1, " +
+           "t.startedAt = :now, t.heartbeatAt = :now, t.finishedAt = null " +
+           "WHERE t.idempotencyKey = :key AND t.attempts < :maxAttempts " +
+           "AND (t.status = 'FAILED' OR (t.status = 'RUNNING' AND t.heartbeatAt < :staleBefore))")
+    int takeOver(@Param("key") String idempotencyKey, @Param("nodeId") String nodeId,
+                 @Param("now") LocalDateTime now, @Param("staleBefore") LocalDateTime staleBefore,
+                 @Param("maxAttempts") int maxAttempts);
+
+    /**
+     * Start a new run of a task whose previous run finished before the new message was sent.
+     * Conditional, so only one node wins when several receive copies of it.
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE TaskExecution t SET t.status = 'RUNNING', t.nodeId = :nodeId, t.attempts = 1, " +
+           "t.startedAt = :now, t.heartbeatAt = :now, t.finishedAt = null " +
+           "WHERE t.idempotencyKey = :key AND t.status IN ('COMPLETED', 'FAILED') AND t.finishedAt < :sentAt")
+    int restart(@Param("key") String idempotencyKey, @Param("nodeId") String nodeId,
+                @Param("now") LocalDateTime now, @Param("sentAt") LocalDateTime sentAt);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE TaskExecution t SET t.status = :status, t.finishedAt = :now WHERE t.idempotencyKey = :key")
+    int finish(@Param("key") String idempotencyKey, @Param("status") String status, @Param("now") LocalDateTime now);
+}
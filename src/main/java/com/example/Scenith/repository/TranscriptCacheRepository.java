@@ -0,0 +1,28 @@
+package com.example.Scenith.repository;
+
+import com.example.Scenith.entity.TranscriptCacheEntry;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+public interface TranscriptCacheRepository extends JpaRepository<TranscriptCacheEntry, Long> {
+    Optional<TranscriptCacheEntry> findByCacheKey(String cacheKey);
+
+    List<TranscriptCacheEntry> findTop500ByLastHitAtBefore(LocalDateTime threshold);
+
+    long countByR2PathAndLastHitAtGreaterThanEqual(String r2Path, LocalDateTime threshold);
+
+    /**
+     * Add hits counted since the last flush, without loading the entry.
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE TranscriptCacheEntry e SET e.hitCount = e.hitCount + :hits, e.lastHitAt = :hitAt WHERE e.id = :id")
+    int addHits(@Param("id") Long id, @Param("hits") long hits, @Param("hitAt") LocalDateTime hitAt);
+}
@@ -0,0 +1,26 @@
+package com.example.Scenith.repository;
+
+import com.example.Scenith.entity.UploadSession;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface UploadSessionRepository extends JpaRepository<UploadSession, Long> {
+    List<UploadSession> findByStatusAndCreatedAtBefore(String status, LocalDateTime dateTime);
+
+    /**
+     * Move a session from one status to another; 0 when it was no longer in {@code from}
+     * (another complete or abort got there first).
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE UploadSession s SET s.status = :to WHERE s.id = :id AND s.status = :from")
+    int transitionStatus(@Param("id") Long id, @Param("from") String from, @Param("to") String to);
+}
@@ -27,4 +27,10 @@ public interface UserRepository extends JpaRepository<User, Long> {
     @Modifying
     @Query("UPDATE User u SET u.marketingSubscribed = false WHERE u.email = :email")
     void unsubscribeUser(@Param("email") String email);
-}
\ No newline at end of file
+
+    /**
+     * Lock the user's row until the surrounding transaction ends; serializes per-user decisions across nodes.
+     */
+    @Query(value = "SELECT id FROM users WHERE id = :id FOR UPDATE", nativeQuery = true)
+    Optional<Long> lockById(@Param("id") Long id);
+}
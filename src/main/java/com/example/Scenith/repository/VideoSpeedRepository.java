@@ -3,6 +3,10 @@ package com.example.Scenith.repository;
 import com.example.Scenith.entity.User;
 import com.example.Scenith.entity.VideoSpeed;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 import java.util.Optional;
@@ -10,4 +14,13 @@ import java.util.Optional;
 public interface VideoSpeedRepository extends JpaRepository<VideoSpeed, Long> {
     Optional<VideoSpeed> findByIdAndUser(Long id, User user);
     List<VideoSpeed> findByUser(User user);
-}
\ No newline at end of file
+
+    /**
+     * Store in-flight progress while the job is still in the given status, so a job that was
+     * cancelled or finished meanwhile keeps its final state.
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE VideoSpeed v SET v.progress = :progress WHERE v.id = :id AND v.status = :status")
+    int updateProgress(@Param("id") Long id, @Param("status") String status, @Param("progress") Double progress);
+}
@@ -0,0 +1,109 @@
+package com.example.Scenith.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Geometry of an aspect ratio render: the source scaled by {@code scale}, centred on the canvas and
+ * shifted by positionX/positionY, with black wherever it does not reach.
+ *
+ * With a fixed position that is exactly scale, crop to the part inside the canvas, then pad back to
+ * the canvas. So the planner emits only the steps that change something (pure crop, pure pad,
+ * scale only, ...) and never overlays frames onto a full-duration black canvas. A source placed
+ * entirely outside the canvas gets no video filter at all: the plan is a black {@code color} source
+ * of the canvas size ({@link Plan#offCanvas}).
+ */
+public final class AspectRatioLayout {
+
+    private AspectRatioLayout() {
+    }
+
+    /**
+     * @param filter video filter chain from [0:v] (or a source filter when {@link #offCanvas})
+     * @param mode   steps used, e.g. "crop", "scale+pad", for logs
+     */
+    public record Plan(int canvasWidth, int canvasHeight, String filter, String mode, boolean offCanvas) {
+    }
+
+    /**
+     * Canvas size: the explicit output resolution, else the source extended to the aspect ratio;
+     * rounded up to even dimensions.
+     */
+    public static int[] canvas(String aspectRatio, Integer outputWidth, Integer outputHeight, int originalWidth, int originalHeight) {
+        int canvasWidth;
+        int canvasHeight;
+        if (outputWidth != null && outputHeight != null) {
+            canvasWidth = outputWidth;
+            canvasHeight = outputHeight;
+        } else if (aspectRatio != null) {
+            String[] ratioParts = aspectRatio.split(":");
+            int targetWidth = Integer.parseInt(ratioParts[0]);
+            int targetHeight = Integer.parseInt(ratioParts[1]);
+            double targetAspectRatio = (double) targetWidth / targetHeight;
+
+            if (originalWidth / (double) originalHeight > targetAspectRatio) {
+                canvasWidth = originalWidth;
+                canvasHeight = (int) (canvasWidth / targetAspectRatio);
+            } else {
+                canvasHeight = originalHeight;
+                canvasWidth = (int) (canvasHeight * targetAspectRatio);
+            }
+        } else {
+            throw new IllegalStateException("Either output resolution or aspect ratio must be specified");
+        }
+        return new int[]{even(canvasWidth), even(canvasHeight)};
+    }
+
+    public static Plan plan(String aspectRatio, Integer outputWidth, Integer outputHeight, int positionX, int positionY,
+                            double scale, int originalWidth, int originalHeight, double durationSeconds) {
+        int[] canvas = canvas(aspectRatio, outputWidth, outputHeight, originalWidth, originalHeight);
+        int canvasWidth = canvas[0];
+        int canvasHeight = canvas[1];
+
+        int scaledWidth = even((int) (originalWidth * scale));
+        int scaledHeight = even((int) (originalHeight * scale));
+
+        // Top-left of the scaled source on the canvas; even, as yuv420p crop/pad offsets are
+        int x = floorEven(canvasWidth / 2 + positionX - scaledWidth / 2);
+        int y = floorEven(canvasHeight / 2 + positionY - scaledHeight / 2);
+
+        int left = Math.max(0, x);
+        int top = Math.max(0, y);
+        int visibleWidth = Math.min(x + scaledWidth, canvasWidth) - left;
+        int visibleHeight = Math.min(y + scaledHeight, canvasHeight) - top;
+
+        if (visibleWidth <= 0 || visibleHeight <= 0) {
+            // Nothing of the source is visible: plain black frames
+            String filter = String.format(Locale.ROOT, "color=c=black:s=%dx%d:d=%.6f", canvasWidth, canvasHeight, durationSeconds);
+            return new Plan(canvasWidth, canvasHeight, filter, "black", true);
+        }
+
+        List<String> steps = new ArrayList<>();
+        List<String> filters = new ArrayList<>();
+        if (scaledWidth != originalWidth || scaledHeight != originalHeight) {
+            filters.add(String.format(Locale.ROOT, "scale=%d:%d:flags=lanczos", scaledWidth, scaledHeight));
+            steps.add("scale");
+        }
+        if (visibleWidth < scaledWidth || visibleHeight < scaledHeight) {
+            filters.add(String.format(Locale.ROOT, "crop=%d:%d:%d:%d", visibleWidth, visibleHeight, left - x, top - y));
+            steps.add("crop");
+        }
+        if (visibleWidth < canvasWidth || visibleHeight < canvasHeight) {
+            filters.add(String.format(Locale.ROOT, "pad=%d:%d:%d:%d:color=black", canvasWidth, canvasHeight, left, top));
+            steps.add("pad");
+        }
+        // The black canvas had square pixels; keep that whatever scale did to the aspect
+        filters.add("setsar=1");
+        String mode = steps.isEmpty() ? "passthrough" : String.join("+", steps);
+        return new Plan(canvasWidth, canvasHeight, String.join(",", filters), mode, false);
+    }
+
+    private static int even(int value) {
+        return value % 2 == 0 ? value : value + 1;
+    }
+
+    private static int floorEven(int value) {
+        return Math.floorDiv(value, 2) * 2;
+    }
+}
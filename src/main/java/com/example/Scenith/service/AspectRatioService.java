@@ -1,5 +1,6 @@
 package com.example.Scenith.service;
 
+import com.example.Scenith.dto.AspectRatioTransformRequest;
 import com.example.Scenith.entity.AspectRatioMedia;
 import com.example.Scenith.entity.User;
 import com.example.Scenith.repository.AspectRatioMediaRepository;
@@ -8,7 +9,10 @@ import com.example.Scenith.security.JwtUtil;
 import com.example.Scenith.sqs.SqsService;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import lombok.RequiredArgsConstructor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -20,8 +24,8 @@ import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.*;
-import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -37,6 +41,11 @@ public class AspectRatioService {
     private final CloudflareR2Service cloudflareR2Service;
     private final SqsService sqsService;
     private final ObjectMapper objectMapper;
+    private final JobProgressService jobProgressService;
+    private final MediaProcessRunner mediaProcessRunner;
+    private final EncodingPolicyService encodingPolicyService;
+    private final AspectRatioTransformBuffer transformBuffer;
+    private final PreviewProxyService previewProxyService;
 
     @Value("${app.base-dir:/tmp}")
     private String baseDir;
@@ -50,6 +59,21 @@ public class AspectRatioService {
     @Value("${sqs.queue.url}")
     private String aspectRatioQueueUrl;
 
+    @Value("${aspect-ratio.preview.max-height:360}")
+    private int previewMaxHeight;
+
+    @Value("${aspect-ratio.preview.clip-seconds:3}")
+    private double previewClipSeconds;
+
+    private record SourceInfo(int width, int height, double duration) {
+    }
+
+    // Originals never change after upload, so their probe results can be reused by every preview
+    private final Cache<Long, SourceInfo> sourceInfoCache = Caffeine.newBuilder()
+            .expireAfterAccess(Duration.ofHours(1))
+            .maximumSize(5_000)
+            .build();
+
     public AspectRatioMedia uploadMedia(User user, MultipartFile mediaFile) throws IOException {
         logger.info("Uploading media for user: {}", user.getId());
 
@@ -131,180 +155,100 @@ public class AspectRatioService {
         return media;
     }
 
+    /**
+     * Combined position/scale/output size edit for the editor's sliders. Applied to the transform
+     * buffer and written once the edits settle; returns the new transform and its version.
+     */
+    public AspectRatioTransformBuffer.Transform updateTransform(User user, Long mediaId, AspectRatioTransformRequest request) {
+        boolean clearResolution = Boolean.TRUE.equals(request.getClearOutputResolution());
+        AspectRatioTransformBuffer.Edit edit = new AspectRatioTransformBuffer.Edit(
+                request.getPositionX(),
+                request.getPositionY(),
+                validScale(request.getScale()),
+                clearResolution ? null : validDimension(request.getOutputWidth(), "Output width"),
+                clearResolution ? null : validDimension(request.getOutputHeight(), "Output height"),
+                clearResolution,
+                clearResolution);
+        return transformBuffer.apply(user.getId(), mediaId, edit, request.getBaseVersion());
+    }
+
     public AspectRatioMedia updatePositionX(User user, Long mediaId, Integer positionX) throws IOException {
         logger.info("Updating positionX for user: {}, mediaId: {}", user.getId(), mediaId);
-
-        AspectRatioMedia media = aspectRatioMediaRepository.findById(mediaId)
-                .orElseThrow(() -> {
-                    logger.error("Media not found for id: {}", mediaId);
-                    return new IllegalArgumentException("Media not found");
-                });
-
-        if (!media.getUser().getId().equals(user.getId())) {
-            logger.error("User {} not authorized to update positionX for media {}", user.getId(), mediaId);
-            throw new IllegalArgumentException("Not authorized to update positionX for this media");
-        }
-
-        media.setPositionX(positionX != null ? positionX : 0);
-        media.setStatus("CONFIGURED");
-        aspectRatioMediaRepository.save(media);
-
-        logger.info("Successfully updated positionX for user: {}, mediaId: {}", user.getId(), mediaId);
-        return media;
+        return applyNow(user, mediaId, new AspectRatioTransformBuffer.Edit(
+                positionX != null ? positionX : 0, null, null, null, null, false, false));
     }
 
     public AspectRatioMedia updatePositionY(User user, Long mediaId, Integer positionY) throws IOException {
         logger.info("Updating positionY for user: {}, mediaId: {}", user.getId(), mediaId);
-
-        AspectRatioMedia media = aspectRatioMediaRepository.findById(mediaId)
-                .orElseThrow(() -> {
-                    logger.error("Media not found for id: {}", mediaId);
-                    return new IllegalArgumentException("Media not found");
-                });
-
-        if (!media.getUser().getId().equals(user.getId())) {
-            logger.error("User {} not authorized to update positionY for media {}", user.getId(), mediaId);
-            throw new IllegalArgumentException("Not authorized to update positionY for this media");
-        }
-
-        media.setPositionY(positionY != null ? positionY : 0);
-        media.setStatus("CONFIGURED");
-        aspectRatioMediaRepository.save(media);
-
-        logger.info("Successfully updated positionY for user: {}, mediaId: {}", user.getId(), mediaId);
-        return media;
+        return applyNow(user, mediaId, new AspectRatioTransformBuffer.Edit(
+                null, positionY != null ? positionY : 0, null, null, null, false, false));
     }
 
     public AspectRatioMedia updateScale(User user, Long mediaId, Double scale) throws IOException {
         logger.info("Updating scale for user: {}, mediaId: {}", user.getId(), mediaId);
-
-        AspectRatioMedia media = aspectRatioMediaRepository.findById(mediaId)
-                .orElseThrow(() -> {
-                    logger.error("Media not found for id: {}", mediaId);
-                    return new IllegalArgumentException("Media not found");
-                });
-
-        if (!media.getUser().getId().equals(user.getId())) {
-            logger.error("User {} not authorized to update scale for media {}", user.getId(), mediaId);
-            throw new IllegalArgumentException("Not authorized to update scale for this media");
-        }
-
-        if (scale != null && scale <= 0.0) {
-            logger.error("Invalid scale value: {}", scale);
-            throw new IllegalArgumentException("Scale must be positive");
-        }
-
-        media.setScale(scale != null ? scale : 1.0);
-        media.setStatus("CONFIGURED");
-        aspectRatioMediaRepository.save(media);
-
-        logger.info("Successfully updated scale for user: {}, mediaId: {}", user.getId(), mediaId);
-        return media;
+        return applyNow(user, mediaId, new AspectRatioTransformBuffer.Edit(
+                null, null, scale != null ? validScale(scale) : 1.0, null, null, false, false));
     }
 
     public AspectRatioMedia updateOutputWidth(User user, Long mediaId, Integer width) throws IOException {
         logger.info("Updating output width for user: {}, mediaId: {}", user.getId(), mediaId);
-
-        AspectRatioMedia media = aspectRatioMediaRepository.findById(mediaId)
-                .orElseThrow(() -> {
-                    logger.error("Media not found for id: {}", mediaId);
-                    return new IllegalArgumentException("Media not found");
-                });
-
-        if (!media.getUser().getId().equals(user.getId())) {
-            logger.error("User {} not authorized to update output width for media {}", user.getId(), mediaId);
-            throw new IllegalArgumentException("Not authorized to update output width for this media");
-        }
-
-        if (width != null && width <= 0) {
-            logger.error("Invalid output width: {}", width);
-            throw new IllegalArgumentException("Output width must be positive");
-        }
-
-        if (width != null) {
-            width = width % 2 == 0 ? width : width + 1;
-        }
-
-        media.setOutputWidth(width);
-        media.setStatus("CONFIGURED");
-        aspectRatioMediaRepository.save(media);
-
-        logger.info("Successfully updated output width for user: {}, mediaId: {}", user.getId(), mediaId);
-        return media;
+        return applyNow(user, mediaId, new AspectRatioTransformBuffer.Edit(
+                null, null, null, validDimension(width, "Output width"), null, width == null, false));
     }
 
     public AspectRatioMedia updateOutputHeight(User user, Long mediaId, Integer height) throws IOException {
         logger.info("Updating output height for user: {}, mediaId: {}", user.getId(), mediaId);
-
-        AspectRatioMedia media = aspectRatioMediaRepository.findById(mediaId)
-                .orElseThrow(() -> {
-                    logger.error("Media not found for id: {}", mediaId);
-                    return new IllegalArgumentException("Media not found");
-                });
-
-        if (!media.getUser().getId().equals(user.getId())) {
-            logger.error("User {} not authorized to update output height for media {}", user.getId(), mediaId);
-            throw new IllegalArgumentException("Not authorized to update output height for this media");
-        }
-
-        if (height != null && height <= 0) {
-            logger.error("Invalid output height: {}", height);
-            throw new IllegalArgumentException("Output height must be positive");
-        }
-
-        if (height != null) {
-            height = height % 2 == 0 ? height : height + 1;
-        }
-
-        media.setOutputHeight(height);
-        media.setStatus("CONFIGURED");
-        aspectRatioMediaRepository.save(media);
-
-        logger.info("Successfully updated output height for user: {}, mediaId: {}", user.getId(), mediaId);
-        return media;
+        return applyNow(user, mediaId, new AspectRatioTransformBuffer.Edit(
+                null, null, null, null, validDimension(height, "Output height"), false, height == null));
     }
 
     public AspectRatioMedia updateOutputResolution(User user, Long mediaId, Integer width, Integer height) throws IOException {
         logger.info("Updating output resolution for user: {}, mediaId: {}", user.getId(), mediaId);
+        return applyNow(user, mediaId, new AspectRatioTransformBuffer.Edit(
+                null, null, null, validDimension(width, "Output width"), validDimension(height, "Output height"), false, false));
+    }
 
-        AspectRatioMedia media = aspectRatioMediaRepository.findById(mediaId)
-                .orElseThrow(() -> {
-                    logger.error("Media not found for id: {}", mediaId);
-                    return new IllegalArgumentException("Media not found");
-                });
+    /**
+     * Single-field edits keep their write-through behaviour, but go through the transform buffer
+     * so they cannot be overwritten by older buffered slider edits. A flush that conflicts re-applies
+     * the edit on the current row; if the row kept changing, the edit stays buffered and the caller
+     * gets an error instead of a row without it.
+     */
+    private AspectRatioMedia applyNow(User user, Long mediaId, AspectRatioTransformBuffer.Edit edit) throws IOException {
+        transformBuffer.apply(user.getId(), mediaId, edit, null);
+        transformBuffer.flush(mediaId);
+        if (transformBuffer.get(mediaId) != null) {
+            throw new IOException("Transform of media " + mediaId + " is still being written, retry shortly");
+        }
+        return aspectRatioMediaRepository.findById(mediaId)
+                .orElseThrow(() -> new IllegalArgumentException("Media not found"));
+    }
 
-        if (!media.getUser().getId().equals(user.getId())) {
-            logger.error("User {} not authorized to update output resolution for media {}", user.getId(), mediaId);
-            throw new IllegalArgumentException("Not authorized to update output resolution for this media");
+    private static Double validScale(Double scale) {
+        if (scale != null && scale <= 0.0) {
+            logger.error("Invalid scale value: {}", scale);
+            throw new IllegalArgumentException("Scale must be positive");
         }
+        return scale;
+    }
 
-        if (width != null) {
-            if (width <= 0) {
-                logger.error("Invalid output width: {}", width);
-                throw new IllegalArgumentException("Output width must be positive");
-            }
-            width = width % 2 == 0 ? width : width + 1;
-            media.setOutputWidth(width);
+    /**
+     * Positive and rounded up to even, as yuv420p requires; null stays null.
+     */
+    private static Integer validDimension(Integer value, String name) {
+        if (value == null) {
+            return null;
         }
-
-        if (height != null) {
-            if (height <= 0) {
-                logger.error("Invalid output height: {}", height);
-                throw new IllegalArgumentException("Output height must be positive");
-            }
-            height = height % 2 == 0 ? height : height + 1;
-            media.setOutputHeight(height);
+        if (value <= 0) {
+            logger.error("Invalid {}: {}", name.toLowerCase(), value);
+            throw new IllegalArgumentException(name + " must be positive");
         }
-
-        media.setStatus("CONFIGURED");
-        aspectRatioMediaRepository.save(media);
-
-        logger.info("Successfully updated output resolution for user: {}, mediaId: {}", user.getId(), mediaId);
-        return media;
+        return value % 2 == 0 ? value : value + 1;
     }
 
     public AspectRatioMedia initiateProcessing(User user, Long mediaId) throws IOException {
         logger.info("Initiating aspect ratio processing for user: {}, mediaId: {}", user.getId(), mediaId);
+        transformBuffer.flush(mediaId);
 
         AspectRatioMedia media = aspectRatioMediaRepository.findById(mediaId)
                 .orElseThrow(() -> {
@@ -377,6 +321,7 @@ public class AspectRatioService {
         media.setStatus("PROCESSING");
         media.setProgress(20.0);
         aspectRatioMediaRepository.save(media);
+        jobProgressService.publish(JobProgressService.JOB_ASPECT_RATIO, mediaId, "PROCESSING", 20.0);
 
         Path baseDirPath = Paths.get(baseDir).toAbsolutePath().normalize();
         Path tempDir = baseDirPath.resolve("temp/aspect-ratio/" + mediaId).toAbsolutePath().normalize();
@@ -441,6 +386,7 @@ public class AspectRatioService {
             media.setStatus("SUCCESS");
             media.setProgress(100.0);
             aspectRatioMediaRepository.save(media);
+            jobProgressService.publish(JobProgressService.JOB_ASPECT_RATIO, mediaId, "SUCCESS", 100.0);
 
             logger.info("Successfully processed aspect ratio for mediaId: {}", mediaId);
 
@@ -449,13 +395,94 @@ public class AspectRatioService {
             media.setStatus("FAILED");
             media.setProgress(0.0);
             aspectRatioMediaRepository.save(media);
+            jobProgressService.publish(JobProgressService.JOB_ASPECT_RATIO, mediaId, "FAILED", 0.0);
             throw e;
         } finally {
             cleanUpTempFiles(tempDir);
         }
     }
 
+    /**
+     * Render a low-res preview of the result, so the editor can show the current position and scale
+     * without a full render: one JPEG frame, or a {@code clip-seconds} MP4 when {@code clip} is set.
+     * Position and scale default to the saved values. Rendered from the upload's preview proxy in a
+     * preview slot; nothing is stored.
+     */
+    public byte[] renderPreview(User user, Long mediaId, Integer positionX, Integer positionY, Double scale, Double time,
+                                boolean clip) throws IOException, InterruptedException {
+        AspectRatioMedia media = findOwnedMedia(mediaId, user);
+        // Slider edits not yet written are newer than the row
+        AspectRatioTransformBuffer.Transform buffered = transformBuffer.get(mediaId);
+        Integer savedX = buffered != null ? buffered.positionX() : media.getPositionX();
+        Integer savedY = buffered != null ? buffered.positionY() : media.getPositionY();
+        Double savedScale = buffered != null ? buffered.scale() : media.getScale();
+        Integer outputWidth = buffered != null ? buffered.outputWidth() : media.getOutputWidth();
+        Integer outputHeight = buffered != null ? buffered.outputHeight() : media.getOutputHeight();
+        if (media.getAspectRatio() == null && (outputWidth == null || outputHeight == null)) {
+            throw new IllegalArgumentException("Aspect ratio or output resolution must be set before previewing");
+        }
+        int x = positionX != null ? positionX : savedX != null ? savedX : 0;
+        int y = positionY != null ? positionY : savedY != null ? savedY : 0;
+        double s = scale != null ? scale : savedScale != null ? savedScale : 1.0;
+        if (s <= 0.0 || s > 10.0) {
+            throw new IllegalArgumentException("Scale must be greater than 0 and at most 10");
+        }
+
+        SourceInfo source = sourceInfoCache.getIfPresent(mediaId);
+        if (source == null) {
+            source = probeSource(cloudflareR2Service.generatePresignedUrl(media.getOriginalPath(), 600));
+            sourceInfoCache.put(mediaId, source);
+        }
+        PreviewProxyService.Proxy proxy = previewProxyService.proxy(media.getOriginalPath());
+        double seek = time != null ? time : Math.min(1.0, source.duration() / 2);
+
+        // Positions and output size are in source pixels; the layout is the same at proxy size
+        double factor = (double) proxy.height() / source.height();
+        AspectRatioLayout.Plan plan = AspectRatioLayout.plan(media.getAspectRatio(),
+                outputWidth != null ? (int) Math.round(outputWidth * factor) : null,
+                outputHeight != null ? (int) Math.round(outputHeight * factor) : null,
+                (int) Math.round(x * factor), (int) Math.round(y * factor), s, proxy.width(), proxy.height(), 1);
+        // -vf takes no source filter, so an off-canvas source becomes its frame painted black
+        String filter = plan.offCanvas()
+                ? String.format(Locale.ROOT, "scale=%d:%d,setsar=1,drawbox=c=black:t=fill", plan.canvasWidth(), plan.canvasHeight())
+                : plan.filter();
+        filter += ",scale=-2:'min(ih," + previewMaxHeight + ")'";
+
+        return clip
+                ? previewProxyService.renderClip(proxy, seek, previewClipSeconds, filter, "aspect-ratio-preview")
+                : previewProxyService.renderFrame(proxy, seek, filter, "aspect-ratio-preview");
+    }
+
+    private SourceInfo probeSource(String input) throws IOException, InterruptedException {
+        List<String> command = List.of(
+                ffprobePath,
+                "-v", "error",
+                "-select_streams", "v:0",
+                "-show_entries", "stream=width,height:format=duration",
+                "-of", "json",
+                input);
+        StringBuilder json = new StringBuilder();
+        mediaProcessRunner.runChecked(MediaProcessRunner.spec(command)
+                .label("aspect-ratio-probe")
+                .separateStderr()
+                .onLine(json::append)
+                .timeout(Duration.ofSeconds(30)));
+        JsonNode root = objectMapper.readTree(json.toString());
+        JsonNode stream = root.path("streams").path(0);
+        int width = stream.path("width").asInt(0);
+        int height = stream.path("height").asInt(0);
+        if (width <= 0 || height <= 0) {
+            throw new IOException("No video stream found in media");
+        }
+        return new SourceInfo(width, height, root.path("format").path("duration").asDouble(0));
+    }
+
     public AspectRatioMedia getMediaStatus(Long mediaId, User user) {
+        transformBuffer.flush(mediaId);
+        return findOwnedMedia(mediaId, user);
+    }
+
+    private AspectRatioMedia findOwnedMedia(Long mediaId, User user) {
         AspectRatioMedia media = aspectRatioMediaRepository.findById(mediaId)
                 .orElseThrow(() -> new RuntimeException("Media not found: " + mediaId));
 
@@ -467,6 +494,7 @@ public class AspectRatioService {
     }
 
     public List<AspectRatioMedia> getUserAspectRatioMedia(User user) {
+        transformBuffer.flushUser(user.getId());
         return aspectRatioMediaRepository.findByUser(user);
     }
 
@@ -627,57 +655,18 @@ public class AspectRatioService {
             double totalDuration
     ) throws IOException, InterruptedException {
 
-        int canvasWidth, canvasHeight;
-
-        if (outputWidth != null && outputHeight != null) {
-            canvasWidth = outputWidth;
-            canvasHeight = outputHeight;
-        } else if (aspectRatio != null) {
-            String[] ratioParts = aspectRatio.split(":");
-            int targetWidth = Integer.parseInt(ratioParts[0]);
-            int targetHeight = Integer.parseInt(ratioParts[1]);
-            double targetAspectRatio = (double) targetWidth / targetHeight;
-
-            if (originalWidth / (double) originalHeight > targetAspectRatio) {
-                canvasWidth = originalWidth;
-                canvasHeight = (int) (canvasWidth / targetAspectRatio);
-            } else {
-                canvasHeight = originalHeight;
-                canvasWidth = (int) (canvasHeight * targetAspectRatio);
-            }
-        } else {
-            throw new IllegalStateException("Either output resolution or aspect ratio must be specified");
-        }
-
-        canvasWidth = canvasWidth % 2 == 0 ? canvasWidth : canvasWidth + 1;
-        canvasHeight = canvasHeight % 2 == 0 ? canvasHeight : canvasHeight + 1;
-
-        int scaledWidth = (int) (originalWidth * scale);
-        int scaledHeight = (int) (originalHeight * scale);
-        scaledWidth = scaledWidth % 2 == 0 ? scaledWidth : scaledWidth + 1;
-        scaledHeight = scaledHeight % 2 == 0 ? scaledHeight : scaledHeight + 1;
+        AspectRatioLayout.Plan plan = AspectRatioLayout.plan(aspectRatio, outputWidth, outputHeight, positionX, positionY,
+                scale, originalWidth, originalHeight, totalDuration);
+        logger.info("Aspect ratio render for mediaId {}: {}x{} -> {}x{} ({})", mediaId, originalWidth, originalHeight,
+                plan.canvasWidth(), plan.canvasHeight(), plan.mode());
 
         List<String> command = new ArrayList<>();
         command.add(ffmpegPath);
         command.add("-i");
         command.add(inputFile.getAbsolutePath());
 
-        StringBuilder filterComplex = new StringBuilder();
-        filterComplex.append("color=c=black:s=").append(canvasWidth).append("x").append(canvasHeight)
-                .append(":d=").append(String.format("%.6f", totalDuration)).append("[base];");
-
-        filterComplex.append("[0:v]scale=");
-        filterComplex.append(String.format("%d:%d", scaledWidth, scaledHeight));
-        filterComplex.append(":flags=lanczos[scaled];");
-
-        String xExpr = String.format("(W/2)+(%d)-(w/2)", positionX);
-        String yExpr = String.format("(H/2)+(%d)-(h/2)", positionY);
-        filterComplex.append("[base][scaled]overlay=x='").append(xExpr)
-                .append("':y='").append(yExpr)
-                .append("':format=auto[vout]");
-
         command.add("-filter_complex");
-        command.add(filterComplex.toString());
+        command.add(plan.offCanvas() ? plan.filter() + "[vout]" : "[0:v]" + plan.filter() + "[vout]");
 
         command.add("-map");
         command.add("0:a?");
@@ -685,10 +674,8 @@ public class AspectRatioService {
         command.add("[vout]");
         command.add("-c:v");
         command.add("libx264");
-        command.add("-preset");
-        command.add("medium");
-        command.add("-crf");
-        command.add("23");
+        command.addAll(encodingPolicyService.choose(new EncodingPolicyService.Request(
+                EncodingPolicyService.TASK_ASPECT_RATIO, plan.canvasHeight(), totalDuration, "medium", "23", null)).encoderArgs());
         command.add("-pix_fmt");
         command.add("yuv420p");
         command.add("-c:a");
@@ -707,13 +694,6 @@ public class AspectRatioService {
         AspectRatioMedia media = aspectRatioMediaRepository.findById(mediaId)
                 .orElseThrow(() -> new RuntimeException("Media not found: " + mediaId));
 
-        List<String> updatedCommand = new ArrayList<>(command);
-        updatedCommand.add("-progress");
-        updatedCommand.add("pipe:");
-
-        ProcessBuilder processBuilder = new ProcessBuilder(updatedCommand);
-        processBuilder.redirectErrorStream(true);
-
         String absoluteBaseDir = baseDir.startsWith("/") ? baseDir : "/" + baseDir;
         String tempDirPath = absoluteBaseDir + File.separator + "videoeditor" + File.separator + "logs";
         File tempDir = new File(tempDirPath);
@@ -727,63 +707,34 @@ public class AspectRatioService {
 
         File commandLogFile = new File(tempDir, "ffmpeg_command_aspect_ratio_" + mediaId + ".txt");
         try (PrintWriter writer = new PrintWriter(commandLogFile, "UTF-8")) {
-            writer.println(String.join(" ", updatedCommand));
-        }
-
-        logger.debug("Executing FFmpeg command: {}", String.join(" ", updatedCommand));
-        Process process = processBuilder.start();
-        StringBuilder output = new StringBuilder();
-        double lastProgress = -1.0;
-
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                output.append(line).append("\n");
-                logger.debug("FFmpeg: {}", line);
-                if (line.startsWith("out_time_ms=") && !line.equals("out_time_ms=N/A")) {
-                    try {
-                        long outTimeUs = Long.parseLong(line.replace("out_time_ms=", ""));
-                        double currentTime = outTimeUs / 1_000_000.0;
-                        double totalProgress = Math.min(currentTime / totalDuration * 100.0, 100.0);
-
-                        int roundedProgress = (int) Math.round(totalProgress);
-                        if (roundedProgress != (int) lastProgress && roundedProgress >= 0 && roundedProgress <= 100 && roundedProgress % 10 == 0) {
-                            media.setProgress((double) roundedProgress);
-                            media.setStatus("PROCESSING");
-                            aspectRatioMediaRepository.save(media);
-                            logger.info("Progress updated: {}% for mediaId: {}", roundedProgress, mediaId);
-                            lastProgress = roundedProgress;
-                        }
-                    } catch (NumberFormatException e) {
-                        logger.error("Failed to parse out_time_ms: {}", line);
+            writer.println(String.join(" ", command));
+        }
+
+        int[] lastProgress = {-1};
+        MediaProcessRunner.Result result = mediaProcessRunner.run(MediaProcessRunner.spec(command)
+                .label("aspect-ratio")
+                .mediaDuration(totalDuration)
+                .onProgress(progress -> {
+                    int roundedProgress = (int) Math.round(progress.fraction() * 100.0);
+                    if (roundedProgress != lastProgress[0] && roundedProgress >= 0 && roundedProgress <= 100) {
+                        // Pushed to subscribers; the media row is written at state transitions (and throttled in multi-node mode)
+                        jobProgressService.publish(JobProgressService.JOB_ASPECT_RATIO, mediaId, "PROCESSING", roundedProgress);
+                        lastProgress[0] = roundedProgress;
                     }
-                }
-            }
-        }
-
-        boolean completed = process.waitFor(30, TimeUnit.MINUTES);
-        if (!completed) {
-            process.destroyForcibly();
-            media.setStatus("FAILED");
-            media.setProgress(0.0);
-            aspectRatioMediaRepository.save(media);
-            File errorLogFile = new File(tempDir, "ffmpeg_error_aspect_ratio_" + mediaId + ".txt");
-            try (PrintWriter writer = new PrintWriter(errorLogFile, "UTF-8")) {
-                writer.println(output.toString());
-            }
-            throw new RuntimeException("FFmpeg process timed out after 30 minutes for mediaId: " + mediaId + ". Output logged to: " + errorLogFile.getAbsolutePath());
-        }
+                }));
 
-        int exitCode = process.exitValue();
-        if (exitCode != 0) {
+        if (!result.isSuccess()) {
             File errorLogFile = new File(tempDir, "ffmpeg_error_aspect_ratio_" + mediaId + ".txt");
             try (PrintWriter writer = new PrintWriter(errorLogFile, "UTF-8")) {
-                writer.println(output.toString());
+                writer.println(result.getLogTail());
             }
             media.setStatus("FAILED");
             media.setProgress(0.0);
             aspectRatioMediaRepository.save(media);
-            throw new RuntimeException("FFmpeg process failed with exit code: " + exitCode + " for mediaId: " + mediaId + ". Output logged to: " + errorLogFile.getAbsolutePath());
+            if (result.isTimedOut()) {
+                throw new RuntimeException("FFmpeg process timed out after " + result.getElapsedMillis() / 1000 + " seconds for mediaId: " + mediaId + ". Output logged to: " + errorLogFile.getAbsolutePath());
+            }
+            throw new RuntimeException("FFmpeg process failed with exit code: " + result.getExitCode() + " for mediaId: " + mediaId + ". Output logged to: " + errorLogFile.getAbsolutePath());
         }
     }
 
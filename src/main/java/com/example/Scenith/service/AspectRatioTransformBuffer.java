@@ -0,0 +1,367 @@
+package com.example.Scenith.service;
+
+import com.example.Scenith.entity.AspectRatioMedia;
+import com.example.Scenith.exception.TransformVersionConflictException;
+import com.example.Scenith.repository.AspectRatioMediaRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Write-behind buffer for aspect ratio transform edits (position, scale, output size).
+ *
+ * The editor sends an edit per slider tick. Edits are applied to an in-memory copy of the media's
+ * transform and acknowledged right away; the copy is written once the edits settle (no edit for
+ * {@code debounce-ms}, or {@code max-delay-ms} after the first unwritten one), so a drag costs one
+ * UPDATE instead of a find and a save per tick.
+ *
+ * Every edit bumps the transform version. A client may send the version it last saw and gets a
+ * conflict when another edit got in first. Writes are conditional on the version last written, so
+ * when two nodes buffer the same media the later write does not blindly overwrite: it reloads the
+ * row, re-applies the fields its own unwritten edits changed on top, and writes again. An edit that
+ * was acknowledged is never dropped. Before a clean copy (nothing unwritten) takes an edit, its
+ * version is checked against the row and a stale copy is reloaded, so conflicts are judged against
+ * what is stored.
+ *
+ * Readers that need the database current (processing, listing) call {@link #flush(Long)} first.
+ */
+@Component
+public class AspectRatioTransformBuffer {
+    private static final Logger logger = LoggerFactory.getLogger(AspectRatioTransformBuffer.class);
+
+    private final AspectRatioMediaRepository aspectRatioMediaRepository;
+    private final MeterRegistry meterRegistry;
+    private final Map<Long, State> states = new ConcurrentHashMap<>();
+
+    @Value("${aspect-ratio.transform.debounce-ms:750}")
+    private long debounceMillis;
+
+    @Value("${aspect-ratio.transform.max-delay-ms:5000}")
+    private long maxDelayMillis;
+
+    // Clean copies are dropped after this long without edits
+    @Value("${aspect-ratio.transform.idle-evict-ms:600000}")
+    private long idleEvictMillis;
+
+    // Reload-and-reapply rounds per flush when the row keeps changing underneath
+    private static final int MAX_REBASES = 3;
+
+    public AspectRatioTransformBuffer(AspectRatioMediaRepository aspectRatioMediaRepository, MeterRegistry meterRegistry) {
+        this.aspectRatioMediaRepository = aspectRatioMediaRepository;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Validated edit; null fields are left unchanged.
+     */
+    public record Edit(Integer positionX, Integer positionY, Double scale, Integer outputWidth, Integer outputHeight,
+                       boolean clearOutputWidth, boolean clearOutputHeight) {
+    }
+
+    /**
+     * Current transform of a media; pending when not yet written to the database.
+     */
+    public record Transform(Long mediaId, Integer positionX, Integer positionY, Double scale, Integer outputWidth,
+                            Integer outputHeight, long version, boolean pending) {
+    }
+
+    private static final class State {
+        private final Long mediaId;
+        private final Long userId;
+        private final Object flushLock = new Object();
+        private Integer positionX;
+        private Integer positionY;
+        private Double scale;
+        private Integer outputWidth;
+        private Integer outputHeight;
+        private long version;
+        private long persistedVersion;
+        private long firstDirtyAt;
+        private long lastEditAt;
+        // Fields changed since persistedVersion, merged; null when nothing is unwritten
+        private Edit unwritten;
+        // Set once the copy leaves the map; edits then go to a fresh copy
+        private boolean removed;
+
+        private State(AspectRatioMedia media) {
+            this.mediaId = media.getId();
+            this.userId = media.getUser().getId();
+            load(media);
+            this.lastEditAt = System.currentTimeMillis();
+        }
+
+        private void load(AspectRatioMedia media) {
+            this.positionX = media.getPositionX();
+            this.positionY = media.getPositionY();
+            this.scale = media.getScale();
+            this.outputWidth = media.getOutputWidth();
+            this.outputHeight = media.getOutputHeight();
+            this.version = media.getTransformVersion() != null ? media.getTransformVersion() : 0;
+            this.persistedVersion = version;
+        }
+
+        private void applyFields(Edit edit) {
+            if (edit.positionX() != null) positionX = edit.positionX();
+            if (edit.positionY() != null) positionY = edit.positionY();
+            if (edit.scale() != null) scale = edit.scale();
+            if (edit.outputWidth() != null) outputWidth = edit.outputWidth();
+            if (edit.outputHeight() != null) outputHeight = edit.outputHeight();
+            if (edit.clearOutputWidth()) outputWidth = null;
+            if (edit.clearOutputHeight()) outputHeight = null;
+        }
+
+        private boolean dirty() {
+            return firstDirtyAt > 0;
+        }
+
+        private Transform snapshot() {
+            return new Transform(mediaId, positionX, positionY, scale, outputWidth, outputHeight, version, dirty());
+        }
+    }
+
+    /**
+     * Apply an edit in memory.
+     *
+     * @param baseVersion version the client last saw, or null to apply unconditionally
+     * @throws TransformVersionConflictException when baseVersion is stale
+     */
+    public Transform apply(Long userId, Long mediaId, Edit edit, Long baseVersion) {
+        while (true) {
+            State state = state(userId, mediaId);
+            if (!current(state)) {
+                continue;
+            }
+            synchronized (state) {
+                if (state.removed) {
+                    continue;
+                }
+                return apply(state, edit, baseVersion);
+            }
+        }
+    }
+
+    private Transform apply(State state, Edit edit, Long baseVersion) {
+        if (baseVersion != null && baseVersion != state.version) {
+            meterRegistry.counter("scenith.aspect_ratio.transform", "event", "conflict").increment();
+            throw new TransformVersionConflictException("Transform was changed (version " + state.version
+                    + ", expected " + baseVersion + ")", state.snapshot());
+        }
+        state.applyFields(edit);
+        state.unwritten = merge(state.unwritten, edit);
+
+        long now = System.currentTimeMillis();
+        state.version++;
+        state.lastEditAt = now;
+        if (state.firstDirtyAt == 0) {
+            state.firstDirtyAt = now;
+        }
+        meterRegistry.counter("scenith.aspect_ratio.transform", "event", "edit").increment();
+        return state.snapshot();
+    }
+
+    /**
+     * Buffered transform of a media, or null when it has no unwritten edits (the row is current).
+     */
+    public Transform get(Long mediaId) {
+        State state = states.get(mediaId);
+        if (state == null) {
+            return null;
+        }
+        synchronized (state) {
+            return state.dirty() ? state.snapshot() : null;
+        }
+    }
+
+    /**
+     * Write the media's pending edits now.
+     */
+    public void flush(Long mediaId) {
+        State state = states.get(mediaId);
+        if (state != null) {
+            flush(state);
+        }
+    }
+
+    public void flushUser(Long userId) {
+        states.values().stream()
+                .filter(state -> state.userId.equals(userId))
+                .forEach(this::flush);
+    }
+
+    @Scheduled(fixedDelayString = "${aspect-ratio.transform.flush-interval-ms:250}")
+    public void flushSettled() {
+        long now = System.currentTimeMillis();
+        for (State state : states.values()) {
+            boolean dirty;
+            long lastEditAt;
+            long firstDirtyAt;
+            synchronized (state) {
+                dirty = state.dirty();
+                lastEditAt = state.lastEditAt;
+                firstDirtyAt = state.firstDirtyAt;
+            }
+            if (dirty && (now - lastEditAt >= debounceMillis || now - firstDirtyAt >= maxDelayMillis)) {
+                flush(state);
+            } else if (!dirty && now - lastEditAt >= idleEvictMillis) {
+                synchronized (state) {
+                    if (!state.dirty()) {
+                        state.removed = true;
+                        states.remove(state.mediaId, state);
+                    }
+                }
+            }
+        }
+    }
+
+    @PreDestroy
+    public void flushAll() {
+        states.values().forEach(this::flush);
+    }
+
+    private State state(Long userId, Long mediaId) {
+        State state = states.get(mediaId);
+        if (state == null) {
+            AspectRatioMedia media = aspectRatioMediaRepository.findById(mediaId)
+                    .orElseThrow(() -> {
+                        logger.error("Media not found for id: {}", mediaId);
+                        return new IllegalArgumentException("Media not found");
+                    });
+            State loaded = new State(media);
+            state = states.putIfAbsent(mediaId, loaded);
+            if (state == null) {
+                state = loaded;
+            }
+        }
+        if (!state.userId.equals(userId)) {
+            logger.error("User {} not authorized to update transform for media {}", userId, mediaId);
+            throw new IllegalArgumentException("Not authorized to update transform for this media");
+        }
+        return state;
+    }
+
+    /**
+     * False (and the copy dropped) when the copy has no unwritten edits and the row has moved on
+     * since it was loaded; the caller then starts over from a fresh copy.
+     */
+    private boolean current(State state) {
+        long expectedVersion;
+        synchronized (state) {
+            if (state.removed) {
+                return false;
+            }
+            if (state.dirty()) {
+                return true;
+            }
+            expectedVersion = state.persistedVersion;
+        }
+        Long storedVersion = aspectRatioMediaRepository.findTransformVersion(state.mediaId).orElse(null);
+        if (storedVersion != null && storedVersion == expectedVersion) {
+            return true;
+        }
+        synchronized (state) {
+            if (state.dirty()) {
+                return true;
+            }
+            state.removed = true;
+            states.remove(state.mediaId, state);
+        }
+        meterRegistry.counter("scenith.aspect_ratio.transform", "event", "reload").increment();
+        return false;
+    }
+
+    private void flush(State state) {
+        // One writer per media, so a request-triggered flush and the scheduled one never race
+        synchronized (state.flushLock) {
+            for (int rebases = 0; ; rebases++) {
+                Transform pending;
+                long expectedVersion;
+                Edit written;
+                synchronized (state) {
+                    if (!state.dirty()) {
+                        return;
+                    }
+                    pending = state.snapshot();
+                    expectedVersion = state.persistedVersion;
+                    written = state.unwritten;
+                    state.unwritten = null;
+                }
+
+                int updated;
+                try {
+                    updated = aspectRatioMediaRepository.updateTransform(pending.mediaId(), pending.positionX(), pending.positionY(),
+                            pending.scale(), pending.outputWidth(), pending.outputHeight(), pending.version(), expectedVersion);
+                } catch (RuntimeException e) {
+                    // Left dirty; the next scheduled pass retries
+                    synchronized (state) {
+                        state.unwritten = merge(written, state.unwritten);
+                    }
+                    logger.warn("Failed to write transform of media {}: {}", pending.mediaId(), e.getMessage());
+                    return;
+                }
+
+                if (updated == 1) {
+                    synchronized (state) {
+                        state.persistedVersion = pending.version();
+                        if (state.version == pending.version()) {
+                            state.firstDirtyAt = 0;
+                        }
+                    }
+                    meterRegistry.counter("scenith.aspect_ratio.transform", "event", "flush").increment();
+                    logger.debug("Wrote transform of media {} at version {}", pending.mediaId(), pending.version());
+                    return;
+                }
+
+                // Written elsewhere (or deleted) since we loaded it: rebase our edits on the row
+                AspectRatioMedia media = aspectRatioMediaRepository.findById(state.mediaId).orElse(null);
+                synchronized (state) {
+                    Edit unwritten = merge(written, state.unwritten);
+                    if (media == null) {
+                        state.removed = true;
+                        states.remove(state.mediaId, state);
+                        logger.warn("Dropped buffered transform of media {}: media was deleted", state.mediaId);
+                        return;
+                    }
+                    long editedVersion = state.version;
+                    state.load(media);
+                    state.applyFields(unwritten);
+                    state.unwritten = unwritten;
+                    state.version = Math.max(editedVersion, state.persistedVersion) + 1;
+                }
+                meterRegistry.counter("scenith.aspect_ratio.transform", "event", "rebase").increment();
+                logger.info("Transform of media {} changed elsewhere since version {}; re-applied pending edits on version {}",
+                        state.mediaId, expectedVersion, media.getTransformVersion());
+                if (rebases + 1 >= MAX_REBASES) {
+                    // Still dirty; the next scheduled pass tries again
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * One edit with the effect of {@code first} followed by {@code second}.
+     */
+    private static Edit merge(Edit first, Edit second) {
+        if (first == null) {
+            return second;
+        }
+        if (second == null) {
+            return first;
+        }
+        return new Edit(
+                second.positionX() != null ? second.positionX() : first.positionX(),
+                second.positionY() != null ? second.positionY() : first.positionY(),
+                second.scale() != null ? second.scale() : first.scale(),
+                second.clearOutputWidth() ? null : second.outputWidth() != null ? second.outputWidth() : first.outputWidth(),
+                second.clearOutputHeight() ? null : second.outputHeight() != null ? second.outputHeight() : first.outputHeight(),
+                second.clearOutputWidth() || (second.outputWidth() == null && first.clearOutputWidth()),
+                second.clearOutputHeight() || (second.outputHeight() == null && first.clearOutputHeight()));
+    }
+}
@@ -0,0 +1,161 @@
+package com.example.Scenith.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background CDN warm-up for freshly uploaded assets.
+ *
+ * Uploads are confirmed by the R2 put/complete-multipart response, so the request thread
+ * returns immediately. This service then probes the CDN URL off the request thread with
+ * exponential backoff (no thread is held while waiting between probes) and pushes an
+ * "asset-status" SSE event to clients subscribed to the project once the asset is edge-ready.
+ */
+@Service
+@Profile("!test")
+public class CdnWarmupService {
+    private static final Logger logger = LoggerFactory.getLogger(CdnWarmupService.class);
+
+    public static final String STATUS_WARMING = "WARMING";
+    public static final String STATUS_EDGE_READY = "EDGE_READY";
+    public static final String STATUS_EDGE_TIMEOUT = "EDGE_TIMEOUT";
+
+    private static final long SSE_TIMEOUT_MS = 30 * 60 * 1000L;
+
+    private final CloudflareR2Service cloudflareR2Service;
+    private final ScheduledExecutorService scheduler;
+    private final Cache<String, String> statusByPath = Caffeine.newBuilder()
+            .expireAfterWrite(Duration.ofHours(1))
+            .maximumSize(10_000)
+            .build();
+    private final Map<Long, List<SseEmitter>> emittersByProject = new ConcurrentHashMap<>();
+
+    @Value("${cdn.warmup.max-attempts:8}")
+    private int maxAttempts;
+
+    @Value("${cdn.warmup.initial-delay-ms:1000}")
+    private long initialDelayMs;
+
+    public CdnWarmupService(CloudflareR2Service cloudflareR2Service,
+                            @Value("${cdn.warmup.threads:2}") int threads) {
+        this.cloudflareR2Service = cloudflareR2Service;
+        this.scheduler = Executors.newScheduledThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "Cdn-Warmup");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Start warming the CDN edge for an uploaded object. Returns immediately.
+     */
+    public void scheduleWarmup(Long projectId, String r2Path, String cdnUrl) {
+        statusByPath.put(r2Path, STATUS_WARMING);
+        scheduler.schedule(() -> probe(projectId, r2Path, cdnUrl, 0), 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Last known edge status for an R2 path, or null if no warm-up has been requested.
+     */
+    public String getStatus(String r2Path) {
+        return statusByPath.getIfPresent(r2Path);
+    }
+
+    /**
+     * Subscribe to edge-ready notifications for all assets of a project.
+     */
+    public SseEmitter subscribe(Long projectId) {
+        SseEmitter emitter = new SseEmitter(SSE_TIMEOUT_MS);
+        List<SseEmitter> emitters = emittersByProject.computeIfAbsent(projectId, id -> new CopyOnWriteArrayList<>());
+        emitters.add(emitter);
+        emitter.onCompletion(() -> removeEmitter(projectId, emitter));
+        emitter.onTimeout(() -> removeEmitter(projectId, emitter));
+        emitter.onError(e -> removeEmitter(projectId, emitter));
+        return emitter;
+    }
+
+    private void probe(Long projectId, String r2Path, String cdnUrl, int attempt) {
+        try {
+            if (cloudflareR2Service.isCdnUrlAvailable(cdnUrl)) {
+                logger.info("CDN edge ready after {} attempt(s): r2Path={}, projectId={}", attempt + 1, r2Path, projectId);
+                finish(projectId, r2Path, cdnUrl, STATUS_EDGE_READY);
+                return;
+            }
+        } catch (Exception e) {
+            logger.debug("CDN probe failed on attempt {}: r2Path={}, error={}", attempt + 1, r2Path, e.getMessage());
+        }
+
+        int nextAttempt = attempt + 1;
+        if (nextAttempt >= maxAttempts) {
+            logger.warn("CDN edge not ready after {} attempts: r2Path={}, cdnUrl={}, projectId={}",
+                    maxAttempts, r2Path, cdnUrl, projectId);
+            finish(projectId, r2Path, cdnUrl, STATUS_EDGE_TIMEOUT);
+            return;
+        }
+
+        long delay = Math.min(initialDelayMs * (1L << attempt), 30_000L); // Exponential backoff, max 30 seconds
+        scheduler.schedule(() -> probe(projectId, r2Path, cdnUrl, nextAttempt), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void finish(Long projectId, String r2Path, String cdnUrl, String status) {
+        statusByPath.put(r2Path, status);
+
+        Map<String, String> payload = new HashMap<>();
+        payload.put("r2Path", r2Path);
+        payload.put("cdnUrl", cdnUrl);
+        payload.put("status", status);
+        publish(projectId, "asset-status", payload);
+    }
+
+    /**
+     * Send an event to the project's asset-events subscribers.
+     */
+    public void publish(Long projectId, String eventName, Map<String, String> payload) {
+        List<SseEmitter> emitters = emittersByProject.get(projectId);
+        if (emitters == null || emitters.isEmpty()) {
+            return;
+        }
+
+        for (SseEmitter emitter : emitters) {
+            try {
+                emitter.send(SseEmitter.event().name(eventName).data(payload));
+            } catch (IOException | IllegalStateException e) {
+                logger.debug("Dropping closed SSE emitter for projectId={}: {}", projectId, e.getMessage());
+                removeEmitter(projectId, emitter);
+            }
+        }
+    }
+
+    private void removeEmitter(Long projectId, SseEmitter emitter) {
+        List<SseEmitter> emitters = emittersByProject.get(projectId);
+        if (emitters != null) {
+            emitters.remove(emitter);
+            if (emitters.isEmpty()) {
+                emittersByProject.remove(projectId, emitters);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,450 @@
+package com.example.Scenith.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Transcribes long media by splitting it into speech chunks and transcribing them in parallel
+ * on the {@link WhisperWorkerPool}.
+ *
+ * 1. ffmpeg silencedetect (energy-based voice activity detection) finds pauses
+ * 2. chunks of about {@code transcription.chunk.target-seconds} are cut in the middle of a pause;
+ *    where speech runs on past {@code max-seconds} the cut is hard and both sides get
+ *    {@code overlap-seconds} of extra audio so no word is lost at the boundary
+ * 3. each chunk is extracted as 16 kHz mono WAV and transcribed on its own worker request
+ * 4. segment times are shifted by the chunk offset; each chunk keeps only segments whose
+ *    midpoint lies in its own range, so the overlapped audio is not transcribed twice,
+ *    and an identical line repeated across a boundary is dropped
+ *
+ * Media shorter than {@code min-duration-seconds} is sent to a worker as one request.
+ *
+ * With a segment listener, segments are reported on the media timeline as each worker decodes
+ * them. Chunks run in parallel, so they arrive ordered within a chunk but not across chunks, and
+ * the boundary de-duplication of step 4 only applies to the returned list. Progress goes with
+ * them as the transcribed duration summed over chunks, so it never goes back when a later chunk
+ * reports before an earlier one.
+ */
+@Service
+public class ChunkedTranscriptionService {
+    private static final Logger logger = LoggerFactory.getLogger(ChunkedTranscriptionService.class);
+
+    private static final Pattern DURATION = Pattern.compile("Duration: (\\d+):(\\d+):(\\d+(?:\\.\\d+)?)");
+    private static final Pattern SILENCE_START = Pattern.compile("silence_start: (-?\\d+(?:\\.\\d+)?)");
+    private static final Pattern SILENCE_END = Pattern.compile("silence_end: (\\d+(?:\\.\\d+)?)");
+
+    private final WhisperWorkerPool whisperWorkerPool;
+    private final MediaProcessRunner mediaProcessRunner;
+    private ExecutorService chunkPool;
+
+    @Value("${app.ffmpeg-path:/usr/local/bin/ffmpeg}")
+    private String ffmpegPath;
+
+    @Value("${app.base-dir:/tmp}")
+    private String baseDir;
+
+    @Value("${transcription.chunk.min-duration-seconds:240}")
+    private double minDurationSeconds;
+
+    @Value("${transcription.chunk.target-seconds:120}")
+    private double targetSeconds;
+
+    @Value("${transcription.chunk.max-seconds:180}")
+    private double maxSeconds;
+
+    @Value("${transcription.chunk.overlap-seconds:1.5}")
+    private double overlapSeconds;
+
+    @Value("${transcription.vad.noise-db:-35}")
+    private int noiseDb;
+
+    @Value("${transcription.vad.min-silence-seconds:0.4}")
+    private double minSilenceSeconds;
+
+    // 0 = one chunk in flight per Whisper worker
+    @Value("${transcription.chunk.parallelism:0}")
+    private int parallelism;
+
+    // Model the per-request fallback scripts load when the worker pool is disabled
+    @Value("${whisper.script.model:base}")
+    private String scriptModel;
+
+    @Value("${whisper.worker.pool-size:2}")
+    private int workerPoolSize;
+
+    public ChunkedTranscriptionService(WhisperWorkerPool whisperWorkerPool, MediaProcessRunner mediaProcessRunner) {
+        this.whisperWorkerPool = whisperWorkerPool;
+        this.mediaProcessRunner = mediaProcessRunner;
+    }
+
+    /**
+     * A piece of the media: [start, end) is the range it owns, [cutStart, cutEnd) what is extracted.
+     */
+    record Chunk(int index, double start, double end, double cutStart, double cutEnd) {
+    }
+
+    record Silence(double start, double end) {
+        double middle() {
+            return (start + end) / 2;
+        }
+    }
+
+    /**
+     * Receives segments on the media timeline as they are transcribed.
+     */
+    @FunctionalInterface
+    public interface SegmentListener {
+        /**
+         * @param segments           new segments, possibly none
+         * @param transcribedSeconds media transcribed so far; never decreases
+         */
+        void accept(List<Map<String, Object>> segments, double transcribedSeconds);
+    }
+
+    /**
+     * Transcribed duration over all chunks: each chunk counts from its start up to its latest
+     * segment, and all of it once done.
+     */
+    static final class Progress {
+        private final double[] done;
+
+        Progress(int chunkCount) {
+            this.done = new double[chunkCount];
+        }
+
+        synchronized double advance(Chunk chunk, double until) {
+            done[chunk.index()] = Math.max(done[chunk.index()], Math.min(until, chunk.end()) - chunk.start());
+            double total = 0;
+            for (double seconds : done) {
+                total += seconds;
+            }
+            return total;
+        }
+
+        double complete(Chunk chunk) {
+            return advance(chunk, chunk.end());
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        int threads = parallelism > 0 ? parallelism : Math.max(1, workerPoolSize);
+        AtomicInteger threadIndex = new AtomicInteger();
+        chunkPool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "Transcription-Chunk-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        chunkPool.shutdownNow();
+    }
+
+    public boolean isEnabled() {
+        return whisperWorkerPool.isEnabled();
+    }
+
+    /**
+     * Whisper model a transcription runs with: the workers' model, or the fallback scripts' when
+     * the pool is disabled. Transcripts are cached per model.
+     */
+    public String model() {
+        return isEnabled() ? whisperWorkerPool.getModel() : scriptModel;
+    }
+
+    /**
+     * Transcribe an audio or video file.
+     *
+     * @param mode {@link WhisperWorkerPool#MODE_SUBTITLES} or {@link WhisperWorkerPool#MODE_SEGMENTS}
+     * @return list of {start, end, text} on the media's timeline
+     */
+    public List<Map<String, Object>> transcribe(File mediaFile, String mode) throws IOException, InterruptedException {
+        return transcribe(mediaFile, mode, null);
+    }
+
+    /**
+     * Transcribe an audio or video file, reporting segments to onSegments while chunks are transcribed.
+     * The listener may be called from several threads, one call at a time.
+     */
+    public List<Map<String, Object>> transcribe(File mediaFile, String mode, SegmentListener onSegments)
+            throws IOException, InterruptedException {
+        List<Silence> silences = new ArrayList<>();
+        double duration = detectSilences(mediaFile, silences);
+
+        if (duration <= 0 || duration < minDurationSeconds) {
+            // One request: segments arrive in order, so the latest end is the transcribed duration
+            double[] until = {0};
+            return whisperWorkerPool.transcribe(mediaFile, mode, onSegments == null ? null : partial -> {
+                for (Map<String, Object> segment : partial) {
+                    until[0] = Math.max(until[0], ((Number) segment.get("end")).doubleValue());
+                }
+                onSegments.accept(partial, until[0]);
+            });
+        }
+
+        List<Chunk> chunks = planChunks(duration, silences);
+        logger.info("Transcribing {} ({}s) in {} chunks", mediaFile.getName(), Math.round(duration), chunks.size());
+
+        Path workDir = Paths.get(baseDir).resolve("temp/transcribe/" + UUID.randomUUID()).toAbsolutePath().normalize();
+        Files.createDirectories(workDir);
+        String jobKey = MediaProcessRunner.currentJob();
+        Progress progress = new Progress(chunks.size());
+        List<Future<List<Map<String, Object>>>> futures = new ArrayList<>();
+        try {
+            for (Chunk chunk : chunks) {
+                boolean last = chunk.index() == chunks.size() - 1;
+                Consumer<List<Map<String, Object>>> chunkListener = onSegments == null ? null : partial -> {
+                    List<Map<String, Object>> shifted = new ArrayList<>();
+                    double until = 0;
+                    for (Map<String, Object> segment : partial) {
+                        Map<String, Object> owned = shift(chunk, last, segment);
+                        if (owned != null) {
+                            shifted.add(owned);
+                            until = Math.max(until, ((Number) owned.get("end")).doubleValue());
+                        }
+                    }
+                    if (!shifted.isEmpty()) {
+                        synchronized (onSegments) {
+                            onSegments.accept(shifted, progress.advance(chunk, until));
+                        }
+                    }
+                };
+                futures.add(chunkPool.submit(() -> {
+                    // Pool threads inherit the job, so cancelling it stops extraction and transcription
+                    MediaProcessRunner.bindJob(jobKey);
+                    try {
+                        List<Map<String, Object>> segments = transcribeChunk(mediaFile, chunk, workDir, mode, chunkListener);
+                        if (onSegments != null) {
+                            synchronized (onSegments) {
+                                onSegments.accept(List.of(), progress.complete(chunk));
+                            }
+                        }
+                        return segments;
+                    } finally {
+                        MediaProcessRunner.unbindJob();
+                    }
+                }));
+            }
+
+            List<List<Map<String, Object>>> results = new ArrayList<>();
+            for (Future<List<Map<String, Object>>> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof CancellationException cancelled) {
+                        throw cancelled;
+                    }
+                    throw cause instanceof IOException io ? io : new IOException("Chunk transcription failed: " + cause.getMessage(), cause);
+                }
+            }
+            return stitch(chunks, results);
+        } finally {
+            futures.forEach(future -> future.cancel(true));
+            deleteRecursively(workDir);
+        }
+    }
+
+    /**
+     * Run silencedetect over the audio track; fills silences and returns the media duration.
+     */
+    private double detectSilences(File mediaFile, List<Silence> silences) throws IOException, InterruptedException {
+        List<String> command = List.of(
+                ffmpegPath, "-hide_banner", "-nostats",
+                "-i", mediaFile.getAbsolutePath(),
+                "-vn", "-af", String.format(Locale.ROOT, "silencedetect=noise=%ddB:d=%s", noiseDb, minSilenceSeconds),
+                "-f", "null", "-");
+
+        double[] duration = {0};
+        double[] pendingStart = {-1};
+        MediaProcessRunner.Result result = mediaProcessRunner.run(MediaProcessRunner.spec(command)
+                .label("transcription-vad")
+                .onLine(line -> {
+                    Matcher matcher = DURATION.matcher(line);
+                    if (duration[0] == 0 && matcher.find()) {
+                        duration[0] = Integer.parseInt(matcher.group(1)) * 3600
+                                + Integer.parseInt(matcher.group(2)) * 60
+                                + Double.parseDouble(matcher.group(3));
+                        return;
+                    }
+                    matcher = SILENCE_START.matcher(line);
+                    if (matcher.find()) {
+                        pendingStart[0] = Math.max(0, Double.parseDouble(matcher.group(1)));
+                        return;
+                    }
+                    matcher = SILENCE_END.matcher(line);
+                    if (matcher.find() && pendingStart[0] >= 0) {
+                        silences.add(new Silence(pendingStart[0], Double.parseDouble(matcher.group(1))));
+                        pendingStart[0] = -1;
+                    }
+                }));
+        if (!result.isSuccess()) {
+            throw new IOException("Silence detection failed (exit " + result.getExitCode() + "): " + result.getLogTail());
+        }
+        if (pendingStart[0] >= 0 && duration[0] > pendingStart[0]) {
+            silences.add(new Silence(pendingStart[0], duration[0]));
+        }
+        return duration[0];
+    }
+
+    /**
+     * Cut near the target length, preferring the middle of the longest pause in
+     * [target / 2, max]; fall back to a hard cut with overlap at max.
+     */
+    List<Chunk> planChunks(double duration, List<Silence> silences) {
+        List<Chunk> chunks = new ArrayList<>();
+        double start = 0;
+        int index = 0;
+        while (duration - start > maxSeconds) {
+            double windowStart = start + targetSeconds / 2;
+            double windowEnd = start + maxSeconds;
+            double target = start + targetSeconds;
+
+            Silence best = null;
+            for (Silence silence : silences) {
+                double middle = silence.middle();
+                if (middle <= windowStart || middle >= windowEnd) {
+                    continue;
+                }
+                if (best == null || score(silence, target) > score(best, target)) {
+                    best = silence;
+                }
+            }
+
+            double end;
+            double overlap;
+            if (best != null) {
+                end = best.middle();
+                overlap = 0; // cut inside a pause: nothing to lose
+            } else {
+                end = windowEnd;
+                overlap = overlapSeconds;
+            }
+            double previousOverlap = chunks.isEmpty() ? 0 : chunks.get(chunks.size() - 1).cutEnd() - chunks.get(chunks.size() - 1).end();
+            chunks.add(new Chunk(index++, start, end, Math.max(0, start - previousOverlap), Math.min(duration, end + overlap)));
+            start = end;
+        }
+        double previousOverlap = chunks.isEmpty() ? 0 : chunks.get(chunks.size() - 1).cutEnd() - chunks.get(chunks.size() - 1).end();
+        chunks.add(new Chunk(index, start, duration, Math.max(0, start - previousOverlap), duration));
+        return chunks;
+    }
+
+    private static double score(Silence silence, double target) {
+        // Longer pauses are safer cuts; pauses far from the target make uneven chunks
+        return (silence.end() - silence.start()) - Math.abs(silence.middle() - target) / 60.0;
+    }
+
+    private List<Map<String, Object>> transcribeChunk(File mediaFile, Chunk chunk, Path workDir, String mode,
+                                                      Consumer<List<Map<String, Object>>> onSegments)
+            throws IOException, InterruptedException {
+        File chunkFile = workDir.resolve("chunk_" + chunk.index() + ".wav").toFile();
+        List<String> command = List.of(
+                ffmpegPath, "-hide_banner", "-nostats",
+                "-ss", String.format(Locale.ROOT, "%.3f", chunk.cutStart()),
+                "-t", String.format(Locale.ROOT, "%.3f", chunk.cutEnd() - chunk.cutStart()),
+                "-i", mediaFile.getAbsolutePath(),
+                "-vn", "-ac", "1", "-ar", "16000", "-c:a", "pcm_s16le",
+                "-y", chunkFile.getAbsolutePath());
+        mediaProcessRunner.runChecked(MediaProcessRunner.spec(command)
+                .label("transcription-chunk")
+                .mediaDuration(chunk.cutEnd() - chunk.cutStart()));
+        try {
+            return whisperWorkerPool.transcribe(chunkFile, mode, onSegments);
+        } finally {
+            Files.deleteIfExists(chunkFile.toPath());
+        }
+    }
+
+    /**
+     * Shift chunk-local times onto the media timeline and drop what the overlap duplicated.
+     */
+    List<Map<String, Object>> stitch(List<Chunk> chunks, List<List<Map<String, Object>>> results) {
+        List<Map<String, Object>> stitched = new ArrayList<>();
+        for (int i = 0; i < chunks.size(); i++) {
+            Chunk chunk = chunks.get(i);
+            boolean last = i == chunks.size() - 1;
+            for (Map<String, Object> segment : results.get(i)) {
+                Map<String, Object> shifted = shift(chunk, last, segment);
+                if (shifted == null) {
+                    continue; // belongs to the neighbouring chunk
+                }
+                if (!stitched.isEmpty()) {
+                    Map<String, Object> previous = stitched.get(stitched.size() - 1);
+                    if (normalize(previous.get("text")).equals(normalize(shifted.get("text")))
+                            && ((Number) previous.get("end")).doubleValue() > ((Number) shifted.get("start")).doubleValue()) {
+                        continue; // same words heard on both sides of the boundary
+                    }
+                }
+                stitched.add(shifted);
+            }
+        }
+        stitched.sort(Comparator.comparingDouble(s -> ((Number) s.get("start")).doubleValue()));
+        return stitched;
+    }
+
+    /**
+     * The segment moved onto the media timeline, or null when its midpoint lies outside the chunk's own range.
+     */
+    private static Map<String, Object> shift(Chunk chunk, boolean last, Map<String, Object> segment) {
+        double start = ((Number) segment.get("start")).doubleValue() + chunk.cutStart();
+        double end = ((Number) segment.get("end")).doubleValue() + chunk.cutStart();
+        double middle = (start + end) / 2;
+        if (middle < chunk.start() || (!last && middle >= chunk.end())) {
+            return null;
+        }
+        Map<String, Object> shifted = new HashMap<>(segment);
+        shifted.put("start", start);
+        shifted.put("end", end);
+        shifted.put("text", String.valueOf(segment.get("text")).trim());
+        return shifted;
+    }
+
+    private static String normalize(Object text) {
+        return String.valueOf(text).toLowerCase(Locale.ROOT).replaceAll("[^\\p{L}\\p{N} ]", "").trim();
+    }
+
+    private void deleteRecursively(Path dir) {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    logger.warn("Failed to delete {}: {}", path, e.getMessage());
+                }
+            });
+        } catch (IOException e) {
+            logger.warn("Failed to clean up {}: {}", dir, e.getMessage());
+        }
+    }
+}
@@ -29,6 +29,7 @@ import software.amazon.awssdk.services.s3.model.*;
 import software.amazon.awssdk.services.s3.presigner.S3Presigner;
 import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
 import software.amazon.awssdk.services.s3.presigner.model.PresignedGetObjectRequest;
+import software.amazon.awssdk.services.s3.presigner.model.UploadPartPresignRequest;
 import software.amazon.awssdk.transfer.s3.S3TransferManager;
 import software.amazon.awssdk.transfer.s3.model.FileUpload;
 import software.amazon.awssdk.transfer.s3.model.UploadFileRequest;
@@ -252,6 +253,15 @@ public class CloudflareR2Service {
     }
 
     public void uploadFile(String r2Path, File file) throws IOException {
+        uploadFileConfirmed(r2Path, file);
+    }
+
+    /**
+     * Uploads a file and returns the ETag from the PutObject / CompleteMultipartUpload response.
+     * A successful response is the write confirmation: R2 is strongly consistent for reads after
+     * writes, so callers do not need to poll HEAD before using the object.
+     */
+    public String uploadFileConfirmed(String r2Path, File file) throws IOException {
         if (file == null || !file.exists() || !file.isFile()) {
             logger.error("Invalid file for upload to R2 path: {}, file: {}", r2Path, file);
             throw new IllegalArgumentException("File is null, does not exist, or is not a file");
@@ -270,18 +280,24 @@ public class CloudflareR2Service {
                     .cacheControl("max-age=2592000") // Cache for 1 month
                     .build();
 
+            PutObjectResponse response;
             if (file.length() > LARGE_FILE_THRESHOLD) {
                 logger.debug("Using TransferManager for large file upload: {}", file.getName());
                 FileUpload fileUpload = transferManager.uploadFile(UploadFileRequest.builder()
                         .putObjectRequest(putObjectRequest)
                         .source(file.toPath())
                         .build());
-                fileUpload.completionFuture().join();
+                response = fileUpload.completionFuture().join().response();
             } else {
-                s3Client.putObject(putObjectRequest, RequestBody.fromFile(file));
+                response = s3Client.putObject(putObjectRequest, RequestBody.fromFile(file));
+            }
+
+            if (response == null || response.eTag() == null) {
+                throw new IOException("R2 did not confirm upload (missing ETag) for path: " + r2Path);
             }
 
-            logger.info("Successfully uploaded file to R2: bucket={}, path={}", bucketName, r2Path);
+            logger.info("Successfully uploaded file to R2: bucket={}, path={}, eTag={}", bucketName, r2Path, response.eTag());
+            return response.eTag();
         } catch (Exception e) {
             logger.error("Failed to upload file to R2: bucket={}, path={}, error: {}", bucketName, r2Path, e.getMessage());
             throw new IOException("Failed to upload file to R2", e);
@@ -289,6 +305,14 @@ public class CloudflareR2Service {
     }
 
     public String uploadFile(MultipartFile file, String r2Path) throws IOException {
+        uploadFileConfirmed(file, r2Path);
+        return r2Path;
+    }
+
+    /**
+     * Same as {@link #uploadFile(MultipartFile, String)} but returns the ETag that confirms the write.
+     */
+    public String uploadFileConfirmed(MultipartFile file, String r2Path) throws IOException {
         if (file == null || file.isEmpty()) {
             logger.error("MultipartFile is null or empty for R2 path: {}", r2Path);
             throw new IllegalArgumentException("MultipartFile is null or empty");
@@ -299,8 +323,7 @@ public class CloudflareR2Service {
             String tempPath = System.getProperty("java.io.tmpdir") + File.separator + "videoeditor" + File.separator + tempFileName;
             File tempFile = saveMultipartFileToTemp(file, tempPath);
             try {
-                uploadFile(r2Path, tempFile);
-                return r2Path;
+                return uploadFileConfirmed(r2Path, tempFile);
             } finally {
                 try {
                     if (tempFile.exists()) {
@@ -322,6 +345,63 @@ public class CloudflareR2Service {
         return r2Path;
     }
 
+    /**
+     * Uploads a small in-memory object (JSON documents, indexes) and returns its ETag.
+     */
+    public String uploadBytes(String r2Path, byte[] content, String contentType) throws IOException {
+        try {
+            PutObjectResponse response = s3Client.putObject(PutObjectRequest.builder()
+                    .bucket(bucketName)
+                    .key(r2Path)
+                    .contentType(contentType)
+                    .build(), RequestBody.fromBytes(content));
+            logger.debug("Uploaded {} bytes to R2: bucket={}, path={}", content.length, bucketName, r2Path);
+            return response.eTag();
+        } catch (Exception e) {
+            logger.error("Failed to upload bytes to R2: bucket={}, path={}, error: {}", bucketName, r2Path, e.getMessage());
+            throw new IOException("Failed to upload file to R2", e);
+        }
+    }
+
+    public byte[] downloadBytes(String r2Path) throws IOException {
+        try {
+            return s3Client.getObjectAsBytes(GetObjectRequest.builder()
+                    .bucket(bucketName)
+                    .key(r2Path)
+                    .build()).asByteArray();
+        } catch (Exception e) {
+            logger.error("Failed to download bytes from R2: bucket={}, path={}, error: {}", bucketName, r2Path, e.getMessage());
+            throw new IOException("Failed to download file from R2: " + r2Path, e);
+        }
+    }
+
+    /**
+     * Bytes {@code start..end} (inclusive) of an object, fetched with an HTTP range request.
+     */
+    public byte[] downloadRange(String r2Path, long start, long end) throws IOException {
+        try {
+            return s3Client.getObjectAsBytes(GetObjectRequest.builder()
+                    .bucket(bucketName)
+                    .key(r2Path)
+                    .range("bytes=" + start + "-" + end)
+                    .build()).asByteArray();
+        } catch (Exception e) {
+            logger.error("Failed to download range {}-{} from R2: bucket={}, path={}, error: {}", start, end, bucketName, r2Path, e.getMessage());
+            throw new IOException("Failed to download file range from R2: " + r2Path, e);
+        }
+    }
+
+    /**
+     * ETag of an existing object without surrounding quotes.
+     */
+    public String getObjectETag(String r2Path) {
+        String eTag = s3Client.headObject(HeadObjectRequest.builder()
+                .bucket(bucketName)
+                .key(r2Path)
+                .build()).eTag();
+        return eTag == null ? null : eTag.replace("\"", "");
+    }
+
     public void deleteFile(String r2Path) throws IOException {
         try {
             DeleteObjectRequest deleteObjectRequest = DeleteObjectRequest.builder()
@@ -451,6 +531,124 @@ public class CloudflareR2Service {
         return urls;
     }
 
+    /**
+     * Builds CDN and presigned URLs for an object whose upload was already confirmed by its
+     * PutObject response, skipping the HEAD requests done by {@link #generateUrls(String, long)}.
+     */
+    public Map<String, String> generateUrlsForUploadedObject(String r2Path, long expirationSeconds) {
+        Map<String, String> urls = new HashMap<>();
+        urls.put("cdnUrl", getCdnUrl(r2Path));
+
+        GetObjectPresignRequest presignRequest = GetObjectPresignRequest.builder()
+                .signatureDuration(Duration.ofSeconds(expirationSeconds))
+                .getObjectRequest(GetObjectRequest.builder()
+                        .bucket(bucketName)
+                        .key(r2Path)
+                        .build())
+                .build();
+        urls.put("presignedUrl", s3Presigner.presignGetObject(presignRequest).url().toString());
+        return urls;
+    }
+
+    /**
+     * Public CDN URL for an R2 path. Does not check that the object exists.
+     */
+    public String getCdnUrl(String r2Path) {
+        String cleanCdnDomain = cdnDomain.replaceFirst("^(https?://)", "");
+        return String.format("https://%s/%s", cleanCdnDomain, r2Path);
+    }
+
+    // ==================== Direct (browser -> R2) multipart uploads ====================
+
+    /**
+     * Starts a multipart upload for a browser client and returns the R2 upload ID.
+     */
+    public String createMultipartUpload(String r2Path, String contentType) throws IOException {
+        try {
+            CreateMultipartUploadRequest request = CreateMultipartUploadRequest.builder()
+                    .bucket(bucketName)
+                    .key(r2Path)
+                    .contentType(contentType != null ? contentType : "application/octet-stream")
+                    .cacheControl("max-age=2592000") // Cache for 1 month
+                    .build();
+            String uploadId = s3Client.createMultipartUpload(request).uploadId();
+            logger.info("Created multipart upload: path={}, uploadId={}", r2Path, uploadId);
+            return uploadId;
+        } catch (Exception e) {
+            logger.error("Failed to create multipart upload: path={}, error={}", r2Path, e.getMessage());
+            throw new IOException("Failed to create multipart upload", e);
+        }
+    }
+
+    /**
+     * Presigns a PUT URL for one part of a multipart upload. The browser uploads the part
+     * bytes straight to R2 and keeps the returned ETag header for the complete call.
+     * Content-Length is part of the signature, so the URL accepts exactly {@code contentLength} bytes.
+     */
+    public String presignUploadPart(String r2Path, String uploadId, int partNumber, long contentLength, long expirationSeconds) {
+        UploadPartPresignRequest presignRequest = UploadPartPresignRequest.builder()
+                .signatureDuration(Duration.ofSeconds(expirationSeconds))
+                .uploadPartRequest(UploadPartRequest.builder()
+                        .bucket(bucketName)
+                        .key(r2Path)
+                        .uploadId(uploadId)
+                        .partNumber(partNumber)
+                        .contentLength(contentLength)
+                        .build())
+                .build();
+        return s3Presigner.presignUploadPart(presignRequest).url().toString();
+    }
+
+    /**
+     * Completes a multipart upload from the part ETags reported by the client.
+     *
+     * @param partETags part number to ETag
+     * @return ETag of the assembled object
+     */
+    public String completeMultipartUpload(String r2Path, String uploadId, Map<Integer, String> partETags) throws IOException {
+        try {
+            List<CompletedPart> parts = partETags.entrySet().stream()
+                    .sorted(Map.Entry.comparingByKey())
+                    .map(e -> CompletedPart.builder().partNumber(e.getKey()).eTag(e.getValue()).build())
+                    .toList();
+            CompleteMultipartUploadRequest request = CompleteMultipartUploadRequest.builder()
+                    .bucket(bucketName)
+                    .key(r2Path)
+                    .uploadId(uploadId)
+                    .multipartUpload(CompletedMultipartUpload.builder().parts(parts).build())
+                    .build();
+            String eTag = s3Client.completeMultipartUpload(request).eTag();
+            logger.info("Completed multipart upload: path={}, uploadId={}, parts={}, eTag={}", r2Path, uploadId, parts.size(), eTag);
+            return eTag;
+        } catch (Exception e) {
+            logger.error("Failed to complete multipart upload: path={}, uploadId={}, error={}", r2Path, uploadId, e.getMessage());
+            throw new IOException("Failed to complete multipart upload", e);
+        }
+    }
+
+    public void abortMultipartUpload(String r2Path, String uploadId) {
+        try {
+            s3Client.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                    .bucket(bucketName)
+                    .key(r2Path)
+                    .uploadId(uploadId)
+                    .build());
+            logger.info("Aborted multipart upload: path={}, uploadId={}", r2Path, uploadId);
+        } catch (Exception e) {
+            logger.warn("Failed to abort multipart upload: path={}, uploadId={}, error={}", r2Path, uploadId, e.getMessage());
+        }
+    }
+
+    /**
+     * Size in bytes of an existing object.
+     */
+    public long getObjectSize(String r2Path) {
+        return s3Client.headObject(HeadObjectRequest.builder()
+                .bucket(bucketName)
+                .key(r2Path)
+                .build()).contentLength();
+    }
+
     /**
      * Checks if a file is available via its CDN URL.
      * @param cdnUrl The CDN URL to check.
@@ -0,0 +1,471 @@
+package com.example.Scenith.service;
+
+import com.example.Scenith.entity.VideoFilterJob;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Compiles the colour adjustments of a filter job into one 3D LUT.
+ *
+ * The adjustments used to run as a chain of eq, hue and colorbalance instances, each a full pass
+ * over every frame and colorbalance with a YUV to RGB round trip on top. All of them are per-pixel
+ * functions of the input colour, so they are evaluated here once per point of an N³ grid, in the
+ * order and with the formulas of those filters, and applied with a single lut3d. A job's own .cube
+ * LUT ran after the chain; it is composed into the same grid when nothing runs between them.
+ *
+ * Grids are cached by grade, and written once per grade to {@code app.temp.dir}/grade-luts, so
+ * presets cost nothing after their first job. The same grid colours preview frames in Java.
+ *
+ * Sharpness is spatial and stays a separate filter, in its old place between the adjustments and
+ * the job's LUT (which then gets its own lut3d). eq works on the source's YUV and lut3d on RGB;
+ * the grid converts with BT.601 as the auto-inserted scaler does, so results match the chain up to
+ * range and rounding differences.
+ */
+@Component
+public class ColorGradeCompiler {
+    private static final Logger logger = LoggerFactory.getLogger(ColorGradeCompiler.class);
+
+    private static final double KR = 0.299;
+    private static final double KB = 0.114;
+    private static final double KG = 1.0 - KR - KB;
+
+    private final Cache<Grade, Lut> compiled = Caffeine.newBuilder()
+            .maximumSize(256)
+            .build();
+
+    @Value("${app.temp.dir}")
+    private String tempDir;
+
+    // Grid points per axis; 33 is the usual .cube size and well under lut3d's limit
+    @Value("${video-filter.lut.size:33}")
+    private int lutSize;
+
+    /**
+     * Colour adjustments of a job, with the neutral value for anything unset.
+     */
+    public record Grade(double brightness, double contrast, double saturation, double gamma, double hue,
+                        double temperature, double shadows, double highlights, double vibrance, double exposure,
+                        double tint) {
+
+        public static final Grade NEUTRAL = new Grade(0, 1, 1, 1, 0, 6500, 0, 0, 0, 0, 0);
+
+        public static Grade of(VideoFilterJob job) {
+            return new Grade(
+                    value(job.getBrightness(), 0), value(job.getContrast(), 1), value(job.getSaturation(), 1),
+                    value(job.getGamma(), 1), value(job.getHue(), 0), value(job.getTemperature(), 6500),
+                    value(job.getShadows(), 0), value(job.getHighlights(), 0), value(job.getVibrance(), 0),
+                    value(job.getExposure(), 0), value(job.getTint(), 0));
+        }
+
+        /**
+         * Grade of the given values with a preset's values, when it has them, taking precedence.
+         */
+        public Grade withPreset(Map<String, Double> preset) {
+            if (preset == null) {
+                return this;
+            }
+            return new Grade(
+                    preset.getOrDefault("brightness", brightness), preset.getOrDefault("contrast", contrast),
+                    preset.getOrDefault("saturation", saturation), preset.getOrDefault("gamma", gamma),
+                    preset.getOrDefault("hue", hue), preset.getOrDefault("temperature", temperature),
+                    preset.getOrDefault("shadows", shadows), preset.getOrDefault("highlights", highlights),
+                    preset.getOrDefault("vibrance", vibrance), preset.getOrDefault("exposure", exposure),
+                    preset.getOrDefault("tint", tint));
+        }
+
+        public boolean isIdentity() {
+            return steps().isEmpty();
+        }
+
+        private static double value(Double value, double neutral) {
+            return value != null ? value : neutral;
+        }
+
+        /**
+         * The adjustments that change something, in the order the filter chain applied them.
+         */
+        private List<Step> steps() {
+            List<Step> steps = new ArrayList<>();
+            if (Math.abs(brightness) > 0.001) {
+                steps.add(rgb -> eq(rgb, brightness, 1, 1, 1));
+            }
+            if (Math.abs(contrast - 1.0) > 0.001) {
+                steps.add(rgb -> eq(rgb, 0, contrast, 1, 1));
+            }
+            if (Math.abs(saturation - 1.0) > 0.001) {
+                steps.add(rgb -> eq(rgb, 0, 1, saturation, 1));
+            }
+            if (Math.abs(gamma - 1.0) > 0.001) {
+                steps.add(rgb -> eq(rgb, 0, 1, 1, gamma));
+            }
+            if (Math.abs(hue) > 0.001) {
+                steps.add(rgb -> rotateHue(rgb, hue));
+            }
+            if (Math.abs(temperature - 6500.0) > 1.0) {
+                if (temperature < 6500) {
+                    double rs = Math.min(0.3, (6500 - temperature) / 6500 * 0.3);
+                    steps.add(rgb -> shadowBalance(rgb, rs, 0, 0));
+                } else {
+                    double bs = Math.min(0.3, (temperature - 6500) / 3500 * 0.3);
+                    steps.add(rgb -> shadowBalance(rgb, 0, 0, bs));
+                }
+            }
+            if (Math.abs(shadows) > 0.001) {
+                // eq with equal gamma_r/g/b only changes the luma gamma
+                double shadowGamma = Math.max(0.5, Math.min(2.0, 1.0 - (shadows * 0.2)));
+                steps.add(rgb -> eq(rgb, 0, 1, 1, shadowGamma));
+            }
+            if (Math.abs(highlights) > 0.001) {
+                double highlightBrightness = highlights * 0.1;
+                steps.add(rgb -> eq(rgb, highlightBrightness, 1, 1, 1));
+            }
+            if (Math.abs(vibrance) > 0.001) {
+                double vibranceSat = Math.max(0.0, Math.min(3.0, 1.0 + (vibrance * 0.3)));
+                steps.add(rgb -> eq(rgb, 0, 1, vibranceSat, 1));
+            }
+            if (Math.abs(exposure) > 0.001) {
+                steps.add(rgb -> eq(rgb, exposure, 1, 1, 1));
+            }
+            if (Math.abs(tint) > 0.001) {
+                double tintBalance = Math.max(-0.5, Math.min(0.5, tint * 0.01));
+                steps.add(rgb -> shadowBalance(rgb, 0, tintBalance, 0));
+            }
+            return steps;
+        }
+    }
+
+    @FunctionalInterface
+    private interface Step {
+        void apply(double[] rgb);
+    }
+
+    /**
+     * A 3D LUT: size³ RGB triples in 0..1, red varying fastest as in .cube files.
+     */
+    public static final class Lut {
+        private final int size;
+        private final float[] data;
+
+        private Lut(int size, float[] data) {
+            this.size = size;
+            this.data = data;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Trilinear lookup of an RGB colour in 0..1; writes the result into {@code out}.
+         */
+        public void sample(double r, double g, double b, double[] out) {
+            int max = size - 1;
+            double fr = clamp(r) * max;
+            double fg = clamp(g) * max;
+            double fb = clamp(b) * max;
+            int r0 = Math.min((int) fr, max - 1);
+            int g0 = Math.min((int) fg, max - 1);
+            int b0 = Math.min((int) fb, max - 1);
+            double dr = fr - r0;
+            double dg = fg - g0;
+            double db = fb - b0;
+            for (int c = 0; c < 3; c++) {
+                double c00 = lerp(at(r0, g0, b0, c), at(r0 + 1, g0, b0, c), dr);
+                double c10 = lerp(at(r0, g0 + 1, b0, c), at(r0 + 1, g0 + 1, b0, c), dr);
+                double c01 = lerp(at(r0, g0, b0 + 1, c), at(r0 + 1, g0, b0 + 1, c), dr);
+                double c11 = lerp(at(r0, g0 + 1, b0 + 1, c), at(r0 + 1, g0 + 1, b0 + 1, c), dr);
+                out[c] = lerp(lerp(c00, c10, dg), lerp(c01, c11, dg), db);
+            }
+        }
+
+        private float at(int r, int g, int b, int channel) {
+            return data[((b * size + g) * size + r) * 3 + channel];
+        }
+
+        private static double lerp(double a, double b, double t) {
+            return a + (b - a) * t;
+        }
+    }
+
+    public Lut compile(Grade grade) {
+        return compiled.get(grade, this::build);
+    }
+
+    /**
+     * .cube file of a grade, written on first use and shared by every job with the same grade.
+     */
+    public Path gradeFile(Grade grade) throws IOException {
+        Path dir = Paths.get(tempDir, "grade-luts").toAbsolutePath().normalize();
+        Path file = dir.resolve("grade_" + key(grade) + ".cube");
+        if (Files.exists(file)) {
+            return file;
+        }
+        Files.createDirectories(dir);
+        Path partial = dir.resolve(file.getFileName() + "." + System.nanoTime() + ".tmp");
+        try {
+            write(compile(grade), partial);
+            Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(partial);
+        }
+        logger.info("Wrote grade LUT {} for {}", file.getFileName(), grade);
+        return file;
+    }
+
+    /**
+     * LUT that applies {@code first}, then {@code then}, sampled on this compiler's grid.
+     */
+    public Lut compose(Lut first, Lut then) {
+        int size = lutSize;
+        float[] data = new float[size * size * size * 3];
+        double[] mid = new double[3];
+        double[] out = new double[3];
+        int i = 0;
+        for (int b = 0; b < size; b++) {
+            for (int g = 0; g < size; g++) {
+                for (int r = 0; r < size; r++) {
+                    first.sample((double) r / (size - 1), (double) g / (size - 1), (double) b / (size - 1), mid);
+                    then.sample(mid[0], mid[1], mid[2], out);
+                    data[i++] = (float) out[0];
+                    data[i++] = (float) out[1];
+                    data[i++] = (float) out[2];
+                }
+            }
+        }
+        return new Lut(size, data);
+    }
+
+    public void write(Lut lut, Path file) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.US_ASCII)) {
+            writer.write("TITLE \"Scenith grade\"\n");
+            writer.write("LUT_3D_SIZE " + lut.size + "\n");
+            writer.write("DOMAIN_MIN 0.0 0.0 0.0\n");
+            writer.write("DOMAIN_MAX 1.0 1.0 1.0\n");
+            for (int i = 0; i < lut.data.length; i += 3) {
+                writer.write(String.format(Locale.ROOT, "%.6f %.6f %.6f\n", lut.data[i], lut.data[i + 1], lut.data[i + 2]));
+            }
+        }
+    }
+
+    /**
+     * Parse a 3D .cube file (LUT_3D_SIZE, optional DOMAIN_MIN/MAX).
+     *
+     * @throws IOException for 1D LUTs and malformed files
+     */
+    public Lut parse(List<String> lines) throws IOException {
+        int size = 0;
+        double[] domainMin = {0, 0, 0};
+        double[] domainMax = {1, 1, 1};
+        float[] data = null;
+        int count = 0;
+        for (String raw : lines) {
+            String line = raw.strip();
+            if (line.isEmpty() || line.startsWith("#") || line.startsWith("TITLE")) {
+                continue;
+            }
+            String[] parts = line.split("\\s+");
+            try {
+                switch (parts[0]) {
+                    case "LUT_3D_SIZE" -> {
+                        size = Integer.parseInt(parts[1]);
+                        if (size < 2 || size > 256) {
+                            throw new IOException("Unsupported LUT_3D_SIZE " + size);
+                        }
+                        data = new float[size * size * size * 3];
+                    }
+                    case "LUT_1D_SIZE" -> throw new IOException("1D LUTs are not supported");
+                    case "DOMAIN_MIN" -> domainMin = triple(parts);
+                    case "DOMAIN_MAX" -> domainMax = triple(parts);
+                    case "LUT_3D_INPUT_RANGE" -> {
+                        domainMin = new double[]{Double.parseDouble(parts[1]), Double.parseDouble(parts[1]), Double.parseDouble(parts[1])};
+                        domainMax = new double[]{Double.parseDouble(parts[2]), Double.parseDouble(parts[2]), Double.parseDouble(parts[2])};
+                    }
+                    default -> {
+                        if (data == null) {
+                            throw new IOException("LUT data before LUT_3D_SIZE");
+                        }
+                        if (count >= data.length) {
+                            throw new IOException("More LUT entries than LUT_3D_SIZE allows");
+                        }
+                        double[] rgb = triple(new String[]{"", parts[0], parts[1], parts[2]});
+                        for (int c = 0; c < 3; c++) {
+                            data[count++] = (float) rgb[c];
+                        }
+                    }
+                }
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                throw new IOException("Malformed .cube line: " + line);
+            }
+        }
+        if (data == null || count != data.length) {
+            throw new IOException("Expected " + (size * size * size) + " LUT entries, found " + count / 3);
+        }
+        // Inputs are resampled onto 0..1 by the grid; outputs are taken as they are
+        if (domainMin[0] != 0 || domainMin[1] != 0 || domainMin[2] != 0
+                || domainMax[0] != 1 || domainMax[1] != 1 || domainMax[2] != 1) {
+            Lut raw = new Lut(size, data);
+            float[] remapped = new float[data.length];
+            double[] out = new double[3];
+            int i = 0;
+            for (int b = 0; b < size; b++) {
+                for (int g = 0; g < size; g++) {
+                    for (int r = 0; r < size; r++) {
+                        raw.sample(domain((double) r / (size - 1), domainMin[0], domainMax[0]),
+                                domain((double) g / (size - 1), domainMin[1], domainMax[1]),
+                                domain((double) b / (size - 1), domainMin[2], domainMax[2]), out);
+                        remapped[i++] = (float) out[0];
+                        remapped[i++] = (float) out[1];
+                        remapped[i++] = (float) out[2];
+                    }
+                }
+            }
+            data = remapped;
+        }
+        return new Lut(size, data);
+    }
+
+    /**
+     * Copy of an RGB image with the LUT applied to every pixel.
+     */
+    public BufferedImage apply(Lut lut, BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+        double[] out = new double[3];
+        for (int i = 0; i < pixels.length; i++) {
+            int p = pixels[i];
+            lut.sample(((p >> 16) & 0xff) / 255.0, ((p >> 8) & 0xff) / 255.0, (p & 0xff) / 255.0, out);
+            pixels[i] = 0xff000000
+                    | (int) Math.round(clamp(out[0]) * 255) << 16
+                    | (int) Math.round(clamp(out[1]) * 255) << 8
+                    | (int) Math.round(clamp(out[2]) * 255);
+        }
+        BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        result.setRGB(0, 0, width, height, pixels, 0, width);
+        return result;
+    }
+
+    private Lut build(Grade grade) {
+        long start = System.nanoTime();
+        List<Step> steps = grade.steps();
+        int size = lutSize;
+        float[] data = new float[size * size * size * 3];
+        double[] rgb = new double[3];
+        int i = 0;
+        for (int b = 0; b < size; b++) {
+            for (int g = 0; g < size; g++) {
+                for (int r = 0; r < size; r++) {
+                    rgb[0] = (double) r / (size - 1);
+                    rgb[1] = (double) g / (size - 1);
+                    rgb[2] = (double) b / (size - 1);
+                    for (Step step : steps) {
+                        step.apply(rgb);
+                    }
+                    data[i++] = (float) rgb[0];
+                    data[i++] = (float) rgb[1];
+                    data[i++] = (float) rgb[2];
+                }
+            }
+        }
+        logger.debug("Compiled {} grade steps into a {}³ LUT in {} ms", steps.size(), size,
+                (System.nanoTime() - start) / 1_000_000);
+        return new Lut(size, data);
+    }
+
+    private String key(Grade grade) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest((lutSize + ":" + grade).getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 12);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * eq: contrast and brightness, then gamma on luma; saturation scales chroma.
+     */
+    private static void eq(double[] rgb, double brightness, double contrast, double saturation, double gamma) {
+        double y = KR * rgb[0] + KG * rgb[1] + KB * rgb[2];
+        double cb = (rgb[2] - y) / (2 * (1 - KB));
+        double cr = (rgb[0] - y) / (2 * (1 - KR));
+
+        double v = contrast * (y - 0.5) + 0.5 + brightness;
+        y = v <= 0 ? 0 : clamp(Math.pow(v, 1.0 / gamma));
+        cb = clampChroma(cb * saturation);
+        cr = clampChroma(cr * saturation);
+        toRgb(rgb, y, cb, cr);
+    }
+
+    /**
+     * hue=h: rotates chroma by the given degrees.
+     */
+    private static void rotateHue(double[] rgb, double degrees) {
+        double y = KR * rgb[0] + KG * rgb[1] + KB * rgb[2];
+        double cb = (rgb[2] - y) / (2 * (1 - KB));
+        double cr = (rgb[0] - y) / (2 * (1 - KR));
+        double angle = Math.toRadians(degrees);
+        double sin = Math.sin(angle);
+        double cos = Math.cos(angle);
+        toRgb(rgb, y, clampChroma(cb * cos - cr * sin), clampChroma(cb * sin + cr * cos));
+    }
+
+    /**
+     * colorbalance=rs/gs/bs: shifts in the shadows, weighted by lightness as the filter does.
+     */
+    private static void shadowBalance(double[] rgb, double red, double green, double blue) {
+        double l = Math.max(rgb[0], Math.max(rgb[1], rgb[2])) + Math.min(rgb[0], Math.min(rgb[1], rgb[2]));
+        double weight = clamp((0.333 - l) * 4 + 0.5) * 0.7;
+        rgb[0] = clamp(rgb[0] + red * weight);
+        rgb[1] = clamp(rgb[1] + green * weight);
+        rgb[2] = clamp(rgb[2] + blue * weight);
+    }
+
+    private static void toRgb(double[] rgb, double y, double cb, double cr) {
+        double r = y + 2 * (1 - KR) * cr;
+        double b = y + 2 * (1 - KB) * cb;
+        double g = (y - KR * r - KB * b) / KG;
+        rgb[0] = clamp(r);
+        rgb[1] = clamp(g);
+        rgb[2] = clamp(b);
+    }
+
+    private static double[] triple(String[] parts) {
+        return new double[]{Double.parseDouble(parts[1]), Double.parseDouble(parts[2]), Double.parseDouble(parts[3])};
+    }
+
+    /**
+     * Position in a grid spanning min..max of the input value t.
+     */
+    private static double domain(double t, double min, double max) {
+        return max > min ? (t - min) / (max - min) : t;
+    }
+
+    private static double clamp(double value) {
+        return value < 0 ? 0 : value > 1 ? 1 : value;
+    }
+
+    private static double clampChroma(double value) {
+        return value < -0.5 ? -0.5 : value > 0.5 ? 0.5 : value;
+    }
+}
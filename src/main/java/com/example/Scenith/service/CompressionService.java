@@ -61,22 +61,7 @@ public class CompressionService {
             throw new IllegalArgumentException("Media file is null or empty");
         }
 
-        // Parse percentage from targetSize (e.g., "50%")
-        Integer compressionPercentage = null;
-        if (targetSize != null && targetSize.endsWith("%")) {
-            try {
-                compressionPercentage = Integer.parseInt(targetSize.replace("%", ""));
-                if (compressionPercentage < 1 || compressionPercentage > 99) {
-                    throw new IllegalArgumentException("Compression percentage must be between 1 and 99");
-                }
-            } catch (NumberFormatException e) {
-                logger.error("Invalid target size format: {}", targetSize);
-                throw new IllegalArgumentException("Target size must be in format 'number%'");
-            }
-        } else {
-            logger.error("Invalid target size format: {}", targetSize);
-            throw new IllegalArgumentException("Target size must be in format 'number%'");
-        }
+        Integer compressionPercentage = parseCompressionPercentage(targetSize);
 
         String absoluteBaseDir = baseDir.startsWith("/") ? baseDir : "/" + baseDir;
         String tempFileName = "compression-" + System.currentTimeMillis() + "-" + mediaFile.getOriginalFilename();
@@ -125,6 +110,49 @@ public class CompressionService {
         }
     }
 
+    /**
+     * Registers media that the browser uploaded straight to R2 through an upload session.
+     */
+    public CompressedMedia registerUploadedMedia(User user, String r2Path, String originalFileName,
+                                                 long fileSizeBytes, String contentType, String targetSize) {
+        Integer compressionPercentage = parseCompressionPercentage(targetSize);
+
+        CompressedMedia compressedMedia = new CompressedMedia();
+        compressedMedia.setUser(user);
+        compressedMedia.setOriginalFileName(originalFileName);
+        compressedMedia.setOriginalPath(r2Path);
+        compressedMedia.setOriginalCdnUrl(cloudflareR2Service.getCdnUrl(r2Path));
+        compressedMedia.setTargetSize(targetSize);
+        compressedMedia.setCompressionPercentage(compressionPercentage);
+        compressedMedia.setFileSizeBytes(fileSizeBytes);
+        compressedMedia.setFileType(contentType);
+        compressedMedia.setStatus("UPLOADED");
+        compressedMediaRepository.save(compressedMedia);
+
+        logger.info("Registered direct-uploaded media for user: {}, path: {}", user.getId(), r2Path);
+        return compressedMedia;
+    }
+
+    /**
+     * Parse percentage from targetSize (e.g., "50%")
+     */
+    public Integer parseCompressionPercentage(String targetSize) {
+        if (targetSize != null && targetSize.endsWith("%")) {
+            try {
+                int compressionPercentage = Integer.parseInt(targetSize.replace("%", ""));
+                if (compressionPercentage < 1 || compressionPercentage > 99) {
+                    throw new IllegalArgumentException("Compression percentage must be between 1 and 99");
+                }
+                return compressionPercentage;
+            } catch (NumberFormatException e) {
+                logger.error("Invalid target size format: {}", targetSize);
+                throw new IllegalArgumentException("Target size must be in format 'number%'");
+            }
+        }
+        logger.error("Invalid target size format: {}", targetSize);
+        throw new IllegalArgumentException("Target size must be in format 'number%'");
+    }
+
     public CompressedMedia compressMedia(User user, Long mediaId) throws IOException, InterruptedException {
         logger.info("Compressing media for user: {}, mediaId: {}", user.getId(), mediaId);
 
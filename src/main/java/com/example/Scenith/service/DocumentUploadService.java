@@ -98,6 +98,24 @@ public class DocumentUploadService {
         return uploads;
     }
 
+    /**
+     * Register a document that the browser uploaded straight to R2 through an upload session
+     */
+    public DocumentUpload registerUploadedDocument(User user, String r2Path, String originalFileName, long fileSizeBytes) {
+        DocumentUpload upload = DocumentUpload.builder()
+                .fileName(originalFileName)
+                .filePath(r2Path)
+                .cdnUrl(cloudflareR2Service.getCdnUrl(r2Path))
+                .presignedUrl(cloudflareR2Service.generateUrlsForUploadedObject(r2Path, 3600).get("presignedUrl"))
+                .fileType(determineFileType(originalFileName))
+                .fileSizeBytes(fileSizeBytes)
+                .user(user)
+                .build();
+
+        logger.info("Registered direct-uploaded document: {} for user: {}", originalFileName, user.getId());
+        return documentUploadRepository.save(upload);
+    }
+
     /**
      * Get user documents
      */
@@ -0,0 +1,200 @@
+package com.example.Scenith.service;
+
+import com.example.Scenith.sqs.GlobalProcessingLock;
+import com.example.Scenith.sqs.TaskLifecycleRegistry;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Chooses x264 preset, CRF, tune and thread count per encode, instead of fixed per-tier values.
+ *
+ * - threads: the job's share of the node's cores, in proportion to the processing units its task
+ *   type holds in {@link GlobalProcessingLock}; borrowed up to the whole node while nothing is
+ *   waiting, and capped at what x264 can use at the output height
+ * - preset: the tier's preset, one step faster per {@code queue-step} tasks waiting and per
+ *   {@code long-job-mpx-seconds} of output, never faster than {@code fastest-preset}
+ * - crf: the tier's CRF, +1 on ultrafast/superfast, which otherwise inflate the bitrate
+ * - tune: the caller's tune, else {@code hd-tune} at 720p+ with medium or slower presets
+ *
+ * Tasks waiting are the visible messages in the task queue ({@link TaskLifecycleRegistry}, refreshed
+ * every 30 s), plus one while a task is holding a reservation for units on this node.
+ *
+ * Every choice is logged with the job key and counted as scenith.encoding.policy
+ * (task, preset, threads) so the fleet can be tuned from real runs.
+ */
+@Service
+public class EncodingPolicyService {
+    private static final Logger logger = LoggerFactory.getLogger(EncodingPolicyService.class);
+
+    public static final String TASK_VIDEO_SPEED = "VIDEO_SPEED";
+    public static final String TASK_SUBTITLES = "PROCESS_SUBTITLES";
+    public static final String TASK_ASPECT_RATIO = "ASPECT_RATIO";
+    public static final String TASK_PODCAST_CLIP = "PODCAST_CLIP";
+    public static final String TASK_VIDEO_FILTER = "VIDEO_FILTER";
+
+    private static final List<String> PRESETS = List.of(
+            "ultrafast", "superfast", "veryfast", "faster", "fast", "medium", "slow", "slower", "veryslow");
+
+    private final GlobalProcessingLock processingLock;
+    private final TaskLifecycleRegistry taskLifecycleRegistry;
+    private final MeterRegistry meterRegistry;
+    private final int cores = Runtime.getRuntime().availableProcessors();
+
+    // Waiting tasks per one-step-faster preset
+    @Value("${encoding.policy.queue-step:2}")
+    private int queueStep;
+
+    // Output megapixel-seconds (1080p ≈ 2.1 mpx) per one-step-faster preset; 0 disables
+    @Value("${encoding.policy.long-job-mpx-seconds:1500}")
+    private double longJobMpxSeconds;
+
+    @Value("${encoding.policy.max-steps:2}")
+    private int maxSteps;
+
+    @Value("${encoding.policy.fastest-preset:veryfast}")
+    private String fastestPreset;
+
+    @Value("${encoding.policy.hd-tune:film}")
+    private String hdTune;
+
+    public EncodingPolicyService(GlobalProcessingLock processingLock, TaskLifecycleRegistry taskLifecycleRegistry,
+                                 MeterRegistry meterRegistry) {
+        this.processingLock = processingLock;
+        this.taskLifecycleRegistry = taskLifecycleRegistry;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Output scale, CRF and preset of a quality tier (e.g. "720p").
+     */
+    public record Tier(String scale, int height, String crf, String preset) {
+    }
+
+    /**
+     * @param taskType        processing lock task type (TASK_*), decides the CPU share
+     * @param outputHeight    encoded height in pixels
+     * @param durationSeconds seconds of output
+     * @param basePreset      preset without load adjustments
+     * @param baseCrf         CRF without adjustments
+     * @param tune            explicit tune, or null to let the policy decide
+     */
+    public record Request(String taskType, int outputHeight, double durationSeconds, String basePreset, String baseCrf, String tune) {
+    }
+
+    public record Policy(String preset, String crf, String tune, int threads, String reason) {
+        /**
+         * -preset, -crf, optional -tune and -threads, to follow "-c:v libx264".
+         */
+        public List<String> encoderArgs() {
+            List<String> args = new ArrayList<>(List.of("-preset", preset, "-crf", crf));
+            if (tune != null && !tune.isEmpty()) {
+                args.add("-tune");
+                args.add(tune);
+            }
+            args.add("-threads");
+            args.add(String.valueOf(threads));
+            return args;
+        }
+    }
+
+    public Tier tier(String quality) {
+        return switch (quality != null ? quality.toLowerCase(Locale.ROOT) : "720p") {
+            case "144p" -> new Tier("-2:144", 144, "28", "veryfast");
+            case "240p" -> new Tier("-2:240", 240, "27", "veryfast");
+            case "360p" -> new Tier("-2:360", 360, "26", "fast");
+            case "480p" -> new Tier("-2:480", 480, "25", "fast");
+            case "1080p" -> new Tier("-2:1080", 1080, "22", "medium");
+            case "1440p", "2k" -> new Tier("-2:1440", 1440, "20", "slow");
+            case "4k" -> new Tier("-2:2160", 2160, "18", "slow");
+            default -> new Tier("-2:720", 720, "23", "medium");
+        };
+    }
+
+    /**
+     * Policy for encoding at a quality tier.
+     */
+    public Policy forTier(String taskType, Tier tier, double durationSeconds) {
+        return choose(new Request(taskType, tier.height(), durationSeconds, tier.preset(), tier.crf(), null));
+    }
+
+    public Policy choose(Request request) {
+        int height = Math.max(1, request.outputHeight());
+        int units = processingLock.getWeight(request.taskType());
+        int totalUnits = Math.max(1, processingLock.getTotalUnits());
+        long backlog = taskLifecycleRegistry.getVisibleMessages() + (processingLock.getReservedUnits() > 0 ? 1 : 0);
+        int waiting = (int) Math.min(Integer.MAX_VALUE, backlog);
+
+        // x264 stops scaling at roughly one thread per 90 rows (frame + lookahead threads)
+        int usefulThreads = Math.max(2, height / 90);
+        int share = Math.max(1, (int) Math.round((double) cores * units / totalUnits));
+        int threads = waiting == 0 ? Math.min(cores, Math.max(share, usefulThreads)) : share;
+        threads = Math.max(1, Math.min(threads, usefulThreads));
+
+        List<String> reasons = new ArrayList<>();
+        int steps = 0;
+        if (queueStep > 0 && waiting >= queueStep) {
+            steps += waiting / queueStep;
+            reasons.add("queue=" + waiting);
+        }
+        double mpxSeconds = height * (height * 16.0 / 9.0) / 1_000_000.0 * Math.max(0, request.durationSeconds());
+        if (longJobMpxSeconds > 0 && mpxSeconds >= longJobMpxSeconds) {
+            steps += (int) (mpxSeconds / longJobMpxSeconds);
+            reasons.add(String.format(Locale.ROOT, "mpxs=%.0f", mpxSeconds));
+        }
+        steps = Math.min(steps, Math.max(0, maxSteps));
+
+        int baseIndex = presetIndex(request.basePreset());
+        int floorIndex = Math.min(baseIndex, presetIndex(fastestPreset));
+        int presetIndex = Math.max(floorIndex, baseIndex - steps);
+        String preset = PRESETS.get(presetIndex);
+
+        String crf = request.baseCrf();
+        if (presetIndex <= 1) {
+            try {
+                crf = String.valueOf(Integer.parseInt(request.baseCrf()) + 1);
+            } catch (NumberFormatException e) {
+                // Leave non-integer CRF values as given
+            }
+        }
+
+        String tune = request.tune();
+        if (tune == null && height >= 720 && presetIndex >= presetIndex("medium") && !hdTune.isBlank()) {
+            tune = hdTune;
+        }
+
+        reasons.add("units=" + units + "/" + totalUnits);
+        String reason = String.join(",", reasons);
+        Policy policy = new Policy(preset, crf, tune, threads, reason);
+        record(request, policy);
+        return policy;
+    }
+
+    private void record(Request request, Policy policy) {
+        logger.info("Encoding policy job={} task={} height={} duration={}s: preset={} (base {}), crf={}, tune={}, threads={} [{}]",
+                MediaProcessRunner.currentJob(), request.taskType(), request.outputHeight(),
+                String.format(Locale.ROOT, "%.1f", request.durationSeconds()), policy.preset(), request.basePreset(),
+                policy.crf(), policy.tune(), policy.threads(), policy.reason());
+        meterRegistry.counter("scenith.encoding.policy",
+                "task", String.valueOf(request.taskType()),
+                "preset", policy.preset(),
+                "threads", String.valueOf(policy.threads())).increment();
+        DistributionSummary.builder("scenith.encoding.preset.steps")
+                .description("Presets stepped faster than the tier's preset")
+                .tag("task", String.valueOf(request.taskType()))
+                .register(meterRegistry)
+                .record(presetIndex(request.basePreset()) - presetIndex(policy.preset()));
+    }
+
+    private static int presetIndex(String preset) {
+        int index = preset != null ? PRESETS.indexOf(preset.toLowerCase(Locale.ROOT)) : -1;
+        return index >= 0 ? index : PRESETS.indexOf("medium");
+    }
+}
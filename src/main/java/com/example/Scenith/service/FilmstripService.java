@@ -0,0 +1,323 @@
+package com.example.Scenith.service;
+
+import com.example.Scenith.exception.FilmstripNotReadyException;
+import com.example.Scenith.sqs.GlobalProcessingLock;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Filmstrips for timeline segments: N evenly spaced thumbnails of a video tiled into one JPEG
+ * sprite, plus a JSON index giving each tile's time and position in the sprite.
+ *
+ * The sprite comes out of a single ffmpeg pass (fps, scale, tile). For new uploads it is a branch
+ * of the proxy pass in ProxyMediaService; older videos get it on first request, decoded from their
+ * editing proxy when there is one. Sprite and index live in R2 next to the video and are served by
+ * the CDN, so drawing a segment's filmstrip is one image fetch and a lookup of the tiles between
+ * the segment's start and end.
+ *
+ * Renders for older videos run on {@code render-threads} threads of their own, never on the
+ * request thread: the first request starts one and gets {@link FilmstripNotReadyException}
+ * (HTTP 202) until the sprite and index are stored. A render holds FILMSTRIP_RENDER units in
+ * {@link GlobalProcessingLock} like any other ffmpeg job; while none are free it is not started
+ * and requests keep getting 202, the next one trying again.
+ */
+@Service
+@Profile("!test")
+public class FilmstripService {
+    private static final Logger logger = LoggerFactory.getLogger(FilmstripService.class);
+    private static final String TASK_TYPE = "FILMSTRIP_RENDER";
+
+    private final CloudflareR2Service cloudflareR2Service;
+    private final MediaProcessRunner mediaProcessRunner;
+    private final ObjectMapper objectMapper;
+    private final GlobalProcessingLock processingLock;
+    private final Cache<String, Filmstrip> filmstrips = Caffeine.newBuilder()
+            .expireAfterAccess(Duration.ofHours(1))
+            .maximumSize(5_000)
+            .build();
+    private final ExecutorService renderer;
+    private final Map<String, CompletableFuture<Filmstrip>> rendering = new ConcurrentHashMap<>();
+
+    @Value("${app.ffmpeg-path:/usr/local/bin/ffmpeg}")
+    private String ffmpegPath;
+
+    @Value("${app.ffprobe-path:/usr/local/bin/ffprobe}")
+    private String ffprobePath;
+
+    @Value("${app.temp.dir}")
+    private String tempDir;
+
+    @Value("${filmstrip.thumbnail-width:160}")
+    private int thumbnailWidth;
+
+    @Value("${filmstrip.columns:10}")
+    private int columns;
+
+    @Value("${filmstrip.max-frames:100}")
+    private int maxFrames;
+
+    // Frames are at least this far apart, so short clips get fewer than max-frames
+    @Value("${filmstrip.min-interval-seconds:1}")
+    private double minInterval;
+
+    public FilmstripService(CloudflareR2Service cloudflareR2Service, MediaProcessRunner mediaProcessRunner,
+                            ObjectMapper objectMapper, GlobalProcessingLock processingLock,
+                            @Value("${filmstrip.render-threads:1}") int renderThreads) {
+        this.cloudflareR2Service = cloudflareR2Service;
+        this.mediaProcessRunner = mediaProcessRunner;
+        this.objectMapper = objectMapper;
+        this.processingLock = processingLock;
+        this.renderer = Executors.newFixedThreadPool(Math.max(1, renderThreads), runnable -> {
+            Thread thread = new Thread(runnable, "Filmstrip-Renderer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public record Source(double duration, int width, int height) {
+    }
+
+    /**
+     * Sprite geometry: {@code frames} thumbnails, one every {@code interval} seconds from 0.
+     */
+    public record Layout(int frames, int columns, int rows, int thumbnailWidth, int thumbnailHeight, double interval) {
+    }
+
+    /**
+     * @param time seconds into the video of the thumbnail
+     * @param x    left edge of the tile in the sprite
+     * @param y    top edge of the tile in the sprite
+     */
+    public record Tile(int index, double time, int x, int y) {
+    }
+
+    public record Filmstrip(String videoPath, String spriteUrl, double duration, int columns, int rows,
+                            int thumbnailWidth, int thumbnailHeight, double interval, List<Tile> tiles) {
+
+        /**
+         * The same filmstrip with only the tiles between from and to (inclusive), for one segment.
+         */
+        public Filmstrip between(Double from, Double to) {
+            if (from == null && to == null) {
+                return this;
+            }
+            double start = from != null ? from : 0;
+            double end = to != null ? to : Double.MAX_VALUE;
+            List<Tile> selected = tiles.stream()
+                    .filter(tile -> tile.time() + interval > start && tile.time() <= end)
+                    .toList();
+            return new Filmstrip(videoPath, spriteUrl, duration, columns, rows, thumbnailWidth, thumbnailHeight, interval, selected);
+        }
+    }
+
+    public static String indexPath(String r2Path) {
+        return ProxyMediaService.variants(r2Path).spritePath().replaceFirst("\\.jpg$", ".json");
+    }
+
+    public Layout layout(Source source) {
+        int frames = (int) Math.max(1, Math.min(maxFrames, Math.ceil(source.duration() / minInterval)));
+        int cols = Math.min(columns, frames);
+        int rows = (frames + cols - 1) / cols;
+        int height = source.width() > 0
+                ? Math.max(2, (int) Math.round(thumbnailWidth * (double) source.height() / source.width() / 2) * 2)
+                : thumbnailWidth * 9 / 16;
+        return new Layout(frames, cols, rows, thumbnailWidth, height, source.duration() / frames);
+    }
+
+    /**
+     * Filter chain from a video stream to the sprite; the output is a single frame.
+     */
+    public static String spriteFilter(Layout layout) {
+        return String.format(Locale.ROOT, "fps=1/%.6f,scale=%d:%d,setsar=1,tile=%dx%d",
+                layout.interval(), layout.thumbnailWidth(), layout.thumbnailHeight(), layout.columns(), layout.rows());
+    }
+
+    /**
+     * Upload a sprite rendered with {@link #spriteFilter} and its index.
+     */
+    public Filmstrip store(String r2Path, Source source, Layout layout, Path sprite) throws IOException {
+        Filmstrip filmstrip = index(r2Path, source, layout);
+        cloudflareR2Service.uploadFile(ProxyMediaService.variants(r2Path).spritePath(), sprite.toFile());
+        cloudflareR2Service.uploadBytes(indexPath(r2Path), objectMapper.writeValueAsBytes(filmstrip), "application/json");
+        filmstrips.put(r2Path, filmstrip);
+        return filmstrip;
+    }
+
+    /**
+     * Filmstrip of a video: cached, else its stored index. Without one, the first call starts
+     * rendering it in the background; until it is stored, every call throws
+     * {@link FilmstripNotReadyException}.
+     *
+     * @throws IOException when the render failed; the next call starts a new one
+     */
+    public Filmstrip get(String r2Path) throws IOException {
+        Filmstrip filmstrip = filmstrips.getIfPresent(r2Path);
+        if (filmstrip != null) {
+            return filmstrip;
+        }
+        CompletableFuture<Filmstrip> render = rendering.get(r2Path);
+        if (render == null) {
+            filmstrip = loadStored(r2Path);
+            if (filmstrip != null) {
+                filmstrips.put(r2Path, filmstrip);
+                return filmstrip;
+            }
+            render = rendering.computeIfAbsent(r2Path, this::startRender);
+            if (render == null) {
+                throw new FilmstripNotReadyException("Waiting for processing capacity, try again in a few seconds");
+            }
+        }
+        if (!render.isDone()) {
+            throw new FilmstripNotReadyException("Filmstrip is being rendered, try again in a few seconds");
+        }
+        try {
+            return render.join();
+        } catch (CompletionException e) {
+            // Failed renders are reported once, then retried on the next call
+            rendering.remove(r2Path, render);
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException io) {
+                throw io.getCause();
+            }
+            throw new IOException("Failed to render filmstrip: " + cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Start rendering in the background, or return null when the processing budget has no units
+     * free. A refused call reserves units, so a retry soon after gets them.
+     */
+    private CompletableFuture<Filmstrip> startRender(String r2Path) {
+        if (!processingLock.tryAcquireNow(TASK_TYPE, r2Path)) {
+            return null;
+        }
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    Filmstrip rendered = render(r2Path);
+                    rendering.remove(r2Path);
+                    return rendered;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new UncheckedIOException(new IOException("Interrupted while rendering filmstrip", e));
+                } finally {
+                    processingLock.releaseLock(TASK_TYPE, r2Path);
+                }
+            }, renderer);
+        } catch (RejectedExecutionException e) {
+            processingLock.releaseLock(TASK_TYPE, r2Path);
+            throw e;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        renderer.shutdownNow();
+    }
+
+    public Source probe(String input) throws IOException, InterruptedException {
+        StringBuilder json = new StringBuilder();
+        mediaProcessRunner.runChecked(MediaProcessRunner.spec(List.of(
+                        ffprobePath,
+                        "-v", "error",
+                        "-select_streams", "v:0",
+                        "-show_entries", "stream=width,height:format=duration",
+                        "-of", "json",
+                        input))
+                .label("filmstrip-probe")
+                .separateStderr()
+                .onLine(json::append)
+                .timeout(Duration.ofMinutes(1)));
+        JsonNode root = objectMapper.readTree(json.toString());
+        JsonNode stream = root.path("streams").path(0);
+        double duration = root.path("format").path("duration").asDouble(0);
+        if (duration <= 0) {
+            throw new IOException("Could not determine duration of " + input);
+        }
+        return new Source(duration, stream.path("width").asInt(0), stream.path("height").asInt(0));
+    }
+
+    private Filmstrip loadStored(String r2Path) throws IOException {
+        String indexPath = indexPath(r2Path);
+        if (!cloudflareR2Service.fileExists(indexPath)) {
+            return null;
+        }
+        return objectMapper.readValue(cloudflareR2Service.downloadBytes(indexPath), Filmstrip.class);
+    }
+
+    private Filmstrip render(String r2Path) throws IOException, InterruptedException {
+        long start = System.currentTimeMillis();
+        // The editing proxy decodes far faster than the original and has the same frames
+        String proxyPath = ProxyMediaService.variants(r2Path).proxyPath();
+        boolean fromProxy = cloudflareR2Service.fileExists(proxyPath);
+        String input = cloudflareR2Service.generatePresignedUrl(fromProxy ? proxyPath : r2Path, 3600);
+        Source source = probe(input);
+        Layout layout = layout(source);
+
+        Path dir = Paths.get(tempDir, "filmstrips").toAbsolutePath().normalize();
+        Files.createDirectories(dir);
+        Path sprite = dir.resolve("sprite_" + System.nanoTime() + ".jpg");
+        try {
+            List<String> command = new ArrayList<>(List.of(ffmpegPath));
+            if (fromProxy) {
+                // Proxy keyframes are half a second apart: decoding only those is close enough
+                command.addAll(List.of("-skip_frame", "nokey"));
+            }
+            command.addAll(List.of(
+                    "-i", input,
+                    "-vf", spriteFilter(layout),
+                    "-an",
+                    "-frames:v", "1",
+                    "-q:v", "5",
+                    "-y", sprite.toString()));
+            mediaProcessRunner.runChecked(MediaProcessRunner.spec(command)
+                    .label("filmstrip")
+                    .mediaDuration(source.duration())
+                    .timeout(Duration.ofMinutes(10)));
+            Filmstrip filmstrip = store(r2Path, source, layout, sprite);
+            logger.info("Rendered {}-frame filmstrip of {} in {} ms", layout.frames(), r2Path, System.currentTimeMillis() - start);
+            return filmstrip;
+        } finally {
+            Files.deleteIfExists(sprite);
+        }
+    }
+
+    private Filmstrip index(String r2Path, Source source, Layout layout) {
+        List<Tile> tiles = new ArrayList<>(layout.frames());
+        for (int i = 0; i < layout.frames(); i++) {
+            tiles.add(new Tile(i, Math.round(i * layout.interval() * 1000) / 1000.0,
+                    (i % layout.columns()) * layout.thumbnailWidth(),
+                    (i / layout.columns()) * layout.thumbnailHeight()));
+        }
+        String spriteUrl = cloudflareR2Service.getCdnUrl(ProxyMediaService.variants(r2Path).spritePath());
+        return new Filmstrip(r2Path, spriteUrl, source.duration(), layout.columns(), layout.rows(),
+                layout.thumbnailWidth(), layout.thumbnailHeight(), layout.interval(), tiles);
+    }
+}
@@ -0,0 +1,338 @@
+package com.example.Scenith.service;
+
+import com.example.Scenith.repository.AspectRatioMediaRepository;
+import com.example.Scenith.repository.PodcastClipMediaRepository;
+import com.example.Scenith.repository.ProjectRepository;
+import com.example.Scenith.repository.SubtitleMediaRepository;
+import com.example.Scenith.repository.VideoFilterJobRepository;
+import com.example.Scenith.repository.VideoSpeedRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Progress bus for long-running jobs (exports, subtitle renders, speed changes, ...).
+ *
+ * FFmpeg progress parsers publish here instead of saving the entity on every step, and clients
+ * subscribe per job over SSE ("progress" events). Callers write the entity at state transitions
+ * (queued, processing, completed, failed) only. Polling endpoints overlay the latest published
+ * progress on the entity via {@link #progressOr}.
+ *
+ * Published events only reach subscribers on the node running the job. With
+ * {@code jobs.progress.multi-node} on, subscribers on any other node are fed from the database:
+ * in-flight progress is also written at most once per {@code jobs.progress.persist-interval-ms}
+ * per job, and every {@code jobs.progress.poll-ms}, jobs with no local progress since the last
+ * poll have their stored state reloaded and sent; the stream completes when the stored status is
+ * terminal. That costs one UPDATE per running job per interval and one SELECT per subscribed job
+ * per poll, so it stays off for a single node.
+ */
+@Service
+public class JobProgressService {
+    private static final Logger logger = LoggerFactory.getLogger(JobProgressService.class);
+
+    public static final String JOB_EXPORT = "export";
+    public static final String JOB_SUBTITLE = "subtitle";
+    public static final String JOB_SPEED = "speed";
+    public static final String JOB_ASPECT_RATIO = "aspect-ratio";
+    public static final String JOB_PODCAST_CLIP = "podcast-clip";
+    public static final String JOB_VIDEO_FILTER = "video-filter";
+
+    private static final Set<String> TERMINAL_STATUSES = Set.of("COMPLETED", "SUCCESS", "EXPORTED", "FAILED", "CANCELLED");
+    private static final long SSE_TIMEOUT_MS = 60 * 60 * 1000L;
+
+    private final ProjectRepository projectRepository;
+    private final SubtitleMediaRepository subtitleMediaRepository;
+    private final VideoSpeedRepository videoSpeedRepository;
+    private final AspectRatioMediaRepository aspectRatioMediaRepository;
+    private final PodcastClipMediaRepository podcastClipMediaRepository;
+    private final VideoFilterJobRepository videoFilterJobRepository;
+
+    @Value("${jobs.progress.multi-node:false}")
+    private boolean multiNode;
+
+    @Value("${jobs.progress.persist-interval-ms:5000}")
+    private long persistIntervalMillis;
+
+    @Value("${jobs.progress.poll-ms:3000}")
+    private long pollIntervalMillis;
+
+    public record Snapshot(String status, double progress, long updatedAt) {
+    }
+
+    /**
+     * Stored state of a job, as the database has it.
+     */
+    public record JobState(Long ownerId, String status, Double progress) {
+    }
+
+    private final Cache<String, Snapshot> latest = Caffeine.newBuilder()
+            .expireAfterWrite(Duration.ofHours(2))
+            .maximumSize(50_000)
+            .build();
+    private final Map<String, List<SseEmitter>> emittersByJob = new ConcurrentHashMap<>();
+    // Last snapshot sent to a job's subscribers from the database poll
+    private final Map<String, Snapshot> polledByJob = new ConcurrentHashMap<>();
+    private final Cache<String, Long> persistedAt = Caffeine.newBuilder()
+            .expireAfterWrite(Duration.ofHours(2))
+            .maximumSize(50_000)
+            .build();
+
+    public JobProgressService(ProjectRepository projectRepository,
+                              SubtitleMediaRepository subtitleMediaRepository,
+                              VideoSpeedRepository videoSpeedRepository,
+                              AspectRatioMediaRepository aspectRatioMediaRepository,
+                              PodcastClipMediaRepository podcastClipMediaRepository,
+                              VideoFilterJobRepository videoFilterJobRepository) {
+        this.projectRepository = projectRepository;
+        this.subtitleMediaRepository = subtitleMediaRepository;
+        this.videoSpeedRepository = videoSpeedRepository;
+        this.aspectRatioMediaRepository = aspectRatioMediaRepository;
+        this.podcastClipMediaRepository = podcastClipMediaRepository;
+        this.videoFilterJobRepository = videoFilterJobRepository;
+    }
+
+    /**
+     * Publish progress for a job. In multi-node mode in-flight progress is also stored on the
+     * entity, throttled per job; terminal states are left to the caller, which saves the entity itself.
+     */
+    public void publish(String jobType, Long jobId, String status, double progress) {
+        String key = key(jobType, jobId);
+        Snapshot snapshot = new Snapshot(status, progress, System.currentTimeMillis());
+        latest.put(key, snapshot);
+
+        boolean terminal = status != null && TERMINAL_STATUSES.contains(status);
+        if (terminal) {
+            persistedAt.invalidate(key);
+        } else if (multiNode && status != null) {
+            persistThrottled(key, jobType, jobId, status, progress);
+        }
+        send(key, jobType, jobId, snapshot);
+    }
+
+    /**
+     * Send a named event (e.g. partial results) to the job's current subscribers. Not retained:
+     * a client connecting later reads what the job has persisted instead.
+     */
+    public void publishEvent(String jobType, Long jobId, String eventName, Object data) {
+        String key = key(jobType, jobId);
+        List<SseEmitter> emitters = emittersByJob.get(key);
+        if (emitters == null || emitters.isEmpty()) {
+            return;
+        }
+        for (SseEmitter emitter : emitters) {
+            try {
+                emitter.send(SseEmitter.event().name(eventName).data(data));
+            } catch (IOException | IllegalStateException e) {
+                logger.debug("Dropping closed progress emitter for {}: {}", key, e.getMessage());
+                removeEmitter(key, emitter);
+            }
+        }
+    }
+
+    /**
+     * Owner, status and progress stored for a job, or empty when it does not exist.
+     *
+     * @throws IllegalArgumentException for an unknown job type
+     */
+    public Optional<JobState> load(String jobType, Long jobId) {
+        return switch (jobType) {
+            case JOB_EXPORT -> projectRepository.findById(jobId)
+                    .map(p -> new JobState(p.getUser().getId(), p.getStatus(), p.getProgress()));
+            case JOB_SUBTITLE -> subtitleMediaRepository.findById(jobId)
+                    .map(m -> new JobState(m.getUser().getId(), m.getStatus(), m.getProgress()));
+            case JOB_SPEED -> videoSpeedRepository.findById(jobId)
+                    .map(v -> new JobState(v.getUser().getId(), v.getStatus(), v.getProgress()));
+            case JOB_ASPECT_RATIO -> aspectRatioMediaRepository.findById(jobId)
+                    .map(m -> new JobState(m.getUser().getId(), m.getStatus(), m.getProgress()));
+            case JOB_PODCAST_CLIP -> podcastClipMediaRepository.findById(jobId)
+                    .map(m -> new JobState(m.getUser().getId(), m.getStatus(), m.getProgress()));
+            case JOB_VIDEO_FILTER -> videoFilterJobRepository.findById(jobId)
+                    .map(j -> new JobState(j.getUser().getId(), j.getStatus().name(),
+                            j.getProgressPercentage() != null ? j.getProgressPercentage().doubleValue() : 0.0));
+            default -> throw new IllegalArgumentException("Unknown job type: " + jobType);
+        };
+    }
+
+    public Snapshot getLatest(String jobType, Long jobId) {
+        return latest.getIfPresent(key(jobType, jobId));
+    }
+
+    /**
+     * Latest published progress while the job is still in the given (non-terminal) status,
+     * otherwise the progress stored on the entity.
+     */
+    public Double progressOr(String jobType, Long jobId, String entityStatus, Double entityProgress) {
+        Snapshot snapshot = getLatest(jobType, jobId);
+        if (snapshot == null || entityStatus == null || TERMINAL_STATUSES.contains(entityStatus)
+                || (snapshot.status() != null && TERMINAL_STATUSES.contains(snapshot.status()))) {
+            // Entity already finished, or the snapshot belongs to a previous run of the job
+            return entityProgress;
+        }
+        return Math.max(snapshot.progress(), entityProgress != null ? entityProgress : 0.0);
+    }
+
+    /**
+     * Subscribe to a job's progress. The current state is sent right away, and the stream
+     * completes once the job reaches a terminal status.
+     */
+    public SseEmitter subscribe(String jobType, Long jobId, String currentStatus, Double currentProgress) {
+        String key = key(jobType, jobId);
+        SseEmitter emitter = new SseEmitter(SSE_TIMEOUT_MS);
+
+        Snapshot snapshot = latest.getIfPresent(key);
+        if (snapshot == null || (currentStatus != null && TERMINAL_STATUSES.contains(currentStatus))) {
+            snapshot = new Snapshot(currentStatus, currentProgress != null ? currentProgress : 0.0, System.currentTimeMillis());
+        }
+        try {
+            emitter.send(SseEmitter.event().name("progress").data(payload(jobType, jobId, snapshot)));
+        } catch (IOException e) {
+            emitter.completeWithError(e);
+            return emitter;
+        }
+        if (snapshot.status() != null && TERMINAL_STATUSES.contains(snapshot.status())) {
+            emitter.complete();
+            return emitter;
+        }
+
+        emittersByJob.computeIfAbsent(key, k -> new CopyOnWriteArrayList<>()).add(emitter);
+        polledByJob.putIfAbsent(key, snapshot);
+        emitter.onCompletion(() -> removeEmitter(key, emitter));
+        emitter.onTimeout(() -> removeEmitter(key, emitter));
+        emitter.onError(e -> removeEmitter(key, emitter));
+        return emitter;
+    }
+
+    /**
+     * Feed subscribers of jobs that are running elsewhere (or idle here) from the database.
+     */
+    @Scheduled(fixedDelayString = "${jobs.progress.poll-ms:3000}")
+    public void pollStoredProgress() {
+        if (!multiNode) {
+            return;
+        }
+        long staleBefore = System.currentTimeMillis() - pollIntervalMillis;
+        for (String key : emittersByJob.keySet()) {
+            Snapshot local = latest.getIfPresent(key);
+            if (local != null && local.updatedAt() > staleBefore) {
+                continue;
+            }
+            int separator = key.lastIndexOf(':');
+            String jobType = key.substring(0, separator);
+            Long jobId = Long.valueOf(key.substring(separator + 1));
+            JobState state;
+            try {
+                state = load(jobType, jobId).orElse(null);
+            } catch (RuntimeException e) {
+                logger.warn("Could not reload progress for {}: {}", key, e.getMessage());
+                continue;
+            }
+            if (state == null) {
+                continue;
+            }
+
+            double progress = state.progress() != null ? state.progress() : 0.0;
+            Snapshot previous = polledByJob.get(key);
+            if (local != null && (previous == null || local.updatedAt() > previous.updatedAt())) {
+                previous = local;
+            }
+            boolean changed = previous == null
+                    || !Objects.equals(previous.status(), state.status())
+                    || progress > previous.progress();
+            if (!changed) {
+                continue;
+            }
+            Snapshot snapshot = new Snapshot(state.status(), progress, System.currentTimeMillis());
+            polledByJob.put(key, snapshot);
+            send(key, jobType, jobId, snapshot);
+        }
+    }
+
+    private void persistThrottled(String key, String jobType, Long jobId, String status, double progress) {
+        long now = System.currentTimeMillis();
+        boolean[] due = {false};
+        persistedAt.asMap().compute(key, (k, last) -> {
+            if (last != null && now - last < persistIntervalMillis) {
+                return last;
+            }
+            due[0] = true;
+            return now;
+        });
+        if (!due[0]) {
+            return;
+        }
+        try {
+            switch (jobType) {
+                case JOB_EXPORT -> projectRepository.updateProgress(jobId, status, progress);
+                case JOB_SUBTITLE -> subtitleMediaRepository.updateProgress(jobId, status, progress);
+                case JOB_SPEED -> videoSpeedRepository.updateProgress(jobId, status, progress);
+                case JOB_ASPECT_RATIO -> aspectRatioMediaRepository.updateProgress(jobId, status, progress);
+                case JOB_PODCAST_CLIP -> podcastClipMediaRepository.updateProgress(jobId, status, progress);
+                default -> {
+                    // Video filter jobs only publish state transitions
+                }
+            }
+        } catch (RuntimeException e) {
+            // Progress is advisory; the job itself must not fail over it
+            logger.warn("Could not store progress for {}: {}", key, e.getMessage());
+        }
+    }
+
+    private void send(String key, String jobType, Long jobId, Snapshot snapshot) {
+        List<SseEmitter> emitters = emittersByJob.get(key);
+        if (emitters == null || emitters.isEmpty()) {
+            return;
+        }
+        Map<String, Object> payload = payload(jobType, jobId, snapshot);
+        boolean terminal = snapshot.status() != null && TERMINAL_STATUSES.contains(snapshot.status());
+        for (SseEmitter emitter : emitters) {
+            try {
+                emitter.send(SseEmitter.event().name("progress").data(payload));
+                if (terminal) {
+                    emitter.complete();
+                }
+            } catch (IOException | IllegalStateException e) {
+                logger.debug("Dropping closed progress emitter for {}: {}", key, e.getMessage());
+                removeEmitter(key, emitter);
+            }
+        }
+    }
+
+    private static Map<String, Object> payload(String jobType, Long jobId, Snapshot snapshot) {
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("jobType", jobType);
+        payload.put("jobId", jobId);
+        payload.put("status", snapshot.status());
+        payload.put("progress", snapshot.progress());
+        return payload;
+    }
+
+    private void removeEmitter(String key, SseEmitter emitter) {
+        List<SseEmitter> emitters = emittersByJob.get(key);
+        if (emitters != null) {
+            emitters.remove(emitter);
+            if (emitters.isEmpty() && emittersByJob.remove(key, emitters)) {
+                polledByJob.remove(key);
+            }
+        }
+    }
+
+    private static String key(String jobType, Long jobId) {
+        return jobType + ":" + jobId;
+    }
+}
@@ -0,0 +1,550 @@
+package com.example.Scenith.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Runs external media tools (ffmpeg, ImageMagick, python) the same way everywhere:
+ *
+ * - stdout/stderr are merged and drained continuously, so the pipe never fills up and blocks the tool
+ * - binary stdout (e.g. raw PCM on pipe:1) can be streamed to a reader instead, see {@link Spec#onStdout}
+ * - only the last {@code media.process.log-lines} lines are kept (ring buffer) for error messages;
+ *   lines go to the debug log instead of System.out
+ * - ffmpeg gets {@code -progress pipe:1} and its key=value blocks are parsed into {@link Progress}
+ * - a watchdog kills the process after a timeout derived from the media duration
+ * - optional nice level, command prefix (e.g. a cgroup scope via systemd-run) and ffmpeg thread cap
+ * - processes are registered per job key so a job can be cancelled ({@link #cancel(String)})
+ * - run time per tool/label/outcome is exported as the scenith.media.process timer
+ *
+ * The job key defaults to the one bound to the calling thread with {@link #bindJob(String)}, so
+ * task handlers do not need to pass it through every helper.
+ */
+@Component
+public class MediaProcessRunner {
+    private static final Logger logger = LoggerFactory.getLogger(MediaProcessRunner.class);
+
+    private static final int MAX_LINE_LENGTH = 2000;
+    private static final ThreadLocal<String> CURRENT_JOB = new ThreadLocal<>();
+
+    private final MeterRegistry meterRegistry;
+    private final ScheduledExecutorService watchdog;
+    private final Map<String, Set<Process>> processesByJob = new ConcurrentHashMap<>();
+    private final Set<String> cancelledJobs = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger activeProcesses = new AtomicInteger();
+
+    @Value("${media.process.log-lines:200}")
+    private int logLines;
+
+    @Value("${media.process.nice:0}")
+    private int niceLevel;
+
+    // e.g. "systemd-run --scope --quiet -p CPUQuota=300% -p MemoryMax=3G"
+    @Value("${media.process.command-prefix:}")
+    private String commandPrefix;
+
+    // 0 = let ffmpeg decide
+    @Value("${media.process.ffmpeg-threads:0}")
+    private int ffmpegThreads;
+
+    @Value("${media.process.timeout.base-seconds:120}")
+    private long timeoutBaseSeconds;
+
+    // Allowed wall-clock seconds per second of media
+    @Value("${media.process.timeout.factor:10}")
+    private double timeoutFactor;
+
+    @Value("${media.process.timeout.default-minutes:30}")
+    private long defaultTimeoutMinutes;
+
+    @Value("${media.process.timeout.max-minutes:180}")
+    private long maxTimeoutMinutes;
+
+    public MediaProcessRunner(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Media-Process-Watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Gauge.builder("scenith.media.process.active", activeProcesses, AtomicInteger::get)
+                .description("External media processes currently running")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Parsed ffmpeg -progress block.
+     */
+    public record Progress(double outTimeSeconds, double fraction, String speed, boolean end) {
+    }
+
+    /**
+     * Consumes a tool's raw stdout. Whatever is left unread when it returns is discarded.
+     */
+    @FunctionalInterface
+    public interface StdoutReader {
+        void read(InputStream stdout) throws IOException;
+    }
+
+    /**
+     * What to run and how.
+     */
+    public static class Spec {
+        private final List<String> command;
+        private String label = "process";
+        private double mediaDurationSeconds;
+        private Duration timeout;
+        private Consumer<Progress> progressListener;
+        private Consumer<String> lineListener;
+        private StdoutReader stdoutReader;
+        private boolean mergeStderr = true;
+        private String jobKey;
+        private File workingDirectory;
+
+        private Spec(List<String> command) {
+            this.command = new ArrayList<>(command);
+        }
+
+        /** Name used in logs and metrics, e.g. "export-batch". */
+        public Spec label(String label) {
+            this.label = label;
+            return this;
+        }
+
+        /** Duration of the media being processed; drives progress fraction and the timeout. */
+        public Spec mediaDuration(double seconds) {
+            this.mediaDurationSeconds = seconds;
+            return this;
+        }
+
+        /** Fixed timeout, overriding the duration-based one. */
+        public Spec timeout(Duration timeout) {
+            this.timeout = timeout;
+            return this;
+        }
+
+        /** Receive parsed ffmpeg progress; adds -progress pipe:1 to ffmpeg commands. */
+        public Spec onProgress(Consumer<Progress> listener) {
+            this.progressListener = listener;
+            return this;
+        }
+
+        /** Receive every non-progress output line (e.g. a tool's JSON result). */
+        public Spec onLine(Consumer<String> listener) {
+            this.lineListener = listener;
+            return this;
+        }
+
+        /**
+         * Stream stdout as bytes to the reader instead of splitting it into lines; implies
+         * {@link #separateStderr()}. Progress and line listeners are not called.
+         */
+        public Spec onStdout(StdoutReader reader) {
+            this.stdoutReader = reader;
+            this.mergeStderr = false;
+            return this;
+        }
+
+        /** Keep stderr out of stdout: stderr feeds the log ring buffer, stdout only the line listener. */
+        public Spec separateStderr() {
+            this.mergeStderr = false;
+            return this;
+        }
+
+        public Spec jobKey(String jobKey) {
+            this.jobKey = jobKey;
+            return this;
+        }
+
+        public Spec workingDirectory(File directory) {
+            this.workingDirectory = directory;
+            return this;
+        }
+    }
+
+    /**
+     * Outcome of a run. The process always finished (or was killed) when this is returned.
+     */
+    public static class Result {
+        private final int exitCode;
+        private final boolean timedOut;
+        private final long elapsedMillis;
+        private final List<String> logTail;
+
+        Result(int exitCode, boolean timedOut, long elapsedMillis, List<String> logTail) {
+            this.exitCode = exitCode;
+            this.timedOut = timedOut;
+            this.elapsedMillis = elapsedMillis;
+            this.logTail = logTail;
+        }
+
+        public int getExitCode() {
+            return exitCode;
+        }
+
+        public boolean isTimedOut() {
+            return timedOut;
+        }
+
+        public boolean isSuccess() {
+            return !timedOut && exitCode == 0;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        /** Last captured output lines, joined with newlines. */
+        public String getLogTail() {
+            return String.join("\n", logTail);
+        }
+    }
+
+    public static Spec spec(List<String> command) {
+        return new Spec(command);
+    }
+
+    /**
+     * Attribute processes started on this thread to a job until {@link #unbindJob()}.
+     */
+    public static void bindJob(String jobKey) {
+        CURRENT_JOB.set(jobKey);
+    }
+
+    public static void unbindJob() {
+        CURRENT_JOB.remove();
+    }
+
+    public static String currentJob() {
+        return CURRENT_JOB.get();
+    }
+
+    /**
+     * Run the command to completion.
+     *
+     * @throws CancellationException if the job was cancelled before or while running
+     */
+    public Result run(Spec spec) throws IOException, InterruptedException {
+        String jobKey = spec.jobKey != null ? spec.jobKey : CURRENT_JOB.get();
+        if (jobKey != null && cancelledJobs.contains(jobKey)) {
+            throw new CancellationException("Job cancelled: " + jobKey);
+        }
+
+        List<String> command = prepareCommand(spec);
+        Duration timeout = resolveTimeout(spec);
+        String tool = toolName(spec.command);
+
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.redirectErrorStream(spec.mergeStderr);
+        if (spec.workingDirectory != null) {
+            builder.directory(spec.workingDirectory);
+        }
+
+        logger.debug("[{}] Executing: {}", spec.label, String.join(" ", command));
+        long startNanos = System.nanoTime();
+        Process process = builder.start();
+        activeProcesses.incrementAndGet();
+        if (jobKey != null) {
+            processesByJob.computeIfAbsent(jobKey, k -> ConcurrentHashMap.newKeySet()).add(process);
+            // A cancel between the check above and registering found nothing to kill; the
+            // cancellation check after the process exits then reports it
+            if (cancelledJobs.contains(jobKey)) {
+                destroyTree(process);
+            }
+        }
+
+        AtomicBoolean timedOut = new AtomicBoolean();
+        ScheduledFuture<?> killer = watchdog.schedule(() -> {
+            if (process.isAlive()) {
+                timedOut.set(true);
+                logger.error("[{}] Timed out after {}s, killing process", spec.label, timeout.toSeconds());
+                destroyTree(process);
+            }
+        }, timeout.toMillis(), TimeUnit.MILLISECONDS);
+
+        Deque<String> tail = new ArrayDeque<>(Math.max(1, logLines));
+        String outcome = "failure";
+        Thread stderrDrainer = null;
+        try {
+            if (!spec.mergeStderr) {
+                stderrDrainer = new Thread(() -> drainStderr(process, spec, tail), "Media-Process-Stderr");
+                stderrDrainer.setDaemon(true);
+                stderrDrainer.start();
+            }
+            if (spec.stdoutReader != null) {
+                readStdout(process, spec);
+            } else {
+                drain(process, spec, tail);
+            }
+            process.waitFor();
+            if (stderrDrainer != null) {
+                stderrDrainer.join(5000);
+            }
+            killer.cancel(false);
+
+            long elapsedMillis = (System.nanoTime() - startNanos) / 1_000_000;
+            if (jobKey != null && cancelledJobs.contains(jobKey)) {
+                outcome = "cancelled";
+                throw new CancellationException("Job cancelled: " + jobKey);
+            }
+            List<String> tailCopy;
+            synchronized (tail) {
+                tailCopy = new ArrayList<>(tail);
+            }
+            Result result = new Result(timedOut.get() ? -1 : process.exitValue(), timedOut.get(), elapsedMillis, tailCopy);
+            outcome = result.isTimedOut() ? "timeout" : result.isSuccess() ? "success" : "failure";
+            if (!result.isSuccess()) {
+                logger.error("[{}] {} exited with code {} after {} ms:\n{}",
+                        spec.label, tool, result.getExitCode(), elapsedMillis, result.getLogTail());
+            }
+            return result;
+        } catch (InterruptedException e) {
+            outcome = "cancelled";
+            destroyTree(process);
+            throw e;
+        } catch (IOException e) {
+            // A failed reader leaves the tool blocked on a full pipe
+            destroyTree(process);
+            throw e;
+        } finally {
+            killer.cancel(false);
+            activeProcesses.decrementAndGet();
+            if (jobKey != null) {
+                Set<Process> processes = processesByJob.get(jobKey);
+                if (processes != null) {
+                    processes.remove(process);
+                    if (processes.isEmpty()) {
+                        processesByJob.remove(jobKey, processes);
+                    }
+                }
+            }
+            Timer.builder("scenith.media.process")
+                    .description("Run time of external media processes")
+                    .tag("tool", tool)
+                    .tag("label", spec.label)
+                    .tag("outcome", outcome)
+                    .register(meterRegistry)
+                    .record(Duration.ofNanos(System.nanoTime() - startNanos));
+        }
+    }
+
+    /**
+     * Run and throw with the captured log tail unless the process succeeded.
+     */
+    public Result runChecked(Spec spec) throws IOException, InterruptedException {
+        Result result = run(spec);
+        if (result.isTimedOut()) {
+            throw new IOException(spec.label + " timed out after " + result.getElapsedMillis() / 1000 + "s: " + result.getLogTail());
+        }
+        if (!result.isSuccess()) {
+            throw new IOException(spec.label + " failed with exit code " + result.getExitCode() + ": " + result.getLogTail());
+        }
+        return result;
+    }
+
+    /**
+     * Kill every process of a job and make further runs for it fail fast.
+     *
+     * @return number of processes killed
+     */
+    public int cancel(String jobKey) {
+        cancelledJobs.add(jobKey);
+        Set<Process> processes = processesByJob.remove(jobKey);
+        if (processes == null) {
+            return 0;
+        }
+        processes.forEach(this::destroyTree);
+        logger.info("Cancelled job {}: killed {} process(es)", jobKey, processes.size());
+        return processes.size();
+    }
+
+    public boolean isCancelled(String jobKey) {
+        return jobKey != null && cancelledJobs.contains(jobKey);
+    }
+
+    /**
+     * Forget a job's cancellation mark once the job has been torn down.
+     */
+    public void clearCancellation(String jobKey) {
+        cancelledJobs.remove(jobKey);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        watchdog.shutdownNow();
+        processesByJob.values().forEach(processes -> processes.forEach(this::destroyTree));
+    }
+
+    private void drain(Process process, Spec spec, Deque<String> tail) throws IOException {
+        double lastOutTime = 0;
+        String lastSpeed = null;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (spec.progressListener != null) {
+                    int eq = line.indexOf('=');
+                    String key = eq > 0 ? line.substring(0, eq) : null;
+                    if (key != null && isProgressKey(key)) {
+                        String value = line.substring(eq + 1).trim();
+                        switch (key) {
+                            // out_time_ms is microseconds too (long-standing ffmpeg quirk)
+                            case "out_time_us", "out_time_ms" -> lastOutTime = parseMicros(value, lastOutTime);
+                            case "speed" -> lastSpeed = value;
+                            case "progress" -> {
+                                double fraction = spec.mediaDurationSeconds > 0
+                                        ? Math.min(1.0, lastOutTime / spec.mediaDurationSeconds) : 0;
+                                boolean end = "end".equals(value);
+                                try {
+                                    spec.progressListener.accept(new Progress(lastOutTime, end ? 1.0 : fraction, lastSpeed, end));
+                                } catch (RuntimeException e) {
+                                    logger.warn("[{}] Progress listener failed: {}", spec.label, e.getMessage());
+                                }
+                            }
+                            default -> {
+                            }
+                        }
+                        continue;
+                    }
+                }
+
+                if (spec.lineListener != null) {
+                    spec.lineListener.accept(line);
+                    if (!spec.mergeStderr) {
+                        continue;
+                    }
+                }
+                capture(spec, tail, line);
+            }
+        }
+    }
+
+    private void readStdout(Process process, Spec spec) throws IOException {
+        try (InputStream stdout = process.getInputStream()) {
+            spec.stdoutReader.read(stdout);
+            stdout.transferTo(OutputStream.nullOutputStream());
+        }
+    }
+
+    private void drainStderr(Process process, Spec spec, Deque<String> tail) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getErrorStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                capture(spec, tail, line);
+            }
+        } catch (IOException e) {
+            logger.debug("[{}] stderr closed: {}", spec.label, e.getMessage());
+        }
+    }
+
+    private void capture(Spec spec, Deque<String> tail, String line) {
+        if (logLines > 0) {
+            synchronized (tail) {
+                if (tail.size() >= logLines) {
+                    tail.removeFirst();
+                }
+                tail.addLast(line.length() > MAX_LINE_LENGTH ? line.substring(0, MAX_LINE_LENGTH) : line);
+            }
+        }
+        if (logger.isTraceEnabled()) {
+            logger.trace("[{}] {}", spec.label, line);
+        }
+    }
+
+    private static boolean isProgressKey(String key) {
+        return switch (key) {
+            case "frame", "fps", "bitrate", "total_size", "out_time_us", "out_time_ms", "out_time",
+                 "dup_frames", "drop_frames", "speed", "progress" -> true;
+            default -> key.startsWith("stream_");
+        };
+    }
+
+    private static double parseMicros(String value, double fallback) {
+        try {
+            return Long.parseLong(value) / 1_000_000.0;
+        } catch (NumberFormatException e) {
+            return fallback; // N/A before the first frame
+        }
+    }
+
+    private List<String> prepareCommand(Spec spec) {
+        List<String> command = new ArrayList<>(spec.command);
+        if (isFfmpeg(command)) {
+            if (spec.progressListener != null && !command.contains("-progress")) {
+                // Global options, valid right after the executable
+                command.addAll(1, List.of("-progress", "pipe:1", "-nostats"));
+            }
+            if (ffmpegThreads > 0 && !command.contains("-threads")) {
+                // Output option: placed before the output file
+                command.addAll(command.size() - 1, List.of("-threads", String.valueOf(ffmpegThreads)));
+            }
+        }
+
+        List<String> prefix = new ArrayList<>();
+        if (commandPrefix != null && !commandPrefix.isBlank()) {
+            prefix.addAll(Arrays.asList(commandPrefix.trim().split("\\s+")));
+        }
+        if (niceLevel > 0) {
+            prefix.addAll(List.of("nice", "-n", String.valueOf(niceLevel)));
+        }
+        command.addAll(0, prefix);
+        return command;
+    }
+
+    private Duration resolveTimeout(Spec spec) {
+        if (spec.timeout != null) {
+            return spec.timeout;
+        }
+        if (spec.mediaDurationSeconds > 0) {
+            long seconds = timeoutBaseSeconds + (long) Math.ceil(spec.mediaDurationSeconds * timeoutFactor);
+            return Duration.ofSeconds(Math.min(seconds, TimeUnit.MINUTES.toSeconds(maxTimeoutMinutes)));
+        }
+        return Duration.ofMinutes(defaultTimeoutMinutes);
+    }
+
+    private void destroyTree(Process process) {
+        process.descendants().forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+    }
+
+    private static boolean isFfmpeg(List<String> command) {
+        return !command.isEmpty() && toolName(command).startsWith("ffmpeg");
+    }
+
+    private static String toolName(List<String> command) {
+        if (command.isEmpty()) {
+            return "unknown";
+        }
+        String name = new File(command.get(0)).getName();
+        return name.isEmpty() ? "unknown" : name;
+    }
+}
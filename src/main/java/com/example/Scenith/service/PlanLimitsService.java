@@ -267,4 +267,14 @@ public class PlanLimitsService {
     public boolean hasSpeedControl(User user) {
         return user.isAdmin() || isStudio(user) || isCreator(user) || isCreatorLite(user);
     }
+
+    // ==================== PROCESSING QUEUE ====================
+
+    // Share of the render queue relative to a free user when several users are waiting
+    public int getProcessingQueueWeight(User user) {
+        if (user.isAdmin() || isStudio(user)) return 4;
+        if (isCreator(user)) return 3;
+        if (isCreatorLite(user)) return 2;
+        return 1;
+    }
 }
\ No newline at end of file
@@ -22,6 +22,7 @@ import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
@@ -39,6 +40,12 @@ public class PodcastClipService {
     private final SubtitleService subtitleService;
     private final CloudflareR2Service cloudflareR2Service;
     private final SqsService sqsService;
+    private final JobProgressService jobProgressService;
+    private final MediaProcessRunner mediaProcessRunner;
+    private final ChunkedTranscriptionService chunkedTranscriptionService;
+    private final TranscriptCacheService transcriptCacheService;
+    private final SubtitleTrackCompositor subtitleTrackCompositor;
+    private final EncodingPolicyService encodingPolicyService;
 
     @Value("${app.base-dir}")
     private String baseDir;
@@ -69,7 +76,13 @@ public class PodcastClipService {
             ResourceLoader resourceLoader,
             SubtitleService subtitleService,
             CloudflareR2Service cloudflareR2Service,
-            SqsService sqsService) {
+            SqsService sqsService,
+            JobProgressService jobProgressService,
+            MediaProcessRunner mediaProcessRunner,
+            ChunkedTranscriptionService chunkedTranscriptionService,
+            TranscriptCacheService transcriptCacheService,
+            SubtitleTrackCompositor subtitleTrackCompositor,
+            EncodingPolicyService encodingPolicyService) {
         this.jwtUtil = jwtUtil;
         this.podcastClipMediaRepository = podcastClipMediaRepository;
         this.userRepository = userRepository;
@@ -78,6 +91,12 @@ public class PodcastClipService {
         this.subtitleService = subtitleService;
         this.cloudflareR2Service = cloudflareR2Service;
         this.sqsService = sqsService;
+        this.jobProgressService = jobProgressService;
+        this.mediaProcessRunner = mediaProcessRunner;
+        this.chunkedTranscriptionService = chunkedTranscriptionService;
+        this.transcriptCacheService = transcriptCacheService;
+        this.subtitleTrackCompositor = subtitleTrackCompositor;
+        this.encodingPolicyService = encodingPolicyService;
     }
 
     public PodcastClipMedia uploadMedia(User user, MultipartFile mediaFile, String youtubeUrl) throws IOException {
@@ -248,6 +267,7 @@ public class PodcastClipService {
         media.setProgress(20.0);
         media.setLastModified(LocalDateTime.now());
         podcastClipMediaRepository.save(media);
+        jobProgressService.publish(JobProgressService.JOB_PODCAST_CLIP, mediaId, "PROCESSING", 20.0);
 
         Path baseDirPath = Paths.get(baseDir).toAbsolutePath().normalize();
         Path tempDir = baseDirPath.resolve("temp/podcast_clips/" + mediaId).toAbsolutePath().normalize();
@@ -278,17 +298,17 @@ public class PodcastClipService {
             }
 
             validateInputFile(inputFile);
-            media.setProgress(30.0);
-            podcastClipMediaRepository.save(media);
+            jobProgressService.publish(JobProgressService.JOB_PODCAST_CLIP, mediaId, "PROCESSING", 30.0);
 
             // Continue with transcription and processing...
-            List<Map<String, Object>> segments = transcribeAudio(inputFile, mediaId);
-            media.setProgress(50.0);
-            podcastClipMediaRepository.save(media);
+            File sourceFile = inputFile;
+            List<Map<String, Object>> segments = transcriptCacheService.getOrTranscribe(sourceFile,
+                    WhisperWorkerPool.MODE_SEGMENTS, chunkedTranscriptionService.model(), null, 0,
+                    () -> transcribeAudio(sourceFile, mediaId));
+            jobProgressService.publish(JobProgressService.JOB_PODCAST_CLIP, mediaId, "PROCESSING", 50.0);
 
             List<Map<String, Object>> selectedClips = selectViralClips(segments, mediaId);
-            media.setProgress(60.0);
-            podcastClipMediaRepository.save(media);
+            jobProgressService.publish(JobProgressService.JOB_PODCAST_CLIP, mediaId, "PROCESSING", 60.0);
 
             List<Map<String, Object>> clipMetadata = generateClips(inputFile, selectedClips,
                     processedDir.toString(), userId, mediaId, backgroundImage, segments);
@@ -298,6 +318,7 @@ public class PodcastClipService {
             media.setProgress(100.0);
             media.setLastModified(LocalDateTime.now());
             podcastClipMediaRepository.save(media);
+            jobProgressService.publish(JobProgressService.JOB_PODCAST_CLIP, mediaId, "SUCCESS", 100.0);
 
             logger.info("Successfully processed clips for mediaId: {}", mediaId);
 
@@ -307,6 +328,7 @@ public class PodcastClipService {
             media.setProgress(0.0);
             media.setLastModified(LocalDateTime.now());
             podcastClipMediaRepository.save(media);
+            jobProgressService.publish(JobProgressService.JOB_PODCAST_CLIP, mediaId, "FAILED", 0.0);
             throw e;
         } finally {
             cleanUpTempFiles(tempDir);
@@ -505,6 +527,11 @@ public class PodcastClipService {
     }
 
     private List<Map<String, Object>> transcribeAudio(File inputFile, Long mediaId) throws IOException, InterruptedException {
+        if (chunkedTranscriptionService.isEnabled()) {
+            // Reads the audio track directly and splits long podcasts into parallel chunks
+            return chunkedTranscriptionService.transcribe(inputFile, WhisperWorkerPool.MODE_SEGMENTS);
+        }
+
         String audioPath = inputFile.getAbsolutePath().replace(".mp4", ".mp3");
         List<String> extractAudioCommand = Arrays.asList(
                 ffmpegPath,
@@ -514,20 +541,11 @@ public class PodcastClipService {
                 "-y", audioPath
         );
 
-        ProcessBuilder pb = new ProcessBuilder(extractAudioCommand);
-        pb.redirectErrorStream(true);
-        Process process = pb.start();
-        StringBuilder output = new StringBuilder();
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                output.append(line).append("\n");
-            }
-        }
-        int exitCode = process.waitFor();
-        if (exitCode != 0) {
-            logger.error("FFmpeg failed to extract audio for {}: {}", inputFile.getAbsolutePath(), output);
-            throw new IOException("FFmpeg failed to extract audio: " + output);
+        MediaProcessRunner.Result extractResult = mediaProcessRunner.run(MediaProcessRunner.spec(extractAudioCommand)
+                .label("podcast-extract-audio"));
+        if (!extractResult.isSuccess()) {
+            logger.error("FFmpeg failed to extract audio for {}: {}", inputFile.getAbsolutePath(), extractResult.getLogTail());
+            throw new IOException("FFmpeg failed to extract audio: " + extractResult.getLogTail());
         }
 
         List<String> whisperCommand = Arrays.asList(
@@ -537,31 +555,26 @@ public class PodcastClipService {
                 "--output_format", "json"
         );
 
-        pb = new ProcessBuilder(whisperCommand);
-        pb.redirectErrorStream(true);
-        process = pb.start();
-        output = new StringBuilder();
         StringBuilder jsonOutput = new StringBuilder();
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-            String line;
-            boolean inJson = false;
-            while ((line = reader.readLine()) != null) {
-                output.append(line).append("\n");
-                if (line.trim().startsWith("[")) {
-                    inJson = true;
-                }
-                if (inJson) {
-                    jsonOutput.append(line).append("\n");
-                }
-            }
-            if (inJson && jsonOutput.toString().trim().endsWith("]")) {
-                jsonOutput = new StringBuilder(jsonOutput.toString().trim());
-            }
+        boolean[] inJson = {false};
+        MediaProcessRunner.Result whisperResult;
+        try {
+            whisperResult = mediaProcessRunner.run(MediaProcessRunner.spec(whisperCommand)
+                    .label("podcast-whisper")
+                    .onLine(line -> {
+                        if (line.trim().startsWith("[")) {
+                            inJson[0] = true;
+                        }
+                        if (inJson[0]) {
+                            jsonOutput.append(line).append("\n");
+                        }
+                    }));
+        } finally {
+            Files.deleteIfExists(Paths.get(audioPath));
         }
-        exitCode = process.waitFor();
-        Files.deleteIfExists(Paths.get(audioPath));
+        String output = whisperResult.getLogTail();
 
-        if (exitCode != 0) {
+        if (!whisperResult.isSuccess()) {
             logger.error("Whisper transcription failed for mediaId {}: {}", mediaId, output);
             throw new IOException("Whisper transcription failed: " + output);
         }
@@ -757,166 +770,67 @@ public class PodcastClipService {
         Path tempDirPath = baseDirPath.resolve("temp/podcast_clips/" + mediaId + "/subtitle_temp_" + clipIndex);
         Files.createDirectories(tempDirPath);
 
-        String baseVideoPath = tempDirPath.resolve("base_" + clipIndex + ".mp4").toString();
-        List<String> baseCommand = new ArrayList<>();
-        baseCommand.add(ffmpegPath);
-        baseCommand.add("-loop");
-        baseCommand.add("1");
-        baseCommand.add("-i");
-        baseCommand.add(backgroundImage.getAbsolutePath());
-        baseCommand.add("-ss");
-        baseCommand.add(String.valueOf(startTime));
-        baseCommand.add("-t");
-        baseCommand.add(String.valueOf(duration));
-        baseCommand.add("-i");
-        baseCommand.add(inputFile.getAbsolutePath());
-        baseCommand.add("-filter_complex");
-        baseCommand.add("[0:v]scale=1080:1920:force_original_aspect_ratio=decrease,pad=1080:1920:(ow-iw)/2:(oh-ih)/2,trim=duration=" + duration + ",setpts=PTS-STARTPTS[bg];" +
-                "[1:v]setpts=PTS-STARTPTS,scale=1080:1920:force_original_aspect_ratio=decrease,pad=1080:1920:(ow-iw)/2:(oh-ih)/2:color=black@0[fg];" +
-                "[bg][fg]overlay=(W-w)/2:(H-h)/2[vout];" +
-                "[1:a]atrim=start=0:end=" + duration + ",asetpts=PTS-STARTPTS[aout]");
-        baseCommand.add("-map");
-        baseCommand.add("[vout]");
-        baseCommand.add("-map");
-        baseCommand.add("[aout]");
-        baseCommand.add("-c:v");
-        baseCommand.add("libx264");
-        baseCommand.add("-preset");
-        baseCommand.add("ultrafast");
-        baseCommand.add("-crf");
-        baseCommand.add("23");
-        baseCommand.add("-c:a");
-        baseCommand.add("aac");
-        baseCommand.add("-b:a");
-        baseCommand.add("192k");
-        baseCommand.add("-y");
-        baseCommand.add(baseVideoPath);
-
-        logger.debug("Creating base video without subtitles: {}", String.join(" ", baseCommand));
-        executeSimpleFFmpegCommand(baseCommand);
-
-        if (!subtitles.isEmpty()) {
-            File currentVideo = new File(baseVideoPath);
-            int batchSize = 3;
-
-            for (int i = 0; i < subtitles.size(); i += batchSize) {
-                int endIdx = Math.min(i + batchSize, subtitles.size());
-                List<SubtitleDTO> batch = subtitles.subList(i, endIdx);
-
-                String nextVideoPath = tempDirPath.resolve("sub_batch_" + clipIndex + "_" + i + ".mp4").toString();
-                overlaySubtitleBatch(currentVideo, batch, nextVideoPath, duration, mediaId, clipIndex, tempDirPath.toFile());
-
-                if (!currentVideo.getAbsolutePath().equals(baseVideoPath)) {
-                    Files.deleteIfExists(currentVideo.toPath());
-                }
-
-                currentVideo = new File(nextVideoPath);
-            }
-
-            Files.move(currentVideo.toPath(), Paths.get(outputPath), java.nio.file.StandardCopyOption.REPLACE_EXISTING);
-            Files.deleteIfExists(Paths.get(baseVideoPath));
-        } else {
-            Files.move(Paths.get(baseVideoPath), Paths.get(outputPath), java.nio.file.StandardCopyOption.REPLACE_EXISTING);
-        }
-
-        cleanUpTempFiles(tempDirPath);
-    }
+        // The whole subtitle track is one extra input overlaid in the same encode
+        Path trackDir = tempDirPath.resolve("track");
+        SubtitleTrackCompositor.Track track = subtitleTrackCompositor.compose(subtitles, 1080, 1920, 0, duration, false, trackDir,
+                subtitle -> new File(subtitleService.generateTextPng(subtitle, trackDir.toFile(), 1080, 1920)));
 
-    private void overlaySubtitleBatch(File inputVideo, List<SubtitleDTO> subtitles, String outputPath, double duration, Long mediaId, int clipIndex, File tempDir) throws IOException, InterruptedException {
         List<String> command = new ArrayList<>();
         command.add(ffmpegPath);
+        command.add("-loop");
+        command.add("1");
         command.add("-i");
-        command.add(inputVideo.getAbsolutePath());
-
-        List<File> subtitlePngs = new ArrayList<>();
-        StringBuilder filterComplex = new StringBuilder();
-
-        for (int i = 0; i < subtitles.size(); i++) {
-            SubtitleDTO subtitle = subtitles.get(i);
-
-            File subtitlePng = new File(tempDir, "sub_" + clipIndex + "_" + subtitle.getId() + ".png");
-            subtitleService.generateTextPng(subtitle, subtitlePng, 1080, 1920);
-            subtitlePngs.add(subtitlePng);
-
-            command.add("-loop");
-            command.add("1");
-            command.add("-i");
-            command.add(subtitlePng.getAbsolutePath());
-        }
-
-        String lastOutput = "0:v";
-        for (int i = 0; i < subtitles.size(); i++) {
-            SubtitleDTO subtitle = subtitles.get(i);
-            int inputIdx = i + 1;
-
-            double segStart = subtitle.getTimelineStartTime();
-            double segEnd = subtitle.getTimelineEndTime();
-
-            String xExpr = String.format("(W-w)/2+%d", subtitle.getPositionX() != null ? subtitle.getPositionX() : 0);
-            String yExpr = String.format("(H-h)/2+%d", subtitle.getPositionY() != null ? subtitle.getPositionY() : 0);
-
-            if (i == subtitles.size() - 1) {
-                filterComplex.append("[").append(lastOutput).append("][").append(inputIdx).append(":v]");
-                filterComplex.append("overlay=x='").append(xExpr).append("':y='").append(yExpr).append("'");
-                filterComplex.append(":enable='between(t,").append(String.format("%.6f", segStart)).append(",").append(String.format("%.6f", segEnd)).append(")'");
-            } else {
-                filterComplex.append("[").append(lastOutput).append("][").append(inputIdx).append(":v]");
-                filterComplex.append("overlay=x='").append(xExpr).append("':y='").append(yExpr).append("'");
-                filterComplex.append(":enable='between(t,").append(String.format("%.6f", segStart)).append(",").append(String.format("%.6f", segEnd)).append(")'");
-                filterComplex.append("[tmp").append(i).append("];");
-                lastOutput = "tmp" + i;
-            }
+        command.add(backgroundImage.getAbsolutePath());
+        command.add("-ss");
+        command.add(String.valueOf(startTime));
+        command.add("-t");
+        command.add(String.valueOf(duration));
+        command.add("-i");
+        command.add(inputFile.getAbsolutePath());
+        if (track != null) {
+            command.addAll(track.inputArgs());
         }
-
         command.add("-filter_complex");
-        command.add(filterComplex.toString());
+        command.add("[0:v]scale=1080:1920:force_original_aspect_ratio=decrease,pad=1080:1920:(ow-iw)/2:(oh-ih)/2,trim=duration=" + duration + ",setpts=PTS-STARTPTS[bg];" +
+                "[1:v]setpts=PTS-STARTPTS,scale=1080:1920:force_original_aspect_ratio=decrease,pad=1080:1920:(ow-iw)/2:(oh-ih)/2:color=black@0[fg];" +
+                (track != null
+                        ? "[bg][fg]overlay=(W-w)/2:(H-h)/2[base];[2:v]format=rgba[subs];[base][subs]overlay=x=0:y=0:format=auto:eof_action=pass[vout];"
+                        : "[bg][fg]overlay=(W-w)/2:(H-h)/2[vout];") +
+                "[1:a]atrim=start=0:end=" + duration + ",asetpts=PTS-STARTPTS[aout]");
         command.add("-map");
-        command.add("0:a");
+        command.add("[vout]");
+        command.add("-map");
+        command.add("[aout]");
         command.add("-c:v");
         command.add("libx264");
-        command.add("-preset");
-        command.add("ultrafast");
-        command.add("-crf");
-        command.add("23");
+        // 1080x1920 output; clips are short, so the policy mostly decides threads
+        command.addAll(encodingPolicyService.choose(new EncodingPolicyService.Request(
+                EncodingPolicyService.TASK_PODCAST_CLIP, 1920, duration, "ultrafast", "23", null)).encoderArgs());
         command.add("-c:a");
-        command.add("copy");
-        command.add("-t");
-        command.add(String.valueOf(duration));
+        command.add("aac");
+        command.add("-b:a");
+        command.add("192k");
         command.add("-y");
         command.add(outputPath);
 
-        logger.debug("Overlaying subtitle batch: {}", String.join(" ", command));
-        executeSimpleFFmpegCommand(command);
-
-        for (File png : subtitlePngs) {
-            Files.deleteIfExists(png.toPath());
+        logger.debug("Creating clip with {} subtitles: {}", track != null ? track.subtitleCount() : 0, String.join(" ", command));
+        try {
+            executeSimpleFFmpegCommand(command);
+        } finally {
+            cleanUpTempFiles(tempDirPath);
         }
     }
 
     private void executeSimpleFFmpegCommand(List<String> command) throws IOException, InterruptedException {
-        ProcessBuilder processBuilder = new ProcessBuilder(command);
-        processBuilder.redirectErrorStream(true);
-
-        Process process = processBuilder.start();
-        StringBuilder output = new StringBuilder();
+        MediaProcessRunner.Result result = mediaProcessRunner.run(MediaProcessRunner.spec(command)
+                .label("podcast-clip")
+                .timeout(Duration.ofMinutes(5)));
 
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                output.append(line).append("\n");
-                logger.debug("FFmpeg: {}", line);
-            }
+        if (result.isTimedOut()) {
+            throw new RuntimeException("FFmpeg process timed out: " + result.getLogTail());
         }
-
-        boolean completed = process.waitFor(5, TimeUnit.MINUTES);
-        if (!completed) {
-            process.destroyForcibly();
-            throw new RuntimeException("FFmpeg process timed out: " + output.toString());
-        }
-
-        int exitCode = process.exitValue();
-        if (exitCode != 0) {
-            throw new RuntimeException("FFmpeg failed with exit code " + exitCode + ": " + output.toString());
+        if (!result.isSuccess()) {
+            throw new RuntimeException("FFmpeg failed with exit code " + result.getExitCode() + ": " + result.getLogTail());
         }
     }
 
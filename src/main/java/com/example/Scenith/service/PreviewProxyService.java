@@ -0,0 +1,384 @@
+package com.example.Scenith.service;
+
+import com.example.Scenith.exception.PreviewBusyException;
+import com.example.Scenith.exception.PreviewNotReadyException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Low-res proxies of uploads and the process slots previews render in.
+ *
+ * A preview decodes a few seconds of video, so seeking into the full-resolution original over a
+ * presigned URL costs more than the preview itself. The first preview of an upload starts building
+ * its proxy in the background and fails with {@link PreviewNotReadyException} (HTTP 202) until it
+ * is there: the editing proxy (see ProxyMediaService) is fetched when the upload has one, otherwise
+ * the original is transcoded once to a {@code max-height} proxy with a keyframe every second.
+ * Builds run on {@code builder-threads} threads of their own, never in a preview slot. Later
+ * previews seek and decode the local file. Proxies are kept on disk up to {@code max-entries} and
+ * dropped when idle; a dropped proxy's file is deleted {@code delete-grace-minutes} later, so
+ * previews still reading it finish first.
+ *
+ * Preview processes run in their own {@code pool-size} slots instead of taking processing units
+ * from {@link com.example.Scenith.sqs.GlobalProcessingLock}, so trying settings never waits behind
+ * renders and can't starve them; a preview that gets no slot within {@code acquire-timeout-ms}
+ * fails with {@link PreviewBusyException}.
+ */
+@Service
+public class PreviewProxyService {
+    private static final Logger logger = LoggerFactory.getLogger(PreviewProxyService.class);
+
+    private final CloudflareR2Service cloudflareR2Service;
+    private final MediaProcessRunner mediaProcessRunner;
+    private final ObjectMapper objectMapper;
+    private final Semaphore slots;
+    private final Cache<String, Proxy> proxies;
+    private final ExecutorService builder;
+    private final Map<String, CompletableFuture<Proxy>> building = new ConcurrentHashMap<>();
+    // Files of dropped proxies by the time they were dropped
+    private final Map<Path, Long> retired = new ConcurrentHashMap<>();
+
+    @Value("${app.ffmpeg-path:/usr/local/bin/ffmpeg}")
+    private String ffmpegPath;
+
+    @Value("${app.ffprobe-path:/usr/local/bin/ffprobe}")
+    private String ffprobePath;
+
+    @Value("${app.temp.dir}")
+    private String tempDir;
+
+    @Value("${preview.proxy.max-height:360}")
+    private int proxyMaxHeight;
+
+    @Value("${preview.pool.acquire-timeout-ms:10000}")
+    private long acquireTimeoutMillis;
+
+    // Longer than any preview process may run
+    @Value("${preview.proxy.delete-grace-minutes:5}")
+    private long deleteGraceMinutes;
+
+    public PreviewProxyService(CloudflareR2Service cloudflareR2Service,
+                               MediaProcessRunner mediaProcessRunner,
+                               ObjectMapper objectMapper,
+                               @Value("${preview.pool.size:2}") int poolSize,
+                               @Value("${preview.proxy.max-entries:64}") int maxProxies,
+                               @Value("${preview.proxy.idle-minutes:60}") long idleMinutes,
+                               @Value("${preview.proxy.builder-threads:1}") int builderThreads) {
+        this.cloudflareR2Service = cloudflareR2Service;
+        this.mediaProcessRunner = mediaProcessRunner;
+        this.objectMapper = objectMapper;
+        this.slots = new Semaphore(Math.max(1, poolSize), true);
+        this.proxies = Caffeine.newBuilder()
+                .maximumSize(maxProxies)
+                .expireAfterAccess(Duration.ofMinutes(idleMinutes))
+                .removalListener((String key, Proxy proxy, RemovalCause cause) -> {
+                    if (proxy != null) {
+                        retired.put(proxy.path(), System.currentTimeMillis());
+                    }
+                })
+                .build();
+        this.builder = Executors.newFixedThreadPool(Math.max(1, builderThreads), runnable -> {
+            Thread thread = new Thread(runnable, "Preview-Proxy-Builder");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * A local proxy file with its probed geometry.
+     */
+    public record Proxy(Path path, int width, int height, double duration, double fps, boolean hasAudio) {
+    }
+
+    @PostConstruct
+    public void clearStaleProxies() {
+        // Proxies of a previous run are not in the cache and would never be deleted
+        Path dir = proxyDir();
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            files.forEach(PreviewProxyService::deleteQuietly);
+        } catch (IOException e) {
+            logger.warn("Failed to clear preview proxies in {}: {}", dir, e.getMessage());
+        }
+    }
+
+    /**
+     * Proxy of an R2 object. The first call starts building it in the background; until it is
+     * built, every call (for any caller) throws {@link PreviewNotReadyException}.
+     *
+     * @throws IOException when the build failed; the next call starts a new one
+     */
+    public Proxy proxy(String r2Path) throws IOException {
+        Proxy proxy = proxies.getIfPresent(r2Path);
+        if (proxy != null) {
+            return proxy;
+        }
+        CompletableFuture<Proxy> build = building.computeIfAbsent(r2Path, key -> CompletableFuture.supplyAsync(() -> {
+            try {
+                Proxy built = buildProxy(key);
+                proxies.put(key, built);
+                building.remove(key);
+                return built;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new UncheckedIOException(new IOException("Interrupted while building preview proxy", e));
+            }
+        }, builder));
+        if (!build.isDone()) {
+            throw new PreviewNotReadyException("Preview is being prepared, try again in a few seconds");
+        }
+        try {
+            return build.join();
+        } catch (CompletionException e) {
+            // Failed builds are reported once, then retried on the next call
+            building.remove(r2Path, build);
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException io) {
+                throw io.getCause();
+            }
+            throw new IOException("Failed to build preview proxy: " + cause.getMessage(), cause);
+        }
+    }
+
+    @Scheduled(fixedDelay = 60000)
+    public void deleteRetiredProxies() {
+        long cutoff = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(deleteGraceMinutes);
+        retired.forEach((path, retiredAt) -> {
+            if (retiredAt < cutoff && retired.remove(path, retiredAt)) {
+                deleteQuietly(path);
+            }
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        builder.shutdownNow();
+    }
+
+    /**
+     * Run a preview process in a preview slot.
+     */
+    public MediaProcessRunner.Result run(List<String> command, String label, Duration timeout)
+            throws IOException, InterruptedException {
+        if (!slots.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+            throw new PreviewBusyException("All preview slots are busy, try again shortly");
+        }
+        try {
+            return mediaProcessRunner.runChecked(MediaProcessRunner.spec(command)
+                    .label(label)
+                    .timeout(timeout));
+        } finally {
+            slots.release();
+        }
+    }
+
+    /**
+     * One frame at {@code seconds} into the proxy, through {@code filter} (a -vf chain, or null), as JPEG.
+     */
+    public byte[] renderFrame(Proxy proxy, double seconds, String filter, String label)
+            throws IOException, InterruptedException {
+        Path output = scratchFile(".jpg");
+        try {
+            List<String> command = new ArrayList<>(List.of(
+                    ffmpegPath,
+                    "-ss", String.format(Locale.ROOT, "%.3f", clampSeek(proxy, seconds)),
+                    "-i", proxy.path().toString()));
+            if (filter != null && !filter.isEmpty()) {
+                command.add("-vf");
+                command.add(filter);
+            }
+            command.addAll(List.of("-frames:v", "1", "-q:v", "4", "-y", output.toString()));
+            run(command, label, Duration.ofSeconds(30));
+            return Files.readAllBytes(output);
+        } finally {
+            deleteQuietly(output);
+        }
+    }
+
+    /**
+     * {@code length} seconds of the proxy from {@code seconds}, through {@code filter}, as a
+     * fast-start MP4 with the proxy's audio.
+     */
+    public byte[] renderClip(Proxy proxy, double seconds, double length, String filter, String label)
+            throws IOException, InterruptedException {
+        Path output = scratchFile(".mp4");
+        try {
+            List<String> command = new ArrayList<>(List.of(
+                    ffmpegPath,
+                    "-ss", String.format(Locale.ROOT, "%.3f", clampSeek(proxy, seconds)),
+                    "-t", String.format(Locale.ROOT, "%.3f", length),
+                    "-i", proxy.path().toString()));
+            if (filter != null && !filter.isEmpty()) {
+                command.add("-vf");
+                command.add(filter);
+            }
+            command.addAll(List.of(
+                    "-c:v", "libx264", "-preset", "ultrafast", "-crf", "28", "-pix_fmt", "yuv420p"));
+            if (proxy.hasAudio()) {
+                command.addAll(List.of("-c:a", "aac", "-b:a", "96k"));
+            } else {
+                command.add("-an");
+            }
+            command.addAll(List.of("-movflags", "+faststart", "-y", output.toString()));
+            run(command, label, Duration.ofMinutes(1));
+            return Files.readAllBytes(output);
+        } finally {
+            deleteQuietly(output);
+        }
+    }
+
+    private Proxy buildProxy(String r2Path) throws IOException, InterruptedException {
+        Path dir = proxyDir();
+        Files.createDirectories(dir);
+        // Unique per build: an evicted proxy's file may still be read while its successor is built
+        Path file = dir.resolve(key(r2Path) + "." + System.nanoTime() + ".mp4");
+        Path partial = dir.resolve(key(r2Path) + "." + System.nanoTime() + ".part.mp4");
+        long start = System.currentTimeMillis();
+        try {
+            // Project uploads get an editing proxy in R2; downloading it beats transcoding the original
+            String uploadedProxy = ProxyMediaService.variants(r2Path).proxyPath();
+            if (cloudflareR2Service.fileExists(uploadedProxy)) {
+                cloudflareR2Service.downloadFile(uploadedProxy, partial.toString());
+                Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                Proxy proxy = probe(file);
+                logger.info("Fetched {}x{} editing proxy of {} in {} ms", proxy.width(), proxy.height(), r2Path,
+                        System.currentTimeMillis() - start);
+                return proxy;
+            }
+            String sourceUrl = cloudflareR2Service.generatePresignedUrl(r2Path, 3600);
+            List<String> command = List.of(
+                    ffmpegPath,
+                    "-i", sourceUrl,
+                    "-map", "0:v:0", "-map", "0:a:0?",
+                    "-vf", "scale=-2:'min(ih," + proxyMaxHeight + ")'",
+                    "-c:v", "libx264", "-preset", "ultrafast", "-crf", "30", "-pix_fmt", "yuv420p",
+                    // A keyframe every second keeps -ss seeks short
+                    "-force_key_frames", "expr:gte(t,n_forced*1)",
+                    "-c:a", "aac", "-b:a", "96k", "-ac", "2",
+                    "-movflags", "+faststart",
+                    "-y", partial.toString());
+            // On the builder thread, outside the preview slots
+            mediaProcessRunner.runChecked(MediaProcessRunner.spec(command)
+                    .label("preview-proxy")
+                    .timeout(Duration.ofMinutes(15)));
+            Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            deleteQuietly(partial);
+        }
+        Proxy proxy = probe(file);
+        logger.info("Built {}x{} preview proxy of {} in {} ms", proxy.width(), proxy.height(), r2Path,
+                System.currentTimeMillis() - start);
+        return proxy;
+    }
+
+    private Proxy probe(Path file) throws IOException, InterruptedException {
+        List<String> command = List.of(
+                ffprobePath,
+                "-v", "error",
+                "-show_entries", "format=duration:stream=codec_type,width,height,avg_frame_rate",
+                "-of", "json",
+                file.toString());
+        StringBuilder json = new StringBuilder();
+        mediaProcessRunner.runChecked(MediaProcessRunner.spec(command)
+                .label("preview-proxy-probe")
+                .separateStderr()
+                .onLine(json::append)
+                .timeout(Duration.ofSeconds(30)));
+
+        JsonNode root = objectMapper.readTree(json.toString());
+        int width = 0;
+        int height = 0;
+        double fps = 0;
+        boolean hasAudio = false;
+        for (JsonNode stream : root.path("streams")) {
+            String type = stream.path("codec_type").asText();
+            if ("video".equals(type) && width == 0) {
+                width = stream.path("width").asInt(0);
+                height = stream.path("height").asInt(0);
+                String[] rate = stream.path("avg_frame_rate").asText("0/1").split("/");
+                try {
+                    double denominator = rate.length > 1 ? Double.parseDouble(rate[1]) : 1;
+                    fps = denominator > 0 ? Double.parseDouble(rate[0]) / denominator : 0;
+                } catch (NumberFormatException e) {
+                    fps = 0;
+                }
+            } else if ("audio".equals(type)) {
+                hasAudio = true;
+            }
+        }
+        if (width == 0 || height == 0) {
+            deleteQuietly(file);
+            throw new IOException("Preview proxy has no video stream");
+        }
+        return new Proxy(file, width, height, root.path("format").path("duration").asDouble(0), fps, hasAudio);
+    }
+
+    private static double clampSeek(Proxy proxy, double seconds) {
+        double last = proxy.duration() > 0.1 ? proxy.duration() - 0.1 : 0;
+        return Math.max(0, Math.min(seconds, last));
+    }
+
+    private Path proxyDir() {
+        return Paths.get(tempDir, "preview-proxies").toAbsolutePath().normalize();
+    }
+
+    private Path scratchFile(String suffix) throws IOException {
+        Path dir = Paths.get(tempDir, "previews").toAbsolutePath().normalize();
+        Files.createDirectories(dir);
+        return dir.resolve("preview_" + System.nanoTime() + suffix);
+    }
+
+    private static String key(String r2Path) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(r2Path.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            logger.warn("Failed to delete {}: {}", path, e.getMessage());
+        }
+    }
+}
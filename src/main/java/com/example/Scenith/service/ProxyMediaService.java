@@ -0,0 +1,351 @@
+package com.example.Scenith.service;
+
+import com.example.Scenith.entity.ProxyGeneration;
+import com.example.Scenith.repository.ProxyGenerationRepository;
+import com.example.Scenith.sqs.GlobalProcessingLock;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Stream;
+
+/**
+ * Editing proxies for uploaded project videos.
+ *
+ * After an upload is confirmed, one background ffmpeg pass over the original writes three variants
+ * next to it under {@code proxies/}:
+ * - a {@code height}p H.264 proxy with a keyframe every half second, for playback and scrubbing
+ * - the filmstrip sprite and its index (see FilmstripService), for timeline thumbnails
+ * - a poster frame
+ * The original is decoded once and split three ways. Clients are told over the project's
+ * asset-events stream ("asset-proxy") when the variants are ready; until then playback falls
+ * back to the original. Preview rendering picks the proxy up too (see PreviewProxyService).
+ *
+ * Generations are queued in {@code proxy_generations} and started by a poll, each one only once
+ * it gets its PROXY_GENERATION units from the GlobalProcessingLock, so proxies share the node's
+ * processing budget with SQS tasks. A running generation heartbeats its row; one whose node
+ * stopped (a restart, a crash) is claimed again by any node once the heartbeat is stale.
+ */
+@Service
+@Profile("!test")
+public class ProxyMediaService {
+    private static final Logger logger = LoggerFactory.getLogger(ProxyMediaService.class);
+
+    public static final String STATUS_PENDING = "PENDING";
+    public static final String STATUS_RUNNING = "RUNNING";
+    public static final String STATUS_READY = "READY";
+    public static final String STATUS_FAILED = "FAILED";
+
+    private static final String TASK_TYPE = "PROXY_GENERATION";
+
+    private final CloudflareR2Service cloudflareR2Service;
+    private final CdnWarmupService cdnWarmupService;
+    private final FilmstripService filmstripService;
+    private final MediaProcessRunner mediaProcessRunner;
+    private final ProxyGenerationRepository proxyGenerationRepository;
+    private final GlobalProcessingLock processingLock;
+    private final int threads;
+    private final ExecutorService executor;
+    private final String nodeId = ManagementFactory.getRuntimeMXBean().getName();
+    // Generations running on this node, by row id
+    private final Map<Long, String> running = new ConcurrentHashMap<>();
+    // READY never changes back, so only that is cached; everything else is read from the row
+    private final Cache<String, Boolean> readyPaths = Caffeine.newBuilder()
+            .expireAfterWrite(Duration.ofHours(6))
+            .maximumSize(10_000)
+            .build();
+
+    @Value("${app.ffmpeg-path:/usr/local/bin/ffmpeg}")
+    private String ffmpegPath;
+
+    @Value("${app.ffprobe-path:/usr/local/bin/ffprobe}")
+    private String ffprobePath;
+
+    @Value("${app.temp.dir}")
+    private String tempDir;
+
+    @Value("${proxy.height:540}")
+    private int proxyHeight;
+
+    // Many poll intervals, so one slow beat does not hand the generation to another node
+    @Value("${proxy.stale-after-seconds:120}")
+    private long staleAfterSeconds;
+
+    @Value("${proxy.max-attempts:3}")
+    private int maxAttempts;
+
+    public ProxyMediaService(CloudflareR2Service cloudflareR2Service,
+                             CdnWarmupService cdnWarmupService,
+                             FilmstripService filmstripService,
+                             MediaProcessRunner mediaProcessRunner,
+                             ProxyGenerationRepository proxyGenerationRepository,
+                             GlobalProcessingLock processingLock,
+                             @Value("${proxy.threads:1}") int threads) {
+        this.cloudflareR2Service = cloudflareR2Service;
+        this.cdnWarmupService = cdnWarmupService;
+        this.filmstripService = filmstripService;
+        this.mediaProcessRunner = mediaProcessRunner;
+        this.proxyGenerationRepository = proxyGenerationRepository;
+        this.processingLock = processingLock;
+        this.threads = Math.max(1, threads);
+        this.executor = Executors.newFixedThreadPool(this.threads, runnable -> {
+            Thread thread = new Thread(runnable, "Proxy-Generator");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * R2 paths of the variants of an original.
+     */
+    public record Variants(String proxyPath, String spritePath, String posterPath) {
+    }
+
+    public static Variants variants(String r2Path) {
+        int slash = r2Path.lastIndexOf('/');
+        String dir = r2Path.substring(0, slash + 1) + "proxies/";
+        String name = r2Path.substring(slash + 1);
+        return new Variants(dir + name + ".proxy.mp4", dir + name + ".sprite.jpg", dir + name + ".poster.jpg");
+    }
+
+    /**
+     * Queue generation of the variants of an uploaded original. Returns immediately; a re-upload
+     * to the same path queues it again.
+     */
+    public void scheduleGeneration(Long projectId, String r2Path) {
+        ProxyGeneration generation = proxyGenerationRepository.findByR2Path(r2Path).orElseGet(ProxyGeneration::new);
+        generation.setProjectId(projectId);
+        generation.setR2Path(r2Path);
+        generation.setStatus(STATUS_PENDING);
+        generation.setNodeId(null);
+        generation.setAttempts(0);
+        generation.setCreatedAt(LocalDateTime.now());
+        generation.setHeartbeatAt(null);
+        generation.setFinishedAt(null);
+        try {
+            proxyGenerationRepository.save(generation);
+        } catch (DataIntegrityViolationException e) {
+            // A concurrent confirm of the same upload queued it first
+            logger.debug("Proxy generation for {} already queued", r2Path);
+        }
+        readyPaths.invalidate(r2Path);
+    }
+
+    /**
+     * PENDING (also while running), READY or FAILED; READY also for variants generated before
+     * generations were recorded, null when there are none.
+     */
+    public String getStatus(String r2Path) {
+        if (readyPaths.getIfPresent(r2Path) != null) {
+            return STATUS_READY;
+        }
+        String status = proxyGenerationRepository.findByR2Path(r2Path)
+                .map(ProxyGeneration::getStatus)
+                .orElse(null);
+        if (status == null && cloudflareR2Service.fileExists(variants(r2Path).proxyPath())) {
+            status = STATUS_READY;
+        }
+        if (STATUS_READY.equals(status)) {
+            readyPaths.put(r2Path, Boolean.TRUE);
+        }
+        return STATUS_RUNNING.equals(status) ? STATUS_PENDING : status;
+    }
+
+    public boolean isReady(String r2Path) {
+        return STATUS_READY.equals(getStatus(r2Path));
+    }
+
+    /**
+     * Heartbeat this node's generations and start queued ones while there are free generator
+     * threads and processing units.
+     */
+    @Scheduled(fixedDelayString = "${proxy.poll-ms:5000}")
+    public void dispatch() {
+        LocalDateTime now = LocalDateTime.now();
+        if (!running.isEmpty()) {
+            proxyGenerationRepository.touchHeartbeat(new ArrayList<>(running.keySet()), nodeId, now);
+        }
+        LocalDateTime staleBefore = now.minusSeconds(staleAfterSeconds);
+        int exhausted = proxyGenerationRepository.failExhausted(now, staleBefore, maxAttempts);
+        if (exhausted > 0) {
+            logger.warn("Gave up on {} proxy generation(s) after {} attempts", exhausted, maxAttempts);
+        }
+
+        int free = threads - running.size();
+        if (free <= 0) {
+            return;
+        }
+        for (ProxyGeneration generation : proxyGenerationRepository.findRunnable(staleBefore, maxAttempts,
+                PageRequest.of(0, free))) {
+            String r2Path = generation.getR2Path();
+            if (!processingLock.tryAcquireNow(TASK_TYPE, r2Path)) {
+                // Units are now reserved; the next poll tries again
+                return;
+            }
+            if (proxyGenerationRepository.claim(generation.getId(), nodeId, now, staleBefore, maxAttempts) != 1) {
+                processingLock.releaseLock(TASK_TYPE, r2Path);
+                continue;
+            }
+            running.put(generation.getId(), r2Path);
+            try {
+                executor.submit(() -> run(generation));
+            } catch (RejectedExecutionException e) {
+                // Shutting down: the stale heartbeat hands it to another node
+                running.remove(generation.getId());
+                processingLock.releaseLock(TASK_TYPE, r2Path);
+                return;
+            }
+        }
+    }
+
+    private void run(ProxyGeneration generation) {
+        String r2Path = generation.getR2Path();
+        String status = STATUS_FAILED;
+        try {
+            generate(r2Path);
+            status = STATUS_READY;
+        } catch (InterruptedException e) {
+            // Stopped with the node: queue it again for the next one
+            Thread.currentThread().interrupt();
+            status = STATUS_PENDING;
+        } catch (Exception e) {
+            logger.warn("Proxy generation failed for {}: {}", r2Path, e.getMessage());
+        } finally {
+            running.remove(generation.getId());
+            processingLock.releaseLock(TASK_TYPE, r2Path);
+        }
+
+        if (proxyGenerationRepository.finish(generation.getId(), nodeId, status, LocalDateTime.now()) != 1) {
+            // Queued again (a re-upload) or taken over meanwhile; that run reports instead
+            return;
+        }
+        if (STATUS_READY.equals(status)) {
+            readyPaths.put(r2Path, Boolean.TRUE);
+        }
+        if (!STATUS_PENDING.equals(status)) {
+            notify(generation.getProjectId(), r2Path, status);
+        }
+    }
+
+    private void generate(String r2Path) throws IOException, InterruptedException {
+        Variants variants = variants(r2Path);
+        Path workDir = Paths.get(tempDir, "proxies", String.valueOf(System.nanoTime())).toAbsolutePath().normalize();
+        long start = System.currentTimeMillis();
+        try {
+            Files.createDirectories(workDir);
+            String sourceUrl = cloudflareR2Service.generatePresignedUrl(r2Path, 3600);
+            FilmstripService.Source source = filmstripService.probe(sourceUrl);
+            FilmstripService.Layout layout = filmstripService.layout(source);
+            double duration = source.duration();
+
+            Path proxy = workDir.resolve("proxy.mp4");
+            Path sprite = workDir.resolve("sprite.jpg");
+            Path poster = workDir.resolve("poster.jpg");
+            MediaProcessRunner.Result result = mediaProcessRunner.run(MediaProcessRunner.spec(
+                            command(sourceUrl, duration, layout, proxy, sprite, poster))
+                    .label("proxy-generation")
+                    .mediaDuration(duration)
+                    .timeout(Duration.ofMinutes(Math.max(10, (long) (duration / 60) * 2))));
+            if (!result.isSuccess()) {
+                throw new IOException("ffmpeg failed (exit " + result.getExitCode() + "): " + result.getLogTail());
+            }
+
+            // The proxy goes last: its presence marks the variants as ready
+            filmstripService.store(r2Path, source, layout, sprite);
+            cloudflareR2Service.uploadFile(variants.posterPath(), poster.toFile());
+            cloudflareR2Service.uploadFile(variants.proxyPath(), proxy.toFile());
+            logger.info("Generated proxy, sprite and poster for {} in {} ms", r2Path, System.currentTimeMillis() - start);
+        } finally {
+            deleteDirectory(workDir);
+        }
+    }
+
+    /**
+     * One decode of the original split into the proxy, the sprite sheet and the poster.
+     */
+    private List<String> command(String sourceUrl, double duration, FilmstripService.Layout layout,
+                                 Path proxy, Path sprite, Path poster) {
+        double posterTime = Math.min(3.0, duration * 0.1);
+
+        String graph = String.format(Locale.ROOT,
+                "[0:v]split=3[p][s][f];"
+                        + "[p]scale=-2:'min(ih,%d)'[proxy];"
+                        + "[s]%s[sprite];"
+                        + "[f]trim=start=%.3f,setpts=PTS-STARTPTS,scale=-2:'min(ih,%d)'[poster]",
+                proxyHeight, FilmstripService.spriteFilter(layout), posterTime, proxyHeight);
+        return List.of(
+                ffmpegPath,
+                "-y",
+                "-i", sourceUrl,
+                "-filter_complex", graph,
+                "-map", "[proxy]", "-map", "0:a:0?",
+                "-c:v", "libx264", "-preset", "veryfast", "-crf", "26", "-pix_fmt", "yuv420p",
+                // Short GOP so seeks land on a keyframe within half a second
+                "-force_key_frames", "expr:gte(t,n_forced*0.5)",
+                "-c:a", "aac", "-b:a", "96k", "-ac", "2",
+                "-movflags", "+faststart",
+                proxy.toString(),
+                "-map", "[sprite]", "-frames:v", "1", "-q:v", "5", sprite.toString(),
+                "-map", "[poster]", "-frames:v", "1", "-q:v", "3", poster.toString());
+    }
+
+    private void notify(Long projectId, String r2Path, String status) {
+        Map<String, String> payload = new HashMap<>();
+        payload.put("r2Path", r2Path);
+        payload.put("status", status);
+        if (STATUS_READY.equals(status)) {
+            Variants variants = variants(r2Path);
+            payload.put("proxyUrl", cloudflareR2Service.getCdnUrl(variants.proxyPath()));
+            payload.put("spriteUrl", cloudflareR2Service.getCdnUrl(variants.spritePath()));
+            payload.put("posterUrl", cloudflareR2Service.getCdnUrl(variants.posterPath()));
+        }
+        cdnWarmupService.publish(projectId, "asset-proxy", payload);
+    }
+
+    private void deleteDirectory(Path dir) {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    logger.warn("Failed to delete {}: {}", path, e.getMessage());
+                }
+            });
+        } catch (IOException e) {
+            logger.warn("Failed to clean up {}: {}", dir, e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
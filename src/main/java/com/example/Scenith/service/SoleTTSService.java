@@ -43,6 +43,8 @@ public class SoleTTSService {
     private final ProcessingEmailHelper emailHelper;
     private final UpgradeEmailSchedulerService upgradeEmailSchedulerService;
     private final PlanLimitsService planLimitsService;
+    private final WaveformExtractor waveformExtractor;
+    private final WaveformService waveformService;
 
     @Value("${app.base-dir:/tmp}")
     private String baseDir;
@@ -167,7 +169,7 @@ public class SoleTTSService {
             String audioPath = audioR2Path;
 
             // Generate waveform (server pattern)
-            String waveformJsonPath = generateAndSaveWaveformJson(audioPath, user.getId());
+            String waveformJsonPath = generateAndSaveWaveformJson(tempAudioFile, user.getId());
 
             // Set fields
             soleTTS.setAudioPath(audioPath);
@@ -225,55 +227,13 @@ public class SoleTTSService {
         userTtsUsageRepository.save(usage);
     }
 
-    private String generateAndSaveWaveformJson(String audioPath, Long userId) throws IOException, InterruptedException {
-        String userR2Dir = "audio/sole_tts/" + userId;
-        String waveformFileName = "waveform_" + System.currentTimeMillis() + ".json";
-        String waveformR2Path = userR2Dir + "/waveforms/" + waveformFileName;
-
-        String tempWaveformPath = System.getProperty("java.io.tmpdir") + File.separator + "videoeditor" + File.separator + "waveform_temp_" + System.currentTimeMillis() + ".json";
-        File tempWaveformFile = new File(tempWaveformPath);
-
-        // Ensure parent directory for waveform
-        Path tempWaveformDir = tempWaveformFile.toPath().getParent();
-        Files.createDirectories(tempWaveformDir);
-        if (!Files.isWritable(tempWaveformDir)) {
-            logger.error("Waveform directory is not writable: {}", tempWaveformDir);
-            throw new IOException("Cannot write to waveform directory: " + tempWaveformDir);
-        }
-
-        File tempAudioDownload = null;
-        try {
-            // Placeholder for waveform generation
-            // If needed, download audio for processing
-            tempAudioDownload = new File(System.getProperty("java.io.tmpdir") + File.separator + "videoeditor" + File.separator + "temp_download_" + System.currentTimeMillis() + ".mp3");
-            cloudflareR2Service.downloadFile(audioPath, tempAudioDownload.getAbsolutePath());
-            // Generate real waveform here (e.g., using FFmpeg or JAVE)
-            // For now, dummy data
-            Files.write(tempWaveformFile.toPath(), "{}".getBytes());
-
-            // Upload waveform to R2
-            cloudflareR2Service.uploadFile(waveformR2Path, tempWaveformFile);
-            logger.info("Uploaded waveform JSON to R2: {}", waveformR2Path);
-
-            return waveformR2Path;
-        } finally {
-            if (tempWaveformFile.exists()) {
-                try {
-                    Files.delete(tempWaveformFile.toPath());
-                    logger.debug("Deleted temporary waveform file: {}", tempWaveformFile.getAbsolutePath());
-                } catch (IOException e) {
-                    logger.warn("Failed to delete temporary waveform file: {}, error: {}", tempWaveformFile.getAbsolutePath(), e.getMessage());
-                }
-            }
-            if (tempAudioDownload != null && tempAudioDownload.exists()) {
-                try {
-                    Files.delete(tempAudioDownload.toPath());
-                    logger.debug("Deleted temporary downloaded audio: {}", tempAudioDownload.getAbsolutePath());
-                } catch (IOException e) {
-                    logger.warn("Failed to delete temporary downloaded audio: {}", tempAudioDownload.getAbsolutePath(), e.getMessage());
-                }
-            }
-        }
+    private String generateAndSaveWaveformJson(File audioFile, Long userId) throws IOException, InterruptedException {
+        String waveformR2Path = "audio/sole_tts/" + userId + "/waveforms/waveform_" + System.currentTimeMillis() + ".json";
+        // Peaks straight from the local synthesis output; nothing is downloaded or written to disk
+        WaveformExtractor.Waveform waveform = waveformExtractor.extract(audioFile.getAbsolutePath());
+        waveformService.save(waveformR2Path, waveform);
+        logger.info("Uploaded waveform JSON to R2: {}", waveformR2Path);
+        return waveformR2Path;
     }
 
     private String buildSSMLText(String text, Map<String, String> ssmlConfig) {
@@ -9,9 +9,13 @@ import com.example.Scenith.repository.SubtitleMediaRepository;
 import com.example.Scenith.repository.UserProcessingUsageRepository;
 import com.example.Scenith.repository.UserRepository;
 import com.example.Scenith.security.JwtUtil;
+import com.example.Scenith.sqs.SqsService;
+import com.example.Scenith.sqs.TaskCancellationService;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.transaction.Transactional;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,9 +35,14 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.time.Duration;
 import java.time.YearMonth;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -52,7 +61,14 @@ public class SubtitleService {
   private final PlanLimitsService planLimitsService;
   private final CloudflareR2Service cloudflareR2Service;
   private final ProcessingEmailHelper emailHelper;
-  private final software.amazon.awssdk.services.sqs.SqsClient sqsClient;
+  private final SqsService sqsService;
+  private final JobProgressService jobProgressService;
+  private final MediaProcessRunner mediaProcessRunner;
+  private final ChunkedTranscriptionService chunkedTranscriptionService;
+  private final TranscriptCacheService transcriptCacheService;
+  private final SubtitleTrackCompositor subtitleTrackCompositor;
+  private final EncodingPolicyService encodingPolicyService;
+  private final TaskCancellationService taskCancellationService;
 
   // ── Paths from application-prod.properties / environment ──────────────────
   @Value("${app.base-dir:/mnt/scenith-temp}")
@@ -69,6 +85,15 @@ public class SubtitleService {
 
   @Value("${sqs.queue.url}")
   private String sqsQueueUrl;
+
+  @Value("${subtitle.stream.flush-ms:3000}")
+  private long streamFlushMillis;
+
+  @Value("${subtitle.stream.threads:2}")
+  private int streamThreads;
+
+  // Streamed subtitles are handled here, off the Whisper output reader
+  private ExecutorService streamExecutor;
   // ──────────────────────────────────────────────────────────────────────────
 
   public SubtitleService(
@@ -79,7 +104,14 @@ public class SubtitleService {
           UserProcessingUsageRepository userProcessingUsageRepository,
           PlanLimitsService planLimitsService,
           CloudflareR2Service cloudflareR2Service,
-          ProcessingEmailHelper emailHelper, software.amazon.awssdk.services.sqs.SqsClient sqsClient) {
+          ProcessingEmailHelper emailHelper, SqsService sqsService,
+          JobProgressService jobProgressService,
+          MediaProcessRunner mediaProcessRunner,
+          ChunkedTranscriptionService chunkedTranscriptionService,
+          TranscriptCacheService transcriptCacheService,
+          SubtitleTrackCompositor subtitleTrackCompositor,
+          EncodingPolicyService encodingPolicyService,
+          TaskCancellationService taskCancellationService) {
     this.jwtUtil = jwtUtil;
     this.subtitleMediaRepository = subtitleMediaRepository;
     this.objectMapper = objectMapper;
@@ -88,7 +120,28 @@ public class SubtitleService {
     this.planLimitsService = planLimitsService;
     this.cloudflareR2Service = cloudflareR2Service;
     this.emailHelper = emailHelper;
-      this.sqsClient = sqsClient;
+    this.sqsService = sqsService;
+    this.jobProgressService = jobProgressService;
+    this.mediaProcessRunner = mediaProcessRunner;
+    this.chunkedTranscriptionService = chunkedTranscriptionService;
+    this.transcriptCacheService = transcriptCacheService;
+    this.subtitleTrackCompositor = subtitleTrackCompositor;
+    this.encodingPolicyService = encodingPolicyService;
+    this.taskCancellationService = taskCancellationService;
+  }
+
+  @PostConstruct
+  public void init() {
+    streamExecutor = Executors.newFixedThreadPool(Math.max(1, streamThreads), runnable -> {
+      Thread thread = new Thread(runnable, "Subtitle-Stream");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    streamExecutor.shutdownNow();
   }
 
   // ══════════════════════════════════════════════════════════════════════════
@@ -155,6 +208,39 @@ public class SubtitleService {
     }
   }
 
+  /**
+   * Registers media that the browser uploaded straight to R2 through an upload session.
+   * Duration is validated by ffprobe reading the object over a presigned URL, so nothing is downloaded.
+   */
+  public SubtitleMedia registerUploadedMedia(User user, String r2Path, String storedFileName) throws IOException {
+    double videoDuration;
+    try {
+      videoDuration = parseDurationFromFFprobe(cloudflareR2Service.generatePresignedUrl(r2Path, 900));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Failed to validate video duration: " + e.getMessage());
+    }
+
+    int maxMinutes = planLimitsService.getMaxVideoLengthMinutes(user);
+    if (maxMinutes > 0 && videoDuration > maxMinutes * 60) {
+      cloudflareR2Service.deleteFile(r2Path);
+      throw new IllegalArgumentException(
+              "Video length (" + (int) (videoDuration / 60) + " min) exceeds maximum allowed ("
+                      + maxMinutes + " minutes). Upgrade your plan.");
+    }
+
+    SubtitleMedia subtitleMedia = new SubtitleMedia();
+    subtitleMedia.setUser(user);
+    subtitleMedia.setOriginalFileName(storedFileName);
+    subtitleMedia.setOriginalPath(r2Path);
+    subtitleMedia.setOriginalCdnUrl(cloudflareR2Service.getCdnUrl(r2Path));
+    subtitleMedia.setStatus("UPLOADED");
+    subtitleMediaRepository.save(subtitleMedia);
+
+    logger.info("Registered direct-uploaded media for user: {}, path: {}", user.getId(), r2Path);
+    return subtitleMedia;
+  }
+
   // ══════════════════════════════════════════════════════════════════════════
   //  GENERATE SUBTITLES  – download from R2, run Whisper, store JSON
   // ══════════════════════════════════════════════════════════════════════════
@@ -181,24 +267,40 @@ public class SubtitleService {
     File audioFile = null;
 
     try {
-      logger.info("Downloading original file from R2: {}", subtitleMedia.getOriginalPath());
-      cloudflareR2Service.downloadFile(subtitleMedia.getOriginalPath(), tempInputPath.toString());
+      // ── Same original transcribed before: skip download and Whisper ───
+      String sourceKey = transcriptCacheService.sourceKey(subtitleMedia.getOriginalPath());
+      Optional<TranscriptCacheService.Transcript> cached =
+              transcriptCacheService.findBySource(sourceKey, WhisperWorkerPool.MODE_SUBTITLES,
+                      chunkedTranscriptionService.model());
+
+      List<Map<String, Object>> rawSubtitles;
+      double audioDuration;
+      StreamedSubtitles streamed = null;
+      if (cached.isPresent() && cached.get().durationSeconds() > 0) {
+        logger.info("Using cached transcript for mediaId: {}", mediaId);
+        rawSubtitles = cached.get().segments();
+        audioDuration = cached.get().durationSeconds();
+      } else {
+        logger.info("Downloading original file from R2: {}", subtitleMedia.getOriginalPath());
+        cloudflareR2Service.downloadFile(subtitleMedia.getOriginalPath(), tempInputPath.toString());
 
-      if (!Files.exists(tempInputPath) || Files.size(tempInputPath) == 0) {
-        throw new IOException("Downloaded input file is empty: " + tempInputPath);
-      }
+        if (!Files.exists(tempInputPath) || Files.size(tempInputPath) == 0) {
+          throw new IOException("Downloaded input file is empty: " + tempInputPath);
+        }
 
-      // ── Extract audio ─────────────────────────────────────────────────
-      String audioFilePath = extractAudio(tempInputPath.toFile(), mediaId);
-      audioFile = new File(audioFilePath);
+        // ── Extract audio ───────────────────────────────────────────────
+        String audioFilePath = extractAudio(tempInputPath.toFile(), mediaId);
+        audioFile = new File(audioFilePath);
 
-      double audioDuration = getAudioDuration(audioFile);
-      if (audioDuration <= 0) {
-        throw new IOException("Audio file has invalid duration: " + audioDuration);
-      }
+        audioDuration = getAudioDuration(audioFile);
+        if (audioDuration <= 0) {
+          throw new IOException("Audio file has invalid duration: " + audioDuration);
+        }
 
-      // ── Whisper transcription ─────────────────────────────────────────
-      List<Map<String, Object>> rawSubtitles = runWhisperScript(audioFile);
+        // ── Whisper transcription, streamed to the editor as it goes ────
+        streamed = new StreamedSubtitles(mediaId, audioDuration, styleParams);
+        rawSubtitles = runWhisperScript(audioFile, sourceKey, audioDuration, streamed::accept);
+      }
       if (rawSubtitles.isEmpty()) {
         throw new IOException("No subtitles generated by Whisper");
       }
@@ -206,63 +308,31 @@ public class SubtitleService {
       // ── Build SubtitleDTO list ────────────────────────────────────────
       List<SubtitleDTO> subtitles = new ArrayList<>();
       for (Map<String, Object> raw : rawSubtitles) {
-        double startTime = Math.max(0, ((Number) raw.get("start")).doubleValue());
-        double endTime = Math.min(audioDuration, ((Number) raw.get("end")).doubleValue());
-        String text = (String) raw.get("text");
-
-        if (endTime <= startTime || text == null || text.trim().isEmpty()) continue;
-
-        SubtitleDTO subtitle = new SubtitleDTO();
-        subtitle.setId(UUID.randomUUID().toString());
-        subtitle.setTimelineStartTime(startTime);
-        subtitle.setTimelineEndTime(endTime);
-        subtitle.setText(text.trim());
-
-        // Word-level timestamps
-        if (raw.containsKey("words")) {
-          @SuppressWarnings("unchecked")
-          List<Map<String, Object>> wordsRaw = (List<Map<String, Object>>) raw.get("words");
-          List<SubtitleDTO.WordTimestamp> wordTimestamps = new ArrayList<>();
-          for (Map<String, Object> wordData : wordsRaw) {
-            wordTimestamps.add(new SubtitleDTO.WordTimestamp(
-                    (String) wordData.get("word"),
-                    ((Number) wordData.get("start")).doubleValue(),
-                    ((Number) wordData.get("end")).doubleValue()
-            ));
-          }
-          subtitle.setWords(wordTimestamps);
-        }
-
-        // Styles
-        subtitle.setFontFamily(styleParams != null && styleParams.containsKey("fontFamily")
-                ? styleParams.get("fontFamily") : "Montserrat Alternates Black");
-        subtitle.setFontColor(styleParams != null && styleParams.containsKey("fontColor")
-                ? styleParams.get("fontColor") : "black");
-        subtitle.setBackgroundColor(styleParams != null && styleParams.containsKey("backgroundColor")
-                ? styleParams.get("backgroundColor") : "white");
-        subtitle.setBackgroundOpacity(1.0);
-        subtitle.setPositionX(0);
-        subtitle.setPositionY(350);
-        subtitle.setAlignment("center");
-        subtitle.setScale(1.5);
-        subtitle.setBackgroundH(50);
-        subtitle.setBackgroundW(50);
-        subtitle.setBackgroundBorderRadius(15);
-
-        subtitles.add(subtitle);
+        SubtitleDTO subtitle = toSubtitleDTO(raw, audioDuration, styleParams);
+        if (subtitle != null) subtitles.add(subtitle);
+      }
+      if (streamed != null) {
+        // Keep the ids (and any edits) of what was already streamed
+        subtitles = streamed.merge(subtitles);
+        subtitleMedia = subtitleMediaRepository.findById(mediaId).orElse(subtitleMedia);
       }
 
-      subtitleMedia.setSubtitlesJson(objectMapper.writeValueAsString(subtitles));
+      setSubtitles(subtitleMedia, subtitles);
       subtitleMedia.setStatus("SUCCESS");
       subtitleMediaRepository.save(subtitleMedia);
+      if (streamed != null) {
+        jobProgressService.publish(JobProgressService.JOB_SUBTITLE, mediaId, "SUCCESS", 100.0);
+      }
 
       logger.info("Successfully generated {} subtitles for mediaId: {}", subtitles.size(), mediaId);
       return subtitleMedia;
 
     } catch (Exception e) {
       logger.error("Exception during subtitle generation for mediaId {}: {}", mediaId, e.getMessage(), e);
+      subtitleMedia = subtitleMediaRepository.findById(mediaId).orElse(subtitleMedia);
       subtitleMedia.setStatus("FAILED");
       subtitleMediaRepository.save(subtitleMedia);
+      jobProgressService.publish(JobProgressService.JOB_SUBTITLE, mediaId, "FAILED", 0.0);
 
       if (e instanceof IOException) throw (IOException) e;
       if (e instanceof InterruptedException) throw (InterruptedException) e;
@@ -276,6 +346,208 @@ public class SubtitleService {
     }
   }
 
+  /**
+   * Store the subtitle list, bumping subtitlesVersion so in-flight stream flushes re-read it.
+   */
+  private void setSubtitles(SubtitleMedia media, List<SubtitleDTO> subtitles) throws JsonProcessingException {
+    media.setSubtitlesJson(objectMapper.writeValueAsString(subtitles));
+    media.setSubtitlesVersion((media.getSubtitlesVersion() != null ? media.getSubtitlesVersion() : 0) + 1);
+  }
+
+  private SubtitleDTO toSubtitleDTO(Map<String, Object> raw, double audioDuration, Map<String, String> styleParams) {
+    double startTime = Math.max(0, ((Number) raw.get("start")).doubleValue());
+    double endTime = Math.min(audioDuration, ((Number) raw.get("end")).doubleValue());
+    String text = (String) raw.get("text");
+
+    if (endTime <= startTime || text == null || text.trim().isEmpty()) return null;
+
+    SubtitleDTO subtitle = new SubtitleDTO();
+    subtitle.setId(UUID.randomUUID().toString());
+    subtitle.setTimelineStartTime(startTime);
+    subtitle.setTimelineEndTime(endTime);
+    subtitle.setText(text.trim());
+
+    // Word-level timestamps
+    if (raw.containsKey("words")) {
+      @SuppressWarnings("unchecked")
+      List<Map<String, Object>> wordsRaw = (List<Map<String, Object>>) raw.get("words");
+      List<SubtitleDTO.WordTimestamp> wordTimestamps = new ArrayList<>();
+      for (Map<String, Object> wordData : wordsRaw) {
+        wordTimestamps.add(new SubtitleDTO.WordTimestamp(
+                (String) wordData.get("word"),
+                ((Number) wordData.get("start")).doubleValue(),
+                ((Number) wordData.get("end")).doubleValue()
+        ));
+      }
+      subtitle.setWords(wordTimestamps);
+    }
+
+    // Styles
+    subtitle.setFontFamily(styleParams != null && styleParams.containsKey("fontFamily")
+            ? styleParams.get("fontFamily") : "Montserrat Alternates Black");
+    subtitle.setFontColor(styleParams != null && styleParams.containsKey("fontColor")
+            ? styleParams.get("fontColor") : "black");
+    subtitle.setBackgroundColor(styleParams != null && styleParams.containsKey("backgroundColor")
+            ? styleParams.get("backgroundColor") : "white");
+    subtitle.setBackgroundOpacity(1.0);
+    subtitle.setPositionX(0);
+    subtitle.setPositionY(350);
+    subtitle.setAlignment("center");
+    subtitle.setScale(1.5);
+    subtitle.setBackgroundH(50);
+    subtitle.setBackgroundW(50);
+    subtitle.setBackgroundBorderRadius(15);
+
+    return subtitle;
+  }
+
+  /**
+   * Subtitles streamed while Whisper runs. They are pushed to the job's SSE subscribers as
+   * "subtitles" events and appended to the stored subtitlesJson every subtitle.stream.flush-ms,
+   * so the editor can work on the start of the media before transcription ends. Ids are
+   * stable, so edits made meanwhile survive later flushes and the final merge.
+   *
+   * Whisper's output reader only queues the segments; they are handled in order on the stream
+   * executor. Flushes re-read the stored list and write it back only if no editor write got in
+   * between (subtitlesVersion), so edits are merged rather than overwritten.
+   */
+  private class StreamedSubtitles {
+    private final Long mediaId;
+    private final double audioDuration;
+    private final Map<String, String> styleParams;
+    private final List<SubtitleDTO> unflushed = new ArrayList<>();
+    private final Map<String, String> streamedText = new HashMap<>();
+    private boolean flushedOnce;
+    private long lastFlushMillis = System.currentTimeMillis();
+    private double transcribedUntil;
+    // Guards pending only, so queueing never waits for a flush in progress
+    private final Object queueLock = new Object();
+    private CompletableFuture<Void> pending = CompletableFuture.completedFuture(null);
+
+    StreamedSubtitles(Long mediaId, double audioDuration, Map<String, String> styleParams) {
+      this.mediaId = mediaId;
+      this.audioDuration = audioDuration;
+      this.styleParams = styleParams;
+    }
+
+    /**
+     * @param transcribedSeconds media transcribed so far, for progress; chunks finish out of
+     *                           order, so this is not the latest subtitle's end
+     */
+    void accept(List<Map<String, Object>> partial, double transcribedSeconds) {
+      List<Map<String, Object>> segments = List.copyOf(partial);
+      synchronized (queueLock) {
+        pending = pending.thenRunAsync(() -> {
+          try {
+            handle(segments, transcribedSeconds);
+          } catch (RuntimeException e) {
+            logger.warn("Failed to handle streamed subtitles for mediaId {}: {}", mediaId, e.getMessage());
+          }
+        }, streamExecutor);
+      }
+    }
+
+    private synchronized void handle(List<Map<String, Object>> partial, double transcribedSeconds) {
+      List<SubtitleDTO> added = new ArrayList<>();
+      for (Map<String, Object> raw : partial) {
+        SubtitleDTO subtitle = toSubtitleDTO(raw, audioDuration, styleParams);
+        if (subtitle == null) continue;
+        added.add(subtitle);
+        streamedText.put(subtitle.getId(), subtitle.getText());
+        transcribedUntil = Math.max(transcribedUntil, subtitle.getTimelineEndTime());
+      }
+      jobProgressService.publish(JobProgressService.JOB_SUBTITLE, mediaId, "PROCESSING",
+              Math.min(99.0, transcribedSeconds / audioDuration * 100));
+      if (added.isEmpty()) return;
+      unflushed.addAll(added);
+
+      Map<String, Object> event = new HashMap<>();
+      event.put("mediaId", mediaId);
+      event.put("subtitles", added);
+      event.put("transcribedUntil", transcribedUntil);
+      jobProgressService.publishEvent(JobProgressService.JOB_SUBTITLE, mediaId, "subtitles", event);
+
+      if (System.currentTimeMillis() - lastFlushMillis >= streamFlushMillis) {
+        flush();
+      }
+    }
+
+    private void flush() {
+      lastFlushMillis = System.currentTimeMillis();
+      try {
+        // An editor write between our read and write fails the update; re-read and merge again
+        for (int attempt = 0; attempt < 3; attempt++) {
+          SubtitleMedia media = subtitleMediaRepository.findById(mediaId).orElse(null);
+          if (media == null) return;
+          long version = media.getSubtitlesVersion() != null ? media.getSubtitlesVersion() : 0;
+          // The first flush replaces subtitles of a previous generation
+          List<SubtitleDTO> stored = flushedOnce ? readSubtitles(media) : new ArrayList<>();
+          stored.addAll(unflushed);
+          stored.sort(Comparator.comparingDouble(SubtitleDTO::getTimelineStartTime));
+          if (subtitleMediaRepository.updateStreamedSubtitles(mediaId, objectMapper.writeValueAsString(stored),
+                  version + 1, version) > 0) {
+            unflushed.clear();
+            flushedOnce = true;
+            return;
+          }
+        }
+        // Kept in unflushed for the next flush or the final merge
+        logger.debug("Streamed subtitles for mediaId {} not stored: changed concurrently or job ended", mediaId);
+      } catch (IOException | RuntimeException e) {
+        logger.warn("Failed to store streamed subtitles for mediaId {}: {}", mediaId, e.getMessage());
+      }
+    }
+
+    /**
+     * Final list: the stored subtitles (with any edits) plus the rest of what was streamed, minus
+     * unedited ones the final transcript dropped, plus final subtitles that were never streamed.
+     */
+    List<SubtitleDTO> merge(List<SubtitleDTO> finalSubtitles) throws IOException {
+      CompletableFuture<Void> queued;
+      synchronized (queueLock) {
+        queued = pending;
+      }
+      try {
+        queued.join();
+      } catch (CompletionException e) {
+        logger.warn("Streamed subtitles for mediaId {} not fully handled: {}", mediaId, e.getMessage());
+      }
+      return mergeHandled(finalSubtitles);
+    }
+
+    private synchronized List<SubtitleDTO> mergeHandled(List<SubtitleDTO> finalSubtitles) throws IOException {
+      List<SubtitleDTO> current = new ArrayList<>();
+      if (flushedOnce) {
+        SubtitleMedia media = subtitleMediaRepository.findById(mediaId).orElse(null);
+        if (media != null) current.addAll(readSubtitles(media));
+      }
+      current.addAll(unflushed);
+      unflushed.clear();
+
+      List<SubtitleDTO> unmatched = new ArrayList<>(finalSubtitles);
+      List<SubtitleDTO> merged = new ArrayList<>();
+      for (SubtitleDTO subtitle : current) {
+        String original = streamedText.get(subtitle.getId());
+        boolean matched = unmatched.removeIf(candidate -> original != null
+                && candidate.getText().equals(original)
+                && Math.abs(candidate.getTimelineStartTime() - subtitle.getTimelineStartTime()) < 0.05);
+        if (original == null || matched || !original.equals(subtitle.getText())) {
+          merged.add(subtitle);
+        }
+      }
+      merged.addAll(unmatched);
+      merged.sort(Comparator.comparingDouble(SubtitleDTO::getTimelineStartTime));
+      return merged;
+    }
+
+    private List<SubtitleDTO> readSubtitles(SubtitleMedia media) throws IOException {
+      if (media.getSubtitlesJson() == null || media.getSubtitlesJson().isEmpty()) {
+        return new ArrayList<>();
+      }
+      return new ArrayList<>(objectMapper.readValue(media.getSubtitlesJson(), new TypeReference<List<SubtitleDTO>>() {}));
+    }
+  }
+
   // ══════════════════════════════════════════════════════════════════════════
   //  PROCESS SUBTITLES  – called by SQS worker (queued by controller)
   // ══════════════════════════════════════════════════════════════════════════
@@ -316,10 +588,7 @@ public class SubtitleService {
 
     try {
       String messageBody = objectMapper.writeValueAsString(taskPayload);
-      sqsClient.sendMessage(b -> b
-              .queueUrl(sqsQueueUrl)
-              .messageBody(messageBody)
-              .build());
+      sqsService.sendMessage(messageBody, sqsQueueUrl);
       logger.info("Queued PROCESS_SUBTITLES task for mediaId: {}, userId: {}", mediaId, user.getId());
     } catch (Exception e) {
       // Roll back status so user can retry
@@ -391,6 +660,7 @@ public class SubtitleService {
       subtitleMedia.setStatus("PROCESSING");
       subtitleMedia.setProgress(0.0);
       subtitleMediaRepository.save(subtitleMedia);
+      jobProgressService.publish(JobProgressService.JOB_SUBTITLE, mediaId, "PROCESSING", 0.0);
 
       validateInputFile(tempInputPath.toFile());
 
@@ -425,6 +695,7 @@ public class SubtitleService {
       subtitleMedia.setStatus("SUCCESS");
       subtitleMedia.setProgress(100.0);
       subtitleMediaRepository.save(subtitleMedia);
+      jobProgressService.publish(JobProgressService.JOB_SUBTITLE, mediaId, "SUCCESS", 100.0);
 
       incrementUsageCount(user);
 
@@ -449,6 +720,7 @@ public class SubtitleService {
       subtitleMedia.setStatus("FAILED");
       subtitleMedia.setProgress(0.0);
       subtitleMediaRepository.save(subtitleMedia);
+      jobProgressService.publish(JobProgressService.JOB_SUBTITLE, mediaId, "FAILED", 0.0);
       if (e instanceof IOException) throw (IOException) e;
       if (e instanceof InterruptedException) throw (InterruptedException) e;
       throw new IOException("Subtitle processing failed: " + e.getMessage(), e);
@@ -512,7 +784,7 @@ public class SubtitleService {
 
     if (!found) throw new IllegalArgumentException("Subtitle with id " + subtitleId + " not found");
 
-    subtitleMedia.setSubtitlesJson(objectMapper.writeValueAsString(subtitles));
+    setSubtitles(subtitleMedia, subtitles);
     subtitleMedia.setStatus("SUCCESS");
     subtitleMediaRepository.save(subtitleMedia);
     return subtitleMedia;
@@ -544,7 +816,7 @@ public class SubtitleService {
       }
     }
 
-    subtitleMedia.setSubtitlesJson(objectMapper.writeValueAsString(existing));
+    setSubtitles(subtitleMedia, existing);
     subtitleMedia.setStatus("SUCCESS");
     subtitleMediaRepository.save(subtitleMedia);
     return subtitleMedia;
@@ -566,7 +838,7 @@ public class SubtitleService {
       s.setBackgroundColor(styleParams.getOrDefault("backgroundColor", s.getBackgroundColor()));
     }
 
-    subtitleMedia.setSubtitlesJson(objectMapper.writeValueAsString(subtitles));
+    setSubtitles(subtitleMedia, subtitles);
     subtitleMedia.setStatus("SUCCESS");
     subtitleMediaRepository.save(subtitleMedia);
     return subtitleMedia;
@@ -691,324 +963,149 @@ public class SubtitleService {
   //  WHISPER
   // ══════════════════════════════════════════════════════════════════════════
 
-  public List<Map<String, Object>> runWhisperScript(File audioFile) throws IOException, InterruptedException {
+  /**
+   * Transcribe through the transcript cache; sourceKey (the original's ETag) is registered
+   * with the result so the next run for the same original can skip the download.
+   */
+  public List<Map<String, Object>> runWhisperScript(File audioFile, String sourceKey, double audioDuration,
+                                                    ChunkedTranscriptionService.SegmentListener onSubtitles)
+          throws IOException, InterruptedException {
+    return transcriptCacheService.getOrTranscribe(audioFile, WhisperWorkerPool.MODE_SUBTITLES,
+            chunkedTranscriptionService.model(), sourceKey, audioDuration, () -> runWhisperScript(audioFile, onSubtitles));
+  }
+
+  /**
+   * Transcribe, reporting subtitles to onSubtitles (may be null) as Whisper produces them.
+   * The script prints one JSON subtitle per line (--ndjson).
+   */
+  public List<Map<String, Object>> runWhisperScript(File audioFile, ChunkedTranscriptionService.SegmentListener onSubtitles)
+          throws IOException, InterruptedException {
     File scriptFile = new File(subtitleScriptPath);
     if (!scriptFile.exists()) {
       throw new IOException("Subtitle script not found: " + scriptFile.getAbsolutePath());
     }
 
-    List<String> command = Arrays.asList(pythonPath, scriptFile.getAbsolutePath(), audioFile.getAbsolutePath());
-    logger.debug("Executing Whisper command: {}", String.join(" ", command));
-
-    ProcessBuilder pb = new ProcessBuilder(command);
-    pb.redirectErrorStream(false);
-    Process process = pb.start();
-
-    StringBuilder output      = new StringBuilder();
-    StringBuilder errorOutput = new StringBuilder();
-
-    Thread stdoutThread = new Thread(() -> {
-      try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-        String line;
-        while ((line = reader.readLine()) != null) {
-          synchronized (output) { output.append(line); }
-        }
-      } catch (IOException e) { logger.error("Error reading Whisper stdout: {}", e.getMessage()); }
-    });
-
-    Thread stderrThread = new Thread(() -> {
-      try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getErrorStream()))) {
-        String line;
-        while ((line = reader.readLine()) != null) {
-          synchronized (errorOutput) { errorOutput.append(line).append("\n"); }
-          logger.debug("Whisper stderr: {}", line);
-        }
-      } catch (IOException e) { logger.error("Error reading Whisper stderr: {}", e.getMessage()); }
-    });
-
-    stdoutThread.start();
-    stderrThread.start();
+    if (chunkedTranscriptionService.isEnabled()) {
+      return chunkedTranscriptionService.transcribe(audioFile, WhisperWorkerPool.MODE_SUBTITLES, onSubtitles);
+    }
 
-    boolean finished = process.waitFor(15, TimeUnit.MINUTES);
-    stdoutThread.join(5000);
-    stderrThread.join(5000);
+    List<String> command = Arrays.asList(pythonPath, scriptFile.getAbsolutePath(), audioFile.getAbsolutePath(), "--ndjson");
+    logger.debug("Executing Whisper command: {}", String.join(" ", command));
 
-    if (!finished) {
-      process.destroyForcibly();
+    List<Map<String, Object>> subtitles = new ArrayList<>();
+    StringBuilder invalidOutput = new StringBuilder();
+    double[] transcribedUntil = {0};
+    MediaProcessRunner.Result result = mediaProcessRunner.run(MediaProcessRunner.spec(command)
+            .label("whisper")
+            .separateStderr()
+            .onLine(line -> {
+              String trimmed = line.trim();
+              if (trimmed.isEmpty()) return;
+              try {
+                Map<String, Object> subtitle = objectMapper.readValue(trimmed, new TypeReference<Map<String, Object>>() {});
+                subtitles.add(subtitle);
+                if (subtitle.get("end") instanceof Number end) {
+                  transcribedUntil[0] = Math.max(transcribedUntil[0], end.doubleValue());
+                }
+                if (onSubtitles != null) onSubtitles.accept(List.of(subtitle), transcribedUntil[0]);
+              } catch (JsonProcessingException e) {
+                invalidOutput.append(trimmed).append('\n');
+              }
+            })
+            .timeout(Duration.ofMinutes(15)));
+    String errorOutput = result.getLogTail();
+
+    if (result.isTimedOut()) {
       throw new IOException("Whisper transcription timed out after 15 minutes");
     }
-
-    int exitCode = process.exitValue();
-    if (exitCode != 0) {
-      throw new IOException("Whisper failed (exit " + exitCode + "): " + errorOutput);
+    if (!result.isSuccess()) {
+      throw new IOException("Whisper failed (exit " + result.getExitCode() + "): " + errorOutput);
     }
 
-    String outputStr = output.toString().trim();
-    if (outputStr.isEmpty()) {
+    if (subtitles.isEmpty()) {
+      if (invalidOutput.length() > 0) {
+        throw new IOException("Invalid JSON from Whisper: " + invalidOutput);
+      }
       throw new IOException("No output from Whisper script. Stderr: " + errorOutput);
     }
-
-    try {
-      return objectMapper.readValue(outputStr, new TypeReference<List<Map<String, Object>>>() {});
-    } catch (JsonProcessingException e) {
-      throw new IOException("Invalid JSON from Whisper: " + outputStr, e);
-    }
+    return subtitles;
   }
 
   // ══════════════════════════════════════════════════════════════════════════
-  //  VIDEO RENDERING  (batch + concat – same algorithm as local version)
+  //  VIDEO RENDERING  (whole subtitle track as one overlay input)
   // ══════════════════════════════════════════════════════════════════════════
 
   private void renderSubtitledVideo(File inputFile, File outputFile, List<SubtitleDTO> subtitles,
                                     int canvasWidth, int canvasHeight, float fps, Long mediaId,
                                     double totalDuration, String quality) throws IOException, InterruptedException {
-    Path tempDir = Paths.get(baseDir).resolve("temp/subtitle-render/" + mediaId).toAbsolutePath();
-    Files.createDirectories(tempDir);
-
-    double batchSize = 8.0;
-    List<String> tempVideoFiles = new ArrayList<>();
-    List<File>   tempTextFiles  = new ArrayList<>();
+    Path trackDir = Paths.get(baseDir).resolve("temp/subtitle-render/" + mediaId + "/track_" + System.currentTimeMillis())
+            .toAbsolutePath().normalize();
+    EncodingPolicyService.Tier tier = encodingPolicyService.tier(quality);
 
     try {
-      int batchIndex = 0;
-      for (double startTime = 0; startTime < totalDuration; startTime += batchSize) {
-        double endTime       = Math.min(startTime + batchSize, totalDuration);
-        String safeBatchName = "batch_" + batchIndex + ".mp4";
-        String tempOutput    = tempDir.resolve(safeBatchName).toString();
-        tempVideoFiles.add(tempOutput);
-        Map<String, String> qualitySettings = getFFmpegQualitySettings(quality);
-        renderBatch(inputFile, new File(tempOutput), subtitles, canvasWidth, canvasHeight, fps,
-                mediaId, startTime, endTime, totalDuration, batchIndex, tempTextFiles, qualitySettings);
-        batchIndex++;
-      }
-      concatenateBatches(tempVideoFiles, outputFile.getAbsolutePath(), fps, tempDir.toFile());
-    } finally {
-      for (File f : tempTextFiles)   { try { Files.deleteIfExists(f.toPath()); } catch (IOException ignored) {} }
-      for (String v : tempVideoFiles) { try { Files.deleteIfExists(Paths.get(v)); } catch (IOException ignored) {} }
-    }
-  }
-
-  private void renderBatch(File inputFile, File outputFile, List<SubtitleDTO> subtitles,
-                           int canvasWidth, int canvasHeight, float fps, Long mediaId,
-                           double batchStart, double batchEnd, double totalDuration, int batchIndex,
-                           List<File> tempTextFiles, Map<String, String> qualitySettings)
-          throws IOException, InterruptedException {
-
-    double batchDuration = batchEnd - batchStart;
-    Path batchTempDir    = Paths.get(baseDir).resolve("temp/subtitle-render/" + mediaId).toAbsolutePath();
-    Files.createDirectories(batchTempDir);
-
-    List<String> command = new ArrayList<>();
-    command.add(ffmpegPath);
-    command.add("-ss"); command.add(String.format("%.6f", batchStart));
-    command.add("-t");  command.add(String.format("%.6f", batchDuration));
-    command.add("-i");  command.add(inputFile.getAbsolutePath());
-
-    StringBuilder filterComplex  = new StringBuilder();
-    Map<String, String> textInputIndices = new HashMap<>();
-    int inputCount = 1;
-
-    List<SubtitleDTO> relevantSubtitles = subtitles.stream()
-            .filter(s -> s.getTimelineStartTime() < batchEnd && s.getTimelineEndTime() > batchStart)
-            .collect(Collectors.toList());
-
-    for (SubtitleDTO subtitle : relevantSubtitles) {
-      if (subtitle.getText() == null || subtitle.getText().trim().isEmpty()) continue;
-      if (subtitle.getTimelineEndTime() <= subtitle.getTimelineStartTime()) continue;
+      SubtitleTrackCompositor.Track track = subtitleTrackCompositor.compose(subtitles, canvasWidth, canvasHeight,
+              0, totalDuration, true, trackDir,
+              subtitle -> new File(generateTextPng(subtitle, trackDir.toFile(), canvasWidth, canvasHeight)));
 
-      String textPngPath = generateTextPng(subtitle, batchTempDir.toFile(), canvasWidth, canvasHeight);
-      File textPngFile   = new File(textPngPath);
-      if (!textPngFile.exists() || textPngFile.length() == 0) continue;
-
-      tempTextFiles.add(textPngFile);
-      command.add("-loop"); command.add("1");
-      command.add("-i");    command.add(textPngPath);
-      textInputIndices.put(subtitle.getId(), String.valueOf(inputCount++));
-    }
-
-    if (textInputIndices.isEmpty()) {
-      // No subtitles in this batch – just copy + scale
-      command.clear();
+      List<String> command = new ArrayList<>();
       command.add(ffmpegPath);
-      command.add("-ss"); command.add(String.format("%.6f", batchStart));
-      command.add("-t");  command.add(String.format("%.6f", batchDuration));
-      command.add("-i");  command.add(inputFile.getAbsolutePath());
-      command.add("-vf"); command.add("scale=" + qualitySettings.get("scale"));
-      command.add("-c:v"); command.add("libx264");
-      command.add("-preset"); command.add(qualitySettings.get("preset"));
-      command.add("-crf");    command.add(qualitySettings.get("crf"));
-      command.add("-pix_fmt"); command.add("yuv420p");
-      command.add("-c:a");    command.add("copy");
-      command.add("-y");      command.add(outputFile.getAbsolutePath());
-    } else {
-      String lastOutput  = "0:v";
-      int    overlayCount = 0;
-
-      for (SubtitleDTO subtitle : relevantSubtitles) {
-        String inputIdx = textInputIndices.get(subtitle.getId());
-        if (inputIdx == null) continue;
-
-        double segmentStart = Math.max(subtitle.getTimelineStartTime(), batchStart) - batchStart;
-        double segmentEnd   = Math.min(subtitle.getTimelineEndTime(),   batchEnd)   - batchStart;
-        if (segmentStart >= segmentEnd) continue;
-
-        String outputLabel = "ov" + overlayCount++;
-        double defaultScale = subtitle.getScale() != null ? subtitle.getScale() : 1.0;
-        double resolutionMultiplier = canvasWidth >= 3840 ? 1.5 : 2.0;
-        double baseScale = 1.0 / resolutionMultiplier;
-
-        filterComplex.append("[").append(inputIdx).append(":v]");
-        filterComplex.append("setpts=PTS-STARTPTS+")
-                .append(String.format("%.6f", segmentStart)).append("/TB,");
-        filterComplex.append("scale=w='2*trunc((iw*").append(baseScale).append("*")
-                .append(String.format("%.6f", defaultScale))
-                .append(")/2)':h='2*trunc((ih*").append(baseScale).append("*")
-                .append(String.format("%.6f", defaultScale))
-                .append(")/2)':flags=lanczos:eval=frame,");
-
-        double rotation = subtitle.getRotation() != null ? subtitle.getRotation() : 0.0;
-        if (Math.abs(rotation) > 0.01) {
-          filterComplex.append("rotate=a=").append(String.format("%.6f", Math.toRadians(rotation)))
-                  .append(":ow='2*trunc(hypot(iw,ih)/2)'")
-                  .append(":oh='2*trunc(hypot(iw,ih)/2)'")
-                  .append(":c=0x00000000,");
-        }
-        filterComplex.append("format=rgba,");
-
-        double opacity = subtitle.getOpacity() != null ? subtitle.getOpacity() : 1.0;
-        if (opacity < 1.0) {
-          filterComplex.append("colorchannelmixer=aa=").append(String.format("%.6f", opacity)).append(",");
-        }
-
-        String xExpr, yExpr;
-        if ("left".equalsIgnoreCase(subtitle.getAlignment())) {
-          xExpr = String.format("%d", subtitle.getPositionX() != null ? subtitle.getPositionX() : 0);
-        } else if ("right".equalsIgnoreCase(subtitle.getAlignment())) {
-          xExpr = String.format("W-w-%d", subtitle.getPositionX() != null ? subtitle.getPositionX() : 0);
-        } else {
-          xExpr = String.format("(W-w)/2+%d", subtitle.getPositionX() != null ? subtitle.getPositionX() : 0);
-        }
-        yExpr = String.format("(H-h)/2+%d", subtitle.getPositionY() != null ? subtitle.getPositionY() : 0);
-
-        filterComplex.append("[").append(lastOutput).append("]");
-        filterComplex.append("overlay=x='").append(xExpr).append("':y='").append(yExpr)
-                .append("':format=auto")
-                .append(":enable='between(t,").append(String.format("%.6f", segmentStart))
-                .append(",").append(String.format("%.6f", segmentEnd)).append(")'");
-        filterComplex.append("[ov").append(outputLabel).append("];");
-        lastOutput = "ov" + outputLabel;
+      command.add("-i"); command.add(inputFile.getAbsolutePath());
+      if (track == null) {
+        // No subtitles – just scale
+        command.add("-vf"); command.add("scale=" + tier.scale());
+        command.add("-c:a"); command.add("copy");
+      } else {
+        command.addAll(track.inputArgs());
+        command.add("-filter_complex");
+        command.add("[1:v]format=rgba[subs];[0:v][subs]overlay=x=0:y=0:format=auto:eof_action=pass,"
+                + "scale=" + tier.scale() + "[vout]");
+        command.add("-map"); command.add("[vout]");
+        command.add("-map"); command.add("0:a?");
+        command.add("-c:a"); command.add("aac");
+        command.add("-b:a"); command.add("192k");
       }
-
-      // Scale at the end of the filter chain
-      filterComplex.append("[").append(lastOutput).append("]")
-              .append("scale=").append(qualitySettings.get("scale"))
-              .append(",setpts=PTS-STARTPTS[vout]");
-
-      command.add("-filter_complex"); command.add(filterComplex.toString());
-      command.add("-map");    command.add("[vout]");
-      command.add("-map");    command.add("0:a?");
-      command.add("-c:v");    command.add("libx264");
-      command.add("-preset"); command.add(qualitySettings.get("preset"));
-      command.add("-crf");    command.add(qualitySettings.get("crf"));
+      command.add("-c:v");     command.add("libx264");
+      command.addAll(encodingPolicyService.forTier(EncodingPolicyService.TASK_SUBTITLES, tier, totalDuration).encoderArgs());
       command.add("-pix_fmt"); command.add("yuv420p");
-      command.add("-c:a");    command.add("aac");
-      command.add("-b:a");    command.add("192k");
-      command.add("-t");      command.add(String.format("%.6f", batchDuration));
-      command.add("-r");      command.add(String.format("%.2f", fps));
-      command.add("-y");      command.add(outputFile.getAbsolutePath());
-    }
-
-    logger.debug("FFmpeg batch command: {}", String.join(" ", command));
-    executeFFmpegWithProgress(command, mediaId, batchStart, batchDuration, totalDuration, batchIndex);
-  }
-
-  private void concatenateBatches(List<String> tempVideoFiles, String outputPath,
-                                  float fps, File tempDir) throws IOException, InterruptedException {
-    if (tempVideoFiles.isEmpty()) throw new IllegalStateException("No batch files to concatenate");
-
-    if (tempVideoFiles.size() == 1) {
-      Files.move(Paths.get(tempVideoFiles.get(0)), Paths.get(outputPath),
-              StandardCopyOption.REPLACE_EXISTING);
-      return;
-    }
-
-    File concatListFile = new File(tempDir, "concat_list.txt");
-    try (PrintWriter writer = new PrintWriter(concatListFile, "UTF-8")) {
-      for (String f : tempVideoFiles) {
-        writer.println("file '" + f.replace("\\", "\\\\") + "'");
-      }
-    }
+      command.add("-r");       command.add(String.format("%.2f", fps));
+      command.add("-y");       command.add(outputFile.getAbsolutePath());
 
-    List<String> command = Arrays.asList(
-            ffmpegPath,
-            "-f", "concat", "-safe", "0",
-            "-i", concatListFile.getAbsolutePath(),
-            "-c", "copy",
-            "-r", String.valueOf(fps),
-            "-y", outputPath);
-
-    try {
-      runProcess(command, "FFmpeg concatenate");
+      logger.debug("FFmpeg subtitle render command: {}", String.join(" ", command));
+      executeFFmpegWithProgress(command, mediaId, totalDuration);
     } finally {
-      try { Files.deleteIfExists(concatListFile.toPath()); } catch (IOException ignored) {}
+      cleanUpTempDir(trackDir);
     }
   }
 
-  private void executeFFmpegWithProgress(List<String> command, Long mediaId,
-                                         double batchStart, double batchDuration,
-                                         double totalDuration, int batchIndex)
+  private void executeFFmpegWithProgress(List<String> command, Long mediaId, double totalDuration)
           throws IOException, InterruptedException {
 
     SubtitleMedia subtitleMedia = subtitleMediaRepository.findById(mediaId)
             .orElseThrow(() -> new RuntimeException("Media not found: " + mediaId));
 
-    List<String> cmd = new ArrayList<>(command);
-    if (!cmd.contains("-progress")) { cmd.add("-progress"); cmd.add("pipe:"); }
-
-    ProcessBuilder pb = new ProcessBuilder(cmd);
-    pb.redirectErrorStream(true);
-    Process process = pb.start();
-
-    double lastProgress = -1.0;
-    try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-      String line;
-      while ((line = reader.readLine()) != null) {
-        if (line.startsWith("out_time_ms=") && !line.contains("N/A")) {
-          try {
-            long   outTimeUs          = Long.parseLong(line.replace("out_time_ms=", ""));
-            double currentBatchTime   = outTimeUs / 1_000_000.0;
-            double batchProgress      = Math.min(currentBatchTime / batchDuration, 1.0);
-            double batchContribution  = batchDuration / totalDuration * 100.0;
-            double completedPrevious  = batchIndex * (batchDuration / totalDuration * 100.0);
-            double totalProgress      = Math.min(completedPrevious + batchProgress * batchContribution, 100.0);
-            int    rounded            = (int) Math.round(totalProgress);
-            if (rounded != (int) lastProgress && rounded >= 0 && rounded <= 100 && rounded % 10 == 0) {
-              subtitleMedia.setProgress((double) rounded);
-              subtitleMedia.setStatus("PROCESSING");
-              subtitleMediaRepository.save(subtitleMedia);
-              logger.info("Progress: {}% for mediaId: {}", rounded, mediaId);
-              lastProgress = rounded;
-            }
-          } catch (NumberFormatException ignored) {}
-        }
-      }
-    }
-
-    boolean completed = process.waitFor(10, TimeUnit.MINUTES);
-    if (!completed) {
-      process.destroyForcibly();
+    int[] lastProgress = {-1};
+
+    MediaProcessRunner.Result result = mediaProcessRunner.run(MediaProcessRunner.spec(command)
+            .label("subtitle-render")
+            .mediaDuration(totalDuration)
+            .onProgress(progress -> {
+              double totalProgress = Math.min(progress.fraction() * 100.0, 100.0);
+              int    rounded       = (int) Math.round(totalProgress);
+              if (rounded != lastProgress[0] && rounded >= 0 && rounded <= 100) {
+                // Pushed to subscribers; the media row is written at state transitions (and throttled in multi-node mode)
+                jobProgressService.publish(JobProgressService.JOB_SUBTITLE, mediaId, "PROCESSING", rounded);
+                lastProgress[0] = rounded;
+              }
+            }));
+
+    if (!result.isSuccess()) {
       subtitleMedia.setStatus("FAILED");
       subtitleMedia.setProgress(0.0);
       subtitleMediaRepository.save(subtitleMedia);
-      throw new RuntimeException("FFmpeg timed out after 10 minutes for mediaId: " + mediaId);
-    }
-
-    int exitCode = process.exitValue();
-    if (exitCode != 0) {
-      subtitleMedia.setStatus("FAILED");
-      subtitleMedia.setProgress(0.0);
-      subtitleMediaRepository.save(subtitleMedia);
-      throw new RuntimeException("FFmpeg failed (exit " + exitCode + ") for mediaId: " + mediaId);
+      if (result.isTimedOut()) {
+        throw new RuntimeException("FFmpeg timed out after " + result.getElapsedMillis() / 1000 + " seconds for mediaId: " + mediaId);
+      }
+      throw new RuntimeException("FFmpeg failed (exit " + result.getExitCode() + ") for mediaId: " + mediaId);
     }
   }
 
@@ -1377,26 +1474,6 @@ public class SubtitleService {
     userProcessingUsageRepository.save(usage);
   }
 
-  // ══════════════════════════════════════════════════════════════════════════
-  //  QUALITY SETTINGS
-  // ══════════════════════════════════════════════════════════════════════════
-
-  private Map<String, String> getFFmpegQualitySettings(String quality) {
-    Map<String, String> s = new HashMap<>();
-    switch (quality != null ? quality.toLowerCase() : "720p") {
-      case "144p":  s.put("scale","-2:144");  s.put("crf","28"); s.put("preset","veryfast"); break;
-      case "240p":  s.put("scale","-2:240");  s.put("crf","27"); s.put("preset","veryfast"); break;
-      case "360p":  s.put("scale","-2:360");  s.put("crf","26"); s.put("preset","fast");     break;
-      case "480p":  s.put("scale","-2:480");  s.put("crf","25"); s.put("preset","fast");     break;
-      case "1080p": s.put("scale","-2:1080"); s.put("crf","22"); s.put("preset","medium");   break;
-      case "1440p":
-      case "2k":    s.put("scale","-2:1440"); s.put("crf","20"); s.put("preset","slow");     break;
-      case "4k":    s.put("scale","-2:2160"); s.put("crf","18"); s.put("preset","slow");     break;
-      default:      s.put("scale","-2:720");  s.put("crf","23"); s.put("preset","medium");   break;
-    }
-    return s;
-  }
-
   // ══════════════════════════════════════════════════════════════════════════
   //  SMALL UTILITIES
   // ══════════════════════════════════════════════════════════════════════════
@@ -1417,21 +1494,13 @@ public class SubtitleService {
 
   /** Run a process, capture stdout+stderr, throw on non-zero exit. Has a 5-minute timeout. */
   private void runProcess(List<String> command, String label) throws IOException, InterruptedException {
-    ProcessBuilder pb = new ProcessBuilder(command);
-    pb.redirectErrorStream(true);
-    Process process = pb.start();
-    StringBuilder sb = new StringBuilder();
-    try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-      String line;
-      while ((line = reader.readLine()) != null) sb.append(line).append("\n");
-    }
-    boolean completed = process.waitFor(5, TimeUnit.MINUTES);
-    if (!completed) {
-      process.destroyForcibly();
-      throw new IOException(label + " timed out after 5 minutes. Partial output: " + sb);
+    MediaProcessRunner.Result result = mediaProcessRunner.run(MediaProcessRunner.spec(command)
+            .label(label)
+            .timeout(Duration.ofMinutes(5)));
+    if (result.isTimedOut()) {
+      throw new IOException(label + " timed out after 5 minutes. Partial output: " + result.getLogTail());
     }
-    int exit = process.exitValue();
-    if (exit != 0) throw new IOException(label + " failed (exit " + exit + "): " + sb);
+    if (!result.isSuccess()) throw new IOException(label + " failed (exit " + result.getExitCode() + "): " + result.getLogTail());
   }
 
   /** Run a process and return stdout as a String; throws on non-zero exit. */
@@ -1512,9 +1581,9 @@ public class SubtitleService {
       throw new IllegalArgumentException("Not authorized to delete this media");
     }
 
-    // Don't allow deletion if media is being processed
+    // Stop a queued or running render first, so it does not upload and write status for a deleted row
     if ("PROCESSING".equals(subtitleMedia.getStatus()) || "QUEUED".equals(subtitleMedia.getStatus())) {
-      throw new IllegalStateException("Cannot delete media while it is being processed");
+      taskCancellationService.cancel(JobProgressService.JOB_SUBTITLE, mediaId, user.getId());
     }
 
     // Delete files from R2
@@ -1554,7 +1623,7 @@ public class SubtitleService {
       throw new IllegalArgumentException("Subtitle not found: " + subtitleId);
     }
 
-    subtitleMedia.setSubtitlesJson(objectMapper.writeValueAsString(subtitles));
+    setSubtitles(subtitleMedia, subtitles);
     subtitleMediaRepository.save(subtitleMedia);
     return subtitleMedia;
   }
@@ -1567,7 +1636,7 @@ public class SubtitleService {
       throw new IllegalArgumentException("Not authorized");
     }
 
-    subtitleMedia.setSubtitlesJson(objectMapper.writeValueAsString(subtitles));
+    setSubtitles(subtitleMedia, subtitles);
     subtitleMediaRepository.save(subtitleMedia);
     return subtitleMedia;
   }
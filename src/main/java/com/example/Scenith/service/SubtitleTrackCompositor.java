@@ -0,0 +1,247 @@
+package com.example.Scenith.service;
+
+import com.example.Scenith.dto.SubtitleDTO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.ImageIO;
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Renders a whole subtitle track into one RGBA overlay stream, so burning subtitles in takes
+ * one extra ffmpeg input and one overlay filter however many subtitles there are.
+ *
+ * The time window is cut at every subtitle start and end. For each interval the visible
+ * subtitle PNGs are drawn onto one transparent full-frame PNG (intervals without subtitles
+ * share one empty frame), and the frames are listed with their durations in an ffconcat file.
+ * Feed it to ffmpeg with {@link Track#inputArgs()} and overlay it at 0:0.
+ */
+@Component
+public class SubtitleTrackCompositor {
+    private static final Logger logger = LoggerFactory.getLogger(SubtitleTrackCompositor.class);
+
+    /**
+     * Renders one subtitle to a PNG; the compositor deletes the file once it is loaded.
+     */
+    @FunctionalInterface
+    public interface TextRenderer {
+        File render(SubtitleDTO subtitle) throws IOException;
+    }
+
+    public record Track(File concatFile, int frameCount, int subtitleCount) {
+        public List<String> inputArgs() {
+            return List.of("-f", "concat", "-safe", "0", "-i", concatFile.getAbsolutePath());
+        }
+    }
+
+    /**
+     * A subtitle image ready to draw: scaled, rotated and positioned on the frame.
+     */
+    private record Layer(BufferedImage image, int x, int y, float opacity) {
+    }
+
+    private static final class Entry {
+        private final String frame;
+        private double duration;
+
+        private Entry(String frame, double duration) {
+            this.frame = frame;
+            this.duration = duration;
+        }
+    }
+
+    /**
+     * Compose the subtitles visible in [windowStart, windowEnd) into a track whose time 0 is windowStart.
+     *
+     * @param editorTransforms apply the editor's scale, rotation, opacity and alignment to each PNG
+     *                         (as the subtitle editor renders them); otherwise PNGs are centred as is
+     *                         and offset by positionX/positionY
+     * @return the track, or null when no subtitle is visible in the window
+     */
+    public Track compose(List<SubtitleDTO> subtitles, int width, int height, double windowStart, double windowEnd,
+                         boolean editorTransforms, Path workDir, TextRenderer renderer) throws IOException {
+        List<SubtitleDTO> visible = new ArrayList<>();
+        TreeSet<Double> cuts = new TreeSet<>();
+        cuts.add(windowStart);
+        cuts.add(windowEnd);
+        for (SubtitleDTO subtitle : subtitles) {
+            if (subtitle.getText() == null || subtitle.getText().trim().isEmpty()) continue;
+            double start = Math.max(subtitle.getTimelineStartTime(), windowStart);
+            double end = Math.min(subtitle.getTimelineEndTime(), windowEnd);
+            if (end <= start) continue;
+            visible.add(subtitle);
+            cuts.add(start);
+            cuts.add(end);
+        }
+        if (visible.isEmpty()) {
+            return null;
+        }
+        Files.createDirectories(workDir);
+
+        Map<String, Layer> layers = new HashMap<>();
+        List<Entry> entries = new ArrayList<>();
+        String emptyFrame = null;
+        Set<String> previousIds = null;
+        int frameCount = 0;
+
+        Iterator<Double> it = cuts.iterator();
+        double intervalStart = it.next();
+        while (it.hasNext()) {
+            double intervalEnd = it.next();
+            double middle = (intervalStart + intervalEnd) / 2;
+
+            Set<String> activeIds = new LinkedHashSet<>();
+            List<Layer> active = new ArrayList<>();
+            for (SubtitleDTO subtitle : visible) {
+                if (subtitle.getTimelineStartTime() <= middle && subtitle.getTimelineEndTime() > middle) {
+                    Layer layer = layers.get(subtitle.getId());
+                    if (layer == null) {
+                        layer = loadLayer(subtitle, renderer, width, height, editorTransforms);
+                        layers.put(subtitle.getId(), layer);
+                    }
+                    activeIds.add(subtitle.getId());
+                    if (layer.image() != null) active.add(layer);
+                }
+            }
+            // Subtitles that have ended are not needed again
+            layers.keySet().removeIf(id -> !activeIds.contains(id));
+
+            double duration = intervalEnd - intervalStart;
+            if (activeIds.equals(previousIds) && !entries.isEmpty()) {
+                entries.get(entries.size() - 1).duration += duration;
+            } else {
+                String frameName;
+                if (active.isEmpty()) {
+                    if (emptyFrame == null) {
+                        emptyFrame = "empty.png";
+                        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB), "png", workDir.resolve(emptyFrame).toFile());
+                    }
+                    frameName = emptyFrame;
+                } else {
+                    frameName = String.format(Locale.ROOT, "frame_%05d.png", frameCount++);
+                    ImageIO.write(drawFrame(active, width, height), "png", workDir.resolve(frameName).toFile());
+                }
+                entries.add(new Entry(frameName, duration));
+            }
+            previousIds = activeIds;
+            intervalStart = intervalEnd;
+        }
+
+        File concatFile = workDir.resolve("track.ffconcat").toFile();
+        try (PrintWriter writer = new PrintWriter(concatFile, StandardCharsets.UTF_8)) {
+            writer.println("ffconcat version 1.0");
+            for (Entry entry : entries) {
+                writer.println("file '" + entry.frame + "'");
+                writer.println(String.format(Locale.ROOT, "duration %.6f", entry.duration));
+            }
+            // The concat demuxer ignores the duration of the last entry unless the file is repeated
+            writer.println("file '" + entries.get(entries.size() - 1).frame + "'");
+        }
+        logger.debug("Composed {} subtitles into {} frames ({} entries) in {}", visible.size(), frameCount, entries.size(), workDir);
+        return new Track(concatFile, frameCount, visible.size());
+    }
+
+    private BufferedImage drawFrame(List<Layer> layers, int width, int height) {
+        BufferedImage frame = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = frame.createGraphics();
+        try {
+            for (Layer layer : layers) {
+                g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, layer.opacity()));
+                g.drawImage(layer.image(), layer.x(), layer.y(), null);
+            }
+        } finally {
+            g.dispose();
+        }
+        return frame;
+    }
+
+    private Layer loadLayer(SubtitleDTO subtitle, TextRenderer renderer, int width, int height, boolean editorTransforms)
+            throws IOException {
+        File png = renderer.render(subtitle);
+        BufferedImage image;
+        try {
+            image = png != null && png.length() > 0 ? ImageIO.read(png) : null;
+        } finally {
+            if (png != null) Files.deleteIfExists(png.toPath());
+        }
+        if (image == null) {
+            logger.warn("No image rendered for subtitle {}", subtitle.getId());
+            return new Layer(null, 0, 0, 1f);
+        }
+
+        int positionX = subtitle.getPositionX() != null ? subtitle.getPositionX() : 0;
+        int positionY = subtitle.getPositionY() != null ? subtitle.getPositionY() : 0;
+        if (!editorTransforms) {
+            return new Layer(image, (width - image.getWidth()) / 2 + positionX, (height - image.getHeight()) / 2 + positionY, 1f);
+        }
+
+        // PNGs are rendered at 2x (1.5x from 4K) and scaled back down with the subtitle's own scale
+        double resolutionMultiplier = width >= 3840 ? 1.5 : 2.0;
+        double scale = (subtitle.getScale() != null ? subtitle.getScale() : 1.0) / resolutionMultiplier;
+        int scaledWidth = 2 * (int) (image.getWidth() * scale / 2);
+        int scaledHeight = 2 * (int) (image.getHeight() * scale / 2);
+        if (scaledWidth <= 0 || scaledHeight <= 0) {
+            return new Layer(null, 0, 0, 1f);
+        }
+        image = transform(image, scaledWidth, scaledHeight, subtitle.getRotation() != null ? subtitle.getRotation() : 0.0);
+
+        int x;
+        if ("left".equalsIgnoreCase(subtitle.getAlignment())) {
+            x = positionX;
+        } else if ("right".equalsIgnoreCase(subtitle.getAlignment())) {
+            x = width - image.getWidth() - positionX;
+        } else {
+            x = (width - image.getWidth()) / 2 + positionX;
+        }
+        int y = (height - image.getHeight()) / 2 + positionY;
+        float opacity = subtitle.getOpacity() != null ? (float) Math.max(0, Math.min(1, subtitle.getOpacity())) : 1f;
+        return new Layer(image, x, y, opacity);
+    }
+
+    /**
+     * Scale, then rotate about the centre onto a square canvas that fits any angle.
+     */
+    private static BufferedImage transform(BufferedImage source, int scaledWidth, int scaledHeight, double rotationDegrees) {
+        boolean rotate = Math.abs(rotationDegrees) > 0.01;
+        int canvasWidth = scaledWidth;
+        int canvasHeight = scaledHeight;
+        if (rotate) {
+            int side = 2 * (int) (Math.hypot(scaledWidth, scaledHeight) / 2);
+            canvasWidth = side;
+            canvasHeight = side;
+        }
+        BufferedImage result = new BufferedImage(canvasWidth, canvasHeight, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = result.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            if (rotate) {
+                g.rotate(Math.toRadians(rotationDegrees), canvasWidth / 2.0, canvasHeight / 2.0);
+            }
+            g.drawImage(source, (canvasWidth - scaledWidth) / 2, (canvasHeight - scaledHeight) / 2, scaledWidth, scaledHeight, null);
+        } finally {
+            g.dispose();
+        }
+        return result;
+    }
+}
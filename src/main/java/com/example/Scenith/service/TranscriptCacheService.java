@@ -0,0 +1,291 @@
+package com.example.Scenith.service;
+
+import com.example.Scenith.entity.TranscriptCacheEntry;
+import com.example.Scenith.repository.TranscriptCacheRepository;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Whisper transcript cache, so identical media is transcribed once.
+ *
+ * Transcripts are keyed by mode, the Whisper model that produced them and the SHA-256 of the audio handed to Whisper (the
+ * extracted or mixed track, which ffmpeg produces byte-identically for identical input). The
+ * segments are stored as JSON in R2 under {@code transcripts/}, the keys in the transcript_cache
+ * table. Callers that start from an R2 object can also register its ETag as a source key and look
+ * it up before downloading anything.
+ *
+ * Cache failures never fail a transcription; entries not hit for {@code transcription.cache.ttl-days}
+ * are purged nightly. Hits are counted in memory and written every
+ * {@code transcription.cache.hit-flush-ms}, so a cache hit costs no database write.
+ */
+@Service
+public class TranscriptCacheService {
+    private static final Logger logger = LoggerFactory.getLogger(TranscriptCacheService.class);
+    private static final TypeReference<List<Map<String, Object>>> SEGMENTS = new TypeReference<>() {};
+
+    private final TranscriptCacheRepository transcriptCacheRepository;
+    private final CloudflareR2Service cloudflareR2Service;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${transcription.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${transcription.cache.ttl-days:90}")
+    private int ttlDays;
+
+    private final Map<Long, Long> pendingHits = new ConcurrentHashMap<>();
+
+    public TranscriptCacheService(TranscriptCacheRepository transcriptCacheRepository, CloudflareR2Service cloudflareR2Service,
+                                  ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        this.transcriptCacheRepository = transcriptCacheRepository;
+        this.cloudflareR2Service = cloudflareR2Service;
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @FunctionalInterface
+    public interface Transcriber {
+        List<Map<String, Object>> transcribe() throws IOException, InterruptedException;
+    }
+
+    public record Transcript(List<Map<String, Object>> segments, double durationSeconds) {
+    }
+
+    /**
+     * Source key for an R2 object, or null when it cannot be determined.
+     */
+    public String sourceKey(String r2Path) {
+        if (!enabled || r2Path == null) {
+            return null;
+        }
+        try {
+            String eTag = cloudflareR2Service.getObjectETag(r2Path);
+            return eTag == null || eTag.isEmpty() ? null : "etag:" + eTag;
+        } catch (Exception e) {
+            logger.warn("Could not read ETag of {}: {}", r2Path, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Transcript previously stored for a source key.
+     *
+     * @param model Whisper model the caller would transcribe with
+     */
+    public Optional<Transcript> findBySource(String sourceKey, String mode, String model) {
+        if (!enabled || sourceKey == null) {
+            return Optional.empty();
+        }
+        Optional<Transcript> transcript = load(cacheKey(mode, model, sourceKey));
+        record(transcript.isPresent() ? "hit" : "miss", "source");
+        return transcript;
+    }
+
+    /**
+     * Return the cached transcript of the audio file, or run the transcriber and cache its result.
+     *
+     * @param model           Whisper model the transcriber runs; results of other models are not reused
+     * @param sourceKey       optional source key (see {@link #sourceKey}) to register for the result
+     * @param durationSeconds audio duration stored with the entry, 0 when unknown
+     */
+    public List<Map<String, Object>> getOrTranscribe(File audioFile, String mode, String model, String sourceKey,
+                                                     double durationSeconds, Transcriber transcriber) throws IOException, InterruptedException {
+        if (!enabled) {
+            return transcriber.transcribe();
+        }
+
+        String contentKey = null;
+        try {
+            contentKey = cacheKey(mode, model, "sha256:" + sha256(audioFile));
+            Optional<Transcript> cached = load(contentKey);
+            if (cached.isPresent()) {
+                record("hit", "content");
+                logger.info("Transcript cache hit for {} ({} segments)", audioFile.getName(), cached.get().segments().size());
+                if (sourceKey != null) {
+                    alias(contentKey, cacheKey(mode, model, sourceKey));
+                }
+                return cached.get().segments();
+            }
+            record("miss", "content");
+        } catch (IOException e) {
+            logger.warn("Transcript cache lookup failed for {}: {}", audioFile.getName(), e.getMessage());
+        }
+
+        List<Map<String, Object>> segments = transcriber.transcribe();
+        if (contentKey != null && !segments.isEmpty()) {
+            store(contentKey, sourceKey == null ? null : cacheKey(mode, model, sourceKey), mode, model, durationSeconds, segments);
+        }
+        return segments;
+    }
+
+    private static String cacheKey(String mode, String model, String key) {
+        return mode + ":" + model + ":" + key;
+    }
+
+    private Optional<Transcript> load(String cacheKey) {
+        Optional<TranscriptCacheEntry> entry = transcriptCacheRepository.findByCacheKey(cacheKey);
+        if (entry.isEmpty()) {
+            return Optional.empty();
+        }
+        TranscriptCacheEntry cached = entry.get();
+        try {
+            List<Map<String, Object>> segments = objectMapper.readValue(cloudflareR2Service.downloadBytes(cached.getR2Path()), SEGMENTS);
+            pendingHits.merge(cached.getId(), 1L, Long::sum);
+            return Optional.of(new Transcript(segments, cached.getDurationSeconds() != null ? cached.getDurationSeconds() : 0));
+        } catch (IOException e) {
+            // Payload gone or unreadable: drop the key so the next run re-populates it
+            logger.warn("Dropping transcript cache entry {}: {}", cacheKey, e.getMessage());
+            transcriptCacheRepository.delete(cached);
+            return Optional.empty();
+        }
+    }
+
+    private void store(String contentKey, String sourceKey, String mode, String model, double durationSeconds,
+                       List<Map<String, Object>> segments) {
+        String hash = contentKey.substring(contentKey.lastIndexOf(':') + 1);
+        String r2Path = "transcripts/" + mode + "/" + model + "/" + hash + ".json";
+        try {
+            cloudflareR2Service.uploadBytes(r2Path, objectMapper.writeValueAsBytes(segments), "application/json");
+            saveEntry(contentKey, r2Path, durationSeconds, segments.size());
+            if (sourceKey != null) {
+                saveEntry(sourceKey, r2Path, durationSeconds, segments.size());
+            }
+            logger.info("Cached transcript {} ({} segments)", r2Path, segments.size());
+        } catch (Exception e) {
+            logger.warn("Failed to cache transcript {}: {}", r2Path, e.getMessage());
+        }
+    }
+
+    private void alias(String contentKey, String sourceKey) {
+        try {
+            if (transcriptCacheRepository.findByCacheKey(sourceKey).isPresent()) {
+                return;
+            }
+            transcriptCacheRepository.findByCacheKey(contentKey).ifPresent(entry ->
+                    saveEntry(sourceKey, entry.getR2Path(), entry.getDurationSeconds() != null ? entry.getDurationSeconds() : 0,
+                            entry.getSegmentCount() != null ? entry.getSegmentCount() : 0));
+        } catch (Exception e) {
+            logger.warn("Failed to register transcript source key {}: {}", sourceKey, e.getMessage());
+        }
+    }
+
+    private void saveEntry(String cacheKey, String r2Path, double durationSeconds, int segmentCount) {
+        TranscriptCacheEntry entry = transcriptCacheRepository.findByCacheKey(cacheKey).orElseGet(TranscriptCacheEntry::new);
+        LocalDateTime now = LocalDateTime.now();
+        entry.setCacheKey(cacheKey);
+        entry.setR2Path(r2Path);
+        entry.setDurationSeconds(durationSeconds > 0 ? durationSeconds : null);
+        entry.setSegmentCount(segmentCount);
+        if (entry.getCreatedAt() == null) {
+            entry.setCreatedAt(now);
+        }
+        entry.setLastHitAt(now);
+        try {
+            transcriptCacheRepository.save(entry);
+        } catch (DataIntegrityViolationException e) {
+            // Same media transcribed concurrently elsewhere; its entry is as good as ours
+            logger.debug("Transcript cache key {} already stored", cacheKey);
+        }
+    }
+
+    private static String sha256(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] buffer = new byte[1 << 16];
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private void record(String result, String keyType) {
+        meterRegistry.counter("scenith.transcript.cache", "result", result, "key", keyType).increment();
+    }
+
+    /**
+     * Write the hits counted since the last flush.
+     */
+    @Scheduled(fixedDelayString = "${transcription.cache.hit-flush-ms:60000}")
+    @PreDestroy
+    public void flushHits() {
+        LocalDateTime now = LocalDateTime.now();
+        for (Long id : pendingHits.keySet()) {
+            Long hits = pendingHits.remove(id);
+            if (hits == null) {
+                continue;
+            }
+            try {
+                transcriptCacheRepository.addHits(id, hits, now);
+            } catch (Exception e) {
+                logger.warn("Failed to record {} hits on transcript cache entry {}: {}", hits, id, e.getMessage());
+            }
+        }
+    }
+
+    @Scheduled(cron = "0 15 4 * * *")
+    public void purgeStaleEntries() {
+        // Entries hit since the last flush are not stale
+        flushHits();
+        LocalDateTime threshold = LocalDateTime.now().minusDays(ttlDays);
+        int purged = 0;
+        List<TranscriptCacheEntry> stale;
+        do {
+            stale = transcriptCacheRepository.findTop500ByLastHitAtBefore(threshold);
+            if (!stale.isEmpty()) {
+                purgeBatch(stale, threshold);
+                purged += stale.size();
+            }
+        } while (stale.size() == 500);
+        if (purged > 0) {
+            logger.info("Purged {} transcript cache entries", purged);
+        }
+    }
+
+    private void purgeBatch(List<TranscriptCacheEntry> stale, LocalDateTime threshold) {
+        Set<String> paths = new HashSet<>();
+        stale.forEach(entry -> paths.add(entry.getR2Path()));
+        transcriptCacheRepository.deleteAll(stale);
+        for (String path : paths) {
+            // Another key for the same payload may still be in use
+            if (transcriptCacheRepository.countByR2PathAndLastHitAtGreaterThanEqual(path, threshold) > 0) {
+                continue;
+            }
+            try {
+                cloudflareR2Service.deleteFile(path);
+            } catch (IOException e) {
+                logger.warn("Failed to delete cached transcript {}: {}", path, e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package com.example.Scenith.service;
+
+import com.example.Scenith.entity.CompressedMedia;
+import com.example.Scenith.entity.DocumentUpload;
+import com.example.Scenith.entity.Project;
+import com.example.Scenith.entity.SubtitleMedia;
+import com.example.Scenith.entity.UploadSession;
+import com.example.Scenith.entity.User;
+import com.example.Scenith.repository.ProjectRepository;
+import com.example.Scenith.repository.UploadSessionRepository;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Direct browser-to-R2 uploads.
+ *
+ * The client opens a session, PUTs each part to a presigned URL, then calls complete with the
+ * part ETags. Only the complete call touches this node: the multipart upload is finished in R2
+ * and the object is registered in the entity the session targets, so media bytes never pass
+ * through the API tier.
+ */
+@Service
+@Profile("!test")
+public class UploadSessionService {
+    private static final Logger logger = LoggerFactory.getLogger(UploadSessionService.class);
+
+    public static final String TARGET_PROJECT_VIDEO = "PROJECT_VIDEO";
+    public static final String TARGET_PROJECT_AUDIO = "PROJECT_AUDIO";
+    public static final String TARGET_PROJECT_IMAGE = "PROJECT_IMAGE";
+    public static final String TARGET_SUBTITLE_MEDIA = "SUBTITLE_MEDIA";
+    public static final String TARGET_COMPRESSION_MEDIA = "COMPRESSION_MEDIA";
+    public static final String TARGET_DOCUMENT = "DOCUMENT";
+
+    private static final Set<String> PROJECT_TARGETS = Set.of(TARGET_PROJECT_VIDEO, TARGET_PROJECT_AUDIO, TARGET_PROJECT_IMAGE);
+    private static final Set<String> SUPPORTED_TARGETS = Set.of(
+            TARGET_PROJECT_VIDEO, TARGET_PROJECT_AUDIO, TARGET_PROJECT_IMAGE,
+            TARGET_SUBTITLE_MEDIA, TARGET_COMPRESSION_MEDIA, TARGET_DOCUMENT);
+
+    private static final long MIN_PART_SIZE = 8L * 1024 * 1024; // S3/R2 minimum is 5 MB for all but the last part
+    private static final int MAX_PARTS = 10_000;
+
+    private final UploadSessionRepository uploadSessionRepository;
+    private final ProjectRepository projectRepository;
+    private final CloudflareR2Service cloudflareR2Service;
+    private final VideoEditingService videoEditingService;
+    private final SubtitleService subtitleService;
+    private final CompressionService compressionService;
+    private final DocumentUploadService documentUploadService;
+    private final ObjectMapper objectMapper;
+
+    @Value("${upload.direct.max-file-size-bytes:10737418240}") // 10 GB
+    private long maxFileSizeBytes;
+
+    @Value("${upload.direct.part-url-expiration-seconds:3600}")
+    private long partUrlExpirationSeconds;
+
+    public UploadSessionService(
+            UploadSessionRepository uploadSessionRepository,
+            ProjectRepository projectRepository,
+            CloudflareR2Service cloudflareR2Service,
+            VideoEditingService videoEditingService,
+            SubtitleService subtitleService,
+            CompressionService compressionService,
+            DocumentUploadService documentUploadService,
+            ObjectMapper objectMapper) {
+        this.uploadSessionRepository = uploadSessionRepository;
+        this.projectRepository = projectRepository;
+        this.cloudflareR2Service = cloudflareR2Service;
+        this.videoEditingService = videoEditingService;
+        this.subtitleService = subtitleService;
+        this.compressionService = compressionService;
+        this.documentUploadService = documentUploadService;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Open a multipart upload and presign a PUT URL for every part.
+     *
+     * @return sessionId, r2Path, partSize and the list of {partNumber, url}
+     */
+    public Map<String, Object> initiate(User user, String target, Long targetId, String fileName,
+                                        String contentType, long fileSizeBytes, Map<String, String> options) throws IOException {
+        if (target == null || !SUPPORTED_TARGETS.contains(target)) {
+            throw new IllegalArgumentException("Unsupported upload target: " + target);
+        }
+        if (fileName == null || fileName.isBlank()) {
+            throw new IllegalArgumentException("fileName is required");
+        }
+        if (fileSizeBytes <= 0) {
+            throw new IllegalArgumentException("fileSize must be greater than 0");
+        }
+        if (fileSizeBytes > maxFileSizeBytes) {
+            throw new IllegalArgumentException("File exceeds maximum upload size of " + maxFileSizeBytes + " bytes");
+        }
+        if (PROJECT_TARGETS.contains(target)) {
+            requireOwnedProject(user, targetId);
+        }
+        if (TARGET_COMPRESSION_MEDIA.equals(target)) {
+            // Fail fast instead of after the whole file has been uploaded
+            compressionService.parseCompressionPercentage(options != null ? options.get("targetSize") : null);
+        }
+
+        String storedFileName = buildStoredFileName(target, targetId, fileName);
+        String r2Path = buildR2Path(target, user, targetId, storedFileName);
+
+        long partSize = Math.max(MIN_PART_SIZE, (fileSizeBytes + MAX_PARTS - 1) / MAX_PARTS);
+        int partCount = (int) ((fileSizeBytes + partSize - 1) / partSize);
+
+        String uploadId = cloudflareR2Service.createMultipartUpload(r2Path, contentType);
+
+        UploadSession session = UploadSession.builder()
+                .user(user)
+                .target(target)
+                .targetId(targetId)
+                .uploadId(uploadId)
+                .r2Path(r2Path)
+                .originalFileName(fileName)
+                .storedFileName(storedFileName)
+                .contentType(contentType)
+                .fileSizeBytes(fileSizeBytes)
+                .partSizeBytes(partSize)
+                .partCount(partCount)
+                .optionsJson(options != null && !options.isEmpty() ? objectMapper.writeValueAsString(options) : null)
+                .status("INITIATED")
+                .build();
+        session = uploadSessionRepository.save(session);
+
+        List<Map<String, Object>> parts = new ArrayList<>(partCount);
+        for (int partNumber = 1; partNumber <= partCount; partNumber++) {
+            Map<String, Object> part = new HashMap<>();
+            part.put("partNumber", partNumber);
+            long partLength = Math.min(partSize, fileSizeBytes - (partNumber - 1) * partSize);
+            part.put("url", cloudflareR2Service.presignUploadPart(r2Path, uploadId, partNumber, partLength, partUrlExpirationSeconds));
+            parts.add(part);
+        }
+
+        logger.info("Opened upload session {} for user {}: target={}, r2Path={}, size={}, parts={}",
+                session.getId(), user.getId(), target, r2Path, fileSizeBytes, partCount);
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("sessionId", session.getId());
+        response.put("r2Path", r2Path);
+        response.put("partSize", partSize);
+        response.put("partCount", partCount);
+        response.put("expiresInSeconds", partUrlExpirationSeconds);
+        response.put("parts", parts);
+        return response;
+    }
+
+    /**
+     * Finish the multipart upload in R2 and register the object in the session's target entity.
+     *
+     * @param partETags part number to the ETag header R2 returned for that part's PUT
+     * @return the registered entity (Project, SubtitleMedia, CompressedMedia or DocumentUpload)
+     */
+    public Object complete(User user, Long sessionId, Map<Integer, String> partETags) throws IOException, InterruptedException {
+        UploadSession session = requireOwnedSession(user, sessionId);
+        if (partETags == null || partETags.size() != session.getPartCount()) {
+            throw new IllegalArgumentException("Expected " + session.getPartCount() + " part ETags, got "
+                    + (partETags == null ? 0 : partETags.size()));
+        }
+        // Claim the session so a second complete (double click, retry) cannot register it twice
+        if (uploadSessionRepository.transitionStatus(sessionId, "INITIATED", "COMPLETING") == 0) {
+            throw new IllegalStateException("Upload session is already " + currentStatus(sessionId));
+        }
+        session.setStatus("COMPLETING");
+
+        Object registered;
+        long actualSize;
+        boolean assembled = false;
+        try {
+            String eTag = cloudflareR2Service.completeMultipartUpload(session.getR2Path(), session.getUploadId(), partETags);
+            assembled = true;
+            actualSize = cloudflareR2Service.getObjectSize(session.getR2Path());
+            // Same cap as initiate: upload.direct.max-file-size-bytes
+            if (actualSize > session.getFileSizeBytes() || actualSize > maxFileSizeBytes) {
+                throw new IllegalArgumentException("Uploaded object is " + actualSize + " bytes, more than the declared "
+                        + session.getFileSizeBytes() + " bytes or the direct upload limit of " + maxFileSizeBytes + " bytes");
+            }
+            registered = register(user, session, eTag, actualSize);
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            if (assembled) {
+                // Nothing references the assembled object unless registration succeeded
+                deleteQuietly(session.getR2Path());
+            }
+            session.setStatus("FAILED");
+            uploadSessionRepository.save(session);
+            throw e;
+        }
+
+        session.setStatus("COMPLETED");
+        session.setFileSizeBytes(actualSize);
+        session.setCompletedAt(LocalDateTime.now());
+        session.setRegisteredEntityId(registeredEntityId(registered, session));
+        uploadSessionRepository.save(session);
+
+        logger.info("Completed upload session {} for user {}: target={}, r2Path={}",
+                sessionId, user.getId(), session.getTarget(), session.getR2Path());
+        return registered;
+    }
+
+    public void abort(User user, Long sessionId) {
+        UploadSession session = requireOwnedSession(user, sessionId);
+        if (uploadSessionRepository.transitionStatus(sessionId, "INITIATED", "ABORTED") == 0) {
+            throw new IllegalStateException("Upload session is already " + currentStatus(sessionId));
+        }
+        cloudflareR2Service.abortMultipartUpload(session.getR2Path(), session.getUploadId());
+    }
+
+    /**
+     * Abort multipart uploads the client never completed so R2 does not keep the orphaned parts.
+     */
+    @Scheduled(fixedRate = 3600000) // Every hour
+    public void abortStaleSessions() {
+        List<UploadSession> stale = uploadSessionRepository.findByStatusAndCreatedAtBefore(
+                "INITIATED", LocalDateTime.now().minusHours(24));
+        for (UploadSession session : stale) {
+            if (uploadSessionRepository.transitionStatus(session.getId(), "INITIATED", "ABORTED") > 0) {
+                cloudflareR2Service.abortMultipartUpload(session.getR2Path(), session.getUploadId());
+            }
+        }
+        if (!stale.isEmpty()) {
+            logger.info("Aborted {} stale upload sessions", stale.size());
+        }
+    }
+
+    private void deleteQuietly(String r2Path) {
+        try {
+            cloudflareR2Service.deleteFile(r2Path);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Failed to delete orphaned upload {}: {}", r2Path, e.getMessage());
+        }
+    }
+
+    private Object register(User user, UploadSession session, String eTag, long sizeBytes)
+            throws IOException, InterruptedException {
+        switch (session.getTarget()) {
+            case TARGET_PROJECT_VIDEO:
+                return videoEditingService.registerUploadedVideo(user, session.getTargetId(), session.getR2Path(),
+                        session.getStoredFileName(), session.getOriginalFileName(), eTag);
+            case TARGET_PROJECT_AUDIO:
+                return videoEditingService.registerUploadedAudio(user, session.getTargetId(), session.getR2Path(),
+                        session.getStoredFileName(), eTag);
+            case TARGET_PROJECT_IMAGE:
+                return videoEditingService.registerUploadedImage(user, session.getTargetId(), session.getR2Path(),
+                        session.getStoredFileName(), session.getOriginalFileName(), eTag);
+            case TARGET_SUBTITLE_MEDIA:
+                return subtitleService.registerUploadedMedia(user, session.getR2Path(), session.getStoredFileName());
+            case TARGET_COMPRESSION_MEDIA:
+                return compressionService.registerUploadedMedia(user, session.getR2Path(), session.getOriginalFileName(),
+                        sizeBytes, session.getContentType(), getOptions(session).get("targetSize"));
+            case TARGET_DOCUMENT:
+                return documentUploadService.registerUploadedDocument(user, session.getR2Path(),
+                        session.getOriginalFileName(), sizeBytes);
+            default:
+                throw new IllegalArgumentException("Unsupported upload target: " + session.getTarget());
+        }
+    }
+
+    private Long registeredEntityId(Object registered, UploadSession session) {
+        if (registered instanceof Project project) return project.getId();
+        if (registered instanceof SubtitleMedia media) return media.getId();
+        if (registered instanceof CompressedMedia media) return media.getId();
+        if (registered instanceof DocumentUpload upload) return upload.getId();
+        return session.getTargetId();
+    }
+
+    private String buildStoredFileName(String target, Long targetId, String fileName) {
+        String sanitized = fileName.replaceAll("[^a-zA-Z0-9.-]", "_");
+        long timestamp = System.currentTimeMillis();
+        switch (target) {
+            case TARGET_PROJECT_VIDEO:
+                return sanitized.toLowerCase();
+            case TARGET_PROJECT_AUDIO:
+            case TARGET_PROJECT_IMAGE:
+                return targetId + "_" + timestamp + "_" + sanitized;
+            default:
+                return timestamp + "_" + sanitized;
+        }
+    }
+
+    private String buildR2Path(String target, User user, Long targetId, String storedFileName) {
+        switch (target) {
+            case TARGET_PROJECT_VIDEO:
+                return "videos/projects/" + targetId + "/" + storedFileName;
+            case TARGET_PROJECT_AUDIO:
+                return "audio/projects/" + targetId + "/" + storedFileName;
+            case TARGET_PROJECT_IMAGE:
+                return "image/projects/" + targetId + "/" + storedFileName;
+            case TARGET_SUBTITLE_MEDIA:
+                return "subtitles/" + user.getId() + "/original/" + storedFileName;
+            case TARGET_COMPRESSION_MEDIA:
+                return "Compression/uploaded/" + user.getId() + "/" + storedFileName;
+            case TARGET_DOCUMENT:
+                return "documents/" + user.getId() + "/uploads/" + storedFileName;
+            default:
+                throw new IllegalArgumentException("Unsupported upload target: " + target);
+        }
+    }
+
+    private void requireOwnedProject(User user, Long projectId) {
+        if (projectId == null) {
+            throw new IllegalArgumentException("targetId (projectId) is required for project uploads");
+        }
+        Project project = projectRepository.findById(projectId)
+                .orElseThrow(() -> new IllegalArgumentException("Project not found with ID: " + projectId));
+        if (!project.getUser().getId().equals(user.getId())) {
+            throw new SecurityException("Unauthorized to modify this project");
+        }
+    }
+
+    private UploadSession requireOwnedSession(User user, Long sessionId) {
+        UploadSession session = uploadSessionRepository.findById(sessionId)
+                .orElseThrow(() -> new IllegalArgumentException("Upload session not found: " + sessionId));
+        if (!session.getUser().getId().equals(user.getId())) {
+            throw new SecurityException("Unauthorized to access this upload session");
+        }
+        return session;
+    }
+
+    private String currentStatus(Long sessionId) {
+        return uploadSessionRepository.findById(sessionId).map(UploadSession::getStatus).orElse("gone");
+    }
+
+    private Map<String, String> getOptions(UploadSession session) throws IOException {
+        if (session.getOptionsJson() == null) {
+            return Collections.emptyMap();
+        }
+        return objectMapper.readValue(session.getOptionsJson(), new TypeReference<Map<String, String>>() {});
+    }
+}
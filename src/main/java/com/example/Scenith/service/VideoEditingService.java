@@ -10,6 +10,7 @@ import com.example.Scenith.entity.UserTtsUsage;
 import com.example.Scenith.exception.SessionNotFoundException;
 import com.example.Scenith.repository.ProjectRepository;
 import com.example.Scenith.repository.UserTtsUsageRepository;
+import com.example.Scenith.sqs.FairTaskScheduler;
 import com.example.Scenith.sqs.SqsService;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
@@ -47,7 +48,6 @@ import java.time.LocalDateTime;
 import java.time.YearMonth;
 import java.util.*;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -61,6 +61,14 @@ public class VideoEditingService {
     private final CloudflareR2Service cloudflareR2Service;
     private final SqsService sqsService;
     private final UserTtsUsageRepository userTtsUsageRepository;
+    private final CdnWarmupService cdnWarmupService;
+    private final JobProgressService jobProgressService;
+    private final MediaProcessRunner mediaProcessRunner;
+    private final ChunkedTranscriptionService chunkedTranscriptionService;
+    private final TranscriptCacheService transcriptCacheService;
+    private final ProxyMediaService proxyMediaService;
+    private final WaveformExtractor waveformExtractor;
+    private final WaveformService waveformService;
 
     private static final Logger logger = LoggerFactory.getLogger(VideoEditingService.class);
 
@@ -91,7 +99,11 @@ public class VideoEditingService {
             ObjectMapper objectMapper,
             GlobalElementRepository globalElementRepository,
             CloudflareR2Service cloudflareR2Service, SqsService sqsService, // Updated to CloudflareR2Service
-            UserTtsUsageRepository userTtsUsageRepository, ProcessingEmailHelper emailHelper
+            UserTtsUsageRepository userTtsUsageRepository, ProcessingEmailHelper emailHelper,
+            CdnWarmupService cdnWarmupService, JobProgressService jobProgressService,
+            MediaProcessRunner mediaProcessRunner, ChunkedTranscriptionService chunkedTranscriptionService,
+            TranscriptCacheService transcriptCacheService, ProxyMediaService proxyMediaService,
+            WaveformExtractor waveformExtractor, WaveformService waveformService
     ) {
         this.projectRepository = projectRepository;
         this.objectMapper = objectMapper;
@@ -99,6 +111,14 @@ public class VideoEditingService {
         this.cloudflareR2Service = cloudflareR2Service; // Updated
         this.sqsService = sqsService;
         this.userTtsUsageRepository = userTtsUsageRepository;
+        this.cdnWarmupService = cdnWarmupService;
+        this.jobProgressService = jobProgressService;
+        this.mediaProcessRunner = mediaProcessRunner;
+        this.chunkedTranscriptionService = chunkedTranscriptionService;
+        this.transcriptCacheService = transcriptCacheService;
+        this.proxyMediaService = proxyMediaService;
+        this.waveformExtractor = waveformExtractor;
+        this.waveformService = waveformService;
     }
     @Data
     private static class Subtitle {
@@ -308,57 +328,9 @@ public class VideoEditingService {
             String r2Path = "videos/projects/" + projectId + "/" + uniqueFileName;
             logger.info("Uploading video to R2: r2Path={}, projectId={}", r2Path, projectId);
 
-            String uploadedPath = cloudflareR2Service.uploadFile(videoFile, r2Path);
-
-            // Wait for file to be available in R2
-            int maxRetries = 15; // Increase retries for robustness
-            int attempt = 0;
-            boolean fileExists = false;
-            boolean cdnAvailable = false;
-            String cdnUrl = null;
-
-            while (attempt < maxRetries) {
-                // Check if file exists in R2
-                if (cloudflareR2Service.fileExists(r2Path)) {
-                    fileExists = true;
-                    // Generate URLs and check CDN availability
-                    Map<String, String> urls = cloudflareR2Service.generateUrls(r2Path, 3600);
-                    cdnUrl = urls.get("cdnUrl");
-                    if (cloudflareR2Service.isCdnUrlAvailable(cdnUrl)) {
-                        cdnAvailable = true;
-                        break;
-                    }
-                }
-                attempt++;
-                logger.warn("Video not found or CDN not available on attempt {}/{}: r2Path={}, cdnUrl={}, projectId={}", attempt, maxRetries, r2Path, cdnUrl, projectId);
-                try {
-                    Thread.sleep(1000 * (long) Math.pow(2, attempt)); // Exponential backoff
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    throw new IOException("Interrupted while waiting for R2 file: " + r2Path, e);
-                }
-            }
-
-            if (!fileExists) {
-                logger.error("Uploaded video not found in R2 after {} retries: r2Path={}, projectId={}", maxRetries, r2Path, projectId);
-                throw new IOException("Failed to verify uploaded video in R2: " + r2Path);
-            }
-            if (!cdnAvailable) {
-                logger.error("CDN URL not available after {} retries: r2Path={}, cdnUrl={}, projectId={}", maxRetries, r2Path, cdnUrl, projectId);
-                throw new IOException("Failed to verify CDN availability for video: " + r2Path);
-            }
-
-            Map<String, String> videoData = new HashMap<>();
-            videoData.put("videoPath", r2Path);
-            videoData.put("videoFileName", uniqueFileName);
-            videoData.put("originalFileName", originalFileName);
-
-            // Include URLs in metadata
-            Map<String, String> urls = cloudflareR2Service.generateUrls(r2Path, 3600);
-            videoData.put("cdnUrl", urls.get("cdnUrl"));
-            videoData.put("presignedUrl", urls.get("presignedUrl"));
-
-            videoList.add(videoData);
+            // The put/complete-multipart response is the write confirmation; no HEAD/CDN polling needed
+            String eTag = cloudflareR2Service.uploadFileConfirmed(videoFile, r2Path);
+            videoList.add(buildUploadedVideoMetadata(projectId, r2Path, uniqueFileName, originalFileName, eTag));
         }
 
         String videosJsonStr = objectMapper.writeValueAsString(videoList);
@@ -369,6 +341,47 @@ public class VideoEditingService {
         logger.info("Saved videosJson for projectId={}: {}", projectId, videosJsonStr);
         return savedProject;
     }
+
+    /**
+     * Registers a video that the browser uploaded straight to R2 through an upload session.
+     */
+    public Project registerUploadedVideo(User user, Long projectId, String r2Path, String videoFileName,
+                                         String originalFileName, String eTag) throws IOException {
+        Project project = projectRepository.findById(projectId)
+                .orElseThrow(() -> new RuntimeException("Project not found with ID: " + projectId));
+
+        if (!project.getUser().getId().equals(user.getId())) {
+            throw new RuntimeException("Unauthorized to modify this project");
+        }
+
+        List<Map<String, String>> videoList = getVideos(project);
+        videoList.add(buildUploadedVideoMetadata(projectId, r2Path, videoFileName, originalFileName, eTag));
+
+        project.setVideosJson(objectMapper.writeValueAsString(videoList));
+        project.setLastModified(LocalDateTime.now());
+        logger.info("Registered direct-uploaded video for projectId={}: r2Path={}", projectId, r2Path);
+        return projectRepository.saveAndFlush(project);
+    }
+
+    private Map<String, String> buildUploadedVideoMetadata(Long projectId, String r2Path, String videoFileName,
+                                                           String originalFileName, String eTag) {
+        Map<String, String> videoData = new HashMap<>();
+        videoData.put("videoPath", r2Path);
+        videoData.put("videoFileName", videoFileName);
+        videoData.put("originalFileName", originalFileName);
+        videoData.put("eTag", eTag);
+
+        // Include URLs in metadata
+        Map<String, String> urls = cloudflareR2Service.generateUrlsForUploadedObject(r2Path, 3600);
+        videoData.put("cdnUrl", urls.get("cdnUrl"));
+        videoData.put("presignedUrl", urls.get("presignedUrl"));
+
+        // Warm the CDN edge in the background; clients are notified over the asset-events stream
+        cdnWarmupService.scheduleWarmup(projectId, r2Path, urls.get("cdnUrl"));
+        // Proxy, sprite sheet and poster for the editor, also announced on the asset-events stream
+        proxyMediaService.scheduleGeneration(projectId, r2Path);
+        return videoData;
+    }
     public void addVideoToTimeline(
             String sessionId,
             String videoPath,
@@ -863,12 +876,8 @@ public class VideoEditingService {
             // Upload audio and generate waveform
             if (audioFile.exists() && audioFile.length() > 0) {
                 logger.info("Uploading audio file to R2: {} -> {} for projectId={}", audioFile.getAbsolutePath(), audioR2Path, projectId);
-                cloudflareR2Service.uploadFile(audioFile, audioR2Path);
-
-                // Verify upload was successful
-                if (!cloudflareR2Service.waitForFileAvailability(audioR2Path, 10, 1000)) {
-                    throw new IOException("Failed to upload audio file to R2: " + audioR2Path);
-                }
+                // uploadFileConfirmed throws unless R2 acknowledged the write with an ETag
+                cloudflareR2Service.uploadFileConfirmed(audioR2Path, audioFile);
 
                 Files.deleteIfExists(audioFile.toPath());
                 waveformJsonPath = generateAndSaveWaveformJson(audioR2Path, projectId);
@@ -2253,66 +2262,57 @@ public class VideoEditingService {
         // Get audio duration using FFmpeg
         double audioDuration = getAudioDuration(audioFile);
 
-        List<String> command = new ArrayList<>();
-        command.add(pythonPath);
-        command.add(scriptFile.getAbsolutePath());
-        command.add(audioFile.getAbsolutePath());
+        // The mixed track is byte-identical for an unchanged segment, so re-running is a cache hit
+        List<Map<String, Object>> segments = transcriptCacheService.getOrTranscribe(audioFile, WhisperWorkerPool.MODE_SUBTITLES,
+                chunkedTranscriptionService.model(), null, audioDuration, () -> runWhisper(audioFile, scriptFile));
 
-        System.out.println("Executing command: " + String.join(" ", command));
+        for (Map<String, Object> segment : segments) {
+            double startTime = ((Number) segment.get("start")).doubleValue();
+            double endTime = ((Number) segment.get("end")).doubleValue();
+            String text = (String) segment.get("text");
 
-        ProcessBuilder pb = new ProcessBuilder(command);
-        Process process = pb.start();
+            // Constrain timings to audio duration
+            startTime = Math.max(0, startTime);
+            endTime = Math.min(audioDuration, endTime);
 
-        StringBuilder output = new StringBuilder();
-        StringBuilder errorOutput = new StringBuilder();
-        try (BufferedReader stdoutReader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-             BufferedReader stderrReader = new BufferedReader(new InputStreamReader(process.getErrorStream()))) {
-            String line;
-            while ((line = stdoutReader.readLine()) != null) {
-                output.append(line);
-                System.out.println("stdout: " + line);
-            }
-            while ((line = stderrReader.readLine()) != null) {
-                errorOutput.append(line).append("\n");
-                System.out.println("stderr: " + line);
+            if (endTime > startTime && text != null && !text.trim().isEmpty()) {
+                Subtitle subtitle = new Subtitle();
+                subtitle.setStartTime(startTime);
+                subtitle.setEndTime(endTime);
+                subtitle.setText(text.trim());
+                subtitles.add(subtitle);
             }
         }
 
-        int exitCode = process.waitFor();
-        if (exitCode != 0) {
-            throw new IOException("Whisper transcription failed with exit code: " + exitCode + ", error: " + errorOutput.toString());
+        return subtitles;
+    }
+
+    private List<Map<String, Object>> runWhisper(File audioFile, File scriptFile) throws IOException, InterruptedException {
+        if (chunkedTranscriptionService.isEnabled()) {
+            return chunkedTranscriptionService.transcribe(audioFile, WhisperWorkerPool.MODE_SUBTITLES);
         }
 
+        List<String> command = new ArrayList<>();
+        command.add(pythonPath);
+        command.add(scriptFile.getAbsolutePath());
+        command.add(audioFile.getAbsolutePath());
+
+        StringBuilder output = new StringBuilder();
+        MediaProcessRunner.Result result = mediaProcessRunner.run(MediaProcessRunner.spec(command)
+                .label("whisper")
+                .separateStderr()
+                .onLine(output::append));
+        if (!result.isSuccess()) {
+            throw new IOException("Whisper transcription failed with exit code: " + result.getExitCode() + ", error: " + result.getLogTail());
+        }
+        if (output.length() == 0) {
+            throw new IOException("No output from Whisper script, stderr: " + result.getLogTail());
+        }
         try {
-            if (output.length() == 0) {
-                throw new IOException("No output from Whisper script, stderr: " + errorOutput.toString());
-            }
-            List<Map<String, Object>> segments = objectMapper.readValue(
-                    output.toString(),
-                    new TypeReference<List<Map<String, Object>>>() {}
-            );
-            for (Map<String, Object> segment : segments) {
-                double startTime = ((Number) segment.get("start")).doubleValue();
-                double endTime = ((Number) segment.get("end")).doubleValue();
-                String text = (String) segment.get("text");
-
-                // Constrain timings to audio duration
-                startTime = Math.max(0, startTime);
-                endTime = Math.min(audioDuration, endTime);
-
-                if (endTime > startTime && text != null && !text.trim().isEmpty()) {
-                    Subtitle subtitle = new Subtitle();
-                    subtitle.setStartTime(startTime);
-                    subtitle.setEndTime(endTime);
-                    subtitle.setText(text.trim());
-                    subtitles.add(subtitle);
-                }
-            }
+            return objectMapper.readValue(output.toString(), new TypeReference<List<Map<String, Object>>>() {});
         } catch (JsonProcessingException e) {
-            throw new IOException("Failed to parse Whisper output: " + e.getMessage() + ", output: " + output.toString());
+            throw new IOException("Failed to parse Whisper output: " + e.getMessage() + ", output: " + output);
         }
-
-        return subtitles;
     }
 
     // Helper method to get audio duration using FFmpeg
@@ -2388,25 +2388,54 @@ public class VideoEditingService {
             logger.info("Uploading audio to R2: {}", r2Path);
 
             // Upload to Cloudflare R2
-            String uploadedPath = cloudflareR2Service.uploadFile(audioFile, r2Path);
+            String eTag = cloudflareR2Service.uploadFileConfirmed(audioFile, r2Path);
+            audioList.add(buildUploadedAudioMetadata(projectId, r2Path, uniqueFileName, eTag));
+        }
 
-            // Generate waveform JSON
-            String waveformJsonPath = generateAndSaveWaveformJson(r2Path, projectId);
+        project.setAudioJson(objectMapper.writeValueAsString(audioList));
+        project.setLastModified(LocalDateTime.now());
+        return projectRepository.save(project);
+    }
 
-            // Store metadata
-            Map<String, String> audioData = new HashMap<>();
-            audioData.put("audioPath", r2Path);
-            audioData.put("audioFileName", uniqueFileName);
-            audioData.put("waveformJsonPath", waveformJsonPath);
-            audioData.put("cdnUrl", cloudflareR2Service.generateDownloadUrl(r2Path, 3600));
-            audioList.add(audioData);
+    /**
+     * Registers an audio file that the browser uploaded straight to R2 through an upload session.
+     */
+    public Project registerUploadedAudio(User user, Long projectId, String r2Path, String audioFileName, String eTag)
+            throws IOException, InterruptedException {
+        Project project = projectRepository.findById(projectId)
+                .orElseThrow(() -> new RuntimeException("Project not found with ID: " + projectId));
+
+        if (!project.getUser().getId().equals(user.getId())) {
+            throw new RuntimeException("Unauthorized to modify this project");
         }
 
+        List<Map<String, String>> audioList = getAudio(project);
+        audioList.add(buildUploadedAudioMetadata(projectId, r2Path, audioFileName, eTag));
+
         project.setAudioJson(objectMapper.writeValueAsString(audioList));
         project.setLastModified(LocalDateTime.now());
+        logger.info("Registered direct-uploaded audio for projectId={}: r2Path={}", projectId, r2Path);
         return projectRepository.save(project);
     }
 
+    private Map<String, String> buildUploadedAudioMetadata(Long projectId, String r2Path, String audioFileName, String eTag)
+            throws IOException, InterruptedException {
+        // Generate waveform JSON
+        String waveformJsonPath = generateAndSaveWaveformJson(r2Path, projectId);
+
+        // Store metadata
+        String cdnUrl = cloudflareR2Service.getCdnUrl(r2Path);
+        Map<String, String> audioData = new HashMap<>();
+        audioData.put("audioPath", r2Path);
+        audioData.put("audioFileName", audioFileName);
+        audioData.put("waveformJsonPath", waveformJsonPath);
+        audioData.put("cdnUrl", cdnUrl);
+        audioData.put("eTag", eTag);
+
+        cdnWarmupService.scheduleWarmup(projectId, r2Path, cdnUrl);
+        return audioData;
+    }
+
     public void addAudioToTimelineFromProject(
             User user, String sessionId, Long projectId, int layer, double startTime, Double endTime,
             double timelineStartTime, Double timelineEndTime, String audioFileName
@@ -2958,31 +2987,53 @@ public class VideoEditingService {
             String r2Path = "image/projects/" + projectId + "/" + uniqueFileName;
             logger.info("Uploading image to R2: r2Path={}, projectId={}", r2Path, projectId);
 
-            String uploadedPath = cloudflareR2Service.uploadFile(imageFile, r2Path);
-
-            if (!cloudflareR2Service.fileExists(r2Path)) {
-                logger.error("Uploaded image not found in R2: r2Path={}, projectId={}", r2Path, projectId);
-                throw new IOException("Failed to verify uploaded image in R2: " + r2Path);
-            }
+            String eTag = cloudflareR2Service.uploadFileConfirmed(imageFile, r2Path);
+            imageList.add(buildUploadedImageMetadata(projectId, r2Path, uniqueFileName, originalFileName, eTag));
+        }
 
-            Map<String, String> imageData = new HashMap<>();
-            imageData.put("imagePath", r2Path);
-            imageData.put("imageFileName", uniqueFileName);
-            imageData.put("originalFileName", originalFileName);
+        project.setImagesJson(objectMapper.writeValueAsString(imageList));
+        project.setLastModified(LocalDateTime.now());
+        return projectRepository.save(project);
+    }
 
-            // Generate both CDN and presigned URLs
-            Map<String, String> urls = cloudflareR2Service.generateUrls(r2Path, 3600);
-            imageData.put("cdnUrl", urls.get("cdnUrl"));
-            imageData.put("presignedUrl", urls.get("presignedUrl"));
+    /**
+     * Registers an image that the browser uploaded straight to R2 through an upload session.
+     */
+    public Project registerUploadedImage(User user, Long projectId, String r2Path, String imageFileName,
+                                         String originalFileName, String eTag) throws IOException {
+        Project project = projectRepository.findById(projectId)
+                .orElseThrow(() -> new RuntimeException("Project not found with ID: " + projectId));
 
-            imageList.add(imageData);
+        if (!project.getUser().getId().equals(user.getId())) {
+            throw new RuntimeException("Unauthorized to modify this project");
         }
 
+        List<Map<String, String>> imageList = getImages(project);
+        imageList.add(buildUploadedImageMetadata(projectId, r2Path, imageFileName, originalFileName, eTag));
+
         project.setImagesJson(objectMapper.writeValueAsString(imageList));
         project.setLastModified(LocalDateTime.now());
+        logger.info("Registered direct-uploaded image for projectId={}: r2Path={}", projectId, r2Path);
         return projectRepository.save(project);
     }
 
+    private Map<String, String> buildUploadedImageMetadata(Long projectId, String r2Path, String imageFileName,
+                                                           String originalFileName, String eTag) {
+        Map<String, String> imageData = new HashMap<>();
+        imageData.put("imagePath", r2Path);
+        imageData.put("imageFileName", imageFileName);
+        imageData.put("originalFileName", originalFileName);
+        imageData.put("eTag", eTag);
+
+        // Generate both CDN and presigned URLs
+        Map<String, String> urls = cloudflareR2Service.generateUrlsForUploadedObject(r2Path, 3600);
+        imageData.put("cdnUrl", urls.get("cdnUrl"));
+        imageData.put("presignedUrl", urls.get("presignedUrl"));
+
+        cdnWarmupService.scheduleWarmup(projectId, r2Path, urls.get("cdnUrl"));
+        return imageData;
+    }
+
     public void addImageToTimelineFromProject(
             User user,
             String sessionId,
@@ -3994,144 +4045,46 @@ public class VideoEditingService {
     }
 
     private String generateAndSaveWaveformJson(String audioPath, Long projectId) throws IOException, InterruptedException {
-        String tempAudioPath = baseDir + "/temp/waveform_" + System.currentTimeMillis() + ".mp3";
-        File audioFile = cloudflareR2Service.downloadFile(audioPath, tempAudioPath);
-        if (!audioFile.exists()) {
-            throw new IOException("Audio file not found: " + audioFile.getAbsolutePath());
-        }
-
-        // Generate PCM data
-        File tempPcmFile = new File(baseDir, "temp/waveform_" + projectId + "_" + System.currentTimeMillis() + ".pcm");
-        File tempDir = new File(baseDir, "temp");
-        if (!tempDir.exists()) {
-            tempDir.mkdirs();
-        }
-
-        List<String> command = new ArrayList<>();
-        command.add(ffmpegPath);
-        command.add("-i");
-        command.add(audioFile.getAbsolutePath());
-        command.add("-f");
-        command.add("s16le");
-        command.add("-ac");
-        command.add("1");
-        command.add("-ar");
-        command.add("44100");
-        command.add("-y");
-        command.add(tempPcmFile.getAbsolutePath());
-
-        executeFFmpegCommand(command);
-
-        // Read PCM data and compute peaks
-        List<Float> peaks = new ArrayList<>();
-        try (FileInputStream fis = new FileInputStream(tempPcmFile)) {
-            byte[] buffer = new byte[4096];
-            int samplesPerPeak = 44100 / 100;
-            int sampleCount = 0;
-            float maxAmplitude = 0;
-
-            while (fis.read(buffer) != -1) {
-                for (int i = 0; i < buffer.length; i += 2) {
-                    short sample = (short) ((buffer[i] & 0xFF) | (buffer[i + 1] << 8));
-                    float amplitude = Math.abs(sample / 32768.0f);
-                    maxAmplitude = Math.max(maxAmplitude, amplitude);
-                    sampleCount++;
-
-                    if (sampleCount >= samplesPerPeak) {
-                        peaks.add(maxAmplitude);
-                        maxAmplitude = 0;
-                        sampleCount = 0;
-                    }
-                }
-            }
-            if (sampleCount > 0) {
-                peaks.add(maxAmplitude);
-            }
-        } finally {
-            Files.deleteIfExists(tempPcmFile.toPath());
-        }
-
-        // Create JSON structure
-        Map<String, Object> waveformData = new HashMap<>();
-        waveformData.put("sampleRate", 100);
-        waveformData.put("peaks", peaks);
-
-        // Save JSON to temporary file
-        String waveformFileName = "waveform_" + audioFile.getName().replaceAll("[^a-zA-Z0-9.]", "_") + ".json";
-        File waveformFile = new File(baseDir + "/temp/" + waveformFileName);
-        objectMapper.writeValue(waveformFile, waveformData);
+        // ffmpeg streams the audio from R2 and peaks are computed from its stdout: no local copies
+        String audioUrl = cloudflareR2Service.generatePresignedUrl(audioPath, 3600);
+        WaveformExtractor.Waveform waveform = waveformExtractor.extract(audioUrl);
 
+        String waveformFileName = "waveform_" + System.currentTimeMillis() + ".json";
         String r2WaveformPath = "audio/projects/" + projectId + "/waveforms/" + waveformFileName;
-        cloudflareR2Service.uploadFile(waveformFile, r2WaveformPath);
-
-        // Clean up
-        Files.deleteIfExists(waveformFile.toPath());
-        Files.deleteIfExists(audioFile.toPath());
-
-        return r2WaveformPath;
+        return waveformService.save(r2WaveformPath, waveform);
     }
 
     private void executeFFmpegCommand(List<String> command, Long projectId, double batchStart, double batchDuration, double totalDuration, int batchIndex) throws IOException, InterruptedException {
         Project project = projectRepository.findById(projectId)
                 .orElseThrow(() -> new RuntimeException("Project not found: " + projectId));
 
-        List<String> updatedCommand = new ArrayList<>(command);
-        if (!updatedCommand.contains("-progress")) {
-            updatedCommand.add("-progress");
-            updatedCommand.add("pipe:");
-        }
-
-        ProcessBuilder processBuilder = new ProcessBuilder(updatedCommand);
-        processBuilder.redirectErrorStream(true);
-
-        System.out.println("Executing FFmpeg command: " + String.join(" ", updatedCommand));
-        Process process = processBuilder.start();
-        double lastProgress = -1.0;
-
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                System.out.println("FFmpeg: " + line);
-                if (line.startsWith("out_time_ms=") && !line.equals("out_time_ms=N/A")) {
-                    try {
-                        long outTimeUs = Long.parseLong(line.replace("out_time_ms=", ""));
-                        double currentBatchTime = outTimeUs / 1_000_000.0;
-
-                        double batchProgress = Math.min(currentBatchTime / batchDuration, 1.0);
-                        double batchContribution = batchDuration / totalDuration * 100.0;
-                        double completedBatchesProgress = batchIndex * (batchDuration / totalDuration * 100.0);
-                        double totalProgress = completedBatchesProgress + (batchProgress * batchContribution);
-                        totalProgress = Math.min(totalProgress, 100.0);
-
-                        int roundedProgress = (int) Math.round(totalProgress);
-                        if (roundedProgress != (int) lastProgress && roundedProgress >= 0 && roundedProgress <= 100 && roundedProgress % 10 == 0) {
-                            project.setProgress((double) roundedProgress);
-                            project.setLastModified(LocalDateTime.now());
-                            project.setStatus("PENDING");
-                            projectRepository.save(project);
-                            System.out.println("Progress updated: " + roundedProgress + "% for projectId: " + projectId);
-                            lastProgress = roundedProgress;
-                        }
-                    } catch (NumberFormatException e) {
-                        System.err.println("Failed to parse out_time_ms: " + line);
+        double batchContribution = batchDuration / totalDuration * 100.0;
+        double completedBatchesProgress = batchIndex * batchContribution;
+        int[] lastProgress = {-1};
+
+        MediaProcessRunner.Result result = mediaProcessRunner.run(MediaProcessRunner.spec(command)
+                .label("export-batch")
+                .mediaDuration(batchDuration)
+                .onProgress(progress -> {
+                    double totalProgress = Math.min(completedBatchesProgress + progress.fraction() * batchContribution, 100.0);
+                    int roundedProgress = (int) Math.round(totalProgress);
+                    if (roundedProgress != lastProgress[0] && roundedProgress >= 0 && roundedProgress <= 100) {
+                        // Pushed to subscribers; the project row is written at state transitions (and throttled in multi-node mode)
+                        jobProgressService.publish(JobProgressService.JOB_EXPORT, projectId, "PENDING", roundedProgress);
+                        lastProgress[0] = roundedProgress;
                     }
-                }
-            }
-        }
+                }));
 
-        boolean completed = process.waitFor(10, TimeUnit.MINUTES);
-        if (!completed) {
-            process.destroyForcibly();
-            throw new RuntimeException("FFmpeg process timed out after 10 minutes");
+        if (result.isTimedOut()) {
+            throw new RuntimeException("FFmpeg process timed out after " + result.getElapsedMillis() / 1000 + " seconds");
         }
-
-        int exitCode = process.exitValue();
-        if (exitCode != 0) {
+        if (!result.isSuccess()) {
             project.setStatus("FAILED");
             project.setProgress(0.0);
             project.setLastModified(LocalDateTime.now());
             projectRepository.save(project);
-            throw new RuntimeException("FFmpeg process failed with exit code: " + exitCode);
+            jobProgressService.publish(JobProgressService.JOB_EXPORT, projectId, "FAILED", 0.0);
+            throw new RuntimeException("FFmpeg process failed with exit code: " + result.getExitCode());
         }
     }
 
@@ -4151,13 +4104,15 @@ public class VideoEditingService {
         taskDetails.put("outputFileName", outputFileName);
         taskDetails.put("r2Path", r2Path);
         taskDetails.put("projectId", project.getId().toString());
+        taskDetails.put("userId", project.getUser().getId().toString());
         taskDetails.put("width", project.getWidth() != null ? project.getWidth().toString() : "1920");
         taskDetails.put("height", project.getHeight() != null ? project.getHeight().toString() : "1080");
         taskDetails.put("fps", project.getFps() != null ? project.getFps().toString() : "25.0");
 
         // Send task to SQS
         String messageBody = objectMapper.writeValueAsString(taskDetails);
-        String messageId = sqsService.sendMessage(messageBody,videoExportQueueUrl);
+        // The user is waiting in the editor for this one
+        String messageId = sqsService.sendMessage(messageBody, videoExportQueueUrl, FairTaskScheduler.LANE_HIGH);
 
         // Update project status to PENDING
         project.setStatus("PENDING");
@@ -4197,6 +4152,7 @@ public class VideoEditingService {
         project.setProgress(0.0);
         project.setLastModified(LocalDateTime.now());
         projectRepository.save(project);
+        jobProgressService.publish(JobProgressService.JOB_EXPORT, project.getId(), "PENDING", 0.0);
 
         try {
             // Render the final video
@@ -4238,12 +4194,14 @@ public class VideoEditingService {
 
             project.setExportsJson(objectMapper.writeValueAsString(exportLinks));
             projectRepository.save(project);
+            jobProgressService.publish(JobProgressService.JOB_EXPORT, project.getId(), "EXPORTED", 100.0);
             logger.info("Project successfully exported to: {}", exportedVideoPath);
         }catch (Exception e) {
             logger.error("Failed to process export task for sessionId={}: {}", sessionId, e.getMessage(), e);
             project.setStatus("FAILED");
             project.setLastModified(LocalDateTime.now());
             projectRepository.save(project);
+            jobProgressService.publish(JobProgressService.JOB_EXPORT, project.getId(), "FAILED", 0.0);
             throw e;
         } finally {
             // Clean up temporary file
@@ -4296,11 +4254,7 @@ public class VideoEditingService {
 
             // Concatenate all batch files into the final video
             concatenateBatches(tempVideoFiles, outputPath, fps != null ? fps : 30,projectId);
-            Project project = projectRepository.findById(projectId)
-                    .orElseThrow(() -> new RuntimeException("Project not found: " + projectId));
-            project.setProgress(100.0);
-            project.setLastModified(LocalDateTime.now());
-            projectRepository.save(project);
+            jobProgressService.publish(JobProgressService.JOB_EXPORT, projectId, "PENDING", 100.0);
 
         } finally {
             // Clean up project-specific temporary directory
@@ -6212,21 +6166,9 @@ public class VideoEditingService {
         }
 
     private void executeFFmpegCommand(List<String> command) throws IOException, InterruptedException {
-        ProcessBuilder pb = new ProcessBuilder(command);
-        pb.redirectErrorStream(true);
-        Process process = pb.start();
-        StringBuilder output = new StringBuilder();
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                output.append(line).append("\n");
-                logger.debug("FFmpeg: {}", line);
-            }
-        }
-        int exitCode = process.waitFor();
-        if (exitCode != 0) {
-            logger.error("FFmpeg failed with exit code {}: {}", exitCode, output);
-            throw new IOException("FFmpeg process failed with exit code: " + exitCode + "\nOutput: " + output);
+        MediaProcessRunner.Result result = mediaProcessRunner.run(MediaProcessRunner.spec(command).label("ffmpeg"));
+        if (!result.isSuccess()) {
+            throw new IOException("FFmpeg process failed with exit code: " + result.getExitCode() + "\nOutput: " + result.getLogTail());
         }
         logger.info("FFmpeg completed successfully");
     }
@@ -4,6 +4,7 @@ import com.example.Scenith.dto.VideoFilterJobRequest;
 import com.example.Scenith.dto.VideoFilterJobResponse;
 import com.example.Scenith.entity.User;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 
@@ -35,4 +36,18 @@ public interface VideoFilterJobService {
     VideoFilterJobResponse updateJob(Long jobId, VideoFilterJobRequest request, User user);
 
     void processJobFromSqs(Map<String, String> taskDetails);
+
+    /**
+     * Render one frame of an uploaded video with the request's colour adjustments, preset and LUT, as JPEG.
+     * @param time seconds into the video, or null for the first second
+     */
+    byte[] renderPreview(Long uploadId, VideoFilterJobRequest request, Double time, User user)
+            throws IOException, InterruptedException;
+
+    /**
+     * Render a short MP4 of an uploaded video's preview proxy through the same filter graph as a job.
+     * @param time seconds into the video, or null for the start
+     */
+    byte[] renderPreviewClip(Long uploadId, VideoFilterJobRequest request, Double time, User user)
+            throws IOException, InterruptedException;
 }
\ No newline at end of file
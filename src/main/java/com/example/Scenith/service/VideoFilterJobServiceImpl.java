@@ -9,6 +9,8 @@ import com.example.Scenith.entity.VideoFilterUpload;
 import com.example.Scenith.repository.VideoFilterJobRepository;
 import com.example.Scenith.sqs.SqsService;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
 import org.slf4j.Logger;
@@ -16,13 +18,18 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.io.BufferedReader;
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
@@ -39,6 +46,11 @@ public class VideoFilterJobServiceImpl implements VideoFilterJobService {
     private final CloudflareR2Service cloudflareR2Service;
     private final SqsService sqsService;
     private final ObjectMapper objectMapper;
+    private final JobProgressService jobProgressService;
+    private final MediaProcessRunner mediaProcessRunner;
+    private final EncodingPolicyService encodingPolicyService;
+    private final ColorGradeCompiler colorGradeCompiler;
+    private final PreviewProxyService previewProxyService;
 
     @Value("${app.ffmpeg-path}")
     private String FFMPEG_PATH;
@@ -49,6 +61,24 @@ public class VideoFilterJobServiceImpl implements VideoFilterJobService {
     @Value("${sqs.queue.url}")
     private String videoExportQueueUrl;
 
+    @Value("${video-filter.preview.clip-seconds:3}")
+    private double previewClipSeconds;
+
+    // Decoded preview frames by upload and time; regrading one is a LUT lookup per pixel
+    private final Cache<String, BufferedImage> previewFrames = Caffeine.newBuilder()
+            .maximumSize(32)
+            .expireAfterAccess(Duration.ofMinutes(10))
+            .build();
+
+    @Value("${video-filter.preview.max-lut-bytes:10485760}")
+    private long maxLutBytes;
+
+    // Parsed user LUTs by R2 path
+    private final Cache<String, ColorGradeCompiler.Lut> userLuts = Caffeine.newBuilder()
+            .maximumSize(64)
+            .expireAfterAccess(Duration.ofMinutes(30))
+            .build();
+
 
     @Override
     public VideoFilterJobResponse createJobFromUpload(Long uploadId, VideoFilterJobRequest request, User user) {
@@ -58,6 +88,7 @@ public class VideoFilterJobServiceImpl implements VideoFilterJobService {
         }
 
         VideoFilterUpload upload = uploadService.getVideoById(uploadId, user);
+        checkUserLut(request.getLutPath(), user.getId());
 
         VideoFilterJob job = VideoFilterJob.builder()
                 .user(user)
@@ -175,6 +206,7 @@ public class VideoFilterJobServiceImpl implements VideoFilterJobService {
         File tempInputFile = null;
         File tempOutputFile = null;
         File tempLutFile = null;
+        File tempGradeFile = null;
         try {
             // Download input video from R2
             String inputR2Path = job.getUploadedVideo().getFilePath();
@@ -187,10 +219,12 @@ public class VideoFilterJobServiceImpl implements VideoFilterJobService {
             if (lutPath != null && !lutPath.isEmpty()) {
                 String tempLutPath = TEMP_DIR + "/lut_" + System.currentTimeMillis() + ".cube";
                 try {
+                    // Jobs stored before the check existed
+                    checkUserLut(lutPath, userId);
                     tempLutFile = cloudflareR2Service.downloadFile(lutPath, tempLutPath);
                     job.setLutPath(tempLutFile.getAbsolutePath());
                     logger.info("Downloaded LUT file for job {}: {}", jobId, lutPath);
-                } catch (IOException e) {
+                } catch (IOException | IllegalArgumentException e) {
                     logger.warn("LUT file not found or failed to download: {}, jobId: {}", lutPath, jobId);
                     job.setLutPath(null); // Proceed without LUT
                 }
@@ -204,7 +238,8 @@ public class VideoFilterJobServiceImpl implements VideoFilterJobService {
             Files.createDirectories(tempOutputFile.toPath().getParent());
 
             // Build and execute FFmpeg command
-            List<String> command = buildFFmpegCommand(job, tempInputFile.getAbsolutePath(), tempOutputFile.getAbsolutePath());
+            tempGradeFile = new File(TEMP_DIR + "/grade_" + System.currentTimeMillis() + ".cube");
+            List<String> command = buildFFmpegCommand(job, tempInputFile.getAbsolutePath(), tempOutputFile.getAbsolutePath(), tempGradeFile);
             executeFFmpegCommand(command, job);
 
             // Upload output to R2
@@ -220,6 +255,7 @@ public class VideoFilterJobServiceImpl implements VideoFilterJobService {
             job.setStatus(VideoFilterJob.ProcessingStatus.COMPLETED);
             job.setProgressPercentage(100);
             repository.save(job);
+            jobProgressService.publish(JobProgressService.JOB_VIDEO_FILTER, jobId, "COMPLETED", 100.0);
             logger.info("Completed job {} for user {}", jobId, userId);
 
         } catch (Exception e) {
@@ -227,11 +263,13 @@ public class VideoFilterJobServiceImpl implements VideoFilterJobService {
             job.setStatus(VideoFilterJob.ProcessingStatus.FAILED);
             job.setProgressPercentage(0);
             repository.save(job);
+            jobProgressService.publish(JobProgressService.JOB_VIDEO_FILTER, jobId, "FAILED", 0.0);
             throw new RuntimeException("Processing failed: " + e.getMessage(), e);
         } finally {
             cleanupTempFile(tempInputFile, "input");
             cleanupTempFile(tempOutputFile, "output");
             cleanupTempFile(tempLutFile, "LUT");
+            cleanupTempFile(tempGradeFile, "grade LUT");
         }
     }
 
@@ -246,7 +284,11 @@ public class VideoFilterJobServiceImpl implements VideoFilterJobService {
         }
     }
 
-    private List<String> buildFFmpegCommand(VideoFilterJob job, String inputPath, String outputPath) {
+    /**
+     * @param composedLutFile where to write the grade combined with the job's LUT, when it has both
+     */
+    private List<String> buildFFmpegCommand(VideoFilterJob job, String inputPath, String outputPath, File composedLutFile)
+            throws IOException {
         List<String> command = new ArrayList<>();
         command.add(FFMPEG_PATH);
         command.add("-i");
@@ -272,73 +314,7 @@ public class VideoFilterJobServiceImpl implements VideoFilterJobService {
             }
         }
 
-        // Build filter chain
-        List<String> filters = new ArrayList<>();
-
-        if (job.getBrightness() != null && Math.abs(job.getBrightness()) > 0.001) {
-            filters.add(String.format("eq=brightness=%.3f", job.getBrightness()));
-        }
-        if (job.getContrast() != null && Math.abs(job.getContrast() - 1.0) > 0.001) {
-            filters.add(String.format("eq=contrast=%.3f", job.getContrast()));
-        }
-        if (job.getSaturation() != null && Math.abs(job.getSaturation() - 1.0) > 0.001) {
-            filters.add(String.format("eq=saturation=%.3f", job.getSaturation()));
-        }
-        if (job.getGamma() != null && Math.abs(job.getGamma() - 1.0) > 0.001) {
-            filters.add(String.format("eq=gamma=%.3f", job.getGamma()));
-        }
-        if (job.getHue() != null && Math.abs(job.getHue()) > 0.001) {
-            filters.add(String.format("hue=h=%.1f", job.getHue()));
-        }
-        if (job.getTemperature() != null && Math.abs(job.getTemperature() - 6500.0) > 1.0) {
-            double temp = job.getTemperature();
-            if (temp < 6500) {
-                double rs = Math.min(0.3, (6500 - temp) / 6500 * 0.3);
-                filters.add(String.format("colorbalance=rs=%.3f", rs));
-            } else if (temp > 6500) {
-                double bs = Math.min(0.3, (temp - 6500) / 3500 * 0.3);
-                filters.add(String.format("colorbalance=bs=%.3f", bs));
-            }
-        }
-        if (job.getShadows() != null && Math.abs(job.getShadows()) > 0.001) {
-            double shadowGamma = 1.0 - (job.getShadows() * 0.2);
-            shadowGamma = Math.max(0.5, Math.min(2.0, shadowGamma));
-            filters.add(String.format("eq=gamma_r=%.3f:gamma_g=%.3f:gamma_b=%.3f", shadowGamma, shadowGamma, shadowGamma));
-        }
-        if (job.getHighlights() != null && Math.abs(job.getHighlights()) > 0.001) {
-            double highlightBrightness = job.getHighlights() * 0.1;
-            filters.add(String.format("eq=brightness=%.3f", highlightBrightness));
-        }
-        if (job.getVibrance() != null && Math.abs(job.getVibrance()) > 0.001) {
-            double vibranceSat = 1.0 + (job.getVibrance() * 0.3);
-            vibranceSat = Math.max(0.0, Math.min(3.0, vibranceSat));
-            filters.add(String.format("eq=saturation=%.3f", vibranceSat));
-        }
-        if (job.getExposure() != null && Math.abs(job.getExposure()) > 0.001) {
-            filters.add(String.format("eq=brightness=%.3f", job.getExposure()));
-        }
-        if (job.getTint() != null && Math.abs(job.getTint()) > 0.001) {
-            double tintBalance = job.getTint() * 0.01;
-            tintBalance = Math.max(-0.5, Math.min(0.5, tintBalance));
-            filters.add(String.format("colorbalance=gs=%.3f", tintBalance));
-        }
-        if (job.getSharpness() != null && Math.abs(job.getSharpness()) > 0.001) {
-            if (job.getSharpness() > 0) {
-                double sharpAmount = Math.min(2.0, job.getSharpness() * 1.5);
-                filters.add(String.format("unsharp=5:5:%.2f:5:5:0.0", sharpAmount));
-            } else {
-                double blurAmount = Math.min(5.0, Math.abs(job.getSharpness()));
-                filters.add(String.format("boxblur=%.2f", blurAmount));
-            }
-        }
-        if (job.getLutPath() != null && !job.getLutPath().isEmpty()) {
-            File lutFile = new File(job.getLutPath());
-            if (lutFile.exists()) {
-                filters.add(String.format("lut3d='%s'", job.getLutPath()));
-            } else {
-                logger.warn("LUT file not found for job {}: {}", job.getId(), job.getLutPath());
-            }
-        }
+        List<String> filters = gradeFilters(job, sharpnessFilter(job.getSharpness()), composedLutFile);
 
         if (!filters.isEmpty()) {
             command.add("-vf");
@@ -347,8 +323,9 @@ public class VideoFilterJobServiceImpl implements VideoFilterJobService {
 
         command.add("-c:v");
         command.add("libx264");
-        command.add("-preset");
-        command.add("medium");
+        // Duration is not probed here; main@3.1 output tops out around 720p
+        command.addAll(encodingPolicyService.choose(new EncodingPolicyService.Request(
+                EncodingPolicyService.TASK_VIDEO_FILTER, 720, 0, "medium", "23", null)).encoderArgs());
         command.add("-profile:v");
         command.add("main");
         command.add("-level");
@@ -368,24 +345,225 @@ public class VideoFilterJobServiceImpl implements VideoFilterJobService {
         return command;
     }
 
+    /**
+     * Filters for the job's colour adjustments, sharpness and LUT, in that order. The grade alone
+     * uses its shared cached file; grade and LUT are composed into one lut3d pass unless sharpness
+     * has to run between them.
+     */
+    private List<String> gradeFilters(VideoFilterJob job, String sharpen, File composedLutFile) throws IOException {
+        ColorGradeCompiler.Grade grade = ColorGradeCompiler.Grade.of(job);
+        File userLut = null;
+        if (job.getLutPath() != null && !job.getLutPath().isEmpty()) {
+            userLut = new File(job.getLutPath());
+            if (!userLut.exists()) {
+                logger.warn("LUT file not found for job {}: {}", job.getId(), job.getLutPath());
+                userLut = null;
+            }
+        }
+
+        List<String> filters = new ArrayList<>();
+        String gradeFile = grade.isIdentity() ? null : colorGradeCompiler.gradeFile(grade).toString();
+        if (gradeFile != null && userLut != null && sharpen == null) {
+            filters.add(composedGradeLut(job, grade, gradeFile, userLut, composedLutFile));
+            return filters;
+        }
+        if (gradeFile != null) {
+            logger.info("Applying compiled grade for job {}: {}", job.getId(), gradeFile);
+            filters.add(lut3d(gradeFile));
+        }
+        if (sharpen != null) {
+            filters.add(sharpen);
+        }
+        if (userLut != null) {
+            filters.add(lut3d(userLut.getAbsolutePath()));
+        }
+        return filters;
+    }
+
+    private String composedGradeLut(VideoFilterJob job, ColorGradeCompiler.Grade grade, String gradeFile, File userLut,
+                                    File composedLutFile) {
+        try {
+            ColorGradeCompiler.Lut composed = colorGradeCompiler.compose(colorGradeCompiler.compile(grade),
+                    colorGradeCompiler.parse(Files.readAllLines(userLut.toPath())));
+            colorGradeCompiler.write(composed, composedLutFile.toPath());
+            logger.info("Applying compiled grade composed with LUT {} for job {}", job.getLutPath(), job.getId());
+            return lut3d(composedLutFile.getAbsolutePath());
+        } catch (IOException e) {
+            // Not a LUT we can read; let ffmpeg apply it after the grade
+            logger.warn("Could not compose LUT for job {} ({}), applying it separately", job.getId(), e.getMessage());
+            return lut3d(gradeFile) + "," + lut3d(userLut.getAbsolutePath());
+        }
+    }
+
+    private static String sharpnessFilter(Double sharpness) {
+        if (sharpness == null || Math.abs(sharpness) <= 0.001) {
+            return null;
+        }
+        if (sharpness > 0) {
+            double sharpAmount = Math.min(2.0, sharpness * 1.5);
+            return String.format("unsharp=5:5:%.2f:5:5:0.0", sharpAmount);
+        }
+        double blurAmount = Math.min(5.0, Math.abs(sharpness));
+        return String.format("boxblur=%.2f", blurAmount);
+    }
+
+    private static String lut3d(String path) {
+        return String.format("lut3d='%s'", path);
+    }
+
     private void executeFFmpegCommand(List<String> command, VideoFilterJob job) throws IOException, InterruptedException {
-        ProcessBuilder processBuilder = new ProcessBuilder(command);
-        processBuilder.redirectErrorStream(true);
-        Process process = processBuilder.start();
-
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                logger.debug("FFmpeg output for job {}: {}", job.getId(), line);
+        MediaProcessRunner.Result result = mediaProcessRunner.run(MediaProcessRunner.spec(command).label("video-filter"));
+        if (!result.isSuccess()) {
+            throw new IOException("FFmpeg process failed with exit code: " + result.getExitCode() + " for job " + job.getId());
+        }
+    }
+
+    @Override
+    public byte[] renderPreview(Long uploadId, VideoFilterJobRequest request, Double time, User user)
+            throws IOException, InterruptedException {
+        VideoFilterUpload upload = uploadService.getVideoById(uploadId, user);
+        double seek = time != null ? Math.max(0, time) : 1.0;
+        String frameKey = uploadId + ":" + Math.round(seek * 10);
+        BufferedImage frame = previewFrames.getIfPresent(frameKey);
+        if (frame == null) {
+            PreviewProxyService.Proxy proxy = previewProxyService.proxy(upload.getFilePath());
+            byte[] jpeg = previewProxyService.renderFrame(proxy, seek, null, "video-filter-preview");
+            frame = ImageIO.read(new ByteArrayInputStream(jpeg));
+            if (frame == null) {
+                throw new IOException("Could not decode preview frame");
             }
+            previewFrames.put(frameKey, frame);
+        }
+
+        // Sharpness is not previewed; it is spatial and barely visible at preview size
+        ColorGradeCompiler.Lut lut = compose(previewGrade(request), previewUserLut(request, user));
+        BufferedImage graded = lut != null ? colorGradeCompiler.apply(lut, frame) : frame;
+        ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+        ImageIO.write(graded, "jpg", jpeg);
+        return jpeg.toByteArray();
+    }
+
+    @Override
+    public byte[] renderPreviewClip(Long uploadId, VideoFilterJobRequest request, Double time, User user)
+            throws IOException, InterruptedException {
+        VideoFilterUpload upload = uploadService.getVideoById(uploadId, user);
+        PreviewProxyService.Proxy proxy = previewProxyService.proxy(upload.getFilePath());
+
+        Double sharpness = request.getSharpness();
+        if (request.getPresetName() != null && !request.getPresetName().isEmpty()) {
+            Map<String, Double> presetValues = presetConfig.getPreset(request.getPresetName());
+            if (presetValues != null && presetValues.containsKey("sharpness")) {
+                sharpness = presetValues.get("sharpness");
+            }
+        }
+        String sharpen = sharpnessFilter(sharpness);
+        ColorGradeCompiler.Lut grade = previewGrade(request);
+        ColorGradeCompiler.Lut userLut = previewUserLut(request, user);
+
+        // Same order as a job: grade, sharpness, LUT; grade and LUT in one pass when nothing is between
+        List<File> lutFiles = new ArrayList<>();
+        try {
+            List<String> filters = new ArrayList<>();
+            if (sharpen == null || userLut == null) {
+                ColorGradeCompiler.Lut lut = compose(grade, userLut);
+                if (lut != null) {
+                    filters.add(lut3d(writePreviewLut(lut, lutFiles)));
+                }
+                if (sharpen != null) {
+                    filters.add(sharpen);
+                }
+            } else {
+                if (grade != null) {
+                    filters.add(lut3d(writePreviewLut(grade, lutFiles)));
+                }
+                filters.add(sharpen);
+                filters.add(lut3d(writePreviewLut(userLut, lutFiles)));
+            }
+            return previewProxyService.renderClip(proxy, time != null ? time : 0, previewClipSeconds,
+                    String.join(",", filters), "video-filter-preview");
+        } finally {
+            lutFiles.forEach(file -> cleanupTempFile(file, "preview LUT"));
+        }
+    }
+
+    private String writePreviewLut(ColorGradeCompiler.Lut lut, List<File> lutFiles) throws IOException {
+        File lutFile = new File(TEMP_DIR + "/preview_lut_" + System.nanoTime() + ".cube");
+        lutFiles.add(lutFile);
+        colorGradeCompiler.write(lut, lutFile.toPath());
+        return lutFile.getAbsolutePath();
+    }
+
+    private ColorGradeCompiler.Lut compose(ColorGradeCompiler.Lut grade, ColorGradeCompiler.Lut userLut) {
+        if (grade == null || userLut == null) {
+            return grade != null ? grade : userLut;
         }
+        return colorGradeCompiler.compose(grade, userLut);
+    }
 
-        int exitCode = process.waitFor();
-        if (exitCode != 0) {
-            throw new IOException("FFmpeg process failed with exit code: " + exitCode);
+    /**
+     * Grade of a preview request's values and preset as a LUT, or null when it changes nothing.
+     */
+    private ColorGradeCompiler.Lut previewGrade(VideoFilterJobRequest request) {
+        VideoFilterJob draft = VideoFilterJob.builder()
+                .brightness(request.getBrightness())
+                .contrast(request.getContrast())
+                .saturation(request.getSaturation())
+                .temperature(request.getTemperature())
+                .gamma(request.getGamma())
+                .shadows(request.getShadows())
+                .highlights(request.getHighlights())
+                .vibrance(request.getVibrance())
+                .hue(request.getHue())
+                .exposure(request.getExposure())
+                .tint(request.getTint())
+                .build();
+        ColorGradeCompiler.Grade grade = ColorGradeCompiler.Grade.of(draft);
+        if (request.getPresetName() != null && !request.getPresetName().isEmpty()) {
+            grade = grade.withPreset(presetConfig.getPreset(request.getPresetName()));
+        }
+
+        return grade.isIdentity() ? null : colorGradeCompiler.compile(grade);
+    }
+
+    /**
+     * The request's own .cube LUT, or null when it has none. Only the user's LUT uploads are read,
+     * and only up to {@code max-lut-bytes}.
+     *
+     * @throws IllegalArgumentException for a path outside the user's LUTs or a file over the limit
+     */
+    /**
+     * A LUT path, when set, must name a .cube file among the user's own filter uploads.
+     */
+    private static void checkUserLut(String lutPath, Long userId) {
+        if (lutPath == null || lutPath.isEmpty()) {
+            return;
+        }
+        String userDir = VideoFilterUploadServiceImpl.originalDir(userId) + "/";
+        if (!lutPath.startsWith(userDir) || lutPath.contains("..") || !lutPath.toLowerCase(Locale.ROOT).endsWith(".cube")) {
+            logger.warn("User {} referenced a LUT outside their uploads: {}", userId, lutPath);
+            throw new IllegalArgumentException("LUT must be one of your uploaded .cube files");
         }
     }
 
+    private ColorGradeCompiler.Lut previewUserLut(VideoFilterJobRequest request, User user) throws IOException {
+        String lutPath = request.getLutPath();
+        if (lutPath == null || lutPath.isEmpty()) {
+            return null;
+        }
+        checkUserLut(lutPath, user.getId());
+        ColorGradeCompiler.Lut userLut = userLuts.getIfPresent(lutPath);
+        if (userLut == null) {
+            long size = cloudflareR2Service.getObjectSize(lutPath);
+            if (size > maxLutBytes) {
+                throw new IllegalArgumentException("LUT file is too large (" + size + " bytes, limit " + maxLutBytes + ")");
+            }
+            byte[] cube = cloudflareR2Service.downloadBytes(lutPath);
+            userLut = colorGradeCompiler.parse(new String(cube, StandardCharsets.US_ASCII).lines().toList());
+            userLuts.put(lutPath, userLut);
+        }
+        return userLut;
+    }
+
     private VideoFilterJobResponse mapToResponse(VideoFilterJob job) {
         return VideoFilterJobResponse.builder()
                 .id(job.getId())
@@ -438,7 +616,10 @@ public class VideoFilterJobServiceImpl implements VideoFilterJobService {
         if (request.getTint() != null) job.setTint(request.getTint());
         if (request.getSharpness() != null) job.setSharpness(request.getSharpness());
         if (request.getPresetName() != null) job.setPresetName(request.getPresetName());
-        if (request.getLutPath() != null) job.setLutPath(request.getLutPath());
+        if (request.getLutPath() != null) {
+            checkUserLut(request.getLutPath(), user.getId());
+            job.setLutPath(request.getLutPath());
+        }
 
         VideoFilterJob saved = repository.save(job);
         return mapToResponse(saved);
@@ -22,6 +22,13 @@ public class VideoFilterUploadServiceImpl implements VideoFilterUploadService {
     private final VideoFilterUploadRepository repository;
     private final CloudflareR2Service cloudflareR2Service;
 
+    /**
+     * R2 directory of a user's filter uploads; the editor uploads .cube LUTs here too.
+     */
+    public static String originalDir(Long userId) {
+        return String.format("videos/filtered/%d/original", userId);
+    }
+
     @Override
     public VideoFilterUpload uploadVideo(MultipartFile file, User user) throws Exception {
         if (file == null || file.isEmpty()) {
@@ -30,7 +37,7 @@ public class VideoFilterUploadServiceImpl implements VideoFilterUploadService {
         }
 
         // Define R2 path
-        String userR2Dir = String.format("videos/filtered/%d/original", user.getId());
+        String userR2Dir = originalDir(user.getId());
         String fileName = System.currentTimeMillis() + "_" + file.getOriginalFilename();
         String r2Path = userR2Dir + "/" + fileName;
 
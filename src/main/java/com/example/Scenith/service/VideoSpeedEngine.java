@@ -0,0 +1,279 @@
+package com.example.Scenith.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Plans the cheapest correct ffmpeg pipeline for a speed change.
+ *
+ * - video at 1x with nothing to scale or overlay is stream-copied, audio at 1x is copied
+ * - integer speed-ups keep every Nth frame (select) instead of retiming every frame and
+ *   letting the muxer drop the surplus after scaling and encoding
+ * - other speed-ups cap the frame rate at the source rate right after retiming, so dropped
+ *   frames never reach the scaler
+ * - scale is skipped when the source already has the tier's height
+ * - atempo accepts 0.5-2.0 per instance, so other factors become a chain of stages
+ * - the watermark is overlaid on the already scaled frame, never scaled itself
+ * - sources without audio get no audio graph
+ *
+ * A preview renders only the first N output seconds and reads only the input it needs.
+ */
+@Component
+public class VideoSpeedEngine {
+    private static final Logger logger = LoggerFactory.getLogger(VideoSpeedEngine.class);
+    private static final double EPSILON = 1e-6;
+
+    private final MediaProcessRunner mediaProcessRunner;
+    private final ObjectMapper objectMapper;
+
+    @Value("${app.ffmpeg-path:/usr/local/bin/ffmpeg}")
+    private String ffmpegPath;
+
+    public VideoSpeedEngine(MediaProcessRunner mediaProcessRunner, ObjectMapper objectMapper) {
+        this.mediaProcessRunner = mediaProcessRunner;
+        this.objectMapper = objectMapper;
+    }
+
+    public record Source(double duration, int width, int height, double fps, boolean hasAudio) {
+    }
+
+    /**
+     * @param scale          quality tier scale, e.g. "-2:720"
+     * @param encoderArgs    libx264 options from EncodingPolicyService (preset, crf, tune, threads)
+     * @param watermarkPath  PNG overlaid top right, or null
+     * @param previewSeconds render only this many output seconds; 0 for the whole video
+     */
+    public record Options(double speed, String scale, List<String> encoderArgs, String watermarkPath, double previewSeconds) {
+    }
+
+    /**
+     * @param command        full ffmpeg command
+     * @param outputDuration seconds of output, for progress and timeouts
+     * @param description    chosen pipeline, for logs
+     */
+    public record Plan(List<String> command, double outputDuration, String description) {
+    }
+
+    /**
+     * Probe dimensions, frame rate, duration and audio presence; input may be a path or URL.
+     */
+    public Source probe(String input) throws IOException, InterruptedException {
+        List<String> command = List.of(
+                ffmpegPath.replace("ffmpeg", "ffprobe"),
+                "-v", "error",
+                "-show_entries", "format=duration:stream=codec_type,width,height,avg_frame_rate",
+                "-of", "json",
+                input);
+        StringBuilder json = new StringBuilder();
+        MediaProcessRunner.Result result = mediaProcessRunner.run(MediaProcessRunner.spec(command)
+                .label("video-speed-probe")
+                .separateStderr()
+                .onLine(json::append)
+                .timeout(Duration.ofMinutes(2)));
+        if (!result.isSuccess()) {
+            throw new IOException("ffprobe failed (exit " + result.getExitCode() + "): " + result.getLogTail());
+        }
+
+        JsonNode root = objectMapper.readTree(json.toString());
+        double duration = root.path("format").path("duration").asDouble(0);
+        int width = 0;
+        int height = 0;
+        double fps = 0;
+        boolean hasAudio = false;
+        for (JsonNode stream : root.path("streams")) {
+            String type = stream.path("codec_type").asText();
+            if ("video".equals(type) && width == 0) {
+                width = stream.path("width").asInt(0);
+                height = stream.path("height").asInt(0);
+                fps = parseRate(stream.path("avg_frame_rate").asText("0/0"));
+            } else if ("audio".equals(type)) {
+                hasAudio = true;
+            }
+        }
+        if (width == 0 || height == 0) {
+            throw new IOException("No video stream found in " + input);
+        }
+        if (duration <= 0) {
+            throw new IOException("Could not determine video duration of " + input);
+        }
+        return new Source(duration, width, height, fps, hasAudio);
+    }
+
+    public Plan plan(String input, String output, Source source, Options options) {
+        double speed = options.speed();
+        boolean preview = options.previewSeconds() > 0;
+        double outputDuration = source.duration() / speed;
+        if (preview) {
+            outputDuration = Math.min(outputDuration, options.previewSeconds());
+        }
+
+        List<String> videoFilters = new ArrayList<>();
+        String videoPath;
+        long integerSpeed = Math.round(speed);
+        if (Math.abs(speed - 1.0) < EPSILON) {
+            videoPath = "1x";
+        } else if (speed > 1 && Math.abs(speed - integerSpeed) < EPSILON) {
+            videoFilters.add("select='not(mod(n\\," + integerSpeed + "))'");
+            videoFilters.add("setpts=(PTS-STARTPTS)/" + integerSpeed);
+            videoPath = "decimate(" + integerSpeed + ")";
+        } else if (speed > 1) {
+            videoFilters.add(String.format(Locale.ROOT, "setpts=(PTS-STARTPTS)/%.6f", speed));
+            if (source.fps() > 0) {
+                videoFilters.add(String.format(Locale.ROOT, "fps=%.3f", source.fps()));
+            }
+            videoPath = "retime+fps";
+        } else {
+            videoFilters.add(String.format(Locale.ROOT, "setpts=(PTS-STARTPTS)/%.6f", speed));
+            videoPath = "retime";
+        }
+
+        boolean scale = needsScale(source, options.scale());
+        if (scale) {
+            videoFilters.add("scale=" + options.scale());
+        }
+
+        boolean watermark = options.watermarkPath() != null;
+        boolean copyVideo = videoFilters.isEmpty() && !watermark;
+        List<Double> tempoStages = atempoChain(speed);
+        String audioFilter = tempoStages.isEmpty() ? null : String.join(",", tempoStages.stream()
+                .map(stage -> String.format(Locale.ROOT, "atempo=%.6f", stage))
+                .toList());
+
+        List<String> command = new ArrayList<>();
+        command.add(ffmpegPath);
+        if (preview) {
+            // Only decode the input that ends up in the preview
+            command.add("-t");
+            command.add(String.format(Locale.ROOT, "%.3f", options.previewSeconds() * speed + 1));
+        }
+        command.add("-i");
+        command.add(input);
+
+        if (watermark) {
+            command.add("-i");
+            command.add(options.watermarkPath());
+            StringBuilder graph = new StringBuilder("[0:v]");
+            graph.append(videoFilters.isEmpty() ? "null" : String.join(",", videoFilters)).append("[scaled];");
+            graph.append("[scaled][1:v]overlay=x=W-w-20:y=20[vout]");
+            if (source.hasAudio() && audioFilter != null) {
+                graph.append(";[0:a]").append(audioFilter).append("[aout]");
+            }
+            command.add("-filter_complex");
+            command.add(graph.toString());
+            command.add("-map");
+            command.add("[vout]");
+            if (source.hasAudio()) {
+                command.add("-map");
+                command.add(audioFilter != null ? "[aout]" : "0:a");
+            }
+        } else {
+            command.add("-map");
+            command.add("0:v:0");
+            if (source.hasAudio()) {
+                command.add("-map");
+                command.add("0:a:0");
+            }
+            if (!videoFilters.isEmpty()) {
+                command.add("-filter:v");
+                command.add(String.join(",", videoFilters));
+            }
+            if (source.hasAudio() && audioFilter != null) {
+                command.add("-filter:a");
+                command.add(audioFilter);
+            }
+        }
+
+        if (copyVideo) {
+            command.add("-c:v");
+            command.add("copy");
+        } else {
+            command.add("-c:v");
+            command.add("libx264");
+            command.addAll(options.encoderArgs());
+        }
+        if (!source.hasAudio()) {
+            command.add("-an");
+        } else if (audioFilter == null) {
+            command.add("-c:a");
+            command.add("copy");
+        } else {
+            command.add("-c:a");
+            command.add("aac");
+            command.add("-b:a");
+            command.add("192k");
+        }
+        if (preview) {
+            command.add("-t");
+            command.add(String.format(Locale.ROOT, "%.3f", options.previewSeconds()));
+            command.add("-movflags");
+            command.add("+faststart");
+        }
+        command.add("-y");
+        command.add(output);
+
+        String description = String.format(Locale.ROOT, "speed=%s video=%s%s scale=%s watermark=%s audio=%s%s",
+                speed, copyVideo ? "copy" : videoPath, copyVideo ? "" : "/x264", scale ? options.scale() : "skip", watermark,
+                !source.hasAudio() ? "none" : audioFilter == null ? "copy" : "atempo" + tempoStages,
+                preview ? " preview=" + options.previewSeconds() + "s" : "");
+        logger.debug("Speed pipeline: {}", description);
+        return new Plan(command, outputDuration, description);
+    }
+
+    /**
+     * Split a tempo factor into atempo stages within 0.5-2.0; empty at 1x.
+     */
+    static List<Double> atempoChain(double speed) {
+        List<Double> stages = new ArrayList<>();
+        if (Math.abs(speed - 1.0) < EPSILON) {
+            return stages;
+        }
+        double remaining = speed;
+        while (remaining > 2.0 + EPSILON) {
+            stages.add(2.0);
+            remaining /= 2.0;
+        }
+        while (remaining < 0.5 - EPSILON) {
+            stages.add(0.5);
+            remaining /= 0.5;
+        }
+        stages.add(remaining);
+        return stages;
+    }
+
+    /**
+     * Scale only when the source height differs from the tier's ("-2:720") or the width is odd.
+     */
+    private static boolean needsScale(Source source, String scale) {
+        if (scale == null || scale.isEmpty()) {
+            return false;
+        }
+        int colon = scale.indexOf(':');
+        try {
+            int targetHeight = Integer.parseInt(scale.substring(colon + 1));
+            return source.height() != targetHeight || source.width() % 2 != 0;
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    private static double parseRate(String rate) {
+        String[] parts = rate.split("/");
+        try {
+            double numerator = Double.parseDouble(parts[0]);
+            double denominator = parts.length > 1 ? Double.parseDouble(parts[1]) : 1;
+            return denominator > 0 ? numerator / denominator : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -6,6 +6,7 @@ import com.example.Scenith.entity.VideoSpeed;
 import com.example.Scenith.repository.UserProcessingUsageRepository;
 import com.example.Scenith.repository.VideoSpeedRepository;
 import com.example.Scenith.sqs.SqsService;
+import com.example.Scenith.sqs.TaskCancellationService;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import org.slf4j.Logger;
@@ -21,6 +22,7 @@ import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.YearMonth;
 import java.util.*;
@@ -38,6 +40,12 @@ public class VideoSpeedService {
     private final ProcessingEmailHelper emailHelper;
     private final UserProcessingUsageRepository userProcessingUsageRepository;
     private final PlanLimitsService planLimitsService;
+    private final JobProgressService jobProgressService;
+    private final MediaProcessRunner mediaProcessRunner;
+    private final VideoSpeedEngine videoSpeedEngine;
+    private final EncodingPolicyService encodingPolicyService;
+    private final PreviewProxyService previewProxyService;
+    private final TaskCancellationService taskCancellationService;
 
     @Value("${app.ffmpeg-path}")
     private String ffmpegPath;
@@ -48,6 +56,12 @@ public class VideoSpeedService {
     @Value("${sqs.queue.url}")
     private String videoExportQueueUrl;
 
+    @Value("${video-speed.preview.default-seconds:5}")
+    private double defaultPreviewSeconds;
+
+    @Value("${video-speed.preview.max-seconds:15}")
+    private double maxPreviewSeconds;
+
     // Supported video formats
     private static final Set<String> SUPPORTED_VIDEO_FORMATS = new HashSet<>(Arrays.asList(
             "video/mp4",
@@ -203,60 +217,42 @@ public class VideoSpeedService {
             throw new IllegalStateException("Video is already being processed");
         }
 
-        // Download video temporarily to check duration
-        Path tempDir = Paths.get(baseDir).resolve("temp/validation").toAbsolutePath().normalize();
-        Files.createDirectories(tempDir);
-
-        String tempFileName = "validate_" + System.currentTimeMillis() + ".mp4";
-        Path tempFilePath = tempDir.resolve(tempFileName);
-
-        try {
-            // Download from R2 to temp location
-            cloudflareR2Service.downloadFile(video.getOriginalFilePath(), tempFilePath.toString());
-
-            // Now get duration from the local file
-            double videoDuration = getVideoDuration(tempFilePath.toString());
-
-            // Validate processing limits
-            validateProcessingLimits(user, quality, videoDuration);
+        // Probe the duration over a presigned URL instead of downloading the whole video
+        double videoDuration = videoSpeedEngine.probe(
+                cloudflareR2Service.generatePresignedUrl(video.getOriginalFilePath(), 600)).duration();
 
-            // Set quality
-            String finalQuality = quality != null ? quality : "720p";
-            video.setQuality(finalQuality);
+        // Validate processing limits
+        validateProcessingLimits(user, quality, videoDuration);
 
-            // Reset fields for export
-            video.setStatus("PENDING");
-            video.setProgress(10.0);
-            video.setCdnUrl(null);
-            video.setOutputFilePath(null);
-            video.setLastModified(LocalDateTime.now());
-            videoSpeedRepository.save(video);
+        // Set quality
+        String finalQuality = quality != null ? quality : "720p";
+        video.setQuality(finalQuality);
 
-            // Queue processing task to SQS
-            Map<String, String> taskDetails = new HashMap<>();
-            taskDetails.put("videoId", id.toString());
-            taskDetails.put("taskType", "VIDEO_SPEED");
-            taskDetails.put("userId", user.getId().toString());
-            taskDetails.put("originalFilePath", video.getOriginalFilePath());
-            taskDetails.put("speed", String.valueOf(video.getSpeed()));
-            taskDetails.put("quality", finalQuality);
+        // Reset fields for export
+        video.setStatus("PENDING");
+        video.setProgress(10.0);
+        video.setCdnUrl(null);
+        video.setOutputFilePath(null);
+        video.setLastModified(LocalDateTime.now());
+        videoSpeedRepository.save(video);
 
-            String messageBody = objectMapper.writeValueAsString(taskDetails);
-            sqsService.sendMessage(messageBody, videoExportQueueUrl);
+        // Queue processing task to SQS
+        Map<String, String> taskDetails = new HashMap<>();
+        taskDetails.put("videoId", id.toString());
+        taskDetails.put("taskType", "VIDEO_SPEED");
+        taskDetails.put("userId", user.getId().toString());
+        taskDetails.put("originalFilePath", video.getOriginalFilePath());
+        taskDetails.put("speed", String.valueOf(video.getSpeed()));
+        taskDetails.put("quality", finalQuality);
 
-            logger.info("Queued video speed processing task for videoId={}, userId={}", id, user.getId());
+        String messageBody = objectMapper.writeValueAsString(taskDetails);
+        sqsService.sendMessage(messageBody, videoExportQueueUrl);
 
-            return video;
+        logger.info("Queued video speed processing task for videoId={}, userId={}", id, user.getId());
 
-        } finally {
-            // Clean up temp file
-            try {
-                Files.deleteIfExists(tempFilePath);
-            } catch (IOException e) {
-                logger.warn("Failed to delete temp validation file: {}", tempFilePath, e);
-            }
-        }
+        return video;
     }
+
     /**
      * Process speed task (called by SQS consumer)
      */
@@ -273,6 +269,7 @@ public class VideoSpeedService {
         video.setProgress(20.0);
         video.setLastModified(LocalDateTime.now());
         videoSpeedRepository.save(video);
+        jobProgressService.publish(JobProgressService.JOB_SPEED, videoId, "PROCESSING", 20.0);
 
         Path baseDirPath = Paths.get(baseDir).toAbsolutePath().normalize();
         Path tempDir = baseDirPath.resolve("temp/speed-videos/" + videoId).toAbsolutePath().normalize();
@@ -288,32 +285,29 @@ public class VideoSpeedService {
             logger.info("Downloading video from R2: {}", originalFilePath);
             cloudflareR2Service.downloadFile(originalFilePath, tempInputPath.toString());
 
-            video.setProgress(30.0);
-            videoSpeedRepository.save(video);
+            jobProgressService.publish(JobProgressService.JOB_SPEED, videoId, "PROCESSING", 30.0);
 
-            // Get video duration for validation and usage tracking
-            double videoDuration = getVideoDuration(tempInputPath.toString());
-            logger.info("Video duration: {} seconds", videoDuration);
+            // Probe once: duration for validation, dimensions/frame rate/audio for the pipeline
+            VideoSpeedEngine.Source source = videoSpeedEngine.probe(tempInputPath.toString());
+            logger.info("Video duration: {} seconds ({}x{}, {} fps, audio={})",
+                    source.duration(), source.width(), source.height(), source.fps(), source.hasAudio());
 
             // Validate duration against user limits
-            validateVideoDuration(video.getUser(), videoDuration);
+            validateVideoDuration(video.getUser(), source.duration());
 
-            video.setProgress(40.0);
-            videoSpeedRepository.save(video);
+            jobProgressService.publish(JobProgressService.JOB_SPEED, videoId, "PROCESSING", 40.0);
 
             // Process video with FFmpeg
             logger.info("Processing video with FFmpeg: speed={}, quality={}", speed, quality);
-            processVideoWithFFmpeg(tempInputPath.toString(), tempOutputPath.toString(), speed, quality, video, planLimitsService.shouldAddWatermark(video.getUser()));
+            processVideoWithFFmpeg(tempInputPath.toString(), tempOutputPath.toString(), speed, quality, video, planLimitsService.shouldAddWatermark(video.getUser()), source);
 
-            video.setProgress(80.0);
-            videoSpeedRepository.save(video);
+            jobProgressService.publish(JobProgressService.JOB_SPEED, videoId, "PROCESSING", 80.0);
 
             // Upload processed video to R2
             logger.info("Uploading processed video to R2: {}", outputR2Path);
             cloudflareR2Service.uploadFile(tempOutputPath.toFile(), outputR2Path);
 
-            video.setProgress(90.0);
-            videoSpeedRepository.save(video);
+            jobProgressService.publish(JobProgressService.JOB_SPEED, videoId, "PROCESSING", 90.0);
 
             // Generate CDN URL
             String cdnUrl = cloudflareR2Service.generateDownloadUrl(outputR2Path, 0); // No expiration
@@ -325,6 +319,7 @@ public class VideoSpeedService {
             video.setProgress(100.0);
             video.setLastModified(LocalDateTime.now());
             videoSpeedRepository.save(video);
+            jobProgressService.publish(JobProgressService.JOB_SPEED, videoId, "COMPLETED", 100.0);
 
             // Increment usage count
             incrementUsageCount(video.getUser());
@@ -346,6 +341,7 @@ public class VideoSpeedService {
             video.setProgress(0.0);
             video.setLastModified(LocalDateTime.now());
             videoSpeedRepository.save(video);
+            jobProgressService.publish(JobProgressService.JOB_SPEED, videoId, "FAILED", 0.0);
             throw e;
         } finally {
             cleanUpTempFiles(tempDir);
@@ -368,85 +364,32 @@ public class VideoSpeedService {
     }
 
     /**
-     * Process video with FFmpeg (updated with progress tracking)
+     * Process video with FFmpeg; the pipeline (copy, decimate, scale, atempo chain) is planned by VideoSpeedEngine
      */
     private void processVideoWithFFmpeg(String inputPath, String outputPath, double speed,
-                                        String quality, VideoSpeed video, boolean addWatermark) throws IOException, InterruptedException {
+                                        String quality, VideoSpeed video, boolean addWatermark,
+                                        VideoSpeedEngine.Source source) throws IOException, InterruptedException {
         File ffmpegFile = new File(ffmpegPath);
         if (!ffmpegFile.exists() || !ffmpegFile.canExecute()) {
             throw new IOException("FFmpeg executable not found or not executable: " + ffmpegPath);
         }
 
-        Map<String, String> qualitySettings = getFFmpegQualitySettings(quality);
-
-        // Build FFmpeg command
-        List<String> command = new ArrayList<>();
-        command.add(ffmpegPath);
-        command.add("-i");
-        command.add(inputPath);
-        String videoFilter = String.format("setpts=%f*PTS,scale=%s", 1.0 / speed, qualitySettings.get("scale"));
-
-        if (addWatermark) {
-            String watermarkPngPath = generateWatermarkPng(outputPath);
-            command.add("-i");
-            command.add(watermarkPngPath);
-
-            // Properly structured filter_complex:
-            // [0:v] apply speed+scale -> [scaled]; [scaled][1:v] overlay watermark -> [vout]
-            String filterComplex = String.format(
-                    "[0:v]setpts=%f*PTS,scale=%s[scaled];[scaled][1:v]overlay=x=W-w-20:y=20[vout];[0:a]atempo=%f[aout]",
-                    1.0 / speed,
-                    qualitySettings.get("scale"),
-                    speed
-            );
-            command.add("-filter_complex");
-            command.add(filterComplex);
-            command.add("-map");
-            command.add("[vout]");
-            command.add("-map");
-            command.add("[aout]");
-        } else {
-            command.add("-filter:v");
-            command.add(videoFilter);
-            command.add("-filter:a");
-            command.add(String.format("atempo=%f", speed));
-        }
-        command.add("-c:v");
-        command.add("libx264");
-        command.add("-preset");
-        command.add(qualitySettings.get("preset"));
-        command.add("-crf");
-        command.add(qualitySettings.get("crf"));
-        command.add("-c:a");
-        command.add("aac");
-        command.add("-b:a");
-        command.add("320k");
-        command.add("-y");
-        command.add(outputPath);
-
-        logger.info("Executing FFmpeg command: {}", String.join(" ", command));
+        EncodingPolicyService.Tier tier = encodingPolicyService.tier(quality);
+        EncodingPolicyService.Policy policy = encodingPolicyService.forTier(EncodingPolicyService.TASK_VIDEO_SPEED, tier, source.duration() / speed);
+        String watermarkPngPath = addWatermark ? generateWatermarkPng(outputPath) : null;
+        VideoSpeedEngine.Plan plan = videoSpeedEngine.plan(inputPath, outputPath, source, new VideoSpeedEngine.Options(
+                speed, tier.scale(), policy.encoderArgs(), watermarkPngPath, 0));
 
-        ProcessBuilder pb = new ProcessBuilder(command);
-        pb.redirectErrorStream(true);
-        Process process = pb.start();
+        logger.info("Executing FFmpeg command ({}): {}", plan.description(), String.join(" ", plan.command()));
 
-        // Monitor FFmpeg output
-        StringBuilder ffmpegOutput = new StringBuilder();
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                ffmpegOutput.append(line).append("\n");
-                logger.debug("FFmpeg: {}", line);
-
-                // Update progress based on FFmpeg output (optional)
-                updateProgressFromFFmpegOutput(line, video);
-            }
-        }
+        // Output runs for videoDuration / speed; maps onto the 40-80% step of the job
+        MediaProcessRunner.Result result = mediaProcessRunner.run(MediaProcessRunner.spec(plan.command())
+                .label("video-speed")
+                .mediaDuration(plan.outputDuration())
+                .onProgress(progress -> updateProgressFromFFmpegOutput(progress, video)));
 
-        int exitCode = process.waitFor();
-        if (exitCode != 0) {
-            logger.error("FFmpeg failed with exit code {}: {}", exitCode, ffmpegOutput.toString());
-            throw new IOException("FFmpeg process failed with exit code: " + exitCode);
+        if (!result.isSuccess()) {
+            throw new IOException("FFmpeg process failed with exit code: " + result.getExitCode());
         }
 
         // Verify output file exists
@@ -456,6 +399,59 @@ public class VideoSpeedService {
 
         logger.info("FFmpeg processing completed successfully");
     }
+
+    /**
+     * Render the first seconds of the video at its current speed, so the user can check the
+     * speed before exporting. The source is read over a presigned URL (only the part the preview
+     * needs), rendered at 480p with a fast preset, and kept per speed; no usage is counted.
+     */
+    public Map<String, Object> renderPreview(Long id, User user, Double seconds) throws IOException, InterruptedException {
+        VideoSpeed video = videoSpeedRepository.findByIdAndUser(id, user)
+                .orElseThrow(() -> new RuntimeException("Video not found or unauthorized: " + id));
+
+        double previewSeconds = seconds != null ? seconds : defaultPreviewSeconds;
+        if (previewSeconds <= 0 || previewSeconds > maxPreviewSeconds) {
+            throw new IllegalArgumentException("Preview length must be between 0 and " + maxPreviewSeconds + " seconds");
+        }
+        double speed = video.getSpeed() != null ? video.getSpeed() : 1.0;
+        String previewR2Path = String.format(Locale.ROOT, "speed-videos/%d/previews/%d_%s_%s.mp4",
+                user.getId(), id, String.valueOf(speed).replace('.', '_'), String.valueOf(previewSeconds).replace('.', '_'));
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("speed", speed);
+        response.put("seconds", previewSeconds);
+        if (cloudflareR2Service.fileExists(previewR2Path)) {
+            response.put("previewUrl", cloudflareR2Service.generateDownloadUrl(previewR2Path, 3600));
+            response.put("cached", true);
+            return response;
+        }
+
+        Path tempDir = Paths.get(baseDir).resolve("temp/speed-previews/" + id + "_" + System.nanoTime()).toAbsolutePath().normalize();
+        Files.createDirectories(tempDir);
+        Path previewPath = tempDir.resolve("preview.mp4");
+        try {
+            // Rendered at the upload's preview proxy size, in a preview slot
+            PreviewProxyService.Proxy proxy = previewProxyService.proxy(video.getOriginalFilePath());
+            VideoSpeedEngine.Source source = new VideoSpeedEngine.Source(
+                    proxy.duration(), proxy.width(), proxy.height(), proxy.fps(), proxy.hasAudio());
+            EncodingPolicyService.Policy policy = encodingPolicyService.choose(new EncodingPolicyService.Request(
+                    EncodingPolicyService.TASK_VIDEO_SPEED, proxy.height(), previewSeconds, "veryfast", "26", null));
+            String watermarkPngPath = planLimitsService.shouldAddWatermark(user) ? generateWatermarkPng(previewPath.toString()) : null;
+            VideoSpeedEngine.Plan plan = videoSpeedEngine.plan(proxy.path().toString(), previewPath.toString(), source,
+                    new VideoSpeedEngine.Options(speed, null, policy.encoderArgs(), watermarkPngPath, previewSeconds));
+
+            logger.info("Rendering speed preview for videoId={} ({})", id, plan.description());
+            previewProxyService.run(plan.command(), "video-speed-preview", Duration.ofMinutes(2));
+
+            cloudflareR2Service.uploadFile(previewPath.toFile(), previewR2Path);
+            response.put("previewUrl", cloudflareR2Service.generateDownloadUrl(previewR2Path, 3600));
+            response.put("cached", false);
+            return response;
+        } finally {
+            cleanUpTempFiles(tempDir);
+        }
+    }
+
     private String generateWatermarkPng(String outputPath) throws IOException {
         // Derive a sibling temp path for the watermark PNG
         Path outputDir = Paths.get(outputPath).getParent();
@@ -507,12 +503,14 @@ public class VideoSpeedService {
         return watermarkFile.toString();
     }
     /**
-     * Update progress based on FFmpeg output (optional enhancement)
+     * Publish FFmpeg progress as the 40-80% step of the job (whole percents only)
      */
-    private void updateProgressFromFFmpegOutput(String line, VideoSpeed video) {
-        // Parse FFmpeg progress output if needed
-        // Example: time=00:01:30.00 -> update progress accordingly
-        // This is optional and can be implemented for more granular progress tracking
+    private void updateProgressFromFFmpegOutput(MediaProcessRunner.Progress progress, VideoSpeed video) {
+        double overall = Math.round(40.0 + progress.fraction() * 40.0);
+        JobProgressService.Snapshot last = jobProgressService.getLatest(JobProgressService.JOB_SPEED, video.getId());
+        if (last == null || last.progress() != overall) {
+            jobProgressService.publish(JobProgressService.JOB_SPEED, video.getId(), "PROCESSING", overall);
+        }
     }
 
     /**
@@ -612,63 +610,6 @@ public class VideoSpeedService {
                 user.getId(), currentYearMonth);
     }
 
-    /**
-     * Get FFmpeg quality settings based on resolution
-     */
-    private Map<String, String> getFFmpegQualitySettings(String quality) {
-        Map<String, String> settings = new HashMap<>();
-
-        switch (quality != null ? quality.toLowerCase() : "720p") {
-            case "144p":
-                settings.put("scale", "-2:144");
-                settings.put("crf", "28");
-                settings.put("preset", "veryfast");
-                break;
-            case "240p":
-                settings.put("scale", "-2:240");
-                settings.put("crf", "27");
-                settings.put("preset", "veryfast");
-                break;
-            case "360p":
-                settings.put("scale", "-2:360");
-                settings.put("crf", "26");
-                settings.put("preset", "fast");
-                break;
-            case "480p":
-                settings.put("scale", "-2:480");
-                settings.put("crf", "25");
-                settings.put("preset", "fast");
-                break;
-            case "720p":
-                settings.put("scale", "-2:720");
-                settings.put("crf", "23");
-                settings.put("preset", "medium");
-                break;
-            case "1080p":
-                settings.put("scale", "-2:1080");
-                settings.put("crf", "22");
-                settings.put("preset", "medium");
-                break;
-            case "1440p":
-            case "2k":
-                settings.put("scale", "-2:1440");
-                settings.put("crf", "20");
-                settings.put("preset", "slow");
-                break;
-            case "4k":
-                settings.put("scale", "-2:2160");
-                settings.put("crf", "18");
-                settings.put("preset", "slow");
-                break;
-            default:
-                settings.put("scale", "-2:720");
-                settings.put("crf", "23");
-                settings.put("preset", "medium");
-        }
-
-        return settings;
-    }
-
     /**
      * Clean up temporary files
      */
@@ -704,9 +645,9 @@ public class VideoSpeedService {
         VideoSpeed video = videoSpeedRepository.findByIdAndUser(id, user)
                 .orElseThrow(() -> new RuntimeException("Video not found or unauthorized: " + id));
 
-        // Don't allow deletion if video is being processed
+        // Stop a queued or running render first, so it does not upload and write status for a deleted row
         if ("PROCESSING".equals(video.getStatus()) || "PENDING".equals(video.getStatus())) {
-            throw new IllegalStateException("Cannot delete video while it is being processed");
+            taskCancellationService.cancel(JobProgressService.JOB_SPEED, id, user.getId());
         }
 
         // Delete files from R2
@@ -720,6 +661,8 @@ public class VideoSpeedService {
                 cloudflareR2Service.deleteFile(video.getOutputFilePath());
                 logger.info("Deleted output file from R2: {}", video.getOutputFilePath());
             }
+
+            cloudflareR2Service.deleteDirectory("speed-videos/" + user.getId() + "/previews/" + id + "_");
         } catch (IOException e) {
             logger.warn("Failed to delete some files from R2 for videoId: {}", id, e);
             // Continue with DB deletion even if R2 deletion fails
@@ -0,0 +1,223 @@
+package com.example.Scenith.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Stored waveforms. Next to each waveform JSON ({@code waveform_x.json}) sits a binary pyramid
+ * ({@code waveform_x.peaks}): every level of {@link WaveformExtractor#pyramid} - 100, 25, 6.25 and
+ * 1.5625 peaks per second - as unsigned bytes, in one R2 object behind a small index header:
+ *
+ * <pre>
+ * "SWPK"  u16 version  u16 levelCount
+ * levelCount x (f64 sampleRate, u32 offset, u32 count)
+ * level 0 peaks, level 1 peaks, ...
+ * </pre>
+ *
+ * All numbers are big-endian; {@code offset} counts from the start of the object. A timeline reads
+ * the header once, then asks for a level and time range and gets just those bytes, fetched from R2
+ * with a range request: a two-hour podcast is 720 KB at full rate, but a screenful at any zoom is a
+ * few KB. Waveforms stored before the pyramid existed get one built from their JSON on first read.
+ */
+@Service
+@Profile("!test")
+public class WaveformService {
+    private static final Logger logger = LoggerFactory.getLogger(WaveformService.class);
+
+    private static final byte[] MAGIC = {'S', 'W', 'P', 'K'};
+    private static final int VERSION = 1;
+    private static final int PREFIX_BYTES = 8;
+    private static final int LEVEL_BYTES = 16;
+    // Enough for the header of any pyramid WaveformExtractor builds with its default levels
+    private static final int HEADER_PROBE_BYTES = 256;
+
+    private final CloudflareR2Service cloudflareR2Service;
+    private final WaveformExtractor waveformExtractor;
+    private final ObjectMapper objectMapper;
+    private final Cache<String, Index> indexes = Caffeine.newBuilder()
+            .expireAfterAccess(Duration.ofHours(1))
+            .maximumSize(10_000)
+            .build();
+
+    public WaveformService(CloudflareR2Service cloudflareR2Service, WaveformExtractor waveformExtractor,
+                           ObjectMapper objectMapper) {
+        this.cloudflareR2Service = cloudflareR2Service;
+        this.waveformExtractor = waveformExtractor;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * @param offset byte offset of the level's first peak in the pyramid object
+     * @param count  number of peaks (= bytes) in the level
+     */
+    public record Level(int index, double sampleRate, long offset, int count) {
+
+        public double duration() {
+            return count / sampleRate;
+        }
+    }
+
+    public record Index(String pyramidPath, List<Level> levels) {
+    }
+
+    /**
+     * Peaks of one level from {@code start} seconds on, one unsigned byte (0..255) each.
+     */
+    public record Slice(Level level, double start, byte[] peaks) {
+    }
+
+    public static String pyramidPath(String waveformJsonPath) {
+        return waveformJsonPath.replaceFirst("\\.json$", "") + ".peaks";
+    }
+
+    /**
+     * Upload the waveform JSON and its pyramid; returns the JSON path.
+     */
+    public String save(String waveformJsonPath, WaveformExtractor.Waveform waveform) throws IOException {
+        cloudflareR2Service.uploadBytes(waveformJsonPath,
+                objectMapper.writeValueAsBytes(waveformExtractor.toJson(waveform)), "application/json");
+        indexes.put(waveformJsonPath, storePyramid(waveformJsonPath, waveform));
+        return waveformJsonPath;
+    }
+
+    /**
+     * Level layout of a stored waveform, or null when there is no waveform data for it.
+     */
+    public Index index(String waveformJsonPath) throws IOException {
+        try {
+            return indexes.get(waveformJsonPath, key -> {
+                try {
+                    return load(key);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Peaks of a level between from and to seconds (inclusive, either open-ended when null),
+     * or null when there is no waveform data.
+     *
+     * @throws IllegalArgumentException for a level the pyramid does not have
+     */
+    public Slice read(String waveformJsonPath, int level, Double from, Double to) throws IOException {
+        Index index = index(waveformJsonPath);
+        if (index == null) {
+            return null;
+        }
+        if (level < 0 || level >= index.levels().size()) {
+            throw new IllegalArgumentException("Waveform level must be between 0 and " + (index.levels().size() - 1));
+        }
+        Level selected = index.levels().get(level);
+        int first = from != null ? (int) Math.max(0, Math.floor(from * selected.sampleRate())) : 0;
+        int last = to != null
+                ? (int) Math.min(selected.count() - 1L, (long) Math.ceil(to * selected.sampleRate()))
+                : selected.count() - 1;
+        if (first > last) {
+            return new Slice(selected, first / selected.sampleRate(), new byte[0]);
+        }
+        byte[] peaks = cloudflareR2Service.downloadRange(index.pyramidPath(),
+                selected.offset() + first, selected.offset() + last);
+        return new Slice(selected, first / selected.sampleRate(), peaks);
+    }
+
+    static byte[] encode(List<WaveformExtractor.Waveform> levels) {
+        int headerBytes = PREFIX_BYTES + LEVEL_BYTES * levels.size();
+        int total = headerBytes + levels.stream().mapToInt(level -> level.peaks().length).sum();
+        ByteBuffer buffer = ByteBuffer.allocate(total);
+        buffer.put(MAGIC).putShort((short) VERSION).putShort((short) levels.size());
+        long offset = headerBytes;
+        for (WaveformExtractor.Waveform level : levels) {
+            buffer.putDouble(level.sampleRate()).putInt((int) offset).putInt(level.peaks().length);
+            offset += level.peaks().length;
+        }
+        for (WaveformExtractor.Waveform level : levels) {
+            buffer.put(level.quantize());
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Parse the index header; {@code header} may run on into the peaks.
+     */
+    static List<Level> decodeHeader(byte[] header) throws IOException {
+        if (header.length < PREFIX_BYTES || !Arrays.equals(header, 0, MAGIC.length, MAGIC, 0, MAGIC.length)) {
+            throw new IOException("Not a waveform pyramid");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(header, MAGIC.length, header.length - MAGIC.length);
+        int version = Short.toUnsignedInt(buffer.getShort());
+        if (version != VERSION) {
+            throw new IOException("Unsupported waveform pyramid version " + version);
+        }
+        int levelCount = Short.toUnsignedInt(buffer.getShort());
+        if (header.length < requiredHeaderBytes(levelCount)) {
+            throw new IOException("Truncated waveform pyramid header");
+        }
+        List<Level> levels = new ArrayList<>(levelCount);
+        for (int i = 0; i < levelCount; i++) {
+            levels.add(new Level(i, buffer.getDouble(), Integer.toUnsignedLong(buffer.getInt()), buffer.getInt()));
+        }
+        return levels;
+    }
+
+    private static int requiredHeaderBytes(int levelCount) {
+        return PREFIX_BYTES + LEVEL_BYTES * levelCount;
+    }
+
+    private Index storePyramid(String waveformJsonPath, WaveformExtractor.Waveform waveform) throws IOException {
+        List<WaveformExtractor.Waveform> levels = waveformExtractor.pyramid(waveform);
+        byte[] pyramid = encode(levels);
+        String pyramidPath = pyramidPath(waveformJsonPath);
+        cloudflareR2Service.uploadBytes(pyramidPath, pyramid, "application/octet-stream");
+        return new Index(pyramidPath, decodeHeader(pyramid));
+    }
+
+    private Index load(String waveformJsonPath) throws IOException {
+        String pyramidPath = pyramidPath(waveformJsonPath);
+        if (cloudflareR2Service.fileExists(pyramidPath)) {
+            byte[] header = cloudflareR2Service.downloadRange(pyramidPath, 0, HEADER_PROBE_BYTES - 1);
+            if (header.length >= PREFIX_BYTES) {
+                int levelCount = Short.toUnsignedInt(ByteBuffer.wrap(header, 6, 2).getShort());
+                if (header.length < requiredHeaderBytes(levelCount)) {
+                    header = cloudflareR2Service.downloadRange(pyramidPath, 0, requiredHeaderBytes(levelCount) - 1);
+                }
+            }
+            return new Index(pyramidPath, decodeHeader(header));
+        }
+        if (!cloudflareR2Service.fileExists(waveformJsonPath)) {
+            return null;
+        }
+
+        // Waveform from before the pyramid: rebuild it from the JSON peaks
+        JsonNode json = objectMapper.readTree(cloudflareR2Service.downloadBytes(waveformJsonPath));
+        JsonNode peakNodes = json.path("peaks");
+        if (!peakNodes.isArray() || peakNodes.isEmpty()) {
+            return null;
+        }
+        float[] peaks = new float[peakNodes.size()];
+        for (int i = 0; i < peaks.length; i++) {
+            peaks[i] = (float) peakNodes.get(i).asDouble(0);
+        }
+        double sampleRate = json.path("sampleRate").asDouble(WaveformExtractor.PEAKS_PER_SECOND);
+        Index index = storePyramid(waveformJsonPath, new WaveformExtractor.Waveform(sampleRate, peaks));
+        logger.info("Built waveform pyramid for {} from its JSON ({} peaks)", waveformJsonPath, peaks.length);
+        return index;
+    }
+}
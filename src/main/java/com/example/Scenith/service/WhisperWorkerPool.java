@@ -0,0 +1,441 @@
+package com.example.Scenith.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Pool of long-lived Whisper workers (scripts/whisper_worker.py) that keep the model loaded.
+ *
+ * Each worker is a python process speaking JSON lines over stdin/stdout. Requests carry an id,
+ * so several callers can have requests outstanding on one worker; the worker runs them in
+ * order and a reader thread completes each caller's future by id. Requests go to the worker
+ * with the fewest outstanding requests. Callers that pass a segment listener get the segments
+ * as the worker decodes them ("segments" events), before the final response.
+ *
+ * Workers start on first use. A worker that exits is restarted on the next request, one that
+ * stops answering health pings or exceeds the request timeout is killed and restarted. The
+ * request timeout runs from the worker's "started" event, not from submission, so time spent
+ * queued behind other requests does not count. When a worker is killed or dies, only the request
+ * it was running fails; requests still queued on it are resubmitted to a fresh worker.
+ * A caller whose job is cancelled ({@link MediaProcessRunner#cancel(String)}) stops waiting
+ * right away; an otherwise idle worker is restarted so it stops burning CPU on that request.
+ *
+ * With {@code whisper.worker.enabled=false} callers fall back to one python process per request.
+ */
+@Service
+public class WhisperWorkerPool {
+    private static final Logger logger = LoggerFactory.getLogger(WhisperWorkerPool.class);
+
+    public static final String MODE_SUBTITLES = "subtitles";
+    public static final String MODE_SEGMENTS = "segments";
+
+    private static final TypeReference<List<Map<String, Object>>> SEGMENTS = new TypeReference<>() {};
+    // Attempts per request when the worker it was queued on goes away before taking it up
+    private static final int MAX_SUBMISSIONS = 3;
+
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+    private final MediaProcessRunner mediaProcessRunner;
+    private final Counter restarts;
+    private final AtomicLong requestIds = new AtomicLong();
+    private Worker[] workers;
+
+    @Value("${whisper.worker.enabled:true}")
+    private boolean enabled;
+
+    @Value("${python.path:/usr/local/bin/python3.11}")
+    private String pythonPath;
+
+    @Value("${whisper.worker.script.path:/app/scripts/whisper_worker.py}")
+    private String workerScriptPath;
+
+    @Value("${whisper.worker.model:base}")
+    private String model;
+
+    @Value("${whisper.worker.pool-size:2}")
+    private int poolSize;
+
+    @Value("${whisper.worker.startup-timeout-seconds:300}")
+    private long startupTimeoutSeconds;
+
+    @Value("${whisper.worker.request-timeout-minutes:15}")
+    private long requestTimeoutMinutes;
+
+    @Value("${whisper.worker.ping-timeout-seconds:10}")
+    private long pingTimeoutSeconds;
+
+    public WhisperWorkerPool(ObjectMapper objectMapper, MeterRegistry meterRegistry, MediaProcessRunner mediaProcessRunner) {
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+        this.mediaProcessRunner = mediaProcessRunner;
+        this.restarts = Counter.builder("scenith.whisper.worker.restarts")
+                .description("Whisper workers killed or found dead and replaced")
+                .register(meterRegistry);
+    }
+
+    /**
+     * One python worker process.
+     */
+    private class Worker {
+        private final int slot;
+        private final Process process;
+        private final BufferedWriter stdin;
+        private final Map<String, CompletableFuture<JsonNode>> pending = new ConcurrentHashMap<>();
+        private final Map<String, Consumer<List<Map<String, Object>>>> listeners = new ConcurrentHashMap<>();
+        // System.nanoTime() at which the worker took up each request
+        private final Map<String, Long> startedAt = new ConcurrentHashMap<>();
+        private final CompletableFuture<Void> ready = new CompletableFuture<>();
+        private volatile boolean dead;
+
+        Worker(int slot) throws IOException {
+            this.slot = slot;
+            ProcessBuilder builder = new ProcessBuilder(pythonPath, workerScriptPath, "--model", model);
+            builder.directory(new File(workerScriptPath).getAbsoluteFile().getParentFile());
+            this.process = builder.start();
+            this.stdin = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+
+            Thread reader = new Thread(this::readResponses, "Whisper-Worker-" + slot);
+            reader.setDaemon(true);
+            reader.start();
+            Thread stderr = new Thread(this::drainStderr, "Whisper-Worker-" + slot + "-Log");
+            stderr.setDaemon(true);
+            stderr.start();
+            logger.info("Started Whisper worker {} (pid {}, model {})", slot, process.pid(), model);
+        }
+
+        void send(Map<String, Object> request) throws IOException {
+            String line = objectMapper.writeValueAsString(request);
+            synchronized (stdin) {
+                stdin.write(line);
+                stdin.newLine();
+                stdin.flush();
+            }
+        }
+
+        boolean isAlive() {
+            return !dead && process.isAlive();
+        }
+
+        void kill(String reason) {
+            if (dead) {
+                return;
+            }
+            dead = true;
+            logger.warn("Killing Whisper worker {} (pid {}): {}", slot, process.pid(), reason);
+            process.descendants().forEach(ProcessHandle::destroyForcibly);
+            process.destroyForcibly();
+            failPending(new IOException("Whisper worker restarted: " + reason));
+        }
+
+        private void readResponses() {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    JsonNode message;
+                    try {
+                        message = objectMapper.readTree(line);
+                    } catch (IOException e) {
+                        logger.debug("Whisper worker {} stdout: {}", slot, line);
+                        continue;
+                    }
+                    String event = message.path("event").asText();
+                    if ("ready".equals(event)) {
+                        ready.complete(null);
+                        continue;
+                    }
+                    if ("started".equals(event)) {
+                        startedAt.put(message.path("id").asText(), System.nanoTime());
+                        continue;
+                    }
+                    if ("segments".equals(event)) {
+                        deliverSegments(message);
+                        continue;
+                    }
+                    listeners.remove(message.path("id").asText());
+                    startedAt.remove(message.path("id").asText());
+                    CompletableFuture<JsonNode> future = pending.remove(message.path("id").asText());
+                    if (future != null) {
+                        future.complete(message);
+                    }
+                }
+            } catch (IOException e) {
+                logger.debug("Whisper worker {} stdout closed: {}", slot, e.getMessage());
+            }
+            dead = true;
+            IOException exited = new IOException("Whisper worker " + slot + " exited");
+            ready.completeExceptionally(exited);
+            failPending(exited);
+        }
+
+        private void deliverSegments(JsonNode message) {
+            Consumer<List<Map<String, Object>>> listener = listeners.get(message.path("id").asText());
+            if (listener == null) {
+                return;
+            }
+            try {
+                listener.accept(objectMapper.convertValue(message.path("result"), SEGMENTS));
+            } catch (RuntimeException e) {
+                logger.warn("Segment listener failed on Whisper worker {}: {}", slot, e.getMessage());
+            }
+        }
+
+        private void drainStderr() {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getErrorStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    logger.debug("Whisper worker {}: {}", slot, line);
+                }
+            } catch (IOException e) {
+                logger.debug("Whisper worker {} stderr closed: {}", slot, e.getMessage());
+            }
+        }
+
+        /**
+         * Fail the request the worker was running with the cause; the ones it had not taken up
+         * yet fail with {@link NotStartedException} so their callers resubmit them.
+         */
+        private void failPending(IOException cause) {
+            pending.forEach((id, future) -> future.completeExceptionally(
+                    startedAt.containsKey(id) ? cause : new NotStartedException(cause.getMessage())));
+            pending.clear();
+            listeners.clear();
+            startedAt.clear();
+        }
+
+        void forget(String id) {
+            pending.remove(id);
+            listeners.remove(id);
+            startedAt.remove(id);
+        }
+    }
+
+    /**
+     * The worker a request was queued on went away before taking it up.
+     */
+    private static class NotStartedException extends IOException {
+        NotStartedException(String message) {
+            super(message);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    /**
+     * Transcribe an audio file on a warm worker.
+     *
+     * @param mode {@link #MODE_SUBTITLES} (2-3 word chunks) or {@link #MODE_SEGMENTS} (raw segments)
+     * @return list of {start, end, text}
+     * @throws CancellationException if the calling thread's job was cancelled meanwhile
+     */
+    public List<Map<String, Object>> transcribe(File audioFile, String mode) throws IOException, InterruptedException {
+        return transcribe(audioFile, mode, null);
+    }
+
+    /**
+     * Transcribe an audio file, reporting segments to onSegments while the worker decodes them.
+     * The listener runs on the worker's reader thread and must return quickly. Streamed times
+     * are rounded to the millisecond; the returned list is authoritative.
+     */
+    public List<Map<String, Object>> transcribe(File audioFile, String mode, Consumer<List<Map<String, Object>>> onSegments)
+            throws IOException, InterruptedException {
+        long startNanos = System.nanoTime();
+        String outcome = "failure";
+        try {
+            JsonNode response = null;
+            for (int submission = 1; response == null; submission++) {
+                Worker worker = acquireWorker();
+                awaitReady(worker);
+
+                String id = String.valueOf(requestIds.incrementAndGet());
+                CompletableFuture<JsonNode> future = new CompletableFuture<>();
+                worker.pending.put(id, future);
+                if (onSegments != null) {
+                    worker.listeners.put(id, onSegments);
+                }
+                Map<String, Object> request = new LinkedHashMap<>();
+                request.put("id", id);
+                request.put("op", "transcribe");
+                request.put("audio", audioFile.getAbsolutePath());
+                request.put("mode", mode);
+                request.put("stream", onSegments != null);
+                try {
+                    worker.send(request);
+                    response = await(worker, id, future, Duration.ofMinutes(requestTimeoutMinutes));
+                } catch (NotStartedException e) {
+                    if (submission >= MAX_SUBMISSIONS) {
+                        throw new IOException("Whisper transcription not started after " + submission + " attempts: "
+                                + e.getMessage(), e);
+                    }
+                    logger.info("Resubmitting Whisper request {} ({}): its worker went away before starting it",
+                            id, e.getMessage());
+                }
+            }
+            if (!response.path("ok").asBoolean()) {
+                throw new IOException("Whisper transcription failed: " + response.path("error").asText());
+            }
+            List<Map<String, Object>> result = objectMapper.convertValue(response.path("result"), SEGMENTS);
+            outcome = "success";
+            return result;
+        } catch (CancellationException e) {
+            outcome = "cancelled";
+            throw e;
+        } finally {
+            Timer.builder("scenith.whisper.request")
+                    .description("Transcription time on warm Whisper workers, including queueing")
+                    .tag("mode", mode)
+                    .tag("outcome", outcome)
+                    .register(meterRegistry)
+                    .record(Duration.ofNanos(System.nanoTime() - startNanos));
+        }
+    }
+
+    /**
+     * Ping idle workers; kill the ones that do not answer. Busy workers answer only after
+     * their current request, so they are left to the request timeout.
+     */
+    @Scheduled(fixedDelayString = "${whisper.worker.health-check-ms:60000}")
+    public void healthCheck() {
+        Worker[] snapshot;
+        synchronized (this) {
+            if (workers == null) {
+                return;
+            }
+            snapshot = workers.clone();
+        }
+        for (Worker worker : snapshot) {
+            if (worker == null || !worker.ready.isDone() || !worker.pending.isEmpty()) {
+                continue;
+            }
+            if (!worker.isAlive()) {
+                continue; // replaced on next use
+            }
+            String id = "ping-" + requestIds.incrementAndGet();
+            CompletableFuture<JsonNode> future = new CompletableFuture<>();
+            worker.pending.put(id, future);
+            try {
+                worker.send(Map.of("id", id, "op", "ping"));
+                future.get(pingTimeoutSeconds, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException | ExecutionException | TimeoutException e) {
+                worker.pending.remove(id);
+                worker.kill("health check failed: " + e);
+                restarts.increment();
+            }
+        }
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (workers == null) {
+            return;
+        }
+        for (Worker worker : workers) {
+            if (worker != null) {
+                worker.kill("shutdown");
+            }
+        }
+    }
+
+    private synchronized Worker acquireWorker() throws IOException {
+        if (workers == null) {
+            workers = new Worker[Math.max(1, poolSize)];
+        }
+        Worker best = null;
+        for (int slot = 0; slot < workers.length; slot++) {
+            Worker worker = workers[slot];
+            if (worker == null || !worker.isAlive()) {
+                if (worker != null) {
+                    logger.warn("Whisper worker {} is not running, restarting", slot);
+                    restarts.increment();
+                }
+                worker = new Worker(slot);
+                workers[slot] = worker;
+            }
+            if (best == null || worker.pending.size() < best.pending.size()) {
+                best = worker;
+            }
+        }
+        return best;
+    }
+
+    private void awaitReady(Worker worker) throws IOException, InterruptedException {
+        try {
+            worker.ready.get(startupTimeoutSeconds, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            worker.kill("model did not load within " + startupTimeoutSeconds + "s");
+            restarts.increment();
+            throw new IOException("Whisper worker did not start within " + startupTimeoutSeconds + " seconds");
+        } catch (ExecutionException e) {
+            throw new IOException("Whisper worker failed to start: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private JsonNode await(Worker worker, String id, CompletableFuture<JsonNode> future, Duration timeout)
+            throws IOException, InterruptedException {
+        String jobKey = MediaProcessRunner.currentJob();
+        while (true) {
+            try {
+                return future.get(1, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                if (jobKey != null && mediaProcessRunner.isCancelled(jobKey)) {
+                    worker.forget(id);
+                    if (worker.pending.isEmpty()) {
+                        worker.kill("request of cancelled job " + jobKey);
+                        restarts.increment();
+                    }
+                    throw new CancellationException("Job cancelled: " + jobKey);
+                }
+                Long started = worker.startedAt.get(id);
+                if (started != null && System.nanoTime() - started > timeout.toNanos()) {
+                    // The worker is stuck on this request: only this caller fails, the requests
+                    // queued behind it are resubmitted once the worker is gone
+                    worker.forget(id);
+                    worker.kill("request " + id + " exceeded " + timeout.toMinutes() + " minutes");
+                    restarts.increment();
+                    throw new IOException("Whisper transcription timed out after " + timeout.toMinutes() + " minutes");
+                }
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof IOException io ? io : new IOException(cause.getMessage(), cause);
+            }
+        }
+    }
+}
@@ -6,7 +6,9 @@ import com.example.Scenith.repository.*;
 import com.example.Scenith.repository.imagerepository.ImageAssetRepository;
 import com.example.Scenith.security.JwtUtil;
 import com.example.Scenith.service.CloudflareR2Service;
+import com.example.Scenith.service.JobProgressService;
 import com.example.Scenith.service.VideoEditingService;
+import com.example.Scenith.sqs.TaskCancellationService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -53,6 +55,9 @@ public class AdminCleanupService {
     @Autowired
     private JwtUtil jwtUtil;
 
+    @Autowired
+    private TaskCancellationService taskCancellationService;
+
     /**
      * Clear all data for a specific user across all services
      */
@@ -137,6 +142,13 @@ public class AdminCleanupService {
             List<VideoSpeed> videos = videoSpeedRepository.findByUser(user);
             logger.info("Found {} video speed records for user {}", videos.size(), user.getId());
 
+            // Stop queued or running renders so they do not write to deleted rows
+            for (VideoSpeed video : videos) {
+                if ("PROCESSING".equals(video.getStatus()) || "PENDING".equals(video.getStatus())) {
+                    taskCancellationService.cancel(JobProgressService.JOB_SPEED, video.getId(), user.getId());
+                }
+            }
+
             // Delete files from R2
             for (VideoSpeed video : videos) {
                 try {
@@ -202,6 +214,13 @@ public class AdminCleanupService {
             List<SubtitleMedia> subtitleMediaList = subtitleMediaRepository.findByUser(user);
             logger.info("Found {} subtitle media records for user {}", subtitleMediaList.size(), user.getId());
 
+            // Stop queued or running renders so they do not write to deleted rows
+            for (SubtitleMedia media : subtitleMediaList) {
+                if ("PROCESSING".equals(media.getStatus()) || "QUEUED".equals(media.getStatus())) {
+                    taskCancellationService.cancel(JobProgressService.JOB_SUBTITLE, media.getId(), user.getId());
+                }
+            }
+
             // Delete files from R2
             for (SubtitleMedia media : subtitleMediaList) {
                 try {
@@ -340,6 +359,13 @@ public class AdminCleanupService {
             List<Project> projects = projectRepository.findByUser(user);
             logger.info("Found {} projects for user {}", projects.size(), user.getId());
 
+            // Stop running exports so they do not write to deleted rows
+            for (Project project : projects) {
+                if ("PENDING".equals(project.getStatus())) {
+                    taskCancellationService.cancel(JobProgressService.JOB_EXPORT, project.getId(), user.getId());
+                }
+            }
+
             // Delete files from R2 for each project
             for (Project project : projects) {
                 try {
@@ -5,6 +5,7 @@ import com.example.Scenith.dto.imagedto.DesignDTO;
 import com.example.Scenith.dto.imagedto.LayerDTO;
 import com.example.Scenith.dto.imagedto.ShadowDTO;
 import com.example.Scenith.service.CloudflareR2Service;
+import com.example.Scenith.service.MediaProcessRunner;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -19,6 +20,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
@@ -36,11 +38,14 @@ public class ImageRenderService {
 
     private final ObjectMapper objectMapper;
     private final CloudflareR2Service cloudflareR2Service;
+    private final MediaProcessRunner mediaProcessRunner;
 
     public ImageRenderService(ObjectMapper objectMapper,
-                              CloudflareR2Service cloudflareR2Service) {
+                              CloudflareR2Service cloudflareR2Service,
+                              MediaProcessRunner mediaProcessRunner) {
         this.objectMapper = objectMapper;
         this.cloudflareR2Service = cloudflareR2Service;
+        this.mediaProcessRunner = mediaProcessRunner;
     }
 
 
@@ -1700,30 +1705,16 @@ public class ImageRenderService {
         finalCommand.add("colorspace:auto-grayscale=off");
         finalCommand.addAll(command.subList(1, command.size()));
 
-        ProcessBuilder processBuilder = new ProcessBuilder(finalCommand);
-        processBuilder.redirectErrorStream(true);
+        MediaProcessRunner.Result result = mediaProcessRunner.run(MediaProcessRunner.spec(finalCommand)
+                .label("image-render")
+                .timeout(Duration.ofMinutes(2)));
 
-        Process process = processBuilder.start();
-        StringBuilder output = new StringBuilder();
-
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                output.append(line).append("\n");
-                logger.debug("ImageMagick: {}", line);
-            }
+        if (result.isTimedOut()) {
+            throw new RuntimeException("ImageMagick process timed out for " + operationName + ": " + result.getLogTail());
         }
-
-        boolean completed = process.waitFor(2, TimeUnit.MINUTES);
-        if (!completed) {
-            process.destroyForcibly();
-            throw new RuntimeException("ImageMagick process timed out for " + operationName + ": " + output.toString());
-        }
-
-        int exitCode = process.exitValue();
-        if (exitCode != 0) {
+        if (!result.isSuccess()) {
             throw new RuntimeException("ImageMagick failed for " + operationName + " with exit code " +
-                exitCode + ": " + output.toString());
+                result.getExitCode() + ": " + result.getLogTail());
         }
     }
 
@@ -0,0 +1,243 @@
+package com.example.Scenith.sqs;
+
+import com.example.Scenith.repository.UserRepository;
+import com.example.Scenith.service.PlanLimitsService;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decides which received tasks this node starts first.
+ *
+ * All task types share one queue, so on its own the queue is first-come-first-served and one
+ * user queueing 20 podcast clips starves everyone else. For every received batch this
+ * scheduler:
+ * - defers tasks of users that already have {@code max-in-flight-per-user} tasks running on any node
+ *   (a cheap pre-filter; the claim enforces the cap atomically, see TaskIdempotencyService#claim)
+ * - orders the rest by weighted fair queuing: each user has a virtual finish time that advances
+ *   by (task units / plan weight), so a STUDIO user gets 4x the share of a free user but
+ *   never all of it
+ * - applies priority lanes (Priority message attribute, or the task type's default lane from
+ *   {@code type-lanes}: short speed changes go HIGH, batch podcast clipping goes LOW)
+ * - ages waiting tasks by their SQS sent timestamp, so LOW lane and free-plan work still finishes
+ */
+@Component
+public class FairTaskScheduler {
+    private static final Logger logger = LoggerFactory.getLogger(FairTaskScheduler.class);
+
+    public static final String LANE_HIGH = "HIGH";
+    public static final String LANE_NORMAL = "NORMAL";
+    public static final String LANE_LOW = "LOW";
+
+    private final UserRepository userRepository;
+    private final PlanLimitsService planLimitsService;
+    private final TaskIdempotencyService idempotencyService;
+    private final GlobalProcessingLock processingLock;
+    private final Map<String, String> typeLanes;
+
+    @Value("${sqs.scheduler.max-in-flight-per-user:2}")
+    private int maxInFlightPerUser;
+
+    // Virtual-time credit per minute waited
+    @Value("${sqs.scheduler.aging-per-minute:1.0}")
+    private double agingPerMinute;
+
+    // Virtual-time head start (HIGH) or penalty (LOW) relative to NORMAL
+    @Value("${sqs.scheduler.lane-offset:4.0}")
+    private double laneOffset;
+
+    private final Cache<Long, Integer> planWeightByUser = Caffeine.newBuilder()
+            .expireAfterWrite(Duration.ofMinutes(5))
+            .maximumSize(10_000)
+            .build();
+    private final Cache<Long, Double> finishTagByUser = Caffeine.newBuilder()
+            .expireAfterAccess(Duration.ofHours(1))
+            .maximumSize(10_000)
+            .build();
+    private double virtualTime;
+
+    public FairTaskScheduler(UserRepository userRepository,
+                             PlanLimitsService planLimitsService,
+                             TaskIdempotencyService idempotencyService,
+                             GlobalProcessingLock processingLock,
+                             @Value("${sqs.scheduler.type-lanes:VIDEO_SPEED:HIGH,PODCAST_CLIP:LOW}") String typeLaneSpec) {
+        this.userRepository = userRepository;
+        this.planLimitsService = planLimitsService;
+        this.idempotencyService = idempotencyService;
+        this.processingLock = processingLock;
+        this.typeLanes = parseTypeLanes(typeLaneSpec);
+    }
+
+    /**
+     * A received message with its parsed body, ready to be scheduled.
+     */
+    public static class Candidate {
+        final Message message;
+        final String taskType;
+        final Map<String, Object> taskDetails;
+        final Long userId;
+        final String lane;
+        final long sentAtMillis;
+        final long receivedAtMillis = System.currentTimeMillis();
+        double startTag;
+        double finishTag;
+        double score;
+
+        Candidate(Message message, String taskType, Map<String, Object> taskDetails, Long userId, String lane) {
+            this.message = message;
+            this.taskType = taskType;
+            this.taskDetails = taskDetails;
+            this.userId = userId;
+            this.lane = lane;
+            MessageAttributeValue originalSent = message.messageAttributes().get(SqsService.ORIGINAL_SENT_ATTRIBUTE);
+            this.sentAtMillis = originalSent != null
+                    ? parseLong(originalSent.stringValue(), System.currentTimeMillis())
+                    : parseLong(message.attributesAsStrings().get("SentTimestamp"), System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Result of ordering a batch: tasks to try in order, and tasks deferred by the per-user cap.
+     */
+    public record Plan(List<Candidate> ordered, List<Candidate> deferred) {
+    }
+
+    public int getMaxInFlightPerUser() {
+        return maxInFlightPerUser;
+    }
+
+    public Candidate candidate(Message message, String taskType, Map<String, Object> taskDetails) {
+        return new Candidate(message, taskType, taskDetails, parseUserId(taskDetails.get("userId")), resolveLane(message, taskType));
+    }
+
+    public synchronized Plan plan(List<Candidate> candidates) {
+        List<Candidate> eligible = new ArrayList<>();
+        List<Candidate> deferred = new ArrayList<>();
+        Map<Long, Long> runningByUser = new HashMap<>();
+        long now = System.currentTimeMillis();
+
+        for (Candidate candidate : candidates) {
+            if (candidate.userId != null) {
+                long running = runningByUser.computeIfAbsent(candidate.userId, idempotencyService::countRunningForUser);
+                if (running >= maxInFlightPerUser) {
+                    deferred.add(candidate);
+                    continue;
+                }
+                // Count this batch's picks too, so one receive cannot start a user's whole backlog
+                runningByUser.put(candidate.userId, running + 1);
+            }
+            eligible.add(candidate);
+        }
+
+        // Finish tags are assigned in arrival order per user, like packets of one flow
+        Map<Long, Double> batchFinish = new HashMap<>();
+        eligible.sort((a, b) -> Long.compare(a.sentAtMillis, b.sentAtMillis));
+        for (Candidate candidate : eligible) {
+            Long flow = candidate.userId != null ? candidate.userId : -1L;
+            double previous = batchFinish.getOrDefault(flow, finishTagFor(flow));
+            candidate.startTag = Math.max(virtualTime, previous);
+            candidate.finishTag = candidate.startTag + (double) processingLock.getWeight(candidate.taskType) / planWeight(candidate.userId);
+            batchFinish.put(flow, candidate.finishTag);
+
+            double waitedMinutes = Math.max(0, now - candidate.sentAtMillis) / 60_000.0;
+            candidate.score = candidate.finishTag + laneBias(candidate.lane) - waitedMinutes * agingPerMinute;
+        }
+        eligible.sort((a, b) -> Double.compare(a.score, b.score));
+
+        if (!deferred.isEmpty()) {
+            logger.info("Deferring {} task(s) of users at the in-flight cap ({})", deferred.size(), maxInFlightPerUser);
+        }
+        return new Plan(eligible, deferred);
+    }
+
+    /**
+     * Record that a planned task was actually started, advancing its user's virtual clock.
+     */
+    public synchronized void started(Candidate candidate) {
+        Long flow = candidate.userId != null ? candidate.userId : -1L;
+        finishTagByUser.put(flow, Math.max(finishTagFor(flow), candidate.finishTag));
+        virtualTime = Math.max(virtualTime, candidate.startTag);
+    }
+
+    private double finishTagFor(Long flow) {
+        Double tag = finishTagByUser.getIfPresent(flow);
+        return tag != null ? tag : virtualTime;
+    }
+
+    private int planWeight(Long userId) {
+        if (userId == null) {
+            return 1;
+        }
+        return planWeightByUser.get(userId, id -> userRepository.findById(id)
+                .map(planLimitsService::getProcessingQueueWeight)
+                .orElse(1));
+    }
+
+    private double laneBias(String lane) {
+        return switch (lane) {
+            case LANE_HIGH -> -laneOffset;
+            case LANE_LOW -> laneOffset;
+            default -> 0;
+        };
+    }
+
+    private String resolveLane(Message message, String taskType) {
+        MessageAttributeValue attribute = message.messageAttributes().get(SqsService.PRIORITY_ATTRIBUTE);
+        String lane = attribute != null && attribute.stringValue() != null
+                ? attribute.stringValue().trim().toUpperCase()
+                : typeLanes.getOrDefault(taskType, LANE_NORMAL);
+        return switch (lane) {
+            case LANE_HIGH, LANE_LOW -> lane;
+            default -> LANE_NORMAL;
+        };
+    }
+
+    private static Long parseUserId(Object value) {
+        if (value instanceof Number number) {
+            return number.longValue();
+        }
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Long.parseLong(String.valueOf(value));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static long parseLong(String value, long fallback) {
+        try {
+            return value != null ? Long.parseLong(value) : fallback;
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    private static Map<String, String> parseTypeLanes(String spec) {
+        Map<String, String> parsed = new HashMap<>();
+        if (spec == null || spec.isBlank()) {
+            return parsed;
+        }
+        for (String entry : spec.split(",")) {
+            String[] kv = entry.trim().split(":");
+            if (kv.length == 2) {
+                parsed.put(kv[0].trim(), kv[1].trim().toUpperCase());
+            } else {
+                logger.warn("Ignoring invalid task lane entry: {}", entry);
+            }
+        }
+        return parsed;
+    }
+}
@@ -2,90 +2,160 @@ package com.example.Scenith.sqs;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.Semaphore;
-import java.util.concurrent.TimeUnit;
 
 /**
- * Global semaphore to ensure only ONE heavy processing task runs at a time.
- * Prevents memory exhaustion on small EC2 instances (t3.medium with 4GB RAM).
- * 
- * This is a critical stability component that prevents OOM conditions by:
- * - Allowing only 1 heavy task (video export, subtitle rendering, etc.) at once
- * - Queueing additional tasks until the current one completes
- * - Using fair ordering (FIFO) to prevent starvation
- * 
- * Trade-off: Sequential processing is slower than parallel, but prevents crashes.
+ * Weighted resource budget shared by all heavy processing tasks on this node.
+ *
+ * The node owns a fixed number of resource units, sized from available cores and physical
+ * memory (or set explicitly). Each task type costs a configured number of units, e.g.
+ * VIDEO_EXPORT=4, PROCESS_SUBTITLES=2, VIDEO_SPEED=1, so a short speed change can run
+ * next to an export instead of waiting behind it.
+ *
+ * Stability guarantees are kept:
+ * - A task never costs more than the whole budget, so on a small instance (t3.medium,
+ *   2 cores / 4GB) an export still runs alone, exactly as before
+ * - Units are only taken without waiting ({@link #tryAcquireNow}), so when a task cannot start
+ *   its units are reserved: smaller tasks may then only use units beyond the reservation, and
+ *   the budget drains until the large task fits. The reservation lapses after
+ *   {@code processing.budget.reservation-ttl-ms} without a retry (the task may have gone to
+ *   another node), so small tasks are never blocked for a task that is not coming back.
  */
 @Component
 public class GlobalProcessingLock {
     private static final Logger logger = LoggerFactory.getLogger(GlobalProcessingLock.class);
-    
-    // Only 1 permit = only 1 heavy task can run at once
-    // Fair = true ensures FIFO ordering (first come, first served)
-    private final Semaphore processingLock = new Semaphore(1, true);
-    
+
+    private final int totalUnits;
+    private final Map<String, Integer> weights;
+    private final int defaultWeight;
+    private final long reservationTtlMillis;
+    private final Semaphore processingLock;
+
+    // Guarded by this: units held back for the largest task that recently could not start
+    private int reservedUnits;
+    private long reservedUntil;
+
+    public GlobalProcessingLock(
+            @Value("${processing.budget.units:0}") int configuredUnits,
+            @Value("${processing.budget.memory-per-unit-mb:1536}") long memoryPerUnitMb,
+            @Value("${processing.budget.weights:VIDEO_EXPORT:4,PROCESS_SUBTITLES:2,PODCAST_CLIP:2,ASPECT_RATIO:2,VIDEO_FILTER:2,VIDEO_SPEED:1,PROXY_GENERATION:2,FILMSTRIP_RENDER:1}") String weightSpec,
+            @Value("${processing.budget.default-weight:2}") int defaultWeight,
+            @Value("${processing.budget.reservation-ttl-ms:60000}") long reservationTtlMillis) {
+        this.totalUnits = configuredUnits > 0 ? configuredUnits : detectUnits(memoryPerUnitMb);
+        this.weights = parseWeights(weightSpec);
+        this.defaultWeight = defaultWeight;
+        this.reservationTtlMillis = reservationTtlMillis;
+        this.processingLock = new Semaphore(totalUnits);
+        logger.info("Processing budget initialized: {} units, weights={}", totalUnits, weights);
+    }
+
     /**
-     * Acquire lock before starting heavy processing.
-     * Blocks until lock is available or timeout occurs.
-     * 
-     * @param taskType Description of the task (for logging)
+     * Acquire the task type's units only if they are free right now, without waiting.
+     * Fails, and reserves the units, when they are not free; fails for a smaller task when
+     * taking its units would eat into an active reservation.
+     *
+     * @param taskType Task type (decides the number of units) and log label
      * @param taskId Unique identifier for the task (for logging)
-     * @return true if lock acquired successfully, false if timeout
+     * @return true if units acquired, false if the task cannot start now
      */
-    public boolean acquireLock(String taskType, String taskId) {
-        try {
-            int waiting = processingLock.getQueueLength();
-            if (waiting > 0) {
-                logger.info("⏳ Task '{}' [{}] waiting for processing lock... ({} tasks ahead)", 
-                    taskType, taskId, waiting);
-            }
-            
-            // Wait up to 30 minutes for lock (adjust based on your typical job duration)
-            boolean acquired = processingLock.tryAcquire(30, TimeUnit.MINUTES);
-            
-            if (acquired) {
-                logger.info("🔒 Task '{}' [{}] acquired processing lock - starting execution", 
-                    taskType, taskId);
-            } else {
-                logger.error("❌ Task '{}' [{}] timed out waiting for lock after 30 minutes", 
-                    taskType, taskId);
+    public synchronized boolean tryAcquireNow(String taskType, String taskId) {
+        int units = getWeight(taskType);
+        boolean reserved = reservedUnits > 0 && System.currentTimeMillis() < reservedUntil;
+        if (reserved && units < reservedUnits && processingLock.availablePermits() - units < reservedUnits) {
+            return false;
+        }
+        if (!processingLock.tryAcquire(units)) {
+            if (!reserved || units >= reservedUnits) {
+                reservedUnits = units;
+                reservedUntil = System.currentTimeMillis() + reservationTtlMillis;
+                logger.info("⏳ Task '{}' [{}] reserved {} unit(s) ({}/{} units free)",
+                    taskType, taskId, units, processingLock.availablePermits(), totalUnits);
             }
-            return acquired;
-        } catch (InterruptedException e) {
-            logger.error("Task '{}' [{}] interrupted while waiting for lock", taskType, taskId);
-            Thread.currentThread().interrupt();
             return false;
         }
+        if (reserved && units >= reservedUnits) {
+            reservedUnits = 0;
+        }
+        logger.info("🔒 Task '{}' [{}] acquired {} unit(s) - starting execution ({}/{} units free)",
+            taskType, taskId, units, processingLock.availablePermits(), totalUnits);
+        return true;
     }
-    
+
     /**
-     * Release lock after processing completes (success or failure).
-     * MUST be called in a finally block to prevent deadlocks.
-     * 
-     * @param taskType Description of the task (for logging)
+     * Release the task type's units after processing completes (success or failure).
+     * MUST be called in a finally block to prevent leaking units.
+     *
+     * @param taskType Task type passed to {@link #tryAcquireNow(String, String)}
      * @param taskId Unique identifier for the task (for logging)
      */
     public void releaseLock(String taskType, String taskId) {
-        processingLock.release();
-        int waiting = processingLock.getQueueLength();
-        logger.info("🔓 Task '{}' [{}] released processing lock ({} tasks waiting)", 
-            taskType, taskId, waiting);
+        int units = getWeight(taskType);
+        processingLock.release(units);
+        logger.info("🔓 Task '{}' [{}] released {} unit(s) ({} reserved, {}/{} units free)",
+            taskType, taskId, units, getReservedUnits(), processingLock.availablePermits(), totalUnits);
+    }
+
+    /**
+     * Units currently reserved for a task that could not start, 0 when none.
+     */
+    public synchronized int getReservedUnits() {
+        return reservedUnits > 0 && System.currentTimeMillis() < reservedUntil ? reservedUnits : 0;
     }
-    
+
     /**
-     * Get number of tasks currently waiting for the lock.
-     * Useful for monitoring and metrics.
+     * Units a task of this type costs, capped at the node's total budget.
      */
-    public int getQueueLength() {
-        return processingLock.getQueueLength();
+    public int getWeight(String taskType) {
+        int weight = weights.getOrDefault(taskType, defaultWeight);
+        return Math.max(1, Math.min(weight, totalUnits));
     }
-    
+
     /**
-     * Check if lock is currently available (not in use).
+     * Check if any units are currently free.
      */
     public boolean isAvailable() {
         return processingLock.availablePermits() > 0;
     }
-}
\ No newline at end of file
+
+    public int getAvailableUnits() {
+        return processingLock.availablePermits();
+    }
+
+    public int getTotalUnits() {
+        return totalUnits;
+    }
+
+    private static int detectUnits(long memoryPerUnitMb) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        long memoryMb = Runtime.getRuntime().maxMemory() / (1024 * 1024);
+        if (ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean os) {
+            memoryMb = os.getTotalMemorySize() / (1024 * 1024);
+        }
+        long byMemory = Math.max(1, memoryMb / Math.max(1, memoryPerUnitMb));
+        return (int) Math.max(1, Math.min(cores, byMemory));
+    }
+
+    private static Map<String, Integer> parseWeights(String spec) {
+        Map<String, Integer> parsed = new HashMap<>();
+        if (spec == null || spec.isBlank()) {
+            return parsed;
+        }
+        for (String entry : spec.split(",")) {
+            String[] kv = entry.trim().split(":");
+            if (kv.length == 2) {
+                try {
+                    parsed.put(kv[0].trim(), Integer.parseInt(kv[1].trim()));
+                } catch (NumberFormatException e) {
+                    logger.warn("Ignoring invalid processing weight entry: {}", entry);
+                }
+            }
+        }
+        return parsed;
+    }
+}
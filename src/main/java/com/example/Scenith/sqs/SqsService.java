@@ -1,5 +1,7 @@
 package com.example.Scenith.sqs;
 
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.annotation.PostConstruct;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -10,16 +12,32 @@ import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.sqs.SqsClient;
 import software.amazon.awssdk.services.sqs.model.*;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 
 @Service
 public class SqsService {
     private static final Logger logger = LoggerFactory.getLogger(SqsService.class);
+    public static final String IDEMPOTENCY_KEY_ATTRIBUTE = "IdempotencyKey";
+    public static final String PRIORITY_ATTRIBUTE = "Priority";
+    // Set on copies made by requeue, so age and idempotency keep the first send's time
+    public static final String ORIGINAL_SENT_ATTRIBUTE = "OriginalSentTimestamp";
+    private final ObjectMapper objectMapper;
     private SqsClient sqsClient;
 
     @Value("${sqs.region}")
     private String region;
 
+    public SqsService(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
     @PostConstruct
     public void init() {
         logger.info("Initializing SqsService with region: {}", region);
@@ -30,10 +48,25 @@ public class SqsService {
     }
 
     public String sendMessage(String messageBody, String queueUrl) {
+        return sendMessage(messageBody, queueUrl, null);
+    }
+
+    /**
+     * Send a task into a priority lane (HIGH, NORMAL or LOW); null uses the task type's default lane.
+     */
+    public String sendMessage(String messageBody, String queueUrl, String priority) {
         try {
+            // Identical sends of a task share a key, so a copy that arrives while the first runs or
+            // after it finished is dropped (see TaskIdempotencyService#claim)
+            Map<String, MessageAttributeValue> attributes = new HashMap<>();
+            attributes.put(IDEMPOTENCY_KEY_ATTRIBUTE, stringAttribute(idempotencyKey(messageBody)));
+            if (priority != null) {
+                attributes.put(PRIORITY_ATTRIBUTE, stringAttribute(priority));
+            }
             SendMessageRequest sendMsgRequest = SendMessageRequest.builder()
                     .queueUrl(queueUrl)
                     .messageBody(messageBody)
+                    .messageAttributes(attributes)
                     .build();
             SendMessageResponse response = sqsClient.sendMessage(sendMsgRequest);
             logger.info("Message sent to queue {}: messageId={}", queueUrl, response.messageId());
@@ -44,6 +77,33 @@ public class SqsService {
         }
     }
 
+    /**
+     * Task identity: its job (task type and entity id) plus a hash of the whole body, so the same
+     * task sent twice gets one key while a run with other parameters gets its own.
+     */
+    String idempotencyKey(String messageBody) {
+        String job = null;
+        try {
+            Map<String, Object> details = objectMapper.readValue(messageBody, new TypeReference<Map<String, Object>>() {});
+            Object taskType = details.get("taskType");
+            if (taskType != null) {
+                job = TaskCancellationService.jobKey(taskType.toString(), details);
+                if (job == null) {
+                    job = taskType.toString();
+                }
+            }
+        } catch (Exception e) {
+            // Not a task body; the hash alone still identifies it
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(messageBody.getBytes(StandardCharsets.UTF_8));
+            String hash = HexFormat.of().formatHex(digest, 0, 16);
+            return job != null ? job + ":" + hash : hash;
+        } catch (NoSuchAlgorithmException e) {
+            return UUID.randomUUID().toString();
+        }
+    }
+
     public List<Message> receiveMessages(String queueUrl, int maxMessages) {
         try {
             ReceiveMessageRequest receiveRequest = ReceiveMessageRequest.builder()
@@ -52,6 +112,7 @@ public class SqsService {
                     .waitTimeSeconds(20) // Long polling
                     .visibilityTimeout(300) // 5 minutes for FFmpeg processing
                     .attributeNames(QueueAttributeName.ALL) // Get all attributes including receive count
+                    .messageAttributeNames("All")
                     .build();
             List<Message> messages = sqsClient.receiveMessage(receiveRequest).messages();
             logger.debug("Received {} messages from queue {}", messages.size(), queueUrl);
@@ -75,4 +136,72 @@ public class SqsService {
             throw e;
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Put a received message back on the queue after {@code delaySeconds} as a fresh copy, then
+     * delete the original. Unlike a visibility change this does not raise the receive count, so
+     * deferring a task any number of times never trips a redrive policy. The copy keeps the body
+     * and attributes (idempotency key included) and records the original send time.
+     */
+    public void requeue(Message message, String queueUrl, int delaySeconds) {
+        Map<String, MessageAttributeValue> attributes = new HashMap<>(message.messageAttributes());
+        attributes.computeIfAbsent(ORIGINAL_SENT_ATTRIBUTE, k -> stringAttribute(
+                message.attributesAsStrings().getOrDefault("SentTimestamp", String.valueOf(System.currentTimeMillis()))));
+        try {
+            SendMessageResponse response = sqsClient.sendMessage(SendMessageRequest.builder()
+                    .queueUrl(queueUrl)
+                    .messageBody(message.body())
+                    .messageAttributes(attributes)
+                    .delaySeconds(Math.max(0, Math.min(delaySeconds, 900)))
+                    .build());
+            logger.debug("Requeued message {} as {} with {}s delay", message.messageId(), response.messageId(), delaySeconds);
+        } catch (SqsException e) {
+            logger.error("Failed to requeue message {} on queue {}: {}", message.messageId(), queueUrl, e.getMessage(), e);
+            throw e;
+        }
+        // If this fails the copy is deduplicated by its idempotency key
+        deleteMessage(message.receiptHandle(), queueUrl);
+    }
+
+    /**
+     * Approximate number of visible ("visible") and received-but-not-deleted ("inFlight") messages.
+     */
+    public Map<String, Long> getApproximateQueueDepth(String queueUrl) {
+        GetQueueAttributesResponse response = sqsClient.getQueueAttributes(GetQueueAttributesRequest.builder()
+                .queueUrl(queueUrl)
+                .attributeNames(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES,
+                        QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES_NOT_VISIBLE)
+                .build());
+        Map<String, Long> depth = new HashMap<>();
+        depth.put("visible", Long.parseLong(response.attributes()
+                .getOrDefault(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES, "0")));
+        depth.put("inFlight", Long.parseLong(response.attributes()
+                .getOrDefault(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES_NOT_VISIBLE, "0")));
+        return depth;
+    }
+
+    private static MessageAttributeValue stringAttribute(String value) {
+        return MessageAttributeValue.builder()
+                .dataType("String")
+                .stringValue(value)
+                .build();
+    }
+
+    /**
+     * Extend (or, with 0, immediately end) the invisibility of a received message.
+     */
+    public void changeMessageVisibility(String receiptHandle, String queueUrl, int visibilityTimeoutSeconds) {
+        try {
+            ChangeMessageVisibilityRequest request = ChangeMessageVisibilityRequest.builder()
+                    .queueUrl(queueUrl)
+                    .receiptHandle(receiptHandle)
+                    .visibilityTimeout(visibilityTimeoutSeconds)
+                    .build();
+            sqsClient.changeMessageVisibility(request);
+            logger.debug("Changed message visibility on queue {} to {}s", queueUrl, visibilityTimeoutSeconds);
+        } catch (SqsException e) {
+            logger.error("Failed to change message visibility on queue {}: {}", queueUrl, e.getMessage(), e);
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package com.example.Scenith.sqs;
+
+import com.example.Scenith.entity.JobCancellation;
+import com.example.Scenith.entity.VideoFilterJob;
+import com.example.Scenith.repository.AspectRatioMediaRepository;
+import com.example.Scenith.repository.JobCancellationRepository;
+import com.example.Scenith.repository.PodcastClipMediaRepository;
+import com.example.Scenith.repository.ProjectRepository;
+import com.example.Scenith.repository.SubtitleMediaRepository;
+import com.example.Scenith.repository.VideoFilterJobRepository;
+import com.example.Scenith.repository.VideoSpeedRepository;
+import com.example.Scenith.service.JobProgressService;
+import com.example.Scenith.service.MediaProcessRunner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Cancels async jobs of every type handled by {@link UnifiedTaskWorker}.
+ *
+ * A cancellation is stored as a {@link JobCancellation} row and applied wherever the job is:
+ * - queued: the worker drops the message instead of starting it
+ * - running on this node: its ffmpeg/python processes are killed through the
+ *   {@link MediaProcessRunner} (and no new ones start), and its processing units are
+ *   released right away instead of when the worker thread returns
+ * - running on another node: that node picks the row up within {@code sqs.cancellation.poll-ms}
+ *
+ * Once the worker thread has unwound, the job's temp directories are removed and its status
+ * is set to CANCELLED (overriding the FAILED the service writes when its process dies).
+ *
+ * Job keys use the {@link JobProgressService} job types, e.g. "export:42".
+ */
+@Component
+public class TaskCancellationService {
+    private static final Logger logger = LoggerFactory.getLogger(TaskCancellationService.class);
+
+    public static final String STATUS_CANCELLED = "CANCELLED";
+
+    private final JobCancellationRepository cancellationRepository;
+    private final MediaProcessRunner mediaProcessRunner;
+    private final JobProgressService jobProgressService;
+    private final ProjectRepository projectRepository;
+    private final SubtitleMediaRepository subtitleMediaRepository;
+    private final VideoSpeedRepository videoSpeedRepository;
+    private final AspectRatioMediaRepository aspectRatioMediaRepository;
+    private final PodcastClipMediaRepository podcastClipMediaRepository;
+    private final VideoFilterJobRepository videoFilterJobRepository;
+    // Runs of a job on this node; usually one, but a redelivered copy may overlap the first
+    private final Map<String, Set<RunningJob>> runningJobs = new ConcurrentHashMap<>();
+
+    @Value("${app.base-dir:/tmp}")
+    private String baseDir;
+
+    public TaskCancellationService(JobCancellationRepository cancellationRepository,
+                                   MediaProcessRunner mediaProcessRunner,
+                                   JobProgressService jobProgressService,
+                                   ProjectRepository projectRepository,
+                                   SubtitleMediaRepository subtitleMediaRepository,
+                                   VideoSpeedRepository videoSpeedRepository,
+                                   AspectRatioMediaRepository aspectRatioMediaRepository,
+                                   PodcastClipMediaRepository podcastClipMediaRepository,
+                                   VideoFilterJobRepository videoFilterJobRepository) {
+        this.cancellationRepository = cancellationRepository;
+        this.mediaProcessRunner = mediaProcessRunner;
+        this.jobProgressService = jobProgressService;
+        this.projectRepository = projectRepository;
+        this.subtitleMediaRepository = subtitleMediaRepository;
+        this.videoSpeedRepository = videoSpeedRepository;
+        this.aspectRatioMediaRepository = aspectRatioMediaRepository;
+        this.podcastClipMediaRepository = podcastClipMediaRepository;
+        this.videoFilterJobRepository = videoFilterJobRepository;
+    }
+
+    /**
+     * One run of a job on a worker thread of this node.
+     */
+    static final class RunningJob {
+        private final String jobKey;
+        private final long enqueuedAt;
+        private final Runnable releaseUnits;
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+
+        RunningJob(String jobKey, long enqueuedAt, Runnable releaseUnits) {
+            this.jobKey = jobKey;
+            this.enqueuedAt = enqueuedAt;
+            this.releaseUnits = releaseUnits;
+        }
+    }
+
+    public static String jobKey(String jobType, Long jobId) {
+        return jobType + ":" + jobId;
+    }
+
+    /**
+     * Job key for a task message, or null if the task type carries no job id.
+     */
+    public static String jobKey(String taskType, Map<String, Object> taskDetails) {
+        String[] target = switch (taskType) {
+            case "VIDEO_EXPORT" -> new String[]{JobProgressService.JOB_EXPORT, "projectId"};
+            case "PROCESS_SUBTITLES" -> new String[]{JobProgressService.JOB_SUBTITLE, "mediaId"};
+            case "VIDEO_SPEED" -> new String[]{JobProgressService.JOB_SPEED, "videoId"};
+            case "ASPECT_RATIO" -> new String[]{JobProgressService.JOB_ASPECT_RATIO, "mediaId"};
+            case "PODCAST_CLIP" -> new String[]{JobProgressService.JOB_PODCAST_CLIP, "mediaId"};
+            case "VIDEO_FILTER" -> new String[]{JobProgressService.JOB_VIDEO_FILTER, "jobId"};
+            default -> null;
+        };
+        if (target == null || taskDetails.get(target[1]) == null) {
+            return null;
+        }
+        return target[0] + ":" + taskDetails.get(target[1]);
+    }
+
+    /**
+     * Cancel a job: record the request, stop it if it runs here and mark it CANCELLED.
+     * The caller checks ownership.
+     *
+     * @return true if the job was running on this node and has been stopped
+     */
+    public boolean cancel(String jobType, Long jobId, Long userId) {
+        String key = jobKey(jobType, jobId);
+        JobCancellation cancellation = cancellationRepository.findByJobKey(key).orElseGet(JobCancellation::new);
+        cancellation.setJobKey(key);
+        cancellation.setUserId(userId);
+        cancellation.setRequestedAt(LocalDateTime.now());
+        try {
+            cancellationRepository.save(cancellation);
+        } catch (DataIntegrityViolationException e) {
+            // Concurrent request for the same job already recorded it
+            logger.debug("Cancellation for {} recorded concurrently", key);
+        }
+
+        boolean stoppedHere = cancelLocal(key, job -> true);
+        markCancelled(key);
+        logger.info("Cancellation requested for job {} by user {} (running here: {})", key, userId, stoppedHere);
+        return stoppedHere;
+    }
+
+    /**
+     * Whether a task message sent at enqueuedAtMillis has been cancelled since.
+     */
+    public boolean isCancelled(String jobKey, long enqueuedAtMillis) {
+        if (jobKey == null) {
+            return false;
+        }
+        return cancellationRepository.findByJobKey(jobKey)
+                .map(c -> appliesTo(c, enqueuedAtMillis))
+                .orElse(false);
+    }
+
+    /**
+     * Register the job running on the calling worker thread. Processes it starts are
+     * attributed to it until {@link #unregister(RunningJob)}.
+     *
+     * @param releaseUnits releases the task's processing units; must be safe to call twice
+     * @return this run, to pass to {@link #unregister(RunningJob)}
+     */
+    RunningJob register(String jobKey, long enqueuedAtMillis, Runnable releaseUnits) {
+        RunningJob job = new RunningJob(jobKey, enqueuedAtMillis, releaseUnits);
+        runningJobs.compute(jobKey, (key, jobs) -> {
+            Set<RunningJob> runs = jobs != null ? jobs : ConcurrentHashMap.newKeySet();
+            runs.add(job);
+            return runs;
+        });
+        MediaProcessRunner.bindJob(jobKey);
+        return job;
+    }
+
+    /**
+     * The run's worker thread is done with it. Finishes a cancellation if one happened.
+     *
+     * @return true if the run was cancelled while running
+     */
+    boolean unregister(RunningJob job) {
+        MediaProcessRunner.unbindJob();
+        runningJobs.computeIfPresent(job.jobKey, (key, jobs) -> {
+            jobs.remove(job);
+            return jobs.isEmpty() ? null : jobs;
+        });
+        if (!job.cancelled.get()) {
+            return false;
+        }
+        // Another run of the job may still be unwinding in the same temp directories
+        if (!runningJobs.containsKey(job.jobKey)) {
+            cleanUpTempDirs(job.jobKey);
+            mediaProcessRunner.clearCancellation(job.jobKey);
+        }
+        markCancelled(job.jobKey);
+        return true;
+    }
+
+    /**
+     * Apply cancellations requested on other nodes to jobs running here.
+     */
+    @Scheduled(fixedDelayString = "${sqs.cancellation.poll-ms:5000}")
+    public void pollCancellations() {
+        if (runningJobs.isEmpty()) {
+            return;
+        }
+        try {
+            for (JobCancellation cancellation : cancellationRepository.findByJobKeyIn(new ArrayList<>(runningJobs.keySet()))) {
+                cancelLocal(cancellation.getJobKey(), job -> appliesTo(cancellation, job.enqueuedAt));
+            }
+        } catch (Exception e) {
+            logger.warn("Failed to poll job cancellations: {}", e.getMessage());
+        }
+    }
+
+    @Scheduled(cron = "0 45 3 * * *")
+    public void purgeOldCancellations() {
+        int deleted = cancellationRepository.deleteRequestedBefore(LocalDateTime.now().minusDays(7));
+        if (deleted > 0) {
+            logger.info("Purged {} old job cancellation record(s)", deleted);
+        }
+    }
+
+    private boolean cancelLocal(String jobKey, Predicate<RunningJob> applies) {
+        Set<RunningJob> jobs = runningJobs.get(jobKey);
+        if (jobs == null) {
+            return false;
+        }
+        boolean stopped = false;
+        for (RunningJob job : jobs) {
+            if (applies.test(job) && job.cancelled.compareAndSet(false, true)) {
+                stopped = true;
+                // The worker thread may still be unwinding (upload, DB writes), but the render slot is free
+                job.releaseUnits.run();
+            }
+        }
+        if (stopped) {
+            mediaProcessRunner.cancel(jobKey);
+        }
+        return stopped || jobs.stream().anyMatch(job -> job.cancelled.get());
+    }
+
+    private static boolean appliesTo(JobCancellation cancellation, long enqueuedAtMillis) {
+        LocalDateTime enqueuedAt = LocalDateTime.ofInstant(Instant.ofEpochMilli(enqueuedAtMillis), ZoneId.systemDefault());
+        return !cancellation.getRequestedAt().isBefore(enqueuedAt);
+    }
+
+    private void markCancelled(String jobKey) {
+        int separator = jobKey.indexOf(':');
+        String jobType = jobKey.substring(0, separator);
+        Long jobId;
+        try {
+            jobId = Long.parseLong(jobKey.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            return;
+        }
+
+        try {
+            switch (jobType) {
+                case JobProgressService.JOB_EXPORT -> projectRepository.findById(jobId).ifPresent(p -> {
+                    p.setStatus(STATUS_CANCELLED);
+                    p.setLastModified(LocalDateTime.now());
+                    projectRepository.save(p);
+                });
+                case JobProgressService.JOB_SUBTITLE -> subtitleMediaRepository.findById(jobId).ifPresent(m -> {
+                    m.setStatus(STATUS_CANCELLED);
+                    subtitleMediaRepository.save(m);
+                });
+                case JobProgressService.JOB_SPEED -> videoSpeedRepository.findById(jobId).ifPresent(v -> {
+                    v.setStatus(STATUS_CANCELLED);
+                    videoSpeedRepository.save(v);
+                });
+                case JobProgressService.JOB_ASPECT_RATIO -> aspectRatioMediaRepository.findById(jobId).ifPresent(m -> {
+                    m.setStatus(STATUS_CANCELLED);
+                    aspectRatioMediaRepository.save(m);
+                });
+                case JobProgressService.JOB_PODCAST_CLIP -> podcastClipMediaRepository.findById(jobId).ifPresent(m -> {
+                    m.setStatus(STATUS_CANCELLED);
+                    podcastClipMediaRepository.save(m);
+                });
+                case JobProgressService.JOB_VIDEO_FILTER -> videoFilterJobRepository.findById(jobId).ifPresent(j -> {
+                    j.setStatus(VideoFilterJob.ProcessingStatus.CANCELLED);
+                    videoFilterJobRepository.save(j);
+                });
+                default -> {
+                    return;
+                }
+            }
+            jobProgressService.publish(jobType, jobId, STATUS_CANCELLED, 0.0);
+        } catch (Exception e) {
+            logger.error("Failed to mark job {} as cancelled: {}", jobKey, e.getMessage());
+        }
+    }
+
+    /**
+     * Per-job temp directories the task services work in. They clean these up in their own
+     * finally blocks; this is the backstop for paths a killed process left half-written.
+     */
+    private void cleanUpTempDirs(String jobKey) {
+        int separator = jobKey.indexOf(':');
+        String jobType = jobKey.substring(0, separator);
+        String id = jobKey.substring(separator + 1);
+        Path base = Paths.get(baseDir).toAbsolutePath().normalize();
+
+        List<Path> dirs = switch (jobType) {
+            case JobProgressService.JOB_EXPORT -> List.of(base.resolve("temp").resolve(id));
+            case JobProgressService.JOB_SUBTITLE -> List.of(
+                    base.resolve("temp/subtitle-process").resolve(id),
+                    base.resolve("temp/subtitle-audio").resolve(id),
+                    base.resolve("temp/subtitle-render").resolve(id));
+            case JobProgressService.JOB_SPEED -> List.of(base.resolve("temp/speed-videos").resolve(id));
+            case JobProgressService.JOB_ASPECT_RATIO -> List.of(base.resolve("temp/aspect-ratio").resolve(id));
+            case JobProgressService.JOB_PODCAST_CLIP -> List.of(base.resolve("temp/podcast_clips").resolve(id));
+            default -> List.of();
+        };
+
+        for (Path dir : dirs) {
+            if (!dir.normalize().startsWith(base) || !Files.isDirectory(dir)) {
+                continue;
+            }
+            try (Stream<Path> paths = Files.walk(dir)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                    try {
+                        Files.deleteIfExists(path);
+                    } catch (IOException e) {
+                        logger.warn("Failed to delete {}: {}", path, e.getMessage());
+                    }
+                });
+                logger.debug("Removed temp directory {} of cancelled job {}", dir, jobKey);
+            } catch (IOException e) {
+                logger.warn("Failed to clean up temp directory {}: {}", dir, e.getMessage());
+            }
+        }
+    }
+}
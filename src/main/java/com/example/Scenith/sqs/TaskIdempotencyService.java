@@ -0,0 +1,179 @@
+package com.example.Scenith.sqs;
+
+import com.example.Scenith.entity.TaskExecution;
+import com.example.Scenith.repository.TaskExecutionRepository;
+import com.example.Scenith.repository.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.support.TransactionTemplate;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+
+import java.lang.management.ManagementFactory;
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+/**
+ * Per-task idempotency claims shared by all worker nodes.
+ *
+ * Each message carries an idempotency key derived from the task (set by
+ * {@link SqsService#sendMessage}), falling back to the SQS message id for messages sent without
+ * one. A node must claim the key before running the task. A key that is running elsewhere with a
+ * fresh heartbeat is left alone, and a key that finished after the message was sent is a
+ * duplicate. A message sent after the previous run of the same task finished is a new request
+ * and starts a fresh run.
+ */
+@Service
+public class TaskIdempotencyService {
+    private static final Logger logger = LoggerFactory.getLogger(TaskIdempotencyService.class);
+
+    public enum ClaimResult {
+        CLAIMED,
+        ALREADY_COMPLETED,
+        RUNNING_ELSEWHERE,
+        EXHAUSTED,
+        USER_AT_CAP
+    }
+
+    private final TaskExecutionRepository taskExecutionRepository;
+    private final UserRepository userRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final String nodeId = ManagementFactory.getRuntimeMXBean().getName();
+
+    // Several heartbeat intervals, so one slow beat does not hand the task to another node
+    @Value("${sqs.idempotency.stale-after-seconds:300}")
+    private long staleAfterSeconds;
+
+    @Value("${sqs.idempotency.retention-days:7}")
+    private long retentionDays;
+
+    public TaskIdempotencyService(TaskExecutionRepository taskExecutionRepository, UserRepository userRepository,
+                                  PlatformTransactionManager transactionManager) {
+        this.taskExecutionRepository = taskExecutionRepository;
+        this.userRepository = userRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    public String resolveKey(Message message) {
+        MessageAttributeValue attribute = message.messageAttributes().get(SqsService.IDEMPOTENCY_KEY_ATTRIBUTE);
+        if (attribute != null && attribute.stringValue() != null && !attribute.stringValue().isBlank()) {
+            return attribute.stringValue();
+        }
+        return message.messageId();
+    }
+
+    /**
+     * Claim a task for this node. A failed or abandoned task is taken over until it has
+     * been attempted {@code maxAttempts} times.
+     *
+     * @param sentAt  when the message was sent; a run that finished before it was a previous request
+     * @param userCap most tasks of one user running at once across all nodes, 0 for no cap. Checked
+     *                with the user's row locked, in the same transaction as the claim, so two nodes
+     *                cannot both admit a user past it
+     */
+    public ClaimResult claim(String key, String taskType, Long userId, int maxAttempts, LocalDateTime sentAt, int userCap) {
+        if (userId == null || userCap <= 0) {
+            return claimUnchecked(key, taskType, userId, maxAttempts, sentAt);
+        }
+        try {
+            return transactionTemplate.execute(status -> {
+                userRepository.lockById(userId);
+                long running = taskExecutionRepository.countRunningByUserExcluding(
+                        userId, LocalDateTime.now().minusSeconds(staleAfterSeconds), key);
+                if (running >= userCap) {
+                    return ClaimResult.USER_AT_CAP;
+                }
+                return claimUnchecked(key, taskType, userId, maxAttempts, sentAt);
+            });
+        } catch (DataIntegrityViolationException | TransactionException e) {
+            // Lost a race on the same key despite the lock; the message comes back and claims again
+            logger.warn("Claim of task {} rolled back: {}", key, e.getMessage());
+            return ClaimResult.RUNNING_ELSEWHERE;
+        }
+    }
+
+    private ClaimResult claimUnchecked(String key, String taskType, Long userId, int maxAttempts, LocalDateTime sentAt) {
+        LocalDateTime now = LocalDateTime.now();
+        Optional<TaskExecution> existing = taskExecutionRepository.findByIdempotencyKey(key);
+
+        if (existing.isEmpty()) {
+            TaskExecution execution = new TaskExecution();
+            execution.setIdempotencyKey(key);
+            execution.setTaskType(taskType);
+            execution.setUserId(userId);
+            execution.setStatus("RUNNING");
+            execution.setNodeId(nodeId);
+            execution.setAttempts(1);
+            execution.setStartedAt(now);
+            execution.setHeartbeatAt(now);
+            try {
+                taskExecutionRepository.saveAndFlush(execution);
+                return ClaimResult.CLAIMED;
+            } catch (DataIntegrityViolationException e) {
+                // Another node inserted the same key first
+                existing = taskExecutionRepository.findByIdempotencyKey(key);
+                if (existing.isEmpty()) {
+                    throw e;
+                }
+            }
+        }
+
+        TaskExecution execution = existing.get();
+        if (execution.getFinishedAt() != null && execution.getFinishedAt().isBefore(sentAt)
+                && taskExecutionRepository.restart(key, nodeId, now, sentAt) == 1) {
+            logger.info("Starting new run of task {} (previous run {} at {})", key, execution.getStatus(), execution.getFinishedAt());
+            return ClaimResult.CLAIMED;
+        }
+        if ("COMPLETED".equals(execution.getStatus())) {
+            return ClaimResult.ALREADY_COMPLETED;
+        }
+
+        int updated = taskExecutionRepository.takeOver(key, nodeId, now, now.minusSeconds(staleAfterSeconds), maxAttempts);
+        if (updated == 1) {
+            logger.info("Took over task {} (previous status={}, node={})", key, execution.getStatus(), execution.getNodeId());
+            return ClaimResult.CLAIMED;
+        }
+        if (execution.getAttempts() >= maxAttempts) {
+            return ClaimResult.EXHAUSTED;
+        }
+        return ClaimResult.RUNNING_ELSEWHERE;
+    }
+
+    /**
+     * Tasks of this user currently running on any node (claims with a fresh heartbeat).
+     */
+    public long countRunningForUser(Long userId) {
+        return taskExecutionRepository.countRunningByUser(userId, LocalDateTime.now().minusSeconds(staleAfterSeconds));
+    }
+
+    public void heartbeat(String key) {
+        taskExecutionRepository.touchHeartbeat(key, LocalDateTime.now());
+    }
+
+    public void markCompleted(String key) {
+        taskExecutionRepository.finish(key, "COMPLETED", LocalDateTime.now());
+    }
+
+    public void markFailed(String key) {
+        try {
+            taskExecutionRepository.finish(key, "FAILED", LocalDateTime.now());
+        } catch (Exception e) {
+            // A stale RUNNING claim is taken over anyway once its heartbeat stops
+            logger.warn("Failed to mark task {} as failed: {}", key, e.getMessage());
+        }
+    }
+
+    @Scheduled(cron = "0 30 3 * * *")
+    public void purgeFinishedExecutions() {
+        int deleted = taskExecutionRepository.deleteFinishedBefore(LocalDateTime.now().minusDays(retentionDays));
+        if (deleted > 0) {
+            logger.info("Purged {} finished task execution records", deleted);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package com.example.Scenith.sqs;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lifecycle of every task handled by {@link UnifiedTaskWorker} on this node, exported as
+ * Micrometer meters through the actuator:
+ *
+ * - scenith.tasks.queue.wait      timer   enqueue (SQS SentTimestamp) -> start of run, per task type
+ * - scenith.tasks.run             timer   start -> finish, per task type and outcome
+ * - scenith.tasks.finished        counter per task type and outcome (throughput / failure rate)
+ * - scenith.tasks.released        counter tasks handed back to the queue, per reason (contention)
+ * - scenith.tasks.active          gauge   tasks dispatched or running here, per task type
+ * - scenith.tasks.queue.depth     gauge   approximate visible / in-flight messages in SQS
+ * - scenith.processing.units.*    gauges  free and total units of the processing budget
+ */
+@Component
+public class TaskLifecycleRegistry {
+    private static final Logger logger = LoggerFactory.getLogger(TaskLifecycleRegistry.class);
+
+    public static final String OUTCOME_SUCCESS = "success";
+    public static final String OUTCOME_FAILURE = "failure";
+    public static final String OUTCOME_DUPLICATE = "duplicate";
+    public static final String OUTCOME_DISCARDED = "discarded";
+    public static final String OUTCOME_CANCELLED = "cancelled";
+    public static final String OUTCOME_DEFERRED = "deferred";
+
+    public static final String RELEASE_NO_CAPACITY = "no_capacity";
+    public static final String RELEASE_USER_CAP = "user_cap";
+
+    private static final String[] TASK_TYPES = {
+            "VIDEO_EXPORT", "PROCESS_SUBTITLES", "VIDEO_FILTER", "VIDEO_SPEED", "PODCAST_CLIP", "ASPECT_RATIO",
+            "PROXY_GENERATION", "FILMSTRIP_RENDER"
+    };
+
+    private final MeterRegistry meterRegistry;
+    private final SqsService sqsService;
+    private final Map<String, TaskRecord> activeTasks = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> activeByType = new ConcurrentHashMap<>();
+    private final AtomicLong visibleMessages = new AtomicLong();
+    private final AtomicLong inFlightMessages = new AtomicLong();
+
+    @Value("${sqs.queue.url}")
+    private String queueUrl;
+
+    public TaskLifecycleRegistry(MeterRegistry meterRegistry, SqsService sqsService, GlobalProcessingLock processingLock) {
+        this.meterRegistry = meterRegistry;
+        this.sqsService = sqsService;
+
+        for (String taskType : TASK_TYPES) {
+            activeCounter(taskType);
+        }
+        Gauge.builder("scenith.tasks.queue.depth", visibleMessages, AtomicLong::get)
+                .description("Approximate number of messages waiting in the task queue")
+                .tag("state", "visible")
+                .register(meterRegistry);
+        Gauge.builder("scenith.tasks.queue.depth", inFlightMessages, AtomicLong::get)
+                .description("Approximate number of messages received but not yet deleted")
+                .tag("state", "in_flight")
+                .register(meterRegistry);
+        Gauge.builder("scenith.processing.units.available", processingLock, GlobalProcessingLock::getAvailableUnits)
+                .description("Free units of this node's processing budget")
+                .register(meterRegistry);
+        Gauge.builder("scenith.processing.units.total", processingLock, GlobalProcessingLock::getTotalUnits)
+                .description("Total units of this node's processing budget")
+                .register(meterRegistry);
+    }
+
+    /**
+     * A task that has been dispatched to the worker pool on this node.
+     */
+    public static class TaskRecord {
+        private final String messageId;
+        private final String taskType;
+        private final Long userId;
+        private final long enqueuedAt;
+        private final long dequeuedAt;
+        private final long dispatchedAt;
+        private volatile long startedAt;
+
+        TaskRecord(String messageId, String taskType, Long userId, long enqueuedAt, long dequeuedAt) {
+            this.messageId = messageId;
+            this.taskType = taskType;
+            this.userId = userId;
+            this.enqueuedAt = enqueuedAt;
+            this.dequeuedAt = dequeuedAt;
+            this.dispatchedAt = System.currentTimeMillis();
+        }
+
+        public String getMessageId() {
+            return messageId;
+        }
+
+        public String getTaskType() {
+            return taskType;
+        }
+
+        public Long getUserId() {
+            return userId;
+        }
+
+        public long getEnqueuedAt() {
+            return enqueuedAt;
+        }
+
+        public long getDequeuedAt() {
+            return dequeuedAt;
+        }
+
+        public long getDispatchedAt() {
+            return dispatchedAt;
+        }
+
+        public long getStartedAt() {
+            return startedAt;
+        }
+    }
+
+    /**
+     * Task was handed to the worker pool with its processing units held.
+     */
+    public TaskRecord dispatched(String messageId, String taskType, Long userId, long enqueuedAt, long dequeuedAt) {
+        TaskRecord record = new TaskRecord(messageId, taskType, userId, enqueuedAt, dequeuedAt);
+        activeTasks.put(messageId, record);
+        activeCounter(taskType).incrementAndGet();
+        return record;
+    }
+
+    /**
+     * A worker thread picked the task up and is about to run it.
+     */
+    public void started(TaskRecord record) {
+        record.startedAt = System.currentTimeMillis();
+        Timer.builder("scenith.tasks.queue.wait")
+                .description("Time from enqueue to start of processing")
+                .tag("taskType", record.taskType)
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(Duration.ofMillis(Math.max(0, record.startedAt - record.enqueuedAt)));
+    }
+
+    public void finished(TaskRecord record, String outcome) {
+        if (activeTasks.remove(record.messageId) != null) {
+            activeCounter(record.taskType).decrementAndGet();
+        }
+        long end = System.currentTimeMillis();
+        if (record.startedAt > 0) {
+            Timer.builder("scenith.tasks.run")
+                    .description("Time spent processing a task")
+                    .tag("taskType", record.taskType)
+                    .tag("outcome", outcome)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry)
+                    .record(Duration.ofMillis(end - record.startedAt));
+        }
+        Counter.builder("scenith.tasks.finished")
+                .description("Tasks finished on this node")
+                .tag("taskType", record.taskType)
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    /**
+     * A received task was handed back to the queue instead of being started here.
+     */
+    public void released(String taskType, String reason) {
+        Counter.builder("scenith.tasks.released")
+                .description("Received tasks released back to the queue")
+                .tag("taskType", taskType)
+                .tag("reason", reason)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    public Collection<TaskRecord> getActiveTasks() {
+        return Collections.unmodifiableCollection(activeTasks.values());
+    }
+
+    /**
+     * Approximate number of messages waiting in the task queue, as of the last refresh.
+     */
+    public long getVisibleMessages() {
+        return visibleMessages.get();
+    }
+
+    @Scheduled(fixedDelay = 30000)
+    public void refreshQueueDepth() {
+        try {
+            Map<String, Long> depth = sqsService.getApproximateQueueDepth(queueUrl);
+            visibleMessages.set(depth.getOrDefault("visible", 0L));
+            inFlightMessages.set(depth.getOrDefault("inFlight", 0L));
+        } catch (Exception e) {
+            logger.debug("Failed to refresh queue depth: {}", e.getMessage());
+        }
+    }
+
+    private AtomicLong activeCounter(String taskType) {
+        return activeByType.computeIfAbsent(taskType, type -> {
+            AtomicLong counter = new AtomicLong();
+            Gauge.builder("scenith.tasks.active", counter, AtomicLong::get)
+                    .description("Tasks dispatched or running on this node")
+                    .tag("taskType", type)
+                    .register(meterRegistry);
+            return counter;
+        });
+    }
+}
@@ -4,17 +4,28 @@ import com.example.Scenith.service.*;
 import com.example.Scenith.service.imageService.ImageEditorService;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 import software.amazon.awssdk.services.sqs.model.Message;
 
 import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Component
 @RequiredArgsConstructor
@@ -31,110 +42,375 @@ public class UnifiedTaskWorker {
     private final PodcastClipService podcastClipService;
     private final AspectRatioService aspectRatioService;
     private final ObjectMapper objectMapper;
-    private final GlobalProcessingLock processingLock; // ← NEW
+    private final GlobalProcessingLock processingLock;
+    private final VisibilityHeartbeat visibilityHeartbeat;
+    private final TaskIdempotencyService idempotencyService;
+    private final FairTaskScheduler fairTaskScheduler;
+    private final TaskLifecycleRegistry taskRegistry;
+    private final TaskCancellationService cancellationService;
 
     @Value("${sqs.queue.url}")
     private String queueUrl;
 
+    // 0 = one worker per processing unit
+    @Value("${sqs.worker.threads:0}")
+    private int configuredWorkerThreads;
+
+    // Extra messages received beyond free capacity so the scheduler has a choice; requeued right away
+    @Value("${sqs.scheduler.lookahead:3}")
+    private int lookahead;
+
+    // Users at their in-flight cap get their tasks back after this delay instead of immediately
+    @Value("${sqs.scheduler.user-cap-backoff-seconds:15}")
+    private int userCapBackoffSeconds;
+
+    private ExecutorService workerPool;
+    private int workerThreads;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private Thread consumerThread;
+    private volatile boolean running;
+    private final Object capacityMonitor = new Object();
+
+    @PostConstruct
+    public void initWorkerPool() {
+        workerThreads = configuredWorkerThreads > 0 ? configuredWorkerThreads : processingLock.getTotalUnits();
+        AtomicInteger threadIndex = new AtomicInteger();
+        workerPool = Executors.newFixedThreadPool(workerThreads,
+                runnable -> new Thread(runnable, "Task-Worker-" + threadIndex.incrementAndGet()));
+
+        running = true;
+        consumerThread = new Thread(this::consumeLoop, "Sqs-Consumer");
+        consumerThread.setDaemon(true);
+        consumerThread.start();
+
+        logger.info("UnifiedTaskWorker started with {} worker threads over {} processing units",
+                workerThreads, processingLock.getTotalUnits());
+    }
+
+    @PreDestroy
+    public void shutdownWorkerPool() throws InterruptedException {
+        running = false;
+        consumerThread.interrupt();
+        workerPool.shutdown();
+        if (!workerPool.awaitTermination(60, TimeUnit.SECONDS)) {
+            // Unfinished messages become visible again and are retried
+            workerPool.shutdownNow();
+        }
+    }
+
     /**
-     * Polls SQS queue every 2 seconds and processes messages
-     * Fixed delay ensures one poll completes before next starts
+     * Long-polls the queue continuously on a dedicated thread.
+     * Only as many messages are received as can be started right now (idle workers and
+     * free processing units) plus a small lookahead for the {@link FairTaskScheduler} to
+     * choose from. Whatever is not started is requeued immediately as a fresh copy, so work is
+     * never held invisible on a busy node while idle nodes could run it, and being passed over
+     * does not raise its receive count towards the redrive policy.
      */
-    @Scheduled(fixedDelay = 2000)
-    public void processQueue() {
-        try {
-            // Receive up to 5 messages at once for better throughput
-            List<Message> messages = sqsService.receiveMessages(queueUrl, 5);
+    private void consumeLoop() {
+        while (running) {
+            try {
+                int capacity = awaitCapacity();
+                if (capacity <= 0) {
+                    continue;
+                }
+
+                // SQS returns at most 10 messages per receive; the receive long-polls for 20 seconds
+                List<Message> messages = sqsService.receiveMessages(queueUrl, Math.min(capacity + lookahead, 10));
+
+                if (messages.isEmpty()) {
+                    logger.debug("No messages in queue");
+                    continue;
+                }
+
+                logger.info("Received {} messages from queue", messages.size());
+
+                List<FairTaskScheduler.Candidate> candidates = new ArrayList<>();
+                for (Message message : messages) {
+                    FairTaskScheduler.Candidate candidate = parse(message);
+                    if (candidate != null) {
+                        candidates.add(candidate);
+                    }
+                }
+
+                FairTaskScheduler.Plan plan = fairTaskScheduler.plan(candidates);
+                for (FairTaskScheduler.Candidate deferred : plan.deferred()) {
+                    taskRegistry.released(deferred.taskType, TaskLifecycleRegistry.RELEASE_USER_CAP);
+                    deferToQueue(deferred.message, deferred.taskType);
+                }
 
-            if (messages.isEmpty()) {
-                logger.debug("No messages in queue");
-                return;
+                // Start in scheduler order; a task that cannot start reserves its units in the
+                // processing budget, so later (smaller) candidates cannot overtake it
+                for (FairTaskScheduler.Candidate candidate : plan.ordered()) {
+                    if (!dispatch(candidate)) {
+                        taskRegistry.released(candidate.taskType, TaskLifecycleRegistry.RELEASE_NO_CAPACITY);
+                        releaseToQueue(candidate.message, candidate.taskType);
+                    }
+                }
+            } catch (Exception e) {
+                if (!running) {
+                    break;
+                }
+                logger.error("Error polling queue: {}", e.getMessage(), e);
+                sleepQuietly(5000);
+            }
+        }
+        logger.info("SQS consumer stopped");
+    }
+
+    /**
+     * Blocks until at least one task could start, returning how many messages to receive.
+     */
+    private int awaitCapacity() throws InterruptedException {
+        synchronized (capacityMonitor) {
+            int capacity = currentCapacity();
+            if (capacity <= 0) {
+                // Woken when a task finishes; the timeout only guards against a missed signal
+                capacityMonitor.wait(5000);
+                capacity = currentCapacity();
             }
+            return capacity;
+        }
+    }
+
+    private int currentCapacity() {
+        int idleWorkers = workerThreads - inFlight.get();
+        int freeUnits = processingLock.getAvailableUnits();
+        // While units are reserved for a heavy task, only poll once it could start
+        int demand = Math.max(1, processingLock.getReservedUnits());
+        if (idleWorkers <= 0 || freeUnits < demand) {
+            return 0;
+        }
+        // Every task costs at least one unit
+        return Math.min(idleWorkers, freeUnits);
+    }
+
+    /**
+     * Parse a received message, deleting it if it can never be routed.
+     */
+    private FairTaskScheduler.Candidate parse(Message message) {
+        String taskId = message.messageId();
+        Map<String, Object> taskDetails;
+        String taskType;
+        try {
+            taskDetails = objectMapper.readValue(message.body(), new TypeReference<Map<String, Object>>() {});
+            taskType = (String) taskDetails.get("taskType");
+        } catch (Exception e) {
+            logger.error("Unparseable message, deleting: messageId={}, error={}", taskId, e.getMessage());
+            sqsService.deleteMessage(message.receiptHandle(), queueUrl);
+            return null;
+        }
+
+        if (taskType == null || taskType.isEmpty()) {
+            logger.error("Message missing taskType, deleting: messageId={}", taskId);
+            sqsService.deleteMessage(message.receiptHandle(), queueUrl);
+            return null;
+        }
+        return fairTaskScheduler.candidate(message, taskType, taskDetails);
+    }
 
-            logger.info("Received {} messages from queue", messages.size());
+    /**
+     * Start a task on the pool if a worker and its units are free right now.
+     *
+     * @return false if the task cannot start and should go back to the queue
+     */
+    private boolean dispatch(FairTaskScheduler.Candidate candidate) {
+        Message message = candidate.message;
+        String taskType = candidate.taskType;
+        String taskId = message.messageId();
 
-            for (Message message : messages) {
-                processMessage(message);
+        if (inFlight.get() >= workerThreads || !processingLock.tryAcquireNow(taskType, taskId)) {
+            return false;
+        }
+        fairTaskScheduler.started(candidate);
+
+        inFlight.incrementAndGet();
+        // Keep the message invisible from the moment it is queued locally
+        VisibilityHeartbeat.Lease lease = visibilityHeartbeat.start(message, queueUrl);
+        TaskLifecycleRegistry.TaskRecord record = taskRegistry.dispatched(
+                taskId, taskType, candidate.userId, candidate.sentAtMillis, candidate.receivedAtMillis);
+        // Released once: by a cancellation as soon as it kills the task, otherwise when the task returns
+        AtomicBoolean unitsReleased = new AtomicBoolean();
+        Runnable releaseUnits = () -> {
+            if (unitsReleased.compareAndSet(false, true)) {
+                processingLock.releaseLock(taskType, taskId);
+                synchronized (capacityMonitor) {
+                    capacityMonitor.notifyAll();
+                }
             }
+        };
+        try {
+            workerPool.execute(() -> {
+                String outcome = TaskLifecycleRegistry.OUTCOME_FAILURE;
+                try {
+                    outcome = processMessage(message, taskType, candidate.taskDetails, candidate.userId,
+                            candidate.sentAtMillis, lease, record, releaseUnits);
+                } finally {
+                    taskRegistry.finished(record, outcome);
+                    lease.stop();
+                    inFlight.decrementAndGet();
+                    // ALWAYS release units, even if processing failed
+                    releaseUnits.run();
+                    synchronized (capacityMonitor) {
+                        capacityMonitor.notifyAll();
+                    }
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            taskRegistry.finished(record, TaskLifecycleRegistry.OUTCOME_DISCARDED);
+            lease.stop();
+            releaseUnits.run();
+            inFlight.decrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * Hand a task that cannot start here now back to the queue, visible at once, as a fresh copy
+     * so the lookahead does not count as a receive.
+     */
+    private void releaseToQueue(Message message, String taskType) {
+        logger.info("Not starting task now: type={}, messageId={} - releasing to queue", taskType, message.messageId());
+        try {
+            sqsService.requeue(message, queueUrl, 0);
         } catch (Exception e) {
-            logger.error("Error polling queue: {}", e.getMessage(), e);
+            // Falls back to the receive visibility timeout
+            logger.warn("Failed to release message {}: {}", message.messageId(), e.getMessage());
+        }
+    }
+
+    /**
+     * Hand a task of a user at the in-flight cap back for later, as a delayed copy so the
+     * deferral does not count as a receive.
+     */
+    private void deferToQueue(Message message, String taskType) {
+        logger.info("User at in-flight cap: type={}, messageId={} - deferring {}s", taskType, message.messageId(), userCapBackoffSeconds);
+        try {
+            sqsService.requeue(message, queueUrl, userCapBackoffSeconds);
+        } catch (Exception e) {
+            // Falls back to the receive visibility timeout
+            logger.warn("Failed to defer message {}: {}", message.messageId(), e.getMessage());
+        }
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
     /**
-     * Process individual message and route to appropriate service
+     * Process individual message and route to appropriate service.
+     * The task's processing units are already held by the caller.
+     *
+     * @return outcome recorded in the {@link TaskLifecycleRegistry}
      */
-    private void processMessage(Message message) {
-        String taskType = "UNKNOWN";
+    private String processMessage(Message message, String taskType, Map<String, Object> taskDetails,
+                                  Long userId, long sentAtMillis, VisibilityHeartbeat.Lease lease,
+                                  TaskLifecycleRegistry.TaskRecord record, Runnable releaseUnits) {
         String taskId = message.messageId();
+        String idempotencyKey = null;
+        String jobKey = TaskCancellationService.jobKey(taskType, taskDetails);
 
         try {
-            // Check retry count to prevent infinite loops
-            String receiveCountStr = message.attributesAsStrings()
-                    .getOrDefault("ApproximateReceiveCount", "1");
-            int receiveCount = Integer.parseInt(receiveCountStr);
-
-            if (receiveCount > MAX_RETRIES) {
-                logger.error("Message {} exceeded max retries ({}), deleting",
-                        taskId, MAX_RETRIES);
+            // Informational only: a requeued copy starts again at 1. Attempts that actually ran
+            // are counted by the idempotency claim (MAX_RETRIES)
+            String receiveCount = message.attributesAsStrings().getOrDefault("ApproximateReceiveCount", "1");
+
+            if (cancellationService.isCancelled(jobKey, record.getEnqueuedAt())) {
+                logger.info("Task was cancelled before it started, deleting: type={}, messageId={}, job={}",
+                        taskType, taskId, jobKey);
                 sqsService.deleteMessage(message.receiptHandle(), queueUrl);
-                return;
+                return TaskLifecycleRegistry.OUTCOME_CANCELLED;
             }
 
-            // Parse message body
-            Map<String, Object> taskDetails = objectMapper.readValue(
-                    message.body(),
-                    new TypeReference<Map<String, Object>>() {}
-            );
-
-            taskType = (String) taskDetails.get("taskType");
-
-            if (taskType == null || taskType.isEmpty()) {
-                logger.error("Message missing taskType, deleting: messageId={}", taskId);
+            // Claim the task before running it, so a duplicate cannot start it meanwhile
+            String key = idempotencyService.resolveKey(message);
+            TaskIdempotencyService.ClaimResult claim = idempotencyService.claim(key, taskType, userId, MAX_RETRIES,
+                    LocalDateTime.ofInstant(Instant.ofEpochMilli(sentAtMillis), ZoneId.systemDefault()),
+                    fairTaskScheduler.getMaxInFlightPerUser());
+            if (claim == TaskIdempotencyService.ClaimResult.USER_AT_CAP) {
+                // Another node admitted this user's task since the batch was planned
+                taskRegistry.released(taskType, TaskLifecycleRegistry.RELEASE_USER_CAP);
+                deferToQueue(message, taskType);
+                return TaskLifecycleRegistry.OUTCOME_DEFERRED;
+            }
+            if (claim == TaskIdempotencyService.ClaimResult.ALREADY_COMPLETED) {
+                logger.info("Task already completed, deleting duplicate: type={}, messageId={}, key={}",
+                        taskType, taskId, key);
+                sqsService.deleteMessage(message.receiptHandle(), queueUrl);
+                return TaskLifecycleRegistry.OUTCOME_DUPLICATE;
+            }
+            if (claim == TaskIdempotencyService.ClaimResult.EXHAUSTED) {
+                logger.error("Task {} exceeded max retries ({}), deleting: type={}, key={}",
+                        taskId, MAX_RETRIES, taskType, key);
                 sqsService.deleteMessage(message.receiptHandle(), queueUrl);
-                return;
+                return TaskLifecycleRegistry.OUTCOME_DISCARDED;
+            }
+            if (claim == TaskIdempotencyService.ClaimResult.RUNNING_ELSEWHERE) {
+                logger.info("Task is running on another node, skipping: type={}, messageId={}, key={}",
+                        taskType, taskId, key);
+                return TaskLifecycleRegistry.OUTCOME_DUPLICATE;
             }
+            idempotencyKey = key;
+            lease.onBeat(() -> idempotencyService.heartbeat(key));
 
-            logger.info("Processing task: type={}, messageId={}, attempt={}",
+            logger.info("Processing task: type={}, messageId={}, receiveCount={}",
                     taskType, taskId, receiveCount);
 
-            // ==================== CRITICAL CHANGE ====================
-            // Acquire global processing lock BEFORE executing heavy task
-            // This ensures only ONE heavy job runs at a time
-            // =========================================================
+            taskRegistry.started(record);
 
-            boolean lockAcquired = processingLock.acquireLock(taskType, taskId);
+            // Route to appropriate service based on task type
+            boolean processed = false;
+            RuntimeException failure = null;
+            TaskCancellationService.RunningJob run = jobKey != null
+                    ? cancellationService.register(jobKey, record.getEnqueuedAt(), releaseUnits)
+                    : null;
+            try {
+                processed = routeTask(taskType, taskDetails);
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+            boolean cancelled = run != null && cancellationService.unregister(run);
 
-            if (!lockAcquired) {
-                logger.error("Failed to acquire processing lock for task: type={}, messageId={}",
-                        taskType, taskId);
-                // Don't delete - let it retry
-                return;
+            if (cancelled) {
+                // Not retried: the user asked for the work to stop
+                idempotencyService.markCompleted(idempotencyKey);
+                sqsService.deleteMessage(message.receiptHandle(), queueUrl);
+                logger.info("Task cancelled: type={}, messageId={}", taskType, taskId);
+                return TaskLifecycleRegistry.OUTCOME_CANCELLED;
+            }
+            if (failure != null) {
+                throw failure;
             }
 
-            try {
-                // Route to appropriate service based on task type
-                boolean processed = routeTask(taskType, taskDetails);
-
-                if (processed) {
-                    // Delete message only after successful processing
-                    sqsService.deleteMessage(message.receiptHandle(), queueUrl);
-                    logger.info("✓ Successfully completed task: type={}, messageId={}",
-                            taskType, taskId);
-                } else {
-                    logger.warn("Task type not recognized: {}", taskType);
-                    sqsService.deleteMessage(message.receiptHandle(), queueUrl);
-                }
-            } finally {
-                // ALWAYS release lock, even if processing failed
-                processingLock.releaseLock(taskType, taskId);
+            if (processed) {
+                // Record completion first, so a redelivery is dropped even if the delete fails
+                idempotencyService.markCompleted(idempotencyKey);
+                // Delete message only after successful processing
+                sqsService.deleteMessage(message.receiptHandle(), queueUrl);
+                logger.info("✓ Successfully completed task: type={}, messageId={}",
+                        taskType, taskId);
+                return TaskLifecycleRegistry.OUTCOME_SUCCESS;
+            } else {
+                logger.warn("Task type not recognized: {}", taskType);
+                idempotencyService.markFailed(idempotencyKey);
+                sqsService.deleteMessage(message.receiptHandle(), queueUrl);
+                return TaskLifecycleRegistry.OUTCOME_DISCARDED;
             }
 
         } catch (Exception e) {
             logger.error("✗ Failed to process message: type={}, messageId={}, error={}",
                     taskType, taskId, e.getMessage(), e);
-            // Message will be retried (visibility timeout expires and it becomes visible again)
-            // After MAX_RETRIES, it will be deleted or sent to DLQ if configured
+            if (idempotencyKey != null) {
+                idempotencyService.markFailed(idempotencyKey);
+            }
+            // Message will be retried (visibility timeout expires and it becomes visible again);
+            // the claim deletes it once MAX_RETRIES attempts have failed
+            return TaskLifecycleRegistry.OUTCOME_FAILURE;
         }
     }
 
@@ -0,0 +1,114 @@
+package com.example.Scenith.sqs;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.services.sqs.model.Message;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps received SQS messages invisible while their task is queued locally or running.
+ *
+ * The receive call only hides a message for 300 seconds, but exports and subtitle renders
+ * run longer and a message may wait up to 30 minutes for processing units. Without this the
+ * message reappears and another poll (on this or another node) starts the same job again.
+ * Every interval the visibility is pushed out again by the configured extension, until the
+ * lease is stopped after the message is deleted or the task gives up.
+ */
+@Component
+public class VisibilityHeartbeat {
+    private static final Logger logger = LoggerFactory.getLogger(VisibilityHeartbeat.class);
+
+    private final SqsService sqsService;
+    private final ScheduledExecutorService scheduler;
+
+    @Value("${sqs.heartbeat.interval-seconds:60}")
+    private int intervalSeconds;
+
+    @Value("${sqs.heartbeat.extension-seconds:300}")
+    private int extensionSeconds;
+
+    public VisibilityHeartbeat(SqsService sqsService,
+                               @Value("${sqs.heartbeat.threads:1}") int threads) {
+        this.sqsService = sqsService;
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.scheduler = Executors.newScheduledThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "Sqs-Heartbeat-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Start extending the message's visibility. The returned lease must be stopped
+     * once the message is deleted or handed back to the queue.
+     */
+    public Lease start(Message message, String queueUrl) {
+        Lease lease = new Lease(message.messageId(), message.receiptHandle(), queueUrl);
+        lease.future = scheduler.scheduleWithFixedDelay(lease::beat, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+        return lease;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // Messages still held become visible again once their current extension runs out
+        scheduler.shutdownNow();
+    }
+
+    public class Lease {
+        private final String messageId;
+        private final String receiptHandle;
+        private final String queueUrl;
+        private volatile ScheduledFuture<?> future;
+        private volatile Runnable onBeat;
+        private volatile boolean stopped;
+
+        private Lease(String messageId, String receiptHandle, String queueUrl) {
+            this.messageId = messageId;
+            this.receiptHandle = receiptHandle;
+            this.queueUrl = queueUrl;
+        }
+
+        /**
+         * Extra work to run on every beat, e.g. refreshing the task's idempotency claim.
+         */
+        public void onBeat(Runnable onBeat) {
+            this.onBeat = onBeat;
+        }
+
+        public void stop() {
+            stopped = true;
+            if (future != null) {
+                future.cancel(false);
+            }
+        }
+
+        private void beat() {
+            if (stopped) {
+                return;
+            }
+            try {
+                sqsService.changeMessageVisibility(receiptHandle, queueUrl, extensionSeconds);
+                logger.debug("Extended visibility of message {} by {}s", messageId, extensionSeconds);
+            } catch (Exception e) {
+                // Receipt handle expired or message already deleted; nothing left to keep alive
+                logger.warn("Visibility heartbeat failed for message {}: {}", messageId, e.getMessage());
+            }
+            Runnable callback = onBeat;
+            if (callback != null) {
+                try {
+                    callback.run();
+                } catch (Exception e) {
+                    logger.warn("Heartbeat callback failed for message {}: {}", messageId, e.getMessage());
+                }
+            }
+        }
+    }
+}
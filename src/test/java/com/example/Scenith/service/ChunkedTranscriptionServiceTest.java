@@ -0,0 +1,122 @@
+package com.example.Scenith.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChunkedTranscriptionServiceTest {
+
+    private static final double EPSILON = 1e-9;
+
+    private ChunkedTranscriptionService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new ChunkedTranscriptionService(null, null);
+        ReflectionTestUtils.setField(service, "targetSeconds", 120.0);
+        ReflectionTestUtils.setField(service, "maxSeconds", 180.0);
+        ReflectionTestUtils.setField(service, "overlapSeconds", 1.5);
+    }
+
+    @Test
+    void cutsInTheMiddleOfAPauseWithoutOverlap() {
+        List<ChunkedTranscriptionService.Chunk> chunks = service.planChunks(300,
+                List.of(new ChunkedTranscriptionService.Silence(119.8, 120.2)));
+
+        assertEquals(2, chunks.size());
+        assertChunk(chunks.get(0), 0, 120, 0, 120);
+        assertChunk(chunks.get(1), 120, 300, 120, 300);
+    }
+
+    @Test
+    void segmentOnAPauseCutBelongsToTheChunkHoldingItsMidpoint() {
+        List<ChunkedTranscriptionService.Chunk> chunks = service.planChunks(300,
+                List.of(new ChunkedTranscriptionService.Silence(119.8, 120.2)));
+
+        // Both chunks heard the word spanning the cut; its midpoint (120.1) is in the second chunk
+        List<Map<String, Object>> stitched = service.stitch(chunks, List.of(
+                List.of(segment(100, 110, "before"), segment(119.6, 120.6, "edge")),
+                List.of(segment(-0.4, 0.6, "edge"), segment(10, 12, "after"))));
+
+        assertEquals(List.of("before", "edge", "after"), texts(stitched));
+        assertEquals(119.6, start(stitched.get(1)), EPSILON);
+    }
+
+    @Test
+    void hardCutsWithOverlapWhenThereAreNoPauses() {
+        List<ChunkedTranscriptionService.Chunk> chunks = service.planChunks(400, List.of());
+
+        assertEquals(3, chunks.size());
+        assertChunk(chunks.get(0), 0, 180, 0, 181.5);
+        assertChunk(chunks.get(1), 180, 360, 178.5, 361.5);
+        assertChunk(chunks.get(2), 360, 400, 358.5, 400);
+    }
+
+    @Test
+    void dropsTextRepeatedAcrossTheOverlap() {
+        List<ChunkedTranscriptionService.Chunk> chunks = service.planChunks(300, List.of());
+
+        // The second chunk starts 1.5 s early and hears the same line again, its midpoint past the cut
+        List<Map<String, Object>> stitched = service.stitch(chunks, List.of(
+                List.of(segment(170, 175, "Hello there."), segment(178, 181.4, "And that's it.")),
+                List.of(segment(0.5, 3.5, "and that's it"), segment(5, 8, "Next topic."))));
+
+        assertEquals(List.of("Hello there.", "And that's it.", "Next topic."), texts(stitched));
+        assertEquals(183.5, start(stitched.get(2)), EPSILON);
+    }
+
+    @Test
+    void outOfOrderChunkCompletionKeepsTimelineOrderAndProgressMonotonic() {
+        List<ChunkedTranscriptionService.Chunk> chunks = service.planChunks(400, List.of());
+        ChunkedTranscriptionService.Progress progress = new ChunkedTranscriptionService.Progress(chunks.size());
+
+        // The last chunk finishes first, then the first one reports part-way
+        double afterLast = progress.complete(chunks.get(2));
+        double afterFirstPartial = progress.advance(chunks.get(0), 90);
+        double afterMiddle = progress.complete(chunks.get(1));
+        double afterFirst = progress.complete(chunks.get(0));
+
+        assertEquals(40, afterLast, EPSILON);
+        assertEquals(130, afterFirstPartial, EPSILON);
+        assertEquals(310, afterMiddle, EPSILON);
+        assertEquals(400, afterFirst, EPSILON);
+        // A segment reported late, behind what the chunk already covered, does not move it back
+        assertEquals(400, progress.advance(chunks.get(0), 20), EPSILON);
+
+        List<Map<String, Object>> stitched = service.stitch(chunks, List.of(
+                List.of(segment(50, 52, "one")),
+                List.of(segment(30, 32, "three"), segment(10, 12, "two")),
+                List.of(segment(20, 22, "four"))));
+
+        assertEquals(List.of("one", "two", "three", "four"), texts(stitched));
+        for (int i = 1; i < stitched.size(); i++) {
+            assertTrue(start(stitched.get(i - 1)) <= start(stitched.get(i)));
+        }
+    }
+
+    private static void assertChunk(ChunkedTranscriptionService.Chunk chunk,
+                                    double start, double end, double cutStart, double cutEnd) {
+        assertEquals(start, chunk.start(), EPSILON);
+        assertEquals(end, chunk.end(), EPSILON);
+        assertEquals(cutStart, chunk.cutStart(), EPSILON);
+        assertEquals(cutEnd, chunk.cutEnd(), EPSILON);
+    }
+
+    private static Map<String, Object> segment(double start, double end, String text) {
+        return Map.of("start", start, "end", end, "text", text);
+    }
+
+    private static List<String> texts(List<Map<String, Object>> segments) {
+        return segments.stream().map(segment -> (String) segment.get("text")).toList();
+    }
+
+    private static double start(Map<String, Object> segment) {
+        return ((Number) segment.get("start")).doubleValue();
+    }
+}